@@ -14,8 +14,11 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.List;
+
 /*
  * As in this assignment, we are working with creating RESTful web service, hence annotate
  * the class with @RestController annotation.A class annotated with @Controller annotation
@@ -172,4 +175,18 @@ public class CategoryController {
 		}
 	}
 
+	/*
+	 * Define a handler method which will get us the categories with the given ids in
+	 * one call. Ids which are not found are left out of the list.
+	 *
+	 * This handler method should return 200(OK) with the categories found.
+	 *
+	 * This handler method should map to the URL "/api/v1/category?ids={id},{id}" using HTTP GET method
+	 */
+	@RequestMapping(value = "/api/v1/category", method = RequestMethod.GET, params = "ids")
+	public ResponseEntity<List<Category>> getCategoriesByIds(@RequestParam("ids") final List<String> ids)
+	{
+		return new ResponseEntity<List<Category>>(categoryService.getCategoriesByIds(ids), HttpStatus.OK);
+	}
+
 }
@@ -1,8 +1,10 @@
 package com.stackroute.keepnote.repository;
 
 import java.util.List;
+import java.util.Optional;
 
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
 import com.stackroute.keepnote.model.Category;
 
@@ -21,8 +23,16 @@ public interface CategoryRepository extends MongoRepository<Category, String> {
 
 	/*
 	 * This method will search for all categories in data source which are created
-	 * by specific user.
+	 * by specific user. Categories deleted but not yet relayed by CategoryOutbox are
+	 * left out, here and in the finders below.
 	 *
 	 */
+	@Query("{ 'categoryCreatedBy': ?0, 'outbox.deleted': { $ne: true } }")
 	List<Category> findAllCategoryByCategoryCreatedBy(String createdBy);
+
+	@Query("{ '_id': ?0, 'outbox.deleted': { $ne: true } }")
+	Optional<Category> findExistingById(String categoryId);
+
+	@Query("{ '_id': { $in: ?0 }, 'outbox.deleted': { $ne: true } }")
+	List<Category> findAllExistingById(List<String> categoryIds);
 }
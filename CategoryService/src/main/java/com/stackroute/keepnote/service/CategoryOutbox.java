@@ -0,0 +1,185 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.model.Category;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+
+/*
+ * Outbox of category changes for NoteService, whose outbox worker copies them into the
+ * notes referencing the category. An update or delete records the change in the
+ * category document itself, with the same update: outbox.seq is incremented and
+ * outbox.pending set, a deleted category is only marked outbox.deleted. So a crash
+ * after the write delays the change but never loses it.
+ *
+ * The pending change is then relayed into the "noteOutbox" collection shared with
+ * NoteService, as one entry per category in the layout of NoteService's
+ * NoteOutboxEntry, the category stored under the field names of the copy embedded in
+ * notes. The entry only ever moves to a higher seq, so a late relay never overwrites
+ * a newer change. Categories still pending are relayed again every
+ * keepnote.category.outbox.relay-interval-ms, a deleted category is removed once its
+ * delete is relayed.
+ */
+@Component
+public class CategoryOutbox {
+
+	static final String COLLECTION = "noteOutbox";
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private MongoOperations mongoOperations;
+
+	public CategoryOutbox(MongoOperations mongoOperations) {
+		this.mongoOperations = mongoOperations;
+	}
+
+	/*
+	 * Updates the name and description of the category and records the change.
+	 * Returns the updated category, null if it does not exist.
+	 */
+	public Category update(final Category category)
+	{
+		Update update = pending(new Update()
+				.set("categoryName", category.getCategoryName())
+				.set("categoryDescription", category.getCategoryDescription()));
+
+		Category updated = mongoOperations.findAndModify(existing(category.getId()), update,
+				FindAndModifyOptions.options().returnNew(true), Category.class);
+
+		if (updated != null)
+		{
+			relay(category.getId());
+		}
+		return updated;
+	}
+
+	/*
+	 * Marks the category deleted and records the change. Returns false if it does not
+	 * exist.
+	 */
+	public boolean delete(final String categoryId)
+	{
+		Update update = pending(new Update().set("outbox.deleted", true));
+
+		if (mongoOperations.updateFirst(existing(categoryId), update, Category.class).getModifiedCount() == 0)
+		{
+			return false;
+		}
+		relay(categoryId);
+		return true;
+	}
+
+	/*
+	 * Relays the changes left pending by a failed relay or a crash, returns the number
+	 * relayed.
+	 */
+	@Scheduled(fixedDelayString = "${keepnote.category.outbox.relay-interval-ms:5000}")
+	public int relayPending()
+	{
+		Query query = Query.query(Criteria.where("outbox.pending").is(true));
+		query.fields().include("_id");
+
+		int relayed = 0;
+		for (Document category : mongoOperations.find(query, Document.class, mongoOperations.getCollectionName(Category.class)))
+		{
+			if (relay(category.get("_id").toString()))
+			{
+				relayed++;
+			}
+		}
+		return relayed;
+	}
+
+	/*
+	 * Copies the pending change of the category into its outbox entry and clears it
+	 * from the category, unless the category changed again meanwhile. Returns false if
+	 * nothing was pending or the relay failed, which is left to relayPending.
+	 */
+	boolean relay(final String categoryId)
+	{
+		String collectionName = mongoOperations.getCollectionName(Category.class);
+
+		try
+		{
+			Document category = mongoOperations.findById(categoryId, Document.class, collectionName);
+			Document outbox = category != null ? category.get("outbox", Document.class) : null;
+
+			if (outbox == null || !Boolean.TRUE.equals(outbox.get("pending")))
+			{
+				return false;
+			}
+
+			long seq = ((Number) outbox.get("seq")).longValue();
+			boolean deleted = Boolean.TRUE.equals(outbox.get("deleted"));
+
+			Update entry = new Update()
+					.set("type", deleted ? "CATEGORY_DELETED" : "CATEGORY_UPDATED")
+					.set("entityId", categoryId)
+					.set("seq", seq)
+					.set("createdDate", new Date())
+					.set("attempts", 0)
+					.unset("appliedDate").unset("failedDate").unset("nextAttemptDate").unset("lastError");
+
+			if (deleted)
+			{
+				entry.unset("category");
+			}
+			else
+			{
+				entry.set("category", new Document("categoryId", categoryId)
+						.append("categoryName", category.get("categoryName"))
+						.append("categoryDescription", category.get("categoryDescription"))
+						.append("categoryCreatedBy", category.get("categoryCreatedBy"))
+						.append("categoryCreationDate", category.get("categoryCreationDate")));
+			}
+
+			try
+			{
+				mongoOperations.upsert(Query.query(Criteria.where("_id").is("CATEGORY:" + categoryId).and("seq").lt(seq)),
+						entry, COLLECTION);
+			}
+			catch (DuplicateKeyException exception)
+			{
+				// the entry holds this or a later change already
+			}
+
+			Query relayed = Query.query(Criteria.where("_id").is(categoryId).and("outbox.seq").is(seq));
+			if (deleted)
+			{
+				mongoOperations.remove(relayed, collectionName);
+			}
+			else
+			{
+				mongoOperations.updateFirst(relayed, new Update().unset("outbox.pending"), collectionName);
+			}
+			return true;
+		}
+		catch (RuntimeException exception)
+		{
+			LOG.warn("Change of category " + categoryId + " not relayed, left to the next run: " + exception.getMessage());
+			return false;
+		}
+	}
+
+	private static Query existing(final String categoryId)
+	{
+		return Query.query(Criteria.where("_id").is(categoryId).and("outbox.deleted").ne(true));
+	}
+
+	private static Update pending(final Update update)
+	{
+		return update.inc("outbox.seq", 1).set("outbox.pending", true);
+	}
+}
@@ -23,4 +23,6 @@ public interface CategoryService {
 
     List<Category> getAllCategoryByUserId(String userId);
 
+    List<Category> getCategoriesByIds(List<String> categoryIds);
+
 }
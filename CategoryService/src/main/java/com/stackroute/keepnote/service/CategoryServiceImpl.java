@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
@@ -36,8 +37,16 @@ public class CategoryServiceImpl implements CategoryService {
 	@Autowired
 	private CategoryRepository categoryRepository;
 
-	public CategoryServiceImpl(CategoryRepository categoryRepository) {
+	/*
+	 * Writes updates and deletes together with the change recorded for NoteService,
+	 * which updates the copies of the category embedded in notes.
+	 */
+	@Autowired
+	private CategoryOutbox categoryOutbox;
+
+	public CategoryServiceImpl(CategoryRepository categoryRepository, CategoryOutbox categoryOutbox) {
 		this.categoryRepository = categoryRepository;
+		this.categoryOutbox = categoryOutbox;
 	}
 
 	/*
@@ -65,15 +74,11 @@ public class CategoryServiceImpl implements CategoryService {
      */
 	public boolean deleteCategory(final String categoryId) throws CategoryDoesNoteExistsException {
 
-		boolean isDeleted = false;
-
-		categoryRepository.deleteById(categoryId);
-
-		Optional<Category> category = categoryRepository.findById(categoryId);
+		boolean isDeleted = categoryOutbox.delete(categoryId);
 
-		if(category.get() != null)
+		if (!isDeleted)
 		{
-			isDeleted = true;
+			LOG.info("Requested Category not deleted " + categoryId);
 		}
 
 		return isDeleted;
@@ -85,20 +90,9 @@ public class CategoryServiceImpl implements CategoryService {
      */
 	public Category updateCategory(final Category category, final String categoryId) {
 
-		Optional<Category> options = categoryRepository.findById(category.getId());
-
-		if(options.get() != null)
-		{
-			categoryRepository.insert(category);
-
-			Optional<Category> cat =  categoryRepository.findById(categoryId);
+		category.setId(categoryId);
 
-			return cat.get();
-		}
-		else
-		{
-			return null;
-		}
+		return categoryOutbox.update(category);
 	}
 
 	/*
@@ -114,14 +108,14 @@ public class CategoryServiceImpl implements CategoryService {
 
 		try
 		{
-			cat = categoryRepository.findById(categoryId);
+			cat = categoryRepository.findExistingById(categoryId);
 		}
 		catch(NoSuchElementException exception)
 		{
 			throw new CategoryNotFoundException("Requested Category Not found "+categoryId);
 		}
 
-		if (cat.get() != null)
+		if (cat.isPresent())
 		{
 			return cat.get();
 		}
@@ -140,4 +134,18 @@ public class CategoryServiceImpl implements CategoryService {
 		return categoryRepository.findAllCategoryByCategoryCreatedBy(userId);
 	}
 
+	/*
+	 * This method should be used to get the categories with the given ids with a
+	 * single query, for NoteService resolving the categories referenced by notes. Ids
+	 * which do not exist are left out.
+	 */
+	public List<Category> getCategoriesByIds(final List<String> categoryIds) {
+
+		List<Category> categories = new ArrayList<>();
+
+		categories.addAll(categoryRepository.findAllExistingById(categoryIds));
+
+		return categories;
+	}
+
 }
@@ -26,6 +26,7 @@ import org.springframework.test.web.servlet.result.MockMvcResultHandlers;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -141,6 +142,15 @@ public class CategoryControllerTest {
                 .andExpect(MockMvcResultMatchers.status().isNotFound());
     }
 
+    @Test
+    public void getCategoriesByIdsSuccess() throws Exception {
+        when(categoryService.getCategoriesByIds(Arrays.asList("5b04f7411764e3765c35f8f6", "missing"))).thenReturn(allCategories);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/category?ids=5b04f7411764e3765c35f8f6,missing")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].id").value("5b04f7411764e3765c35f8f6"));
+    }
+
 
 
     private static String asJsonString(final Object obj) {
@@ -2,6 +2,8 @@ package com.stackroute.keepnote.test.repository;
 
 import com.stackroute.keepnote.model.Category;
 import com.stackroute.keepnote.repository.CategoryRepository;
+import com.stackroute.keepnote.service.CategoryOutbox;
+import org.bson.Document;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -9,8 +11,13 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -21,6 +28,8 @@ public class CategoryRepositoryTest {
 
     @Autowired
     private CategoryRepository categoryRepository;
+    @Autowired
+    private MongoOperations mongoOperations;
     private Category category;
 
     @Before
@@ -37,6 +46,7 @@ public class CategoryRepositoryTest {
     public void tearDown() throws Exception {
 
         categoryRepository.deleteAll();
+        mongoOperations.dropCollection("noteOutbox");
     }
 
     @Test
@@ -99,4 +109,49 @@ public class CategoryRepositoryTest {
 
 
     }
+
+    @Test
+    public void outboxTest() {
+
+        CategoryOutbox categoryOutbox = new CategoryOutbox(mongoOperations);
+        categoryRepository.insert(category);
+
+        category.setCategoryName("Sports-Category");
+        Assert.assertEquals("Sports-Category", categoryOutbox.update(category).getCategoryName());
+        Document entry = outboxEntry();
+        Assert.assertEquals("CATEGORY_UPDATED", entry.get("type"));
+        Assert.assertEquals(1L, ((Number) entry.get("seq")).longValue());
+        Assert.assertEquals("Sports-Category", entry.get("category", Document.class).get("categoryName"));
+        Assert.assertEquals(0, categoryOutbox.relayPending());
+
+        // a change whose relay did not happen is relayed by the next run, with its own seq
+        mongoOperations.updateFirst(Query.query(Criteria.where("_id").is(category.getId())),
+                new Update().set("categoryName", "Games-Category").inc("outbox.seq", 1).set("outbox.pending", true), Category.class);
+        Assert.assertEquals(1, categoryOutbox.relayPending());
+        Assert.assertEquals(2L, ((Number) outboxEntry().get("seq")).longValue());
+        Assert.assertEquals("Games-Category", outboxEntry().get("category", Document.class).get("categoryName"));
+
+        Assert.assertTrue(categoryOutbox.delete(category.getId()));
+        Assert.assertEquals("CATEGORY_DELETED", outboxEntry().get("type"));
+        Assert.assertFalse(categoryRepository.findById(category.getId()).isPresent());
+        Assert.assertFalse(categoryOutbox.delete(category.getId()));
+        Assert.assertNull(categoryOutbox.update(category));
+    }
+
+    @Test
+    public void deletedCategoriesAreLeftOut() {
+
+        categoryRepository.insert(category);
+        // deleted but not relayed yet
+        mongoOperations.updateFirst(Query.query(Criteria.where("_id").is(category.getId())),
+                new Update().set("outbox.deleted", true).set("outbox.pending", true).inc("outbox.seq", 1), Category.class);
+
+        Assert.assertFalse(categoryRepository.findExistingById(category.getId()).isPresent());
+        Assert.assertTrue(categoryRepository.findAllExistingById(Collections.singletonList(category.getId())).isEmpty());
+        Assert.assertTrue(categoryRepository.findAllCategoryByCategoryCreatedBy("Jhon123").isEmpty());
+    }
+
+    private Document outboxEntry() {
+        return mongoOperations.findById("CATEGORY:" + category.getId(), Document.class, "noteOutbox");
+    }
 }
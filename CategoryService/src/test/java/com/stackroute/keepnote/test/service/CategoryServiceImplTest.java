@@ -4,12 +4,14 @@ import com.stackroute.keepnote.exception.CategoryNotCreatedException;
 import com.stackroute.keepnote.exception.CategoryNotFoundException;
 import com.stackroute.keepnote.model.Category;
 import com.stackroute.keepnote.repository.CategoryRepository;
+import com.stackroute.keepnote.service.CategoryOutbox;
 import com.stackroute.keepnote.service.CategoryServiceImpl;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InjectMocks;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -20,6 +22,8 @@ public class CategoryServiceImplTest {
     private Category category;
     @Mock
     private CategoryRepository categoryRepository;
+    @Mock
+    private CategoryOutbox categoryOutbox;
     @InjectMocks
     private CategoryServiceImpl categoryServiceImpl;
     private List<Category> allCategories = null;
@@ -62,9 +66,16 @@ public class CategoryServiceImplTest {
 
     @Test
     public void deleteCategory() throws Exception {
-        when(categoryRepository.findById(category.getId())).thenReturn(options);
+        when(categoryOutbox.delete(category.getId())).thenReturn(true);
         boolean flag = categoryServiceImpl.deleteCategory(category.getId());
         Assert.assertEquals(true, flag);
+        verify(categoryOutbox).delete(category.getId());
+    }
+
+    @Test
+    public void deleteCategoryNotFound() throws Exception {
+        when(categoryOutbox.delete(category.getId())).thenReturn(false);
+        Assert.assertEquals(false, categoryServiceImpl.deleteCategory(category.getId()));
     }
 
 
@@ -72,26 +83,27 @@ public class CategoryServiceImplTest {
 
     @Test
     public void updateCategoryTestSuccess() {
-        when(categoryRepository.findById(category.getId())).thenReturn(options);
+        when(categoryOutbox.update(category)).thenReturn(category);
         category.setCategoryDescription("All about cricket and other sports");
         Category fetchedCategory = categoryServiceImpl.updateCategory(category, category.getId());
         Assert.assertEquals(category, fetchedCategory);
+        verify(categoryOutbox).update(category);
 
     }
 
     @Test
     public void updateCategoryTestFailure() {
-        when(categoryRepository.findById(category.getId())).thenReturn(options);
+        when(categoryOutbox.update(category)).thenReturn(null);
         category.setCategoryDescription("All about cricket and other sports");
         Category fetchedCategory = categoryServiceImpl.updateCategory(category, category.getId());
-        Assert.assertEquals(category, fetchedCategory);
+        Assert.assertNull(fetchedCategory);
 
     }
 
 
     @Test
     public void getCategoryByIdTestSuccess() throws CategoryNotFoundException {
-        when(categoryRepository.findById(category.getId())).thenReturn(options);
+        when(categoryRepository.findExistingById(category.getId())).thenReturn(options);
         Category fetchedCategory = categoryServiceImpl.getCategoryById(category.getId());
         Assert.assertEquals(category, fetchedCategory);
 
@@ -99,7 +111,7 @@ public class CategoryServiceImplTest {
 
     @Test(expected = CategoryNotFoundException.class)
     public void getCategoryByIdTestFailure() throws CategoryNotFoundException {
-        when(categoryRepository.findById(category.getId())).thenThrow(NoSuchElementException.class);
+        when(categoryRepository.findExistingById(category.getId())).thenReturn(Optional.empty());
         Category fetchedCategory = categoryServiceImpl.getCategoryById(category.getId());
         Assert.assertEquals(category, fetchedCategory);
 
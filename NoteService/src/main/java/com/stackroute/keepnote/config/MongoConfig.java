@@ -0,0 +1,24 @@
+package com.stackroute.keepnote.config;
+
+import com.stackroute.keepnote.repository.NoteContentConverters;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+
+/*
+ * Custom conversions picked up by the MappingMongoConverter of Spring Boot. Large
+ * noteContent fields are compressed above keepnote.note.compression.min-length chars,
+ * 0 stores every content as a plain string.
+ */
+@Configuration
+public class MongoConfig {
+
+	@Bean
+	public MongoCustomConversions mongoCustomConversions(
+			@Value("${keepnote.note.compression.min-length:4096}") final int minLength,
+			@Value("${keepnote.note.compression.level:6}") final int level) {
+
+		return new MongoCustomConversions(NoteContentConverters.converters(minLength, level));
+	}
+}
@@ -0,0 +1,21 @@
+package com.stackroute.keepnote.config;
+
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.mongo.MongoReactiveDataAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.mongo.MongoReactiveRepositoriesAutoConfiguration;
+import org.springframework.boot.autoconfigure.mongo.MongoReactiveAutoConfiguration;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/*
+ * The reactive Mongo driver is only started for the "reactive" profile, which also
+ * switches the application to WebFlux (see application-reactive.yml). The servlet
+ * stack excludes these auto-configurations in NoteServiceApplication.
+ */
+@Configuration
+@Profile("reactive")
+@ImportAutoConfiguration({MongoReactiveAutoConfiguration.class, MongoReactiveDataAutoConfiguration.class,
+		MongoReactiveRepositoriesAutoConfiguration.class})
+public class ReactiveConfig {
+
+}
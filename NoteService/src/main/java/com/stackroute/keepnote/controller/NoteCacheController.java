@@ -0,0 +1,35 @@
+package com.stackroute.keepnote.controller;
+
+import com.stackroute.keepnote.model.NoteCacheStats;
+import com.stackroute.keepnote.service.NoteCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+/*
+ * Exposes the hit, miss and eviction counters of the per-user note cache.
+ */
+@RestController
+@Profile("!reactive")
+public class NoteCacheController {
+
+	@Autowired
+	private NoteCache noteCache;
+
+	public NoteCacheController(NoteCache noteCache) {
+		this.noteCache = noteCache;
+	}
+
+	/*
+	 * This handler method maps to the URL "/api/v1/note/cache/stats" using HTTP GET method
+	 */
+	@RequestMapping(value = "/api/v1/note/cache/stats", method = RequestMethod.GET)
+	public ResponseEntity<NoteCacheStats> getCacheStats() {
+
+		return new ResponseEntity<NoteCacheStats>(noteCache.getStats(), HttpStatus.OK);
+	}
+}
@@ -1,20 +1,47 @@
 package com.stackroute.keepnote.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.stackroute.keepnote.exception.NoteNotFoundExeption;
+import com.stackroute.keepnote.exception.NoteWriteQueueFullException;
 import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteBatchResult;
+import com.stackroute.keepnote.model.NoteChanges;
+import com.stackroute.keepnote.model.NoteDurability;
+import com.stackroute.keepnote.model.NoteFilter;
+import com.stackroute.keepnote.model.NotePage;
+import com.stackroute.keepnote.model.NoteStats;
+import com.stackroute.keepnote.model.NoteSummary;
+import com.stackroute.keepnote.model.NoteUser;
+import com.stackroute.keepnote.service.NoteJsonReader;
+import com.stackroute.keepnote.service.NoteJsonWriter;
+import com.stackroute.keepnote.service.NotePatchReader;
 import com.stackroute.keepnote.service.NoteService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Date;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 /*
  * As in this assignment, we are working with creating RESTful web service, hence annotate
@@ -25,10 +52,17 @@ import java.util.List;
  * is equivalent to using @Controller and @ResposeBody annotation
  */
 @RestController
+@Profile("!reactive")
 public class NoteController {
 
 	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
 
+	public static final String NEXT_CURSOR_HEADER = "X-Note-Next-Cursor";
+
+	private static final MediaType EXPORT_TYPE = MediaType.parseMediaType("application/gzip");
+
+	private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
 	/*
      * Autowiring should be implemented for the NoteService. (Use Constructor-based
      * autowiring) Please note that we should not create any object using the new
@@ -37,9 +71,13 @@ public class NoteController {
 	@Autowired
 	private NoteService noteService;
 
+	@Autowired
+	private ObjectMapper objectMapper;
+
 
-	public NoteController(NoteService noteService) {
+	public NoteController(NoteService noteService, ObjectMapper objectMapper) {
 		this.noteService = noteService;
+		this.objectMapper = objectMapper;
 	}
 
 	/*
@@ -48,20 +86,46 @@ public class NoteController {
      * database.This handler method should return any one of the status messages
      * basis on different situations:
      * 1. 201(CREATED) - If the note created successfully.
-     * 2. 409(CONFLICT) - If the noteId conflicts with any existing user.
+     * 2. 202(ACCEPTED) - If the note was queued by the write-behind queue with the
+     *    X-Note-Durability QUEUED or JOURNALED.
+     * 3. 409(CONFLICT) - If the noteId conflicts with any existing user.
+     * 4. 400(BAD REQUEST) - If X-Note-Durability is not a known level.
+     * 5. 503(SERVICE UNAVAILABLE) - If the write-behind queue is full, with Retry-After.
+     * The created note is returned, including the noteId allocated by the server when
+     * the request did not carry one.
      *
      * This handler method should map to the URL "/api/v1/note" using HTTP POST method
      */
 	@RequestMapping(value = "/api/v1/note", method = RequestMethod.POST)
-	public ResponseEntity<Note> createNote(@RequestBody final Note note)
+	public ResponseEntity<Note> createNote(@RequestBody final Note note,
+			@RequestHeader(value = NoteDurability.HEADER, required = false) final String durabilityHeader)
 	{
 		boolean noteCreated = false;
+		NoteDurability durability = null;
 
-		noteCreated = noteService.createNote(note);
+		try
+		{
+			durability = noteService.resolveDurability(NoteDurability.parse(durabilityHeader));
+		}
+		catch (IllegalArgumentException exception)
+		{
+			LOG.info("Invalid " + NoteDurability.HEADER + " " + durabilityHeader);
+			return new ResponseEntity<Note>(HttpStatus.BAD_REQUEST);
+		}
+
+		try
+		{
+			noteCreated = noteService.createNote(note, durability);
+		}
+		catch (NoteWriteQueueFullException exception)
+		{
+			LOG.info(exception.getMessage());
+			return new ResponseEntity<Note>(retryLater(), HttpStatus.SERVICE_UNAVAILABLE);
+		}
 
 		if (noteCreated)
 		{
-			return new ResponseEntity<Note>(HttpStatus.CREATED);
+			return new ResponseEntity<Note>(note, isDeferred(durability) ? HttpStatus.ACCEPTED : HttpStatus.CREATED);
 		}
 		else
 		{
@@ -69,6 +133,34 @@ public class NoteController {
 		}
 	}
 
+	/*
+	 * Handler method which creates a batch of notes for one user from a JSON array of
+	 * notes. The body is read note by note with NoteJsonReader instead of being bound
+	 * to a List, so large imports are never held in memory as a whole.
+	 * 1. 200(OK) - One NoteBatchResult (CREATED or CONFLICT) per note, in request order.
+	 * 2. 400(BAD REQUEST) - If the body is not a valid array of notes. Chunks read
+	 *    before the malformed note have already been written.
+	 *
+	 * This handler method maps to the URL "/api/v1/note/{userId}/batch" using HTTP POST method
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}/batch", method = RequestMethod.POST)
+	public ResponseEntity<List<NoteBatchResult>> createNotes(@PathVariable final String userId, final InputStream body)
+	{
+		List<NoteBatchResult> results = null;
+
+		try (NoteJsonReader notes = new NoteJsonReader(objectMapper, body))
+		{
+			results = noteService.createNotes(userId, notes);
+		}
+		catch (IOException | UncheckedIOException exception)
+		{
+			LOG.info("Invalid note batch for " + userId + ": " + exception.getMessage());
+			return new ResponseEntity<List<NoteBatchResult>>(HttpStatus.BAD_REQUEST);
+		}
+
+		return new ResponseEntity<List<NoteBatchResult>>(results, HttpStatus.OK);
+	}
+
 	/*
      * Define a handler method which will delete a note from a database.
      * This handler method should return any one of the status messages basis
@@ -108,16 +200,39 @@ public class NoteController {
      * on different situations:
      * 1. 200(OK) - If the note deleted successfully from database.
      * 2. 404(NOT FOUND) - If the note with specified noteId is not found.
+     * 3. 412(PRECONDITION FAILED) - If the If-Match header does not carry the current
+     *    ETag of the note.
+     * 4. 409(CONFLICT) - If concurrent writes kept the delete from being applied.
      *
      * This handler method should map to the URL "/api/v1/note/{id}" using HTTP Delete
      * method" where "id" should be replaced by a valid noteId without {}
      */
 	@RequestMapping(value = "/api/v1/note/{userId}/{id}", method = RequestMethod.DELETE)
-	public ResponseEntity<Note> deleteNotes(@PathVariable final String userId, @PathVariable final int id)
+	public ResponseEntity<Note> deleteNotes(@PathVariable final String userId, @PathVariable final int id,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) final String ifMatch)
 	{
 		boolean isDeleted = false;
+		Long version = null;
 
-		isDeleted = noteService.deleteNote(userId, id);
+		try
+		{
+			version = NoteETags.ifMatchVersion(ifMatch);
+		}
+		catch (IllegalArgumentException exception)
+		{
+			LOG.info("Invalid If-Match " + ifMatch + " for note " + id);
+			return new ResponseEntity<Note>(HttpStatus.PRECONDITION_FAILED);
+		}
+
+		try
+		{
+			isDeleted = noteService.deleteNote(userId, id, version);
+		}
+		catch (OptimisticLockingFailureException exception)
+		{
+			LOG.info(exception.getMessage());
+			return new ResponseEntity<Note>(ifMatch != null ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT);
+		}
 
 		if (isDeleted)
 		{
@@ -135,28 +250,73 @@ public class NoteController {
      * database.
      * This handler method should return any one of the status messages
      * basis on different situations:
-     * 1. 200(OK) - If the note updated successfully.
-     * 2. 404(NOT FOUND) - If the note with specified noteId is not found.
+     * 1. 200(OK) - If the note updated successfully, with the new ETag of the note.
+     * 2. 202(ACCEPTED) - If the update was queued by the write-behind queue with the
+     *    X-Note-Durability QUEUED or JOURNALED, without an ETag.
+     * 3. 404(NOT FOUND) - If the note with specified noteId is not found.
+     * 4. 412(PRECONDITION FAILED) - If the If-Match header does not carry the current
+     *    ETag of the note.
+     * 5. 409(CONFLICT) - If concurrent writes kept the update from being applied.
+     * 6. 400(BAD REQUEST) - If X-Note-Durability is not a known level.
+     * 7. 503(SERVICE UNAVAILABLE) - If the write-behind queue is full, with Retry-After.
      *
      * This handler method should map to the URL "/api/v1/note/{id}" using HTTP PUT method.
      */
 	@RequestMapping(value = "/api/v1/note/{userId}/{id}", method = RequestMethod.PUT)
-	public ResponseEntity<Note> updateNote(@PathVariable final String userId, @PathVariable final int id, @RequestBody final Note note) {
+	public ResponseEntity<Note> updateNote(@PathVariable final String userId, @PathVariable final int id, @RequestBody final Note note,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) final String ifMatch,
+			@RequestHeader(value = NoteDurability.HEADER, required = false) final String durabilityHeader) {
 
 		Note noteUpdated = null;
+		Long version = null;
+		NoteDurability durability = null;
 
 		try
 		{
-			noteUpdated = noteService.updateNote(note, id, userId);
+			version = NoteETags.ifMatchVersion(ifMatch);
+		}
+		catch (IllegalArgumentException exception)
+		{
+			LOG.info("Invalid If-Match " + ifMatch + " for note " + id);
+			return new ResponseEntity<Note>(HttpStatus.PRECONDITION_FAILED);
+		}
+
+		try
+		{
+			durability = noteService.resolveDurability(NoteDurability.parse(durabilityHeader));
+		}
+		catch (IllegalArgumentException exception)
+		{
+			LOG.info("Invalid " + NoteDurability.HEADER + " " + durabilityHeader);
+			return new ResponseEntity<Note>(HttpStatus.BAD_REQUEST);
+		}
+
+		try
+		{
+			noteUpdated = noteService.updateNote(note, id, userId, version, durability);
 		}
 		catch (NoteNotFoundExeption noteNotFoundExeption)
 		{
 			LOG.info("Note not found to update");
 		}
+		catch (OptimisticLockingFailureException exception)
+		{
+			LOG.info(exception.getMessage());
+			return new ResponseEntity<Note>(ifMatch != null ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT);
+		}
+		catch (NoteWriteQueueFullException exception)
+		{
+			LOG.info(exception.getMessage());
+			return new ResponseEntity<Note>(retryLater(), HttpStatus.SERVICE_UNAVAILABLE);
+		}
 
-		if (noteUpdated != null)
+		if (noteUpdated != null && version == null && isDeferred(durability))
+		{
+			return new ResponseEntity<Note>(note, HttpStatus.ACCEPTED);
+		}
+		else if (noteUpdated != null)
 		{
-			return new ResponseEntity<Note>(note, HttpStatus.OK);
+			return new ResponseEntity<Note>(note, NoteETags.headers(NoteETags.noteVersion(noteUpdated)), HttpStatus.OK);
 		}
 		else
 		{
@@ -164,41 +324,300 @@ public class NoteController {
 		}
 	}
 
+	/*
+	 * Handler method which changes single fields of a note, from a JSON Merge Patch
+	 * (Content-Type application/merge-patch+json) or a JSON Patch
+	 * (application/json-patch+json), see NotePatchReader. Only the patched fields are
+	 * written and the note is not sent back, so a small edit of a large note stays small
+	 * both ways. Patches are always written directly, X-Note-Durability does not apply.
+	 * 1. 204(NO CONTENT) - If the note was patched, with the new ETag of the note.
+	 * 2. 400(BAD REQUEST) - If the patch is invalid or changes a field which cannot be patched.
+	 * 3. 404(NOT FOUND) - If the note with specified noteId is not found.
+	 * 4. 412(PRECONDITION FAILED) - If the If-Match header does not carry the current
+	 *    ETag of the note.
+	 * 5. 409(CONFLICT) - If concurrent writes kept the patch from being applied.
+	 *
+	 * This handler method maps to the URL "/api/v1/note/{userId}/{id}" using HTTP PATCH method
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}/{id}", method = RequestMethod.PATCH,
+			consumes = {NotePatchReader.MERGE_PATCH, NotePatchReader.JSON_PATCH})
+	public ResponseEntity<Void> patchNote(@PathVariable final String userId, @PathVariable final int id,
+			@RequestBody final JsonNode body,
+			@RequestHeader(value = HttpHeaders.CONTENT_TYPE) final String contentType,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) final String ifMatch) {
+
+		Long version = null;
+		Note patched = null;
+
+		try
+		{
+			version = NoteETags.ifMatchVersion(ifMatch);
+		}
+		catch (IllegalArgumentException exception)
+		{
+			LOG.info("Invalid If-Match " + ifMatch + " for note " + id);
+			return new ResponseEntity<Void>(HttpStatus.PRECONDITION_FAILED);
+		}
+
+		try
+		{
+			patched = noteService.patchNote(userId, id, NotePatchReader.read(objectMapper, contentType, body), version);
+		}
+		catch (IllegalArgumentException exception)
+		{
+			LOG.info("Invalid patch of note " + id + ": " + exception.getMessage());
+			return new ResponseEntity<Void>(HttpStatus.BAD_REQUEST);
+		}
+		catch (NoteNotFoundExeption noteNotFoundExeption)
+		{
+			LOG.info("Note not found to patch");
+			return new ResponseEntity<Void>(HttpStatus.NOT_FOUND);
+		}
+		catch (OptimisticLockingFailureException exception)
+		{
+			LOG.info(exception.getMessage());
+			return new ResponseEntity<Void>(ifMatch != null ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT);
+		}
+
+		return new ResponseEntity<Void>(NoteETags.headers(NoteETags.noteVersion(patched)), HttpStatus.NO_CONTENT);
+	}
+
 	/*
      * Define a handler method which will get us the all notes by a userId.
      * This handler method should return any one of the status messages basis on
      * different situations:
      * 1. 200(OK) - If the note found successfully.
+     * 2. 304(NOT MODIFIED) - If the If-None-Match header carries the current ETag,
+     *    which is checked without reading the notes.
+     * The ETag of the response is derived from the version of the user's notes.
+     * Archived notes are only returned with "includeArchived=true", after the other
+     * notes and without an ETag.
      *
      * This handler method should map to the URL "/api/v1/note" using HTTP GET method
      */
 	@RequestMapping(value = "/api/v1/note/{userId}", method = RequestMethod.GET)
-	public ResponseEntity<List<Note>> getListofNoteByUserId(@PathVariable final String userId) {
+	public ResponseEntity<List<Note>> getListofNoteByUserId(@PathVariable final String userId,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch,
+			@RequestParam(defaultValue = "false") final boolean includeArchived) {
+
+		if (includeArchived)
+		{
+			List<Note> notes = noteService.getAllNotesWithArchive(userId);
+
+			if (notes != null && notes.size() > 0)
+			{
+				return new ResponseEntity<List<Note>>(notes, HttpStatus.OK);
+			}
+			return new ResponseEntity<List<Note>>(notes, HttpStatus.NOT_FOUND);
+		}
+
+		if (ifNoneMatch != null)
+		{
+			Long version = noteService.getNotesVersion(userId);
+
+			if (version != null && NoteETags.matches(ifNoneMatch, version))
+			{
+				return new ResponseEntity<List<Note>>(NoteETags.headers(version), HttpStatus.NOT_MODIFIED);
+			}
+		}
 
 		List<Note> notes = null;
+		HttpHeaders headers = new HttpHeaders();
+
+		NoteUser noteUser = noteService.getVersionedNotes(userId);
 
-		notes = noteService.getAllNoteByUserId(userId);
+		if (noteUser != null)
+		{
+			notes = noteUser.getNotes();
+			headers = NoteETags.headers(noteUser.getVersion());
+		}
 
 		if (notes == null)
 		{
-			return new ResponseEntity<List<Note>>(notes, HttpStatus.OK);
+			return new ResponseEntity<List<Note>>(notes, headers, HttpStatus.OK);
 		}
 
 		if (notes != null && notes.size() > 0)
 		{
-			return new ResponseEntity<List<Note>>(notes, HttpStatus.OK);
+			return new ResponseEntity<List<Note>>(notes, headers, HttpStatus.OK);
 		}
 		else
 		{
-			return new ResponseEntity<List<Note>>(notes, HttpStatus.NOT_FOUND);
+			return new ResponseEntity<List<Note>>(notes, headers, HttpStatus.NOT_FOUND);
+		}
+	}
+
+	/*
+	 * Handler method which returns the summaries of all notes of a user for list views:
+	 * noteId, noteTitle, noteStatus, noteCreationDate and the category name. It is
+	 * selected instead of getListofNoteByUserId when "view=summary" is passed.
+	 * 1. 200(OK) - If notes were found.
+	 * 2. 404(NOT FOUND) - If the user has no notes.
+	 *
+	 * This handler method maps to the URL "/api/v1/note/{userId}?view=summary" using HTTP GET method
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}", method = RequestMethod.GET, params = {"view=summary", "!limit"})
+	public ResponseEntity<List<NoteSummary>> getNoteSummariesByUserId(@PathVariable final String userId) {
+
+		List<NoteSummary> summaries = noteService.getNoteSummaries(userId);
+
+		if (summaries != null && summaries.size() > 0)
+		{
+			return new ResponseEntity<List<NoteSummary>>(summaries, HttpStatus.OK);
+		}
+		else
+		{
+			return new ResponseEntity<List<NoteSummary>>(summaries, HttpStatus.NOT_FOUND);
 		}
 	}
 
+	/*
+	 * Handler method which returns one page of the notes of a user. It is selected
+	 * instead of getListofNoteByUserId whenever the "limit" request parameter is present.
+	 * "after" is the opaque nextCursor of the previous page. With "includeArchived=true"
+	 * the archived notes are merged into the pages in noteId order.
+	 * 1. 200(OK) - The page, possibly empty, together with the next cursor.
+	 * 2. 400(BAD REQUEST) - If the cursor is not valid.
+	 *
+	 * This handler method maps to the URL "/api/v1/note/{userId}?limit=30&after=..." using HTTP GET method
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}", method = RequestMethod.GET, params = "limit")
+	public ResponseEntity<NotePage> getPageOfNotesByUserId(@PathVariable final String userId,
+			@RequestParam final int limit, @RequestParam(required = false) final String after,
+			@RequestParam(defaultValue = "false") final boolean includeArchived) {
+
+		NotePage page = null;
+
+		try
+		{
+			page = includeArchived ? noteService.getNotePageWithArchive(userId, after, limit)
+					: noteService.getNotePage(userId, after, limit);
+		}
+		catch (IllegalArgumentException exception)
+		{
+			LOG.info("Invalid note cursor " + after);
+			return new ResponseEntity<NotePage>(HttpStatus.BAD_REQUEST);
+		}
+
+		return new ResponseEntity<NotePage>(page, HttpStatus.OK);
+	}
+
+	/*
+	 * Handler method which returns the notes of a user matching all given filters:
+	 * status, categoryId, category (the category name) and the creation date range from
+	 * (inclusive) to (exclusive), as ISO date-times. The notes are filtered by Mongo.
+	 * 1. 200(OK) - The matching notes, possibly none.
+	 * 2. 400(BAD REQUEST) - If a date cannot be parsed, or a category name is given
+	 * while notes keep category references only.
+	 *
+	 * This handler method maps to the URL "/api/v1/note/{userId}/query" using HTTP GET method
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}/query", method = RequestMethod.GET)
+	public ResponseEntity<List<Note>> getNotesByFilter(@PathVariable final String userId,
+			@RequestParam(required = false) final String status, @RequestParam(required = false) final String categoryId,
+			@RequestParam(required = false) final String category,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final Date from,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final Date to) {
+
+		NoteFilter filter = new NoteFilter(status, categoryId, category, from, to);
+
+		try
+		{
+			return new ResponseEntity<List<Note>>(noteService.getNotesByFilter(userId, filter), HttpStatus.OK);
+		}
+		catch (IllegalArgumentException exception)
+		{
+			LOG.info("Invalid note filter " + filter + ": " + exception.getMessage());
+			return new ResponseEntity<List<Note>>(HttpStatus.BAD_REQUEST);
+		}
+	}
+
+	/*
+	 * Handler method which returns the note counts of a user: the total, by status and
+	 * by categoryId. The counts are kept up to date by every note write, so no notes
+	 * are read. Notes without status or category are counted under "(none)".
+	 * 1. 200(OK) - The counts.
+	 *
+	 * This handler method maps to the URL "/api/v1/note/{userId}/stats" using HTTP GET method
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}/stats", method = RequestMethod.GET)
+	public ResponseEntity<NoteStats> getNoteStats(@PathVariable final String userId) {
+
+		return new ResponseEntity<NoteStats>(noteService.getNoteStats(userId), HttpStatus.OK);
+	}
+
+	/*
+	 * Handler method which exports the notes of a user as gzip compressed NDJSON, one
+	 * note per line in noteId order. The notes are streamed from a Mongo cursor into the
+	 * response, so an export of any size is never held in memory. An export stops after
+	 * "limit" notes: the X-Note-Next-Cursor header carries the "after" cursor of the next
+	 * one and is missing on the last. A broken download is resumed by requesting the
+	 * same cursor again. The archived notes are merged in by noteId unless
+	 * "includeArchived=false", so an export holds every note of the user.
+	 * 1. 200(OK) - The notes, possibly none.
+	 * 2. 400(BAD REQUEST) - If the cursor is not valid.
+	 *
+	 * This handler method maps to the URL "/api/v1/note/{userId}/export?after=..." using HTTP GET method
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}/export", method = RequestMethod.GET)
+	public ResponseEntity<StreamingResponseBody> exportNotes(@PathVariable final String userId,
+			@RequestParam(required = false) final String after, @RequestParam(defaultValue = "10000") final int limit,
+			@RequestParam(defaultValue = "true") final boolean includeArchived) {
+
+		String nextCursor = null;
+
+		try
+		{
+			nextCursor = noteService.getExportEnd(userId, after, limit, includeArchived);
+		}
+		catch (IllegalArgumentException exception)
+		{
+			LOG.info("Invalid note cursor " + after);
+			return new ResponseEntity<StreamingResponseBody>(HttpStatus.BAD_REQUEST);
+		}
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(EXPORT_TYPE);
+		headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"notes.ndjson.gz\"");
+		if (nextCursor != null)
+		{
+			headers.set(NEXT_CURSOR_HEADER, nextCursor);
+		}
+
+		String until = nextCursor;
+		StreamingResponseBody body = output -> {
+			GZIPOutputStream gzip = new GZIPOutputStream(output, EXPORT_BUFFER_SIZE);
+			try (NoteJsonWriter writer = new NoteJsonWriter(objectMapper, gzip))
+			{
+				long exported = noteService.exportNotes(userId, after, until, includeArchived, writer::write);
+				LOG.info("Exported " + exported + " notes of " + userId);
+			}
+			gzip.finish();
+		};
+		return new ResponseEntity<StreamingResponseBody>(body, headers, HttpStatus.OK);
+	}
+
+	/*
+	 * Handler method for delta sync. Returns the notes changed and the noteIds deleted
+	 * after the version "since", pass nextSince of the response on the next call.
+	 * Omitting since (or 0) returns all notes as a full resync.
+	 * 1. 200(OK) - The changes, possibly empty.
+	 *
+	 * This handler method maps to the URL "/api/v1/note/{userId}/changes?since=..." using HTTP GET method
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}/changes", method = RequestMethod.GET)
+	public ResponseEntity<NoteChanges> getChangesSince(@PathVariable final String userId,
+			@RequestParam(defaultValue = "0") final long since) {
+
+		return new ResponseEntity<NoteChanges>(noteService.getChangesSince(userId, since), HttpStatus.OK);
+	}
+
 	/*
      * Define a handler method which will show details of a specific note created by specific
      * user. This handler method should return any one of the status messages basis on
      * different situations:
-     * 1. 200(OK) - If the note found successfully.
+     * 1. 200(OK) - If the note found successfully, with the ETag of the note to send
+     *    as If-Match on the next update or delete.
      * 2. 404(NOT FOUND) - If the note with specified noteId is not found.
      * This handler method should map to the URL "/api/v1/note/{userId}/{noteId}" using HTTP GET method
      * where "id" should be replaced by a valid reminderId without {}
@@ -218,7 +637,7 @@ public class NoteController {
 		}
 		if (note != null)
 		{
-			return new ResponseEntity<Note>(note, HttpStatus.OK);
+			return new ResponseEntity<Note>(note, NoteETags.headers(NoteETags.noteVersion(note)), HttpStatus.OK);
 		}
 		else
 		{
@@ -227,5 +646,18 @@ public class NoteController {
 
 	}
 
+	/*
+	 * Writes queued without waiting for Mongo are answered with 202.
+	 */
+	private static boolean isDeferred(final NoteDurability durability)
+	{
+		return durability == NoteDurability.QUEUED || durability == NoteDurability.JOURNALED;
+	}
 
+	private static HttpHeaders retryLater()
+	{
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.RETRY_AFTER, "1");
+		return headers;
+	}
 }
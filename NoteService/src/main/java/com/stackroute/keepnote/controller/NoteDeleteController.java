@@ -0,0 +1,91 @@
+package com.stackroute.keepnote.controller;
+
+import com.stackroute.keepnote.model.NoteDeleteJob;
+import com.stackroute.keepnote.service.NoteDeleteJobs;
+import com.stackroute.keepnote.service.NoteService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/*
+ * RESTful endpoints for deleting many notes of a user at once.
+ */
+@RestController
+@Profile("!reactive")
+public class NoteDeleteController {
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private NoteService noteService;
+
+	@Autowired
+	private NoteDeleteJobs noteDeleteJobs;
+
+	public NoteDeleteController(NoteService noteService, NoteDeleteJobs noteDeleteJobs) {
+		this.noteService = noteService;
+		this.noteDeleteJobs = noteDeleteJobs;
+	}
+
+	/*
+	 * Handler method which deletes the notes with the given noteIds (a JSON array) in
+	 * one $pull.
+	 * 1. 200(OK) - The noteIds which existed and were removed.
+	 *
+	 * This handler method maps to the URL "/api/v1/note/{userId}/delete" using HTTP POST method
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}/delete", method = RequestMethod.POST)
+	public ResponseEntity<List<Integer>> deleteNotes(@PathVariable final String userId, @RequestBody final List<Integer> noteIds) {
+
+		return new ResponseEntity<List<Integer>>(noteService.deleteNotes(userId, noteIds), HttpStatus.OK);
+	}
+
+	/*
+	 * Handler method which starts deleting the given noteIds in the background, for
+	 * sets too large to delete within one request.
+	 * 1. 202(ACCEPTED) - The job, poll it by its jobId for progress.
+	 *
+	 * This handler method maps to the URL "/api/v1/note/{userId}/delete?async=true" using HTTP POST method
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}/delete", method = RequestMethod.POST, params = "async=true")
+	public ResponseEntity<NoteDeleteJob> submitDeleteJob(@PathVariable final String userId, @RequestBody final List<Integer> noteIds) {
+
+		NoteDeleteJob job = noteDeleteJobs.submit(userId, noteIds);
+
+		LOG.info("Started delete job " + job.getJobId() + " for " + noteIds.size() + " notes of " + userId);
+
+		return new ResponseEntity<NoteDeleteJob>(job, HttpStatus.ACCEPTED);
+	}
+
+	/*
+	 * Handler method which returns the progress of a delete job.
+	 * 1. 200(OK) - The job with the noteIds deleted so far.
+	 * 2. 404(NOT FOUND) - If the job is unknown or has expired.
+	 *
+	 * This handler method maps to the URL "/api/v1/note/{userId}/delete/{jobId}" using HTTP GET method
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}/delete/{jobId}", method = RequestMethod.GET)
+	public ResponseEntity<NoteDeleteJob> getDeleteJob(@PathVariable final String userId, @PathVariable final String jobId) {
+
+		NoteDeleteJob job = noteDeleteJobs.getJob(userId, jobId);
+
+		if (job != null)
+		{
+			return new ResponseEntity<NoteDeleteJob>(job, HttpStatus.OK);
+		}
+		else
+		{
+			return new ResponseEntity<NoteDeleteJob>(HttpStatus.NOT_FOUND);
+		}
+	}
+}
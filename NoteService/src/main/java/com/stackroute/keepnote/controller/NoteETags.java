@@ -0,0 +1,73 @@
+package com.stackroute.keepnote.controller;
+
+import com.stackroute.keepnote.model.Note;
+import org.springframework.http.HttpHeaders;
+
+/*
+ * Entity tags of the note endpoints, shared by the servlet and the reactive
+ * controllers. The ETag of a note list is the version of the user's notes, the ETag
+ * of a single note is its changeSeq.
+ */
+final class NoteETags {
+
+	private NoteETags() {
+	}
+
+	static HttpHeaders headers(final long version)
+	{
+		HttpHeaders headers = new HttpHeaders();
+		headers.setETag("\"" + version + "\"");
+		return headers;
+	}
+
+	/*
+	 * Notes written before they were stamped are at version 0.
+	 */
+	static long noteVersion(final Note note)
+	{
+		return note.getChangeSeq() != null ? note.getChangeSeq() : 0;
+	}
+
+	/*
+	 * If-Match is compared strongly, so weak tags never match. Returns the version the
+	 * note has to be at, null if there is no header or it is "*", which any existing
+	 * note matches.
+	 */
+	static Long ifMatchVersion(final String ifMatch)
+	{
+		if (ifMatch == null || ifMatch.trim().equals("*"))
+		{
+			return null;
+		}
+
+		String tag = ifMatch.trim();
+
+		if (tag.length() < 3 || !tag.startsWith("\"") || !tag.endsWith("\""))
+		{
+			throw new IllegalArgumentException("Not a strong entity tag " + ifMatch);
+		}
+		return Long.parseLong(tag.substring(1, tag.length() - 1));
+	}
+
+	/*
+	 * If-None-Match may list several tags, weak tags compare equal to strong ones.
+	 */
+	static boolean matches(final String ifNoneMatch, final long version)
+	{
+		String etag = "\"" + version + "\"";
+
+		for (String tag : ifNoneMatch.split(","))
+		{
+			String candidate = tag.trim();
+			if (candidate.startsWith("W/"))
+			{
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals(etag))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+}
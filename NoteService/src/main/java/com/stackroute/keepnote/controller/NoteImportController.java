@@ -0,0 +1,61 @@
+package com.stackroute.keepnote.controller;
+
+import com.stackroute.keepnote.model.NoteImportResult;
+import com.stackroute.keepnote.service.NoteImporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * RESTful endpoint of the note import, see NoteImporter.
+ */
+@RestController
+@Profile("!reactive")
+public class NoteImportController {
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private NoteImporter noteImporter;
+
+	public NoteImportController(NoteImporter noteImporter) {
+		this.noteImporter = noteImporter;
+	}
+
+	/*
+	 * Handler method which imports a dump of notes of any users, NDJSON or a JSON array,
+	 * plain or gzip compressed. The body is read note by note and never held in memory
+	 * as a whole, the notes are written as they are read.
+	 * 1. 200(OK) - The counts of imported and rejected notes with the first errors.
+	 * 2. 400(BAD REQUEST) - If the body is not valid JSON. The notes read before the
+	 *    error have been imported and are counted in the result, if there is one.
+	 *
+	 * This handler method maps to the URL "/api/v1/note/import" using HTTP POST method
+	 */
+	@RequestMapping(value = "/api/v1/note/import", method = RequestMethod.POST)
+	public ResponseEntity<NoteImportResult> importNotes(final InputStream body) {
+
+		NoteImportResult result = null;
+
+		try
+		{
+			result = noteImporter.importNotes(body);
+		}
+		catch (IOException exception)
+		{
+			LOG.info("Invalid note dump: " + exception.getMessage());
+			return new ResponseEntity<NoteImportResult>(HttpStatus.BAD_REQUEST);
+		}
+
+		return new ResponseEntity<NoteImportResult>(result, result.getFailure() == null ? HttpStatus.OK : HttpStatus.BAD_REQUEST);
+	}
+}
@@ -0,0 +1,35 @@
+package com.stackroute.keepnote.controller;
+
+import com.stackroute.keepnote.model.NoteOutboxStats;
+import com.stackroute.keepnote.service.NoteOutboxWorker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+/*
+ * Exposes the throughput and retry counters of the outbox worker of this instance.
+ */
+@RestController
+@Profile("!reactive")
+public class NoteOutboxController {
+
+	@Autowired
+	private NoteOutboxWorker noteOutboxWorker;
+
+	public NoteOutboxController(NoteOutboxWorker noteOutboxWorker) {
+		this.noteOutboxWorker = noteOutboxWorker;
+	}
+
+	/*
+	 * This handler method maps to the URL "/api/v1/note/outbox/stats" using HTTP GET method
+	 */
+	@RequestMapping(value = "/api/v1/note/outbox/stats", method = RequestMethod.GET)
+	public ResponseEntity<NoteOutboxStats> getOutboxStats() {
+
+		return new ResponseEntity<NoteOutboxStats>(noteOutboxWorker.getStats(), HttpStatus.OK);
+	}
+}
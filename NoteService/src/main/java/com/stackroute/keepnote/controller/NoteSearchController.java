@@ -0,0 +1,69 @@
+package com.stackroute.keepnote.controller;
+
+import com.stackroute.keepnote.model.NoteSearchResult;
+import com.stackroute.keepnote.service.NoteSearchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/*
+ * RESTful endpoints of the full-text note search.
+ */
+@RestController
+@Profile("!reactive")
+public class NoteSearchController {
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private NoteSearchService noteSearchService;
+
+	public NoteSearchController(NoteSearchService noteSearchService) {
+		this.noteSearchService = noteSearchService;
+	}
+
+	/*
+	 * Handler method which searches the title and content of the notes of a user.
+	 * 1. 200(OK) - One page of hits ordered by relevance, highlighted.
+	 * 2. 400(BAD REQUEST) - If the query cannot be parsed.
+	 *
+	 * This handler method maps to the URL "/api/v1/note/{userId}/search?q=...&page=0&size=20" using HTTP GET method
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}/search", method = RequestMethod.GET)
+	public ResponseEntity<NoteSearchResult> searchNotes(@PathVariable final String userId, @RequestParam final String q,
+			@RequestParam(defaultValue = "0") final int page, @RequestParam(defaultValue = "20") final int size) {
+
+		try
+		{
+			return new ResponseEntity<NoteSearchResult>(noteSearchService.search(userId, q, page, size), HttpStatus.OK);
+		}
+		catch (IllegalArgumentException exception)
+		{
+			LOG.info("Invalid search query " + q);
+			return new ResponseEntity<NoteSearchResult>(HttpStatus.BAD_REQUEST);
+		}
+	}
+
+	/*
+	 * Handler method which starts rebuilding the search index from Mongo in the
+	 * background. Writes and searches keep working while it runs.
+	 * 1. 202(ACCEPTED) - The rebuild was started or is already running.
+	 *
+	 * This handler method maps to the URL "/api/v1/note/search/rebuild" using HTTP POST method
+	 */
+	@RequestMapping(value = "/api/v1/note/search/rebuild", method = RequestMethod.POST)
+	public ResponseEntity<Void> rebuildIndex() {
+
+		noteSearchService.rebuildIndex();
+
+		return new ResponseEntity<Void>(HttpStatus.ACCEPTED);
+	}
+}
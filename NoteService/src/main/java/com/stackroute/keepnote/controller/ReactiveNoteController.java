@@ -0,0 +1,192 @@
+package com.stackroute.keepnote.controller;
+
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteSummary;
+import com.stackroute.keepnote.service.ReactiveNoteService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/*
+ * WebFlux counterpart of NoteController for the "reactive" profile, with the same
+ * URLs, headers and status codes. Archived notes are deleted and listed like there.
+ * The batch, paging, export and delta sync endpoints, PATCH, note search, bulk
+ * deletes, imports, the outbox and cache statistics are served by the servlet stack
+ * only; archived notes are not merged into pages or exports here.
+ */
+@RestController
+@Profile("reactive")
+public class ReactiveNoteController {
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private ReactiveNoteService noteService;
+
+	public ReactiveNoteController(ReactiveNoteService noteService) {
+		this.noteService = noteService;
+	}
+
+	/*
+	 * 1. 201(CREATED) - If the note created successfully.
+	 * 2. 409(CONFLICT) - If the noteId is already taken.
+	 */
+	@RequestMapping(value = "/api/v1/note", method = RequestMethod.POST)
+	public Mono<ResponseEntity<Note>> createNote(@RequestBody final Note note)
+	{
+		return noteService.createNote(note)
+				.map(created -> created
+						? new ResponseEntity<Note>(note, HttpStatus.CREATED)
+						: new ResponseEntity<Note>(HttpStatus.CONFLICT));
+	}
+
+	/*
+	 * 1. 200(OK) - If the notes were deleted.
+	 * 2. 404(NOT FOUND) - If the user has no notes document.
+	 */
+	@RequestMapping(value = "/api/v1/note/{id}", method = RequestMethod.DELETE)
+	public Mono<ResponseEntity<Note>> deleteAllNotes(@PathVariable final String id)
+	{
+		return noteService.deleteAllNotes(id)
+				.map(deleted -> new ResponseEntity<Note>(deleted ? HttpStatus.OK : HttpStatus.NOT_FOUND));
+	}
+
+	/*
+	 * Without If-Match an archived note with the noteId is deleted as well.
+	 * 1. 200(OK) - If the note deleted successfully.
+	 * 2. 404(NOT FOUND) - If the note with specified noteId is not found.
+	 * 3. 412(PRECONDITION FAILED) - If the If-Match header does not carry the current
+	 *    ETag of the note.
+	 * 4. 409(CONFLICT) - If concurrent writes kept the delete from being applied.
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}/{id}", method = RequestMethod.DELETE)
+	public Mono<ResponseEntity<Note>> deleteNote(@PathVariable final String userId, @PathVariable final int id,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) final String ifMatch)
+	{
+		Long version = null;
+
+		try
+		{
+			version = NoteETags.ifMatchVersion(ifMatch);
+		}
+		catch (IllegalArgumentException exception)
+		{
+			LOG.info("Invalid If-Match " + ifMatch + " for note " + id);
+			return Mono.just(new ResponseEntity<Note>(HttpStatus.PRECONDITION_FAILED));
+		}
+
+		return noteService.deleteNote(userId, id, version)
+				.map(deleted -> new ResponseEntity<Note>(deleted ? HttpStatus.OK : HttpStatus.NOT_FOUND))
+				.onErrorResume(OptimisticLockingFailureException.class, exception -> conflict(ifMatch, exception));
+	}
+
+	/*
+	 * 1. 200(OK) - If the note updated successfully, with the new ETag of the note.
+	 * 2. 404(NOT FOUND) - If the note with specified noteId is not found.
+	 * 3. 412(PRECONDITION FAILED) - If the If-Match header does not carry the current
+	 *    ETag of the note.
+	 * 4. 409(CONFLICT) - If concurrent writes kept the update from being applied.
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}/{id}", method = RequestMethod.PUT)
+	public Mono<ResponseEntity<Note>> updateNote(@PathVariable final String userId, @PathVariable final int id,
+			@RequestBody final Note note, @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) final String ifMatch)
+	{
+		Long version = null;
+
+		try
+		{
+			version = NoteETags.ifMatchVersion(ifMatch);
+		}
+		catch (IllegalArgumentException exception)
+		{
+			LOG.info("Invalid If-Match " + ifMatch + " for note " + id);
+			return Mono.just(new ResponseEntity<Note>(HttpStatus.PRECONDITION_FAILED));
+		}
+
+		return noteService.updateNote(note, id, userId, version)
+				.map(updated -> new ResponseEntity<Note>(updated, NoteETags.headers(NoteETags.noteVersion(updated)), HttpStatus.OK))
+				.defaultIfEmpty(new ResponseEntity<Note>(note, HttpStatus.NOT_FOUND))
+				.onErrorResume(OptimisticLockingFailureException.class, exception -> conflict(ifMatch, exception));
+	}
+
+	/*
+	 * 1. 200(OK) - If the note found successfully.
+	 * 2. 304(NOT MODIFIED) - If the If-None-Match header carries the current ETag,
+	 *    which is checked without reading the notes.
+	 * 3. 404(NOT FOUND) - If the user has no notes.
+	 * Archived notes are only returned with "includeArchived=true", after the other
+	 * notes and without an ETag.
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}", method = RequestMethod.GET)
+	public Mono<ResponseEntity<List<Note>>> getListofNoteByUserId(@PathVariable final String userId,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch,
+			@RequestParam(defaultValue = "false") final boolean includeArchived)
+	{
+		if (includeArchived)
+		{
+			return noteService.getAllNotesWithArchive(userId)
+					.map(notes -> new ResponseEntity<List<Note>>(notes, notes.size() > 0 ? HttpStatus.OK : HttpStatus.NOT_FOUND));
+		}
+
+		Mono<ResponseEntity<List<Note>>> notes = noteService.getVersionedNotes(userId)
+				.map(noteUser -> new ResponseEntity<List<Note>>(noteUser.getNotes(), NoteETags.headers(noteUser.getVersion()),
+						noteUser.getNotes() != null && noteUser.getNotes().size() > 0 ? HttpStatus.OK : HttpStatus.NOT_FOUND))
+				.defaultIfEmpty(new ResponseEntity<List<Note>>(HttpStatus.OK));
+
+		if (ifNoneMatch == null)
+		{
+			return notes;
+		}
+
+		return noteService.getNotesVersion(userId)
+				.filter(version -> NoteETags.matches(ifNoneMatch, version))
+				.map(version -> new ResponseEntity<List<Note>>(NoteETags.headers(version), HttpStatus.NOT_MODIFIED))
+				.switchIfEmpty(notes);
+	}
+
+	/*
+	 * 1. 200(OK) - If notes were found.
+	 * 2. 404(NOT FOUND) - If the user has no notes.
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}", method = RequestMethod.GET, params = {"view=summary", "!limit"})
+	public Mono<ResponseEntity<List<NoteSummary>>> getNoteSummariesByUserId(@PathVariable final String userId)
+	{
+		return noteService.getNoteSummaries(userId)
+				.filter(summaries -> summaries.size() > 0)
+				.map(summaries -> new ResponseEntity<List<NoteSummary>>(summaries, HttpStatus.OK))
+				.defaultIfEmpty(new ResponseEntity<List<NoteSummary>>(HttpStatus.NOT_FOUND));
+	}
+
+	/*
+	 * 1. 200(OK) - If the note found successfully, with the ETag of the note.
+	 * 2. 404(NOT FOUND) - If the note with specified noteId is not found.
+	 */
+	@RequestMapping(value = "/api/v1/note/{userId}/{noteId}", method = RequestMethod.GET)
+	public Mono<ResponseEntity<Note>> getNoteByUserId(@PathVariable final String userId, @PathVariable final int noteId)
+	{
+		return noteService.getNoteByNoteId(userId, noteId)
+				.map(note -> new ResponseEntity<Note>(note, NoteETags.headers(NoteETags.noteVersion(note)), HttpStatus.OK))
+				.defaultIfEmpty(new ResponseEntity<Note>(HttpStatus.NOT_FOUND));
+	}
+
+	private <T> Mono<ResponseEntity<T>> conflict(final String ifMatch, final Throwable exception)
+	{
+		LOG.info(exception.getMessage());
+		return Mono.just(new ResponseEntity<T>(ifMatch != null ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT));
+	}
+}
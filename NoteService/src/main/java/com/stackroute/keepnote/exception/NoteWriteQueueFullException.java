@@ -0,0 +1,16 @@
+package com.stackroute.keepnote.exception;
+
+/*
+ * Thrown when a write cannot be queued because the write-behind queue stayed full for
+ * keepnote.note.write-behind.offer-timeout-ms. Nothing has been written, the client
+ * should retry later.
+ */
+public class NoteWriteQueueFullException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public NoteWriteQueueFullException(String message)
+	{
+		super(message);
+	}
+}
@@ -0,0 +1,57 @@
+package com.stackroute.keepnote.jwtfilter;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/*
+ * JwtFilter for the "reactive" profile. Requests to /api/* without a valid "Bearer"
+ * token are answered with 401, the claims of the token are stored in the "claims"
+ * attribute of the exchange.
+ */
+@Component
+@Profile("reactive")
+public class ReactiveJwtFilter implements WebFilter {
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain)
+    {
+        if (!exchange.getRequest().getPath().value().startsWith("/api/"))
+        {
+            return chain.filter(exchange);
+        }
+
+        final String authHeader = exchange.getRequest().getHeaders().getFirst("Authorization");
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            return unauthorized(exchange);
+        }
+
+        final String token = authHeader.substring(7); // The part after "Bearer "
+
+        try
+        {
+            final Claims claims = Jwts.parser().setSigningKey("secretkey")
+                    .parseClaimsJws(token).getBody();
+            exchange.getAttributes().put("claims", claims);
+        }
+        catch (JwtException | IllegalArgumentException exception)
+        {
+            return unauthorized(exchange);
+        }
+
+        return chain.filter(exchange);
+    }
+
+    private static Mono<Void> unauthorized(ServerWebExchange exchange)
+    {
+        exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
+        return exchange.getResponse().setComplete();
+    }
+}
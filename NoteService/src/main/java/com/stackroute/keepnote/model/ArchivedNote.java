@@ -0,0 +1,109 @@
+package com.stackroute.keepnote.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/*
+ * A note moved out of the notes of its user by NoteArchiver, one document per note.
+ * The id is derived from (userId, noteId) and the moveId of the archiver run, so a
+ * copy is never replaced, not by another run nor by a later note reusing the noteId.
+ * A copy is pending until its note has been removed from its user, pending copies
+ * are not read.
+ */
+@Document(collection = "noteArchive")
+@CompoundIndex(name = "userId_noteId", def = "{'userId': 1, 'noteId': 1}")
+public class ArchivedNote {
+
+    @Id
+    private String id;
+
+    private String userId;
+
+    private int noteId;
+
+    private String moveId;
+
+    private Boolean pending;
+
+    private Date archivedDate;
+
+    private Note note;
+
+    public ArchivedNote() {
+
+    }
+
+    public static String archiveId(String userId, int noteId, String moveId) {
+        return userId + ":" + noteId + ":" + moveId;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public int getNoteId() {
+        return noteId;
+    }
+
+    public void setNoteId(int noteId) {
+        this.noteId = noteId;
+    }
+
+    public String getMoveId() {
+        return moveId;
+    }
+
+    public void setMoveId(String moveId) {
+        this.moveId = moveId;
+    }
+
+    public Boolean getPending() {
+        return pending;
+    }
+
+    public void setPending(Boolean pending) {
+        this.pending = pending;
+    }
+
+    public Date getArchivedDate() {
+        return archivedDate;
+    }
+
+    public void setArchivedDate(Date archivedDate) {
+        this.archivedDate = archivedDate;
+    }
+
+    public Note getNote() {
+        return note;
+    }
+
+    public void setNote(Note note) {
+        this.note = note;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchivedNote{" +
+                "userId='" + userId + '\'' +
+                ", noteId=" + noteId +
+                ", moveId='" + moveId + '\'' +
+                ", pending=" + pending +
+                ", archivedDate=" + archivedDate +
+                '}';
+    }
+}
@@ -19,7 +19,10 @@ public class Note extends NoteUser {
 
 	private String noteTitle;
 
-	private String noteContent;
+	/*
+	 * Large contents are stored compressed, see NoteContent.
+	 */
+	private NoteContent noteContent;
 
 	private String noteStatus;
 
@@ -31,6 +34,13 @@ public class Note extends NoteUser {
 
 	private List<Reminder> reminders;
 
+	/*
+	 * Revision of this note, incremented by every write and set by the server. A new
+	 * note starts at its creation time in millis, so a re-created noteId does not
+	 * repeat the revisions of the note it replaces.
+	 */
+	private Long changeSeq;
+
 	public Note() {
 		super();
 	}
@@ -40,7 +50,7 @@ public class Note extends NoteUser {
 		super(userId, notes);
 		this.noteId = noteId;
 		this.noteTitle = noteTitle;
-		this.noteContent = noteContent;
+		setNoteContent(noteContent);
 		this.noteStatus = noteStatus;
 		this.noteCreationDate = createdAt;
 		this.noteCreatedBy = createdBy;
@@ -68,11 +78,18 @@ public class Note extends NoteUser {
 	}
 
 	public String getNoteContent() {
-		return noteContent;
+		return noteContent == null ? null : noteContent.getText();
 	}
 
 	public void setNoteContent(String noteContent) {
-		this.noteContent = noteContent;
+		this.noteContent = noteContent == null ? null : NoteContent.of(noteContent);
+	}
+
+	/*
+	 * Bytes taken by the content as it is held, without decompressing it.
+	 */
+	public long noteContentWeight() {
+		return noteContent == null ? 0 : noteContent.getWeight();
 	}
 
 	public String getNoteStatus() {
@@ -115,6 +132,14 @@ public class Note extends NoteUser {
 		this.reminders = reminders;
 	}
 
+	public Long getChangeSeq() {
+		return changeSeq;
+	}
+
+	public void setChangeSeq(Long changeSeq) {
+		this.changeSeq = changeSeq;
+	}
+
 	@Override
 	public String toString() {
 		return "Note{" +
@@ -126,6 +151,7 @@ public class Note extends NoteUser {
 				", createdBy='" + noteCreatedBy + '\'' +
 				", category=" + category +
 				", reminders=" + reminders +
+				", changeSeq=" + changeSeq +
 				'}';
 	}
 }
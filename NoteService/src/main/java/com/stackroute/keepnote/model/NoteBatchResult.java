@@ -0,0 +1,60 @@
+package com.stackroute.keepnote.model;
+
+/*
+ * Outcome for one note of a batch request. index is the position of the note in the
+ * request body, status is CREATED or CONFLICT (noteId already taken).
+ */
+public class NoteBatchResult {
+
+    public static final String CREATED = "CREATED";
+    public static final String CONFLICT = "CONFLICT";
+
+    private int index;
+
+    private int noteId;
+
+    private String status;
+
+    public NoteBatchResult() {
+
+    }
+
+    public NoteBatchResult(int index, int noteId, String status) {
+        this.index = index;
+        this.noteId = noteId;
+        this.status = status;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public int getNoteId() {
+        return noteId;
+    }
+
+    public void setNoteId(int noteId) {
+        this.noteId = noteId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteBatchResult{" +
+                "index=" + index +
+                ", noteId=" + noteId +
+                ", status='" + status + '\'' +
+                '}';
+    }
+}
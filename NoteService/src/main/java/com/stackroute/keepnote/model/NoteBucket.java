@@ -0,0 +1,107 @@
+package com.stackroute.keepnote.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.List;
+
+/*
+ * A fixed-capacity slice of the notes of one user, used when notes are stored in
+ * bucketed mode (keepnote.note.storage=bucketed) instead of the single NoteUser.notes
+ * array. A user's buckets are identified by (userId, bucketSeq), count is the number
+ * of notes currently held by the bucket. Buckets opened by writes start at bucketSeq
+ * 1, notes migrated from NoteUser.notes are held by the buckets up to bucketSeq 0. The status, category and creation date
+ * indexes serve note queries, see NoteRepositoryCustom.findNotes.
+ */
+@Document(collection = "noteBucket")
+@CompoundIndexes({
+        @CompoundIndex(name = "userId_bucketSeq", def = "{'userId': 1, 'bucketSeq': 1}", unique = true),
+        @CompoundIndex(name = "userId_noteId", def = "{'userId': 1, 'notes.noteId': 1}"),
+        @CompoundIndex(name = "userId_status_category_created",
+                def = "{'userId': 1, 'notes.noteStatus': 1, 'notes.category.categoryName': 1, 'notes.noteCreationDate': 1}"),
+        @CompoundIndex(name = "userId_category_created",
+                def = "{'userId': 1, 'notes.category.categoryName': 1, 'notes.noteCreationDate': 1}"),
+        @CompoundIndex(name = "userId_categoryId_created",
+                def = "{'userId': 1, 'notes.category.categoryId': 1, 'notes.noteCreationDate': 1}")
+})
+public class NoteBucket {
+
+    @Id
+    private String id;
+
+    private String userId;
+
+    private int bucketSeq;
+
+    private int count;
+
+    private List<Note> notes;
+
+    public NoteBucket() {
+
+    }
+
+    public NoteBucket(String userId, int bucketSeq, List<Note> notes) {
+        this.id = bucketId(userId, bucketSeq);
+        this.userId = userId;
+        this.bucketSeq = bucketSeq;
+        this.count = notes.size();
+        this.notes = notes;
+    }
+
+    public static String bucketId(String userId, int bucketSeq) {
+        return userId + ":" + bucketSeq;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public int getBucketSeq() {
+        return bucketSeq;
+    }
+
+    public void setBucketSeq(int bucketSeq) {
+        this.bucketSeq = bucketSeq;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public List<Note> getNotes() {
+        return notes;
+    }
+
+    public void setNotes(List<Note> notes) {
+        this.notes = notes;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteBucket{" +
+                "id='" + id + '\'' +
+                ", userId='" + userId + '\'' +
+                ", bucketSeq=" + bucketSeq +
+                ", count=" + count +
+                '}';
+    }
+}
@@ -0,0 +1,98 @@
+package com.stackroute.keepnote.model;
+
+/*
+ * Counters of the per-user note cache since startup. weightedSize is the estimated
+ * size in bytes of the cached note lists, evictionWeight the total of evicted ones.
+ */
+public class NoteCacheStats {
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    private long evictionWeight;
+
+    private long size;
+
+    private long weightedSize;
+
+    public NoteCacheStats() {
+
+    }
+
+    public NoteCacheStats(long hitCount, long missCount, long evictionCount, long evictionWeight, long size, long weightedSize) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.evictionWeight = evictionWeight;
+        this.size = size;
+        this.weightedSize = weightedSize;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public void setHitCount(long hitCount) {
+        this.hitCount = hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public void setMissCount(long missCount) {
+        this.missCount = missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public void setEvictionCount(long evictionCount) {
+        this.evictionCount = evictionCount;
+    }
+
+    public long getEvictionWeight() {
+        return evictionWeight;
+    }
+
+    public void setEvictionWeight(long evictionWeight) {
+        this.evictionWeight = evictionWeight;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getWeightedSize() {
+        return weightedSize;
+    }
+
+    public void setWeightedSize(long weightedSize) {
+        this.weightedSize = weightedSize;
+    }
+
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteCacheStats{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", evictionCount=" + evictionCount +
+                ", evictionWeight=" + evictionWeight +
+                ", size=" + size +
+                ", weightedSize=" + weightedSize +
+                '}';
+    }
+}
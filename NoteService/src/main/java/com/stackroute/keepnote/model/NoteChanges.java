@@ -0,0 +1,85 @@
+package com.stackroute.keepnote.model;
+
+import java.util.List;
+
+/*
+ * Notes of a user which changed after the "since" version of a delta sync. Clients
+ * apply deletedNoteIds before changed and pass nextSince on their next sync. When
+ * fullResync is set the changes cannot be computed from "since" anymore, changed
+ * then holds all notes and replaces the client's copy.
+ */
+public class NoteChanges {
+
+    private long since;
+
+    private long nextSince;
+
+    private boolean fullResync;
+
+    private List<Note> changed;
+
+    private List<Integer> deletedNoteIds;
+
+    public NoteChanges() {
+
+    }
+
+    public NoteChanges(long since, long nextSince, boolean fullResync, List<Note> changed, List<Integer> deletedNoteIds) {
+        this.since = since;
+        this.nextSince = nextSince;
+        this.fullResync = fullResync;
+        this.changed = changed;
+        this.deletedNoteIds = deletedNoteIds;
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    public void setSince(long since) {
+        this.since = since;
+    }
+
+    public long getNextSince() {
+        return nextSince;
+    }
+
+    public void setNextSince(long nextSince) {
+        this.nextSince = nextSince;
+    }
+
+    public boolean isFullResync() {
+        return fullResync;
+    }
+
+    public void setFullResync(boolean fullResync) {
+        this.fullResync = fullResync;
+    }
+
+    public List<Note> getChanged() {
+        return changed;
+    }
+
+    public void setChanged(List<Note> changed) {
+        this.changed = changed;
+    }
+
+    public List<Integer> getDeletedNoteIds() {
+        return deletedNoteIds;
+    }
+
+    public void setDeletedNoteIds(List<Integer> deletedNoteIds) {
+        this.deletedNoteIds = deletedNoteIds;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteChanges{" +
+                "since=" + since +
+                ", nextSince=" + nextSince +
+                ", fullResync=" + fullResync +
+                ", changed=" + changed +
+                ", deletedNoteIds=" + deletedNoteIds +
+                '}';
+    }
+}
@@ -0,0 +1,159 @@
+package com.stackroute.keepnote.model;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * The noteContent of a note as it is held in memory and stored in Mongo: either the
+ * plain text, or the compressed bytes read from Mongo. Compressed content is only
+ * decompressed when the text is asked for, e.g. when the note is serialized to JSON,
+ * and the text is not kept, so cached notes stay compressed.
+ *
+ * Compressed content is stored as binary starting with a codec marker byte, followed
+ * by the length of the UTF-8 text (4 bytes) and the compressed UTF-8 text. The stored
+ * length is not trusted when decompressing: it must be within MAX_TEXT_LENGTH and what
+ * deflate can expand the stored bytes to, and the buffer grows with the inflated text
+ * instead of being allocated at that length up front.
+ */
+public final class NoteContent {
+
+    public static final byte DEFLATE = 1;
+
+    private static final int HEADER_LENGTH = 5;
+
+    // a note is stored within a 16 MB document, its text cannot inflate beyond this
+    private static final int MAX_TEXT_LENGTH = 64 * 1024 * 1024;
+
+    // deflate expands its input at most about 1032 times
+    private static final long MAX_DEFLATE_RATIO = 1032;
+
+    private static final int INFLATE_BUFFER_SIZE = 8192;
+
+    private final String text;
+
+    private final byte[] compressed;
+
+    private NoteContent(String text, byte[] compressed) {
+        this.text = text;
+        this.compressed = compressed;
+    }
+
+    public static NoteContent of(String text) {
+        return new NoteContent(text, null);
+    }
+
+    /*
+     * Wraps content read from Mongo, the codec marker is checked when it is decompressed.
+     */
+    public static NoteContent ofCompressed(byte[] compressed) {
+        return new NoteContent(null, compressed);
+    }
+
+    /*
+     * Deflates the text at the given level, returns the plain content if that does not
+     * make it smaller.
+     */
+    public static NoteContent compress(String text, int level) {
+
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(level);
+
+        try
+        {
+            deflater.setInput(utf8);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length / 2 + HEADER_LENGTH);
+            out.write(DEFLATE);
+            out.write(ByteBuffer.allocate(4).putInt(utf8.length).array(), 0, 4);
+
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished() && out.size() < utf8.length)
+            {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+
+            return deflater.finished() && out.size() < utf8.length ? ofCompressed(out.toByteArray()) : of(text);
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    public boolean isCompressed() {
+        return compressed != null;
+    }
+
+    /*
+     * The bytes stored in Mongo for compressed content, null for plain content.
+     */
+    public byte[] getCompressed() {
+        return compressed;
+    }
+
+    /*
+     * Decompresses on every call for compressed content.
+     */
+    public String getText() {
+        return compressed == null ? text : decompress(compressed);
+    }
+
+    /*
+     * Bytes taken by the content as it is held, 2 per char for plain text.
+     */
+    public long getWeight() {
+        return compressed == null ? 2L * text.length() : compressed.length;
+    }
+
+    private static String decompress(byte[] compressed) {
+
+        if (compressed.length < HEADER_LENGTH || compressed[0] != DEFLATE)
+        {
+            throw new IllegalStateException("Unknown noteContent codec " + (compressed.length > 0 ? compressed[0] : -1));
+        }
+
+        int length = ByteBuffer.wrap(compressed, 1, 4).getInt();
+        if (length < 0 || length > MAX_TEXT_LENGTH || length > (compressed.length - HEADER_LENGTH) * MAX_DEFLATE_RATIO)
+        {
+            throw new IllegalStateException("Corrupt noteContent, length " + length + " of " + compressed.length + " compressed bytes");
+        }
+
+        ByteArrayOutputStream utf8 = new ByteArrayOutputStream(Math.min(length, INFLATE_BUFFER_SIZE));
+        byte[] buffer = new byte[Math.min(Math.max(length, 1), INFLATE_BUFFER_SIZE)];
+        Inflater inflater = new Inflater();
+
+        try
+        {
+            inflater.setInput(compressed, HEADER_LENGTH, compressed.length - HEADER_LENGTH);
+
+            while (utf8.size() < length)
+            {
+                int inflated = inflater.inflate(buffer, 0, Math.min(buffer.length, length - utf8.size()));
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    throw new IllegalStateException("Truncated noteContent, " + utf8.size() + " of " + length + " bytes");
+                }
+                utf8.write(buffer, 0, inflated);
+            }
+            return new String(utf8.toByteArray(), StandardCharsets.UTF_8);
+        }
+        catch (DataFormatException exception)
+        {
+            throw new IllegalStateException("Corrupt noteContent", exception);
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return compressed == null ? text : "<" + compressed.length + " compressed bytes>";
+    }
+}
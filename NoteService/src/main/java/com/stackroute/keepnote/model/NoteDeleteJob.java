@@ -0,0 +1,121 @@
+package com.stackroute.keepnote.model;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * State of an asynchronous bulk delete. deletedNoteIds grows as the job works
+ * through the requested noteIds, status is RUNNING until the job is DONE or FAILED.
+ * The worker thread only appends to deletedNoteIds, which readers iterate while it
+ * grows, and publishes their number in deleted after each chunk.
+ */
+public class NoteDeleteJob {
+
+    public static final String RUNNING = "RUNNING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+
+    private String jobId;
+
+    private String userId;
+
+    private volatile String status;
+
+    private int requested;
+
+    private final Queue<Integer> deletedNoteIds = new ConcurrentLinkedQueue<>();
+
+    private volatile int deleted;
+
+    private Date createdDate;
+
+    private volatile Date finishedDate;
+
+    public NoteDeleteJob() {
+
+    }
+
+    public NoteDeleteJob(String jobId, String userId, int requested) {
+        this.jobId = jobId;
+        this.userId = userId;
+        this.requested = requested;
+        this.status = RUNNING;
+        this.createdDate = new Date();
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getRequested() {
+        return requested;
+    }
+
+    public void setRequested(int requested) {
+        this.requested = requested;
+    }
+
+    public Collection<Integer> getDeletedNoteIds() {
+        return deletedNoteIds;
+    }
+
+    public void addDeletedNoteIds(Collection<Integer> noteIds) {
+        deletedNoteIds.addAll(noteIds);
+        deleted += noteIds.size();
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+
+    public Date getCreatedDate() {
+        return createdDate;
+    }
+
+    public void setCreatedDate(Date createdDate) {
+        this.createdDate = createdDate;
+    }
+
+    public Date getFinishedDate() {
+        return finishedDate;
+    }
+
+    public void setFinishedDate(Date finishedDate) {
+        this.finishedDate = finishedDate;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteDeleteJob{" +
+                "jobId='" + jobId + '\'' +
+                ", userId='" + userId + '\'' +
+                ", status='" + status + '\'' +
+                ", requested=" + requested +
+                ", deleted=" + deleted +
+                ", createdDate=" + createdDate +
+                ", finishedDate=" + finishedDate +
+                '}';
+    }
+}
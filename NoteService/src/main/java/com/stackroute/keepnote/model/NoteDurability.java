@@ -0,0 +1,30 @@
+package com.stackroute.keepnote.model;
+
+import java.util.Locale;
+
+/*
+ * When a createNote or updateNote is answered while the write-behind queue is enabled,
+ * requested per write with the X-Note-Durability header:
+ * QUEUED - once the note is queued in memory, it is lost if the service dies first.
+ * JOURNALED - once the note is also forced to the journal on local disk.
+ * ACKNOWLEDGED - once the batch holding the note has been written to Mongo.
+ */
+public enum NoteDurability {
+
+    QUEUED, JOURNALED, ACKNOWLEDGED;
+
+    public static final String HEADER = "X-Note-Durability";
+
+    /*
+     * Parses a header value case insensitively, null for a missing header. Throws
+     * IllegalArgumentException for an unknown level.
+     */
+    public static NoteDurability parse(String value) {
+
+        if (value == null || value.trim().isEmpty())
+        {
+            return null;
+        }
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
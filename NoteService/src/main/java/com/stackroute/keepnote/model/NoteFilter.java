@@ -0,0 +1,63 @@
+package com.stackroute.keepnote.model;
+
+import java.util.Date;
+
+/*
+ * Filter of a note query, every field which is not null has to match: noteStatus,
+ * categoryId and categoryName exactly, noteCreationDate from createdFrom (inclusive) to
+ * createdTo (exclusive).
+ */
+public class NoteFilter {
+
+    private final String noteStatus;
+
+    private final String categoryId;
+
+    private final String categoryName;
+
+    private final Date createdFrom;
+
+    private final Date createdTo;
+
+    public NoteFilter(String noteStatus, String categoryName, Date createdFrom, Date createdTo) {
+        this(noteStatus, null, categoryName, createdFrom, createdTo);
+    }
+
+    public NoteFilter(String noteStatus, String categoryId, String categoryName, Date createdFrom, Date createdTo) {
+        this.noteStatus = noteStatus;
+        this.categoryId = categoryId;
+        this.categoryName = categoryName;
+        this.createdFrom = createdFrom;
+        this.createdTo = createdTo;
+    }
+
+    public String getNoteStatus() {
+        return noteStatus;
+    }
+
+    public String getCategoryId() {
+        return categoryId;
+    }
+
+    public String getCategoryName() {
+        return categoryName;
+    }
+
+    public Date getCreatedFrom() {
+        return createdFrom;
+    }
+
+    public Date getCreatedTo() {
+        return createdTo;
+    }
+
+    public boolean isEmpty() {
+        return noteStatus == null && categoryId == null && categoryName == null && createdFrom == null && createdTo == null;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteFilter [noteStatus=" + noteStatus + ", categoryId=" + categoryId + ", categoryName=" + categoryName + ", createdFrom=" + createdFrom
+                + ", createdTo=" + createdTo + "]";
+    }
+}
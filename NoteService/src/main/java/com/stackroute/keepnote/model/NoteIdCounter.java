@@ -0,0 +1,50 @@
+package com.stackroute.keepnote.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/*
+ * Per-user counter from which server side noteIds are allocated. lastNoteId is the
+ * highest noteId handed out (or reserved) so far for the user.
+ */
+@Document(collection = "noteIdCounter")
+public class NoteIdCounter {
+
+    @Id
+    private String userId;
+
+    private int lastNoteId;
+
+    public NoteIdCounter() {
+
+    }
+
+    public NoteIdCounter(String userId, int lastNoteId) {
+        this.userId = userId;
+        this.lastNoteId = lastNoteId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public int getLastNoteId() {
+        return lastNoteId;
+    }
+
+    public void setLastNoteId(int lastNoteId) {
+        this.lastNoteId = lastNoteId;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteIdCounter{" +
+                "userId='" + userId + '\'' +
+                ", lastNoteId=" + lastNoteId +
+                '}';
+    }
+}
@@ -0,0 +1,69 @@
+package com.stackroute.keepnote.model;
+
+/*
+ * A note of an import which was not imported. position is the index of the note in
+ * the dump, userId and noteId are those of the note as far as they could be read.
+ */
+public class NoteImportError {
+
+    private long position;
+
+    private String userId;
+
+    private int noteId;
+
+    private String message;
+
+    public NoteImportError() {
+
+    }
+
+    public NoteImportError(long position, String userId, int noteId, String message) {
+        this.position = position;
+        this.userId = userId;
+        this.noteId = noteId;
+        this.message = message;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public void setPosition(long position) {
+        this.position = position;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public int getNoteId() {
+        return noteId;
+    }
+
+    public void setNoteId(int noteId) {
+        this.noteId = noteId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteImportError{" +
+                "position=" + position +
+                ", userId='" + userId + '\'' +
+                ", noteId=" + noteId +
+                ", message='" + message + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,84 @@
+package com.stackroute.keepnote.model;
+
+import java.util.List;
+
+/*
+ * Outcome of a note import. read notes were either imported or rejected, errors holds
+ * the first rejected ones. failure is set if the dump could not be read to its end,
+ * the notes read before it are imported all the same.
+ */
+public class NoteImportResult {
+
+    private long read;
+
+    private long imported;
+
+    private long rejected;
+
+    private List<NoteImportError> errors;
+
+    private String failure;
+
+    public NoteImportResult() {
+
+    }
+
+    public NoteImportResult(long read, long imported, long rejected, List<NoteImportError> errors, String failure) {
+        this.read = read;
+        this.imported = imported;
+        this.rejected = rejected;
+        this.errors = errors;
+        this.failure = failure;
+    }
+
+    public long getRead() {
+        return read;
+    }
+
+    public void setRead(long read) {
+        this.read = read;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public void setImported(long imported) {
+        this.imported = imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(long rejected) {
+        this.rejected = rejected;
+    }
+
+    public List<NoteImportError> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<NoteImportError> errors) {
+        this.errors = errors;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    public void setFailure(String failure) {
+        this.failure = failure;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteImportResult{" +
+                "read=" + read +
+                ", imported=" + imported +
+                ", rejected=" + rejected +
+                ", errors=" + errors +
+                ", failure='" + failure + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,49 @@
+package com.stackroute.keepnote.model;
+
+import java.util.Date;
+
+/*
+ * One entry of NoteUser.changeLog: the note with the given noteId was created, updated
+ * or deleted. The entry is appended by the write itself, in the same update which
+ * moves the user's version, so the last entry of the log is at the current version and
+ * each entry before it at one version less.
+ */
+public class NoteLogEntry {
+
+    private int noteId;
+
+    private Date changedDate;
+
+    public NoteLogEntry() {
+
+    }
+
+    public NoteLogEntry(int noteId, Date changedDate) {
+        this.noteId = noteId;
+        this.changedDate = changedDate;
+    }
+
+    public int getNoteId() {
+        return noteId;
+    }
+
+    public void setNoteId(int noteId) {
+        this.noteId = noteId;
+    }
+
+    public Date getChangedDate() {
+        return changedDate;
+    }
+
+    public void setChangedDate(Date changedDate) {
+        this.changedDate = changedDate;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteLogEntry{" +
+                "noteId=" + noteId +
+                ", changedDate=" + changedDate +
+                '}';
+    }
+}
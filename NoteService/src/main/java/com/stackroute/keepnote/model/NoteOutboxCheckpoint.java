@@ -0,0 +1,82 @@
+package com.stackroute.keepnote.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/*
+ * Progress of the outbox worker, shared by all NoteService instances. Only the
+ * instance holding the lease (owner until leaseUntil) applies entries. lastEntryId
+ * and lastCreatedDate identify the last entry applied, applied counts all of them.
+ */
+@Document(collection = "noteOutboxCheckpoint")
+public class NoteOutboxCheckpoint {
+
+    public static final String ID = "notes";
+
+    @Id
+    private String id;
+
+    private String owner;
+
+    private Date leaseUntil;
+
+    private String lastEntryId;
+
+    private Date lastCreatedDate;
+
+    private long applied;
+
+    public NoteOutboxCheckpoint() {
+
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public Date getLeaseUntil() {
+        return leaseUntil;
+    }
+
+    public void setLeaseUntil(Date leaseUntil) {
+        this.leaseUntil = leaseUntil;
+    }
+
+    public String getLastEntryId() {
+        return lastEntryId;
+    }
+
+    public void setLastEntryId(String lastEntryId) {
+        this.lastEntryId = lastEntryId;
+    }
+
+    public Date getLastCreatedDate() {
+        return lastCreatedDate;
+    }
+
+    public void setLastCreatedDate(Date lastCreatedDate) {
+        this.lastCreatedDate = lastCreatedDate;
+    }
+
+    public long getApplied() {
+        return applied;
+    }
+
+    public void setApplied(long applied) {
+        this.applied = applied;
+    }
+}
@@ -0,0 +1,174 @@
+package com.stackroute.keepnote.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/*
+ * A change of a category or reminder recorded by CategoryService or ReminderService,
+ * whose copies embedded in notes still have to be updated. Updates carry the new
+ * category or reminder, deletes only the entityId. appliedDate is set once the copies
+ * are updated, failedDate once the entry was given up after too many attempts.
+ * Applied entries expire after a week.
+ *
+ * There is one entry per category or reminder, with the id "CATEGORY:" or "REMINDER:"
+ * followed by its id. seq is the sequence of the change in the category or reminder
+ * document, a later change overwrites the entry with a higher seq and makes it pending
+ * again.
+ */
+@Document(collection = "noteOutbox")
+@CompoundIndex(name = "appliedDate_failedDate_createdDate", def = "{'appliedDate': 1, 'failedDate': 1, 'createdDate': 1}")
+public class NoteOutboxEntry {
+
+    public static final String CATEGORY_UPDATED = "CATEGORY_UPDATED";
+    public static final String CATEGORY_DELETED = "CATEGORY_DELETED";
+    public static final String REMINDER_UPDATED = "REMINDER_UPDATED";
+    public static final String REMINDER_DELETED = "REMINDER_DELETED";
+
+    @Id
+    private String id;
+
+    private String type;
+
+    private String entityId;
+
+    private long seq;
+
+    private Category category;
+
+    private Reminder reminder;
+
+    private Date createdDate;
+
+    @Indexed(expireAfterSeconds = 604800)
+    private Date appliedDate;
+
+    private Date failedDate;
+
+    private int attempts;
+
+    private Date nextAttemptDate;
+
+    private String lastError;
+
+    public NoteOutboxEntry() {
+
+    }
+
+    public NoteOutboxEntry(String type, String entityId, Date createdDate) {
+        this.type = type;
+        this.entityId = entityId;
+        this.createdDate = createdDate;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public void setEntityId(String entityId) {
+        this.entityId = entityId;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public Category getCategory() {
+        return category;
+    }
+
+    public void setCategory(Category category) {
+        this.category = category;
+    }
+
+    public Reminder getReminder() {
+        return reminder;
+    }
+
+    public void setReminder(Reminder reminder) {
+        this.reminder = reminder;
+    }
+
+    public Date getCreatedDate() {
+        return createdDate;
+    }
+
+    public void setCreatedDate(Date createdDate) {
+        this.createdDate = createdDate;
+    }
+
+    public Date getAppliedDate() {
+        return appliedDate;
+    }
+
+    public void setAppliedDate(Date appliedDate) {
+        this.appliedDate = appliedDate;
+    }
+
+    public Date getFailedDate() {
+        return failedDate;
+    }
+
+    public void setFailedDate(Date failedDate) {
+        this.failedDate = failedDate;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Date getNextAttemptDate() {
+        return nextAttemptDate;
+    }
+
+    public void setNextAttemptDate(Date nextAttemptDate) {
+        this.nextAttemptDate = nextAttemptDate;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteOutboxEntry{" +
+                "id='" + id + '\'' +
+                ", type='" + type + '\'' +
+                ", entityId='" + entityId + '\'' +
+                ", seq=" + seq +
+                ", createdDate=" + createdDate +
+                ", attempts=" + attempts +
+                '}';
+    }
+}
@@ -0,0 +1,130 @@
+package com.stackroute.keepnote.model;
+
+import java.util.Date;
+
+/*
+ * Counters of the outbox worker of this instance since startup. documentsModified
+ * counts NoteUser and NoteBucket documents whose copies were changed, lagMillis is the
+ * age of the last applied entry when it was applied.
+ */
+public class NoteOutboxStats {
+
+    private long applied;
+
+    private long retried;
+
+    private long failed;
+
+    private long documentsModified;
+
+    private long batches;
+
+    private int lastBatchSize;
+
+    private long lastBatchMillis;
+
+    private double entriesPerSecond;
+
+    private long lagMillis;
+
+    private Date lastAppliedDate;
+
+    public NoteOutboxStats() {
+
+    }
+
+    public NoteOutboxStats(long applied, long retried, long failed, long documentsModified, long batches,
+                           int lastBatchSize, long lastBatchMillis, double entriesPerSecond, long lagMillis,
+                           Date lastAppliedDate) {
+        this.applied = applied;
+        this.retried = retried;
+        this.failed = failed;
+        this.documentsModified = documentsModified;
+        this.batches = batches;
+        this.lastBatchSize = lastBatchSize;
+        this.lastBatchMillis = lastBatchMillis;
+        this.entriesPerSecond = entriesPerSecond;
+        this.lagMillis = lagMillis;
+        this.lastAppliedDate = lastAppliedDate;
+    }
+
+    public long getApplied() {
+        return applied;
+    }
+
+    public void setApplied(long applied) {
+        this.applied = applied;
+    }
+
+    public long getRetried() {
+        return retried;
+    }
+
+    public void setRetried(long retried) {
+        this.retried = retried;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(long failed) {
+        this.failed = failed;
+    }
+
+    public long getDocumentsModified() {
+        return documentsModified;
+    }
+
+    public void setDocumentsModified(long documentsModified) {
+        this.documentsModified = documentsModified;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public void setBatches(long batches) {
+        this.batches = batches;
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public void setLastBatchSize(int lastBatchSize) {
+        this.lastBatchSize = lastBatchSize;
+    }
+
+    public long getLastBatchMillis() {
+        return lastBatchMillis;
+    }
+
+    public void setLastBatchMillis(long lastBatchMillis) {
+        this.lastBatchMillis = lastBatchMillis;
+    }
+
+    public double getEntriesPerSecond() {
+        return entriesPerSecond;
+    }
+
+    public void setEntriesPerSecond(double entriesPerSecond) {
+        this.entriesPerSecond = entriesPerSecond;
+    }
+
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    public void setLagMillis(long lagMillis) {
+        this.lagMillis = lagMillis;
+    }
+
+    public Date getLastAppliedDate() {
+        return lastAppliedDate;
+    }
+
+    public void setLastAppliedDate(Date lastAppliedDate) {
+        this.lastAppliedDate = lastAppliedDate;
+    }
+}
@@ -0,0 +1,47 @@
+package com.stackroute.keepnote.model;
+
+import java.util.List;
+
+/*
+ * One page of a user's notes returned by the paginated listing. nextCursor is an
+ * opaque token to pass as "after" for the next page, it is null on the last page.
+ */
+public class NotePage {
+
+    private List<Note> notes;
+
+    private String nextCursor;
+
+    public NotePage() {
+
+    }
+
+    public NotePage(List<Note> notes, String nextCursor) {
+        this.notes = notes;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Note> getNotes() {
+        return notes;
+    }
+
+    public void setNotes(List<Note> notes) {
+        this.notes = notes;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    @Override
+    public String toString() {
+        return "NotePage{" +
+                "notes=" + notes +
+                ", nextCursor='" + nextCursor + '\'' +
+                '}';
+    }
+}
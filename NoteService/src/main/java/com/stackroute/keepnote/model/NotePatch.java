@@ -0,0 +1,90 @@
+package com.stackroute.keepnote.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Field-level change of one note, read from a JSON Patch or JSON Merge Patch by
+ * NotePatchReader. Paths are relative to the note and dotted, e.g. "noteTitle" or
+ * "category.categoryName". Set values are of the type of the Note property:
+ * String, NoteContent, Category or a List of Reminder.
+ */
+public class NotePatch {
+
+    private final Map<String, Object> set = new LinkedHashMap<>();
+
+    private final Set<String> unset = new LinkedHashSet<>();
+
+    public NotePatch() {
+
+    }
+
+    /*
+     * A later change of the same path replaces an earlier one. A path and one of its
+     * parents cannot both be changed, Mongo rejects such an update.
+     */
+    public void set(String path, Object value) {
+        checkOverlap(path);
+        unset.remove(path);
+        set.put(path, value);
+    }
+
+    public void unset(String path) {
+        checkOverlap(path);
+        set.remove(path);
+        unset.add(path);
+    }
+
+    public Map<String, Object> getSet() {
+        return Collections.unmodifiableMap(set);
+    }
+
+    public Set<String> getUnset() {
+        return Collections.unmodifiableSet(unset);
+    }
+
+    public boolean isEmpty() {
+        return set.isEmpty() && unset.isEmpty();
+    }
+
+    /*
+     * True if the field or one of its sub-fields is changed.
+     */
+    public boolean touches(String field) {
+        for (String path : paths())
+        {
+            if (path.equals(field) || path.startsWith(field + "."))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Set<String> paths() {
+        Set<String> paths = new LinkedHashSet<>(set.keySet());
+        paths.addAll(unset);
+        return paths;
+    }
+
+    private void checkOverlap(String path) {
+        for (String other : paths())
+        {
+            if (path.startsWith(other + ".") || other.startsWith(path + "."))
+            {
+                throw new IllegalArgumentException("Patch changes both " + other + " and " + path);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NotePatch{" +
+                "set=" + set.keySet() +
+                ", unset=" + unset +
+                '}';
+    }
+}
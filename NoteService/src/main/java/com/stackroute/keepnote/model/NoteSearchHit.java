@@ -0,0 +1,79 @@
+package com.stackroute.keepnote.model;
+
+/*
+ * One note matched by a full-text search, with its BM25 score and highlighted
+ * fragments of noteTitle and noteContent (matched terms wrapped in <em> tags).
+ */
+public class NoteSearchHit {
+
+    private int noteId;
+
+    private String noteTitle;
+
+    private float score;
+
+    private String titleHighlight;
+
+    private String contentHighlight;
+
+    public NoteSearchHit() {
+
+    }
+
+    public NoteSearchHit(int noteId, String noteTitle, float score, String titleHighlight, String contentHighlight) {
+        this.noteId = noteId;
+        this.noteTitle = noteTitle;
+        this.score = score;
+        this.titleHighlight = titleHighlight;
+        this.contentHighlight = contentHighlight;
+    }
+
+    public int getNoteId() {
+        return noteId;
+    }
+
+    public void setNoteId(int noteId) {
+        this.noteId = noteId;
+    }
+
+    public String getNoteTitle() {
+        return noteTitle;
+    }
+
+    public void setNoteTitle(String noteTitle) {
+        this.noteTitle = noteTitle;
+    }
+
+    public float getScore() {
+        return score;
+    }
+
+    public void setScore(float score) {
+        this.score = score;
+    }
+
+    public String getTitleHighlight() {
+        return titleHighlight;
+    }
+
+    public void setTitleHighlight(String titleHighlight) {
+        this.titleHighlight = titleHighlight;
+    }
+
+    public String getContentHighlight() {
+        return contentHighlight;
+    }
+
+    public void setContentHighlight(String contentHighlight) {
+        this.contentHighlight = contentHighlight;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteSearchHit{" +
+                "noteId=" + noteId +
+                ", noteTitle='" + noteTitle + '\'' +
+                ", score=" + score +
+                '}';
+    }
+}
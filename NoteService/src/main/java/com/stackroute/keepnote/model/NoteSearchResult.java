@@ -0,0 +1,71 @@
+package com.stackroute.keepnote.model;
+
+import java.util.List;
+
+/*
+ * One page of full-text search results. totalHits counts all matching notes,
+ * hits holds the notes of the requested page ordered by descending score.
+ */
+public class NoteSearchResult {
+
+    private long totalHits;
+
+    private int page;
+
+    private int size;
+
+    private List<NoteSearchHit> hits;
+
+    public NoteSearchResult() {
+
+    }
+
+    public NoteSearchResult(long totalHits, int page, int size, List<NoteSearchHit> hits) {
+        this.totalHits = totalHits;
+        this.page = page;
+        this.size = size;
+        this.hits = hits;
+    }
+
+    public long getTotalHits() {
+        return totalHits;
+    }
+
+    public void setTotalHits(long totalHits) {
+        this.totalHits = totalHits;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public void setPage(int page) {
+        this.page = page;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public List<NoteSearchHit> getHits() {
+        return hits;
+    }
+
+    public void setHits(List<NoteSearchHit> hits) {
+        this.hits = hits;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteSearchResult{" +
+                "totalHits=" + totalHits +
+                ", page=" + page +
+                ", size=" + size +
+                ", hits=" + hits +
+                '}';
+    }
+}
@@ -0,0 +1,122 @@
+package com.stackroute.keepnote.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Note counts of a user, in total, by noteStatus and by categoryId. Notes without a
+ * status or category are counted under NONE. Kept up to date with $inc by every write
+ * of NoteServiceImpl, reconciledDate is the last time they were recomputed from the
+ * notes themselves.
+ */
+@Document(collection = "noteStats")
+public class NoteStats {
+
+    public static final String NONE = "(none)";
+
+    @Id
+    private String userId;
+
+    private long total;
+
+    private Map<String, Long> byStatus = new LinkedHashMap<>();
+
+    private Map<String, Long> byCategory = new LinkedHashMap<>();
+
+    private Date reconciledDate;
+
+    public NoteStats() {
+
+    }
+
+    public NoteStats(String userId) {
+        this.userId = userId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public Map<String, Long> getByStatus() {
+        return byStatus;
+    }
+
+    public void setByStatus(Map<String, Long> byStatus) {
+        this.byStatus = byStatus;
+    }
+
+    public Map<String, Long> getByCategory() {
+        return byCategory;
+    }
+
+    public void setByCategory(Map<String, Long> byCategory) {
+        this.byCategory = byCategory;
+    }
+
+    public Date getReconciledDate() {
+        return reconciledDate;
+    }
+
+    public void setReconciledDate(Date reconciledDate) {
+        this.reconciledDate = reconciledDate;
+    }
+
+    /*
+     * Counts one note with the given status and categoryId, either may be null.
+     */
+    public void add(String noteStatus, String categoryId, long count) {
+        total += count;
+        byStatus.merge(key(noteStatus), count, Long::sum);
+        byCategory.merge(key(categoryId), count, Long::sum);
+    }
+
+    public static String key(String value) {
+        return value == null || value.isEmpty() ? NONE : value;
+    }
+
+    /*
+     * Same counts, regardless of the order of the keys and of keys counted 0.
+     */
+    public boolean sameCounts(NoteStats other) {
+        return other != null && total == other.total
+                && nonZero(byStatus).equals(nonZero(other.byStatus))
+                && nonZero(byCategory).equals(nonZero(other.byCategory));
+    }
+
+    private static Map<String, Long> nonZero(Map<String, Long> counts) {
+        Map<String, Long> nonZero = new LinkedHashMap<>();
+        counts.forEach((key, count) -> {
+            if (count != 0) {
+                nonZero.put(key, count);
+            }
+        });
+        return nonZero;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteStats{" +
+                "userId='" + userId + '\'' +
+                ", total=" + total +
+                ", byStatus=" + byStatus +
+                ", byCategory=" + byCategory +
+                ", reconciledDate=" + reconciledDate +
+                '}';
+    }
+}
@@ -0,0 +1,51 @@
+package com.stackroute.keepnote.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/*
+ * Lease of the stats reconciliation, shared by all NoteService instances. Only the
+ * instance holding it (owner until leaseUntil) recounts the notes.
+ */
+@Document(collection = "noteStatsLease")
+public class NoteStatsLease {
+
+    public static final String ID = "reconciliation";
+
+    @Id
+    private String id;
+
+    private String owner;
+
+    private Date leaseUntil;
+
+    public NoteStatsLease() {
+
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public Date getLeaseUntil() {
+        return leaseUntil;
+    }
+
+    public void setLeaseUntil(Date leaseUntil) {
+        this.leaseUntil = leaseUntil;
+    }
+}
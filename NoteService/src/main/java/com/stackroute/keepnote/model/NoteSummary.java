@@ -0,0 +1,107 @@
+package com.stackroute.keepnote.model;
+
+import java.util.Date;
+
+/*
+ * The fields of a note shown in list views. Read with a projection, so noteContent and
+ * reminders of the notes are never loaded. categoryId lets the category name be resolved
+ * when notes only keep references to their category.
+ */
+public class NoteSummary {
+
+    private int noteId;
+
+    private String noteTitle;
+
+    private String noteStatus;
+
+    private Date noteCreationDate;
+
+    private String categoryId;
+
+    private String categoryName;
+
+    public NoteSummary() {
+
+    }
+
+    public NoteSummary(int noteId, String noteTitle, String noteStatus, Date noteCreationDate, String categoryName) {
+        this(noteId, noteTitle, noteStatus, noteCreationDate, null, categoryName);
+    }
+
+    public NoteSummary(int noteId, String noteTitle, String noteStatus, Date noteCreationDate, String categoryId,
+                       String categoryName) {
+        this.noteId = noteId;
+        this.noteTitle = noteTitle;
+        this.noteStatus = noteStatus;
+        this.noteCreationDate = noteCreationDate;
+        this.categoryId = categoryId;
+        this.categoryName = categoryName;
+    }
+
+    public static NoteSummary of(Note note) {
+        return new NoteSummary(note.getNoteId(), note.getNoteTitle(), note.getNoteStatus(), note.getNoteCreationDate(),
+                note.getCategory() == null ? null : note.getCategory().getCategoryId(),
+                note.getCategory() == null ? null : note.getCategory().getCategoryName());
+    }
+
+    public int getNoteId() {
+        return noteId;
+    }
+
+    public void setNoteId(int noteId) {
+        this.noteId = noteId;
+    }
+
+    public String getNoteTitle() {
+        return noteTitle;
+    }
+
+    public void setNoteTitle(String noteTitle) {
+        this.noteTitle = noteTitle;
+    }
+
+    public String getNoteStatus() {
+        return noteStatus;
+    }
+
+    public void setNoteStatus(String noteStatus) {
+        this.noteStatus = noteStatus;
+    }
+
+    public Date getNoteCreationDate() {
+        return noteCreationDate;
+    }
+
+    public void setNoteCreationDate(Date noteCreationDate) {
+        this.noteCreationDate = noteCreationDate;
+    }
+
+    public String getCategoryId() {
+        return categoryId;
+    }
+
+    public void setCategoryId(String categoryId) {
+        this.categoryId = categoryId;
+    }
+
+    public String getCategoryName() {
+        return categoryName;
+    }
+
+    public void setCategoryName(String categoryName) {
+        this.categoryName = categoryName;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteSummary{" +
+                "noteId=" + noteId +
+                ", noteTitle='" + noteTitle + '\'' +
+                ", noteStatus='" + noteStatus + '\'' +
+                ", noteCreationDate=" + noteCreationDate +
+                ", categoryId='" + categoryId + '\'' +
+                ", categoryName='" + categoryName + '\'' +
+                '}';
+    }
+}
@@ -21,6 +21,18 @@ public class NoteUser {
     private String userId;
     private List<Note> notes;
 
+    /*
+     * Incremented by every write to the notes of the user, null in embedded notes.
+     */
+    private Long version;
+
+    /*
+     * noteIds written since version - changeLog.size(), oldest first, see NoteLogEntry.
+     * Capped at keepnote.note.change-log.max-entries and compacted by age, clients which
+     * synced before its first entry have to download all notes again.
+     */
+    private List<NoteLogEntry> changeLog;
+
     public NoteUser(String userId, List<Note> notes) {
         this.userId = userId;
         this.notes = notes;
@@ -45,4 +57,20 @@ public class NoteUser {
     public void setNotes(List<Note> notes) {
         this.notes = notes;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public List<NoteLogEntry> getChangeLog() {
+        return changeLog;
+    }
+
+    public void setChangeLog(List<NoteLogEntry> changeLog) {
+        this.changeLog = changeLog;
+    }
 }
@@ -0,0 +1,14 @@
+package com.stackroute.keepnote.repository;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import com.stackroute.keepnote.model.ArchivedNote;
+
+/*
+* Cold tier of the notes, holding the notes moved out of NoteUser and NoteBucket
+* documents by NoteArchiver.
+* */
+
+public interface NoteArchiveRepository extends MongoRepository<ArchivedNote, String>, NoteArchiveRepositoryCustom {
+
+}
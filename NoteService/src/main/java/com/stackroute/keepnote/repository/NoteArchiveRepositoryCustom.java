@@ -0,0 +1,90 @@
+package com.stackroute.keepnote.repository;
+
+import com.stackroute.keepnote.model.ArchivedNote;
+import com.stackroute.keepnote.model.Note;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/*
+* Custom operations of NoteArchiveRepository, implemented in NoteArchiveRepositoryImpl
+* using MongoOperations. Notes are returned ordered by noteId, pending copies of notes
+* which are still being moved are left out.
+* */
+
+public interface NoteArchiveRepositoryCustom {
+
+    /*
+     * Stores pending copies of the given notes of the given user in one unordered bulk
+     * write under a new moveId, which is returned. Earlier copies of the same noteIds
+     * are kept.
+     */
+    String saveNotes(String userId, List<Note> notes);
+
+    /*
+     * Makes the pending copies of the given noteIds stored under moveId readable, once
+     * their notes have been removed from the user.
+     */
+    void confirmNotes(String userId, String moveId, Collection<Integer> noteIds);
+
+    /*
+     * Removes the pending copies of the given noteIds stored under moveId.
+     */
+    void discardNotes(String userId, String moveId, Collection<Integer> noteIds);
+
+    /*
+     * Returns at most limit copies which are pending since before archivedBefore, left
+     * by an archiver run which stopped halfway. Only the noteCreationDate of their note
+     * is read.
+     */
+    List<ArchivedNote> findPendingNotes(Date archivedBefore, int limit);
+
+    /*
+     * Returns all archived notes of the given user, possibly none.
+     */
+    List<Note> findAllNotes(String userId);
+
+    /*
+     * Returns at most limit archived notes of the given user starting after afterNoteId,
+     * or from the first note when afterNoteId is null.
+     */
+    List<Note> findNotesAfter(String userId, Integer afterNoteId, int limit);
+
+    /*
+     * Streams the archived notes of the given user after afterNoteId up to and including
+     * lastNoteId like NoteRepository.streamNotes. The iterator must be closed.
+     */
+    CloseableIterator<Note> streamNotes(String userId, Integer afterNoteId, Integer lastNoteId);
+
+    /*
+     * Returns the noteIds of the next limit archived notes of the given user after
+     * afterNoteId in noteId order, a noteId with several copies once.
+     */
+    List<Integer> findNoteIdsAfter(String userId, Integer afterNoteId, int limit);
+
+    /*
+     * Returns those of the given noteIds which any copy of the given user holds, pending
+     * copies included. Such a noteId is taken, a new note must not reuse it.
+     */
+    List<Integer> findArchivedNoteIds(String userId, Collection<Integer> noteIds);
+
+    /*
+     * Removes every copy of the archived note with the given noteId. Returns false if
+     * there was none.
+     */
+    boolean deleteNote(String userId, int noteId);
+
+    /*
+     * Removes the archived notes with one of the given noteIds and returns the noteIds
+     * which were actually removed.
+     */
+    List<Integer> deleteNotes(String userId, Collection<Integer> noteIds);
+
+    /*
+     * Removes all archived notes of the given user and returns their number.
+     */
+    long deleteAllNotes(String userId);
+
+}
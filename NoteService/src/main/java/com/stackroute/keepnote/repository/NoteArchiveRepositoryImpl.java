@@ -0,0 +1,229 @@
+package com.stackroute.keepnote.repository;
+
+import com.stackroute.keepnote.model.ArchivedNote;
+import com.stackroute.keepnote.model.Note;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/*
+* Implementation of NoteArchiveRepositoryCustom. Spring Data picks this class up by its
+* "Impl" postfix and merges it into NoteArchiveRepository.
+* */
+
+public class NoteArchiveRepositoryImpl implements NoteArchiveRepositoryCustom {
+
+    private final MongoOperations mongoOperations;
+
+    @Autowired
+    public NoteArchiveRepositoryImpl(MongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    public String saveNotes(final String userId, final List<Note> notes) {
+
+        String moveId = UUID.randomUUID().toString();
+
+        if (notes.isEmpty())
+        {
+            return moveId;
+        }
+
+        BulkOperations bulk = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, ArchivedNote.class);
+        Date now = new Date();
+
+        for (Note note : notes)
+        {
+            ArchivedNote archivedNote = new ArchivedNote();
+            archivedNote.setId(ArchivedNote.archiveId(userId, note.getNoteId(), moveId));
+            archivedNote.setUserId(userId);
+            archivedNote.setNoteId(note.getNoteId());
+            archivedNote.setMoveId(moveId);
+            archivedNote.setPending(true);
+            archivedNote.setArchivedDate(now);
+            archivedNote.setNote(note);
+            bulk.insert(archivedNote);
+        }
+        bulk.execute();
+        return moveId;
+    }
+
+    public void confirmNotes(final String userId, final String moveId, final Collection<Integer> noteIds) {
+
+        if (!noteIds.isEmpty())
+        {
+            mongoOperations.updateMulti(moved(userId, moveId, noteIds), new Update().unset("pending"), ArchivedNote.class);
+        }
+    }
+
+    public void discardNotes(final String userId, final String moveId, final Collection<Integer> noteIds) {
+
+        if (!noteIds.isEmpty())
+        {
+            mongoOperations.remove(moved(userId, moveId, noteIds).addCriteria(Criteria.where("pending").is(true)), ArchivedNote.class);
+        }
+    }
+
+    public List<ArchivedNote> findPendingNotes(final Date archivedBefore, final int limit) {
+
+        Query query = Query.query(Criteria.where("pending").is(true).and("archivedDate").lt(archivedBefore)).limit(limit);
+        query.fields().include("userId").include("noteId").include("moveId").include("note.noteCreationDate");
+
+        return mongoOperations.find(query, ArchivedNote.class);
+    }
+
+    public List<Note> findAllNotes(final String userId) {
+
+        return notes(Query.query(Criteria.where("userId").is(userId).and("pending").ne(true)));
+    }
+
+    public List<Note> findNotesAfter(final String userId, final Integer afterNoteId, final int limit) {
+
+        return notes(Query.query(range(userId, afterNoteId, null)).limit(limit));
+    }
+
+    public CloseableIterator<Note> streamNotes(final String userId, final Integer afterNoteId, final Integer lastNoteId) {
+
+        Query query = Query.query(range(userId, afterNoteId, lastNoteId)).with(Sort.by(Sort.Direction.ASC, "noteId"));
+        query.fields().include("note");
+
+        CloseableIterator<ArchivedNote> archivedNotes = mongoOperations.stream(query, ArchivedNote.class);
+
+        return new CloseableIterator<Note>() {
+
+            public boolean hasNext() {
+                return archivedNotes.hasNext();
+            }
+
+            public Note next() {
+                return archivedNotes.next().getNote();
+            }
+
+            public void close() {
+                archivedNotes.close();
+            }
+        };
+    }
+
+    /*
+     * The copies of a noteId are grouped first, the noteIds are sorted on the server.
+     */
+    public List<Integer> findNoteIdsAfter(final String userId, final Integer afterNoteId, final int limit) {
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(range(userId, afterNoteId, null)),
+                Aggregation.group("noteId"),
+                Aggregation.sort(Sort.Direction.ASC, "_id"),
+                Aggregation.limit(limit))
+                .withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        List<Integer> noteIds = new ArrayList<>();
+        for (Document noteId : mongoOperations.aggregate(aggregation, ArchivedNote.class, Document.class).getMappedResults())
+        {
+            noteIds.add(noteId.getInteger("_id"));
+        }
+        return noteIds;
+    }
+
+    public List<Integer> findArchivedNoteIds(final String userId, final Collection<Integer> noteIds) {
+
+        Query query = Query.query(Criteria.where("userId").is(userId).and("noteId").in(noteIds));
+        query.fields().include("noteId");
+
+        Set<Integer> archived = new LinkedHashSet<>();
+        for (ArchivedNote archivedNote : mongoOperations.find(query, ArchivedNote.class))
+        {
+            archived.add(archivedNote.getNoteId());
+        }
+        return new ArrayList<>(archived);
+    }
+
+    public boolean deleteNote(final String userId, final int noteId) {
+
+        Query query = Query.query(Criteria.where("userId").is(userId).and("noteId").is(noteId));
+
+        return mongoOperations.remove(query, ArchivedNote.class).getDeletedCount() > 0;
+    }
+
+    public List<Integer> deleteNotes(final String userId, final Collection<Integer> noteIds) {
+
+        Query query = Query.query(Criteria.where("userId").is(userId).and("noteId").in(noteIds));
+        query.fields().include("noteId");
+
+        List<Integer> removed = new ArrayList<>();
+        for (ArchivedNote archivedNote : mongoOperations.find(query, ArchivedNote.class))
+        {
+            removed.add(archivedNote.getNoteId());
+        }
+
+        if (!removed.isEmpty())
+        {
+            mongoOperations.remove(Query.query(Criteria.where("userId").is(userId).and("noteId").in(removed)), ArchivedNote.class);
+        }
+        return removed;
+    }
+
+    public long deleteAllNotes(final String userId) {
+
+        return mongoOperations.remove(Query.query(Criteria.where("userId").is(userId)), ArchivedNote.class).getDeletedCount();
+    }
+
+    /*
+     * The readable archived notes of the user after afterNoteId up to and including
+     * lastNoteId, either bound may be null.
+     */
+    private static Criteria range(final String userId, final Integer afterNoteId, final Integer lastNoteId) {
+
+        Criteria criteria = Criteria.where("userId").is(userId).and("pending").ne(true);
+        if (afterNoteId != null || lastNoteId != null)
+        {
+            criteria = criteria.and("noteId");
+            if (afterNoteId != null)
+            {
+                criteria = criteria.gt(afterNoteId);
+            }
+            if (lastNoteId != null)
+            {
+                criteria = criteria.lte(lastNoteId);
+            }
+        }
+        return criteria;
+    }
+
+    private static Query moved(final String userId, final String moveId, final Collection<Integer> noteIds) {
+
+        return Query.query(Criteria.where("userId").is(userId).and("noteId").in(noteIds).and("moveId").is(moveId));
+    }
+
+    /*
+     * The notes of the archived notes selected by query, ordered by noteId on the
+     * userId_noteId index.
+     */
+    private List<Note> notes(final Query query) {
+
+        query.with(Sort.by(Sort.Direction.ASC, "noteId"));
+        query.fields().include("note");
+
+        List<Note> notes = new ArrayList<>();
+        for (ArchivedNote archivedNote : mongoOperations.find(query, ArchivedNote.class))
+        {
+            notes.add(archivedNote.getNote());
+        }
+        return notes;
+    }
+}
@@ -0,0 +1,664 @@
+package com.stackroute.keepnote.repository;
+
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteBucket;
+import com.stackroute.keepnote.model.NoteFilter;
+import com.stackroute.keepnote.model.NoteLogEntry;
+import com.stackroute.keepnote.model.NotePatch;
+import com.stackroute.keepnote.model.NoteSummary;
+import com.stackroute.keepnote.model.NoteUser;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+/*
+* Bucketed storage for notes. The notes of a user are spread over NoteBucket documents
+* holding at most "capacity" notes each, so no single document grows with the number
+* of notes. New notes go to the newest bucket which still has room, updates and deletes
+* are routed to the bucket containing the noteId through the (userId, notes.noteId) index.
+*
+* While an online migration is running (migrateOnAccess) a user whose notes are still
+* embedded in NoteUser is migrated on first access, so reads and writes never miss notes
+* which the background migration has not reached yet.
+*
+* The version and change log of the user stay on the NoteUser document. A write is
+* logged there only after it has landed in its bucket, so a sync which reads the log
+* never misses a write logged before it. A writer failing between the two leaves its
+* note unlogged until the note is written again.
+*
+* An insert claims its noteIds in NoteUser.pendingNoteIds for the time between looking
+* them up in the buckets and logging the insert, see insertClaimed.
+* */
+
+class NoteBucketOperations {
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    private static final long CLAIM_TIMEOUT_MS = 60000;
+
+    private enum Claim { CREATED, CLAIMED, TAKEN }
+
+    private final MongoOperations mongoOperations;
+
+    private final int capacity;
+
+    private final boolean migrateOnAccess;
+
+    private final int changeLogSize;
+
+    NoteBucketOperations(MongoOperations mongoOperations, int capacity, boolean migrateOnAccess, int changeLogSize) {
+        this.mongoOperations = mongoOperations;
+        this.capacity = capacity;
+        this.migrateOnAccess = migrateOnAccess;
+        this.changeLogSize = changeLogSize;
+    }
+
+    public boolean insertNote(final String userId, final Note note) {
+
+        return insertClaimed(userId, Collections.singletonList(note), () -> pushNote(userId, note));
+    }
+
+    /*
+     * Tops up the newest bucket with as many notes as fit and writes the rest as new
+     * full buckets, one $push with $each or insert per bucket.
+     */
+    public boolean insertNotes(final String userId, final List<Note> notes) {
+
+        return insertClaimed(userId, notes, () -> pushNotes(userId, notes));
+    }
+
+    /*
+     * A noteId is claimed on the NoteUser document before it is looked up in the buckets
+     * and the claim is released with the logged insert, so of two concurrent inserts of
+     * the same noteId only one gets past the lookup. Embedded notes of a user who has not
+     * been migrated yet are moved to the buckets first, so the lookup sees them too.
+     */
+    private boolean insertClaimed(final String userId, final List<Note> notes, final BooleanSupplier push) {
+
+        migrateIfNeeded(userId);
+
+        List<Integer> noteIds = NoteRepositoryImpl.noteIds(notes);
+        Claim claim = claim(userId, noteIds);
+
+        if (claim == Claim.TAKEN)
+        {
+            return false;
+        }
+
+        boolean inserted = false;
+        try
+        {
+            Query taken = Query.query(Criteria.where("userId").is(userId).and("notes.noteId").in(noteIds));
+            if (!mongoOperations.exists(taken, NoteBucket.class))
+            {
+                NoteRepositoryImpl.startRevisions(notes);
+                inserted = push.getAsBoolean();
+            }
+        }
+        finally
+        {
+            if (!inserted)
+            {
+                mongoOperations.updateFirst(Query.query(Criteria.where("_id").is(userId)), release(noteIds), NoteUser.class);
+            }
+        }
+
+        if (inserted)
+        {
+            logInsert(userId, notes, claim == Claim.CREATED);
+        }
+        return inserted;
+    }
+
+    private boolean pushNote(final String userId, final Note note) {
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++)
+        {
+            Query open = Query.query(Criteria.where("userId").is(userId).and("count").lt(capacity))
+                    .with(Sort.by(Sort.Direction.DESC, "bucketSeq"));
+            open.fields().include("_id");
+            Update update = new Update().push("notes", note).inc("count", 1);
+
+            if (mongoOperations.findAndModify(open, update, NoteBucket.class) != null)
+            {
+                return true;
+            }
+
+            try
+            {
+                List<Note> notes = new ArrayList<>(Collections.singletonList(note));
+                mongoOperations.insert(new NoteBucket(userId, lastBucketSeq(userId) + 1, notes));
+                return true;
+            }
+            catch (DuplicateKeyException exception)
+            {
+                // another writer opened the same bucket concurrently, retry against it
+            }
+        }
+        return false;
+    }
+
+    private boolean pushNotes(final String userId, final List<Note> notes) {
+
+        int from = 0;
+        NoteBucket last = lastBucket(userId);
+
+        if (last != null && last.getCount() < capacity)
+        {
+            List<Note> slice = notes.subList(0, Math.min(capacity - last.getCount(), notes.size()));
+            Query open = Query.query(Criteria.where("_id").is(last.getId()).and("count").lte(capacity - slice.size()));
+            Update update = new Update().push("notes").each(slice.toArray()).inc("count", slice.size());
+
+            if (mongoOperations.updateFirst(open, update, NoteBucket.class).getModifiedCount() > 0)
+            {
+                from = slice.size();
+            }
+        }
+
+        openBuckets(userId, notes.subList(from, notes.size()));
+        return true;
+    }
+
+    /*
+     * Writes the notes as new full buckets after the last one, one insert per bucket.
+     */
+    private void openBuckets(final String userId, final List<Note> notes) {
+
+        int from = 0;
+
+        while (from < notes.size())
+        {
+            List<Note> slice = new ArrayList<>(notes.subList(from, Math.min(from + capacity, notes.size())));
+
+            try
+            {
+                mongoOperations.insert(new NoteBucket(userId, lastBucketSeq(userId) + 1, slice));
+                from += slice.size();
+            }
+            catch (DuplicateKeyException exception)
+            {
+                // a concurrent writer opened the next bucket first, pick the following seq
+            }
+        }
+    }
+
+    /*
+     * Pushes a claim for each noteId into NoteUser.pendingNoteIds unless one of them is
+     * claimed already. A claim older than CLAIM_TIMEOUT_MS is left by a writer which
+     * failed before releasing it and no longer counts. The NoteUser document is created
+     * with the first claim, which is when the counters of the user start from zero.
+     */
+    private Claim claim(final String userId, final List<Integer> noteIds) {
+
+        Date now = new Date();
+        Criteria claimed = Criteria.where("noteId").in(noteIds).and("claimedDate").gt(new Date(now.getTime() - CLAIM_TIMEOUT_MS));
+        Query free = Query.query(Criteria.where("_id").is(userId).and("pendingNoteIds").not().elemMatch(claimed));
+
+        List<Document> claims = new ArrayList<>(noteIds.size());
+        for (int noteId : noteIds)
+        {
+            claims.add(new Document("noteId", noteId).append("claimedDate", now));
+        }
+        Update update = new Update().push("pendingNoteIds").each(claims.toArray());
+
+        try
+        {
+            return mongoOperations.upsert(free, update, NoteUser.class).getUpsertedId() != null ? Claim.CREATED : Claim.CLAIMED;
+        }
+        catch (DuplicateKeyException exception)
+        {
+            // the document exists with one of the noteIds claimed, or a concurrent first write created it
+            return mongoOperations.updateFirst(free, update, NoteUser.class).getModifiedCount() > 0 ? Claim.CLAIMED : Claim.TAKEN;
+        }
+    }
+
+    /*
+     * Drops the claims for the noteIds, including stale ones.
+     */
+    private static Update release(final Collection<Integer> noteIds) {
+
+        return new Update().pull("pendingNoteIds", new Document("noteId", new Document("$in", noteIds)));
+    }
+
+    /*
+     * Logs the insert and releases its claims in one update of the NoteUser document,
+     * which the claim has created if needed.
+     */
+    private void logInsert(final String userId, final List<Note> notes, final boolean created) {
+
+        List<Integer> noteIds = NoteRepositoryImpl.noteIds(notes);
+        mongoOperations.updateFirst(Query.query(Criteria.where("_id").is(userId)),
+                NoteRepositoryImpl.logChanges(release(noteIds), noteIds, changeLogSize), NoteUser.class);
+        NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId, Collections.emptyList(),
+                NoteRepositoryImpl.summaries(notes), created);
+    }
+
+    public boolean updateNote(final String userId, final Note note, final Long expectedChangeSeq) {
+
+        Query query = Query.query(NoteRepositoryImpl.withNote(Criteria.where("userId").is(userId), note.getNoteId(), expectedChangeSeq));
+        query.fields().elemMatch("notes", Criteria.where("noteId").is(note.getNoteId()));
+        Update update = NoteRepositoryImpl.replaceNote(mongoOperations.getConverter(), new Update(), "notes.$", note);
+
+        NoteBucket before = mongoOperations.findAndModify(query, update, NoteBucket.class);
+
+        if (before != null)
+        {
+            note.setChangeSeq(NoteRepositoryImpl.nextRevision(before.getNotes().get(0)));
+            NoteRepositoryImpl.logChanges(mongoOperations, userId, Collections.singletonList(note.getNoteId()), changeLogSize);
+            NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId, NoteRepositoryImpl.summaries(before.getNotes()),
+                    Collections.singletonList(NoteSummary.of(note)), false);
+            return true;
+        }
+        if (migrateIfNeeded(userId))
+        {
+            return updateNote(userId, note, expectedChangeSeq);
+        }
+        if (findNote(userId, note.getNoteId()) == null)
+        {
+            return false;
+        }
+        throw NoteRepositoryImpl.noteChanged(userId, note.getNoteId());
+    }
+
+    /*
+     * Like NoteRepositoryImpl.patchNote a patch which moves the note counters reads the
+     * note first and is retried while the note changes in between, and only the
+     * patchedFields of the bucket's notes come back.
+     */
+    public Note patchNote(final String userId, final int noteId, final NotePatch patch, final Long expectedChangeSeq) {
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++)
+        {
+            Note before = NoteRepositoryImpl.countsChange(patch) ? findNote(userId, noteId) : null;
+            if (before != null && !NoteRepositoryImpl.hasChangeSeq(before, expectedChangeSeq))
+            {
+                throw NoteRepositoryImpl.noteChanged(userId, noteId);
+            }
+
+            Query query = NoteRepositoryImpl.patchedFields(Query.query(NoteRepositoryImpl.withNote(
+                    Criteria.where("userId").is(userId), noteId, before != null ? before.getChangeSeq() : expectedChangeSeq)));
+
+            NoteBucket bucket = mongoOperations.findAndModify(query, NoteRepositoryImpl.patchUpdate(patch),
+                    FindAndModifyOptions.options().returnNew(true), NoteBucket.class);
+
+            if (bucket != null)
+            {
+                Note patched = NoteRepositoryImpl.patchedNote(bucket.getNotes(), noteId);
+                NoteRepositoryImpl.logChanges(mongoOperations, userId, Collections.singletonList(noteId), changeLogSize);
+                if (before != null)
+                {
+                    NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId, Collections.singletonList(NoteSummary.of(before)),
+                            Collections.singletonList(NoteSummary.of(patched)), false);
+                }
+                return patched;
+            }
+            if (migrateIfNeeded(userId))
+            {
+                continue;
+            }
+
+            Note current = findNote(userId, noteId);
+            if (current == null)
+            {
+                return null;
+            }
+            if (!NoteRepositoryImpl.hasChangeSeq(current, expectedChangeSeq))
+            {
+                throw NoteRepositoryImpl.noteChanged(userId, noteId);
+            }
+        }
+        throw NoteRepositoryImpl.concurrentWrites(userId);
+    }
+
+    /*
+     * The notes may live in different buckets, each one is written on its own.
+     */
+    public List<Integer> updateNotes(final String userId, final List<Note> notes) {
+
+        List<Integer> updated = new ArrayList<>();
+        for (Note note : notes)
+        {
+            if (updateNote(userId, note, null))
+            {
+                updated.add(note.getNoteId());
+            }
+        }
+        return updated;
+    }
+
+    public boolean deleteNote(final String userId, final int noteId, final Long expectedChangeSeq) {
+
+        Query query = Query.query(NoteRepositoryImpl.withNote(Criteria.where("userId").is(userId), noteId, expectedChangeSeq));
+        query.fields().elemMatch("notes", Criteria.where("noteId").is(noteId));
+        Update update = new Update().pull("notes", new Document("noteId", noteId)).inc("count", -1);
+
+        NoteBucket before = mongoOperations.findAndModify(query, update, NoteBucket.class);
+
+        if (before != null)
+        {
+            NoteRepositoryImpl.logChanges(mongoOperations, userId, Collections.singletonList(noteId), changeLogSize);
+            NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId, NoteRepositoryImpl.summaries(before.getNotes()),
+                    Collections.emptyList(), false);
+            return true;
+        }
+        if (migrateIfNeeded(userId))
+        {
+            return deleteNote(userId, noteId, expectedChangeSeq);
+        }
+        if (findNote(userId, noteId) == null)
+        {
+            return false;
+        }
+        throw NoteRepositoryImpl.noteChanged(userId, noteId);
+    }
+
+    /*
+     * One $pull with $in per bucket holding any of the noteIds. The bucket as it was
+     * before the pull tells how many notes left it, so its count is corrected by
+     * exactly that number even when deletes race. The removed notes are logged once
+     * all buckets are done.
+     */
+    public List<Integer> deleteNotes(final String userId, final Collection<Integer> noteIds) {
+
+        migrateIfNeeded(userId);
+
+        Query affected = Query.query(Criteria.where("userId").is(userId).and("notes.noteId").in(noteIds));
+        affected.fields().include("_id");
+
+        List<Integer> removed = new ArrayList<>();
+        List<NoteSummary> counted = new ArrayList<>();
+
+        for (NoteBucket bucket : mongoOperations.find(affected, NoteBucket.class))
+        {
+            Query query = Query.query(Criteria.where("_id").is(bucket.getId()));
+            query.fields().include("notes.noteId").include("notes.noteStatus").include("notes.category.categoryId");
+            Update update = new Update().pull("notes", new Document("noteId", new Document("$in", noteIds)));
+
+            NoteBucket before = mongoOperations.findAndModify(query, update, NoteBucket.class);
+
+            if (before != null)
+            {
+                List<Integer> pulled = NoteRepositoryImpl.removedNoteIds(before.getNotes(), noteIds);
+                if (!pulled.isEmpty())
+                {
+                    mongoOperations.updateFirst(Query.query(Criteria.where("_id").is(bucket.getId())),
+                            new Update().inc("count", -pulled.size()), NoteBucket.class);
+                    removed.addAll(pulled);
+                    counted.addAll(NoteRepositoryImpl.summaries(before.getNotes(), pulled));
+                }
+            }
+        }
+        NoteRepositoryImpl.logChanges(mongoOperations, userId, removed, changeLogSize);
+        NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId, counted, Collections.emptyList(), false);
+        return removed;
+    }
+
+    public Note findNote(final String userId, final int noteId) {
+
+        Query query = Query.query(Criteria.where("userId").is(userId).and("notes.noteId").is(noteId));
+        query.fields().elemMatch("notes", Criteria.where("noteId").is(noteId));
+
+        NoteBucket bucket = mongoOperations.findOne(query, NoteBucket.class);
+
+        if (bucket != null && bucket.getNotes() != null && !bucket.getNotes().isEmpty())
+        {
+            return bucket.getNotes().get(0);
+        }
+        if (migrateIfNeeded(userId))
+        {
+            return findNote(userId, noteId);
+        }
+        return null;
+    }
+
+    public List<Note> findNotesAfter(final String userId, final Integer afterNoteId, final int limit) {
+
+        migrateIfNeeded(userId);
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("userId").is(userId)),
+                Aggregation.unwind("notes"),
+                Aggregation.match(NoteRepositoryImpl.pageCriteria(afterNoteId)),
+                Aggregation.sort(Sort.Direction.ASC, "notes.noteId"),
+                Aggregation.limit(limit),
+                Aggregation.replaceRoot("notes"));
+
+        return mongoOperations.aggregate(aggregation, NoteBucket.class, Note.class).getMappedResults();
+    }
+
+    public CloseableIterator<Note> streamNotes(final String userId, final Integer afterNoteId, final Integer lastNoteId) {
+
+        migrateIfNeeded(userId);
+
+        return NoteRepositoryImpl.streamNotes(mongoOperations, NoteBucket.class, Criteria.where("userId").is(userId), afterNoteId, lastNoteId);
+    }
+
+    public Integer findPageEnd(final String userId, final Integer afterNoteId, final int limit) {
+
+        migrateIfNeeded(userId);
+
+        return NoteRepositoryImpl.pageEnd(mongoOperations, NoteBucket.class, Criteria.where("userId").is(userId), afterNoteId, limit);
+    }
+
+    public List<Integer> findNoteIdsAfter(final String userId, final Integer afterNoteId, final int limit) {
+
+        migrateIfNeeded(userId);
+
+        return NoteRepositoryImpl.noteIdsAfter(mongoOperations, NoteBucket.class, Criteria.where("userId").is(userId), afterNoteId, limit);
+    }
+
+    /*
+     * Streams the buckets of the user in bucketSeq order, only one bucket batch is
+     * held by the cursor at a time.
+     */
+    public List<Note> findAllNotes(final String userId) {
+
+        migrateIfNeeded(userId);
+
+        Query query = Query.query(Criteria.where("userId").is(userId)).with(Sort.by(Sort.Direction.ASC, "bucketSeq"));
+        query.fields().include("notes");
+
+        List<Note> notes = new ArrayList<>();
+
+        try (CloseableIterator<NoteBucket> buckets = mongoOperations.stream(query, NoteBucket.class))
+        {
+            while (buckets.hasNext())
+            {
+                NoteBucket bucket = buckets.next();
+                if (bucket.getNotes() != null)
+                {
+                    notes.addAll(bucket.getNotes());
+                }
+            }
+        }
+        return notes;
+    }
+
+    public List<Note> findNotes(final String userId, final NoteFilter filter) {
+
+        migrateIfNeeded(userId);
+
+        return NoteRepositoryImpl.filteredNotes(mongoOperations, NoteBucket.class, Criteria.where("userId").is(userId), filter);
+    }
+
+    public List<NoteSummary> findNoteSummaries(final String userId) {
+
+        migrateIfNeeded(userId);
+
+        Query query = Query.query(Criteria.where("userId").is(userId)).with(Sort.by(Sort.Direction.ASC, "bucketSeq"));
+        NoteRepositoryImpl.includeSummaryFields(query);
+
+        List<NoteSummary> summaries = new ArrayList<>();
+
+        try (CloseableIterator<NoteBucket> buckets = mongoOperations.stream(query, NoteBucket.class))
+        {
+            while (buckets.hasNext())
+            {
+                summaries.addAll(NoteRepositoryImpl.summaries(buckets.next().getNotes()));
+            }
+        }
+        return summaries;
+    }
+
+    public List<NoteSummary> findNoteSummaries(final String userId, final Collection<Integer> noteIds) {
+
+        migrateIfNeeded(userId);
+
+        return NoteRepositoryImpl.selectedSummaries(mongoOperations, NoteBucket.class, Criteria.where("userId").is(userId), noteIds);
+    }
+
+    public boolean deleteAllNotes(final String userId) {
+
+        if (!mongoOperations.exists(Query.query(Criteria.where("_id").is(userId)), NoteUser.class)
+                && !mongoOperations.exists(Query.query(Criteria.where("userId").is(userId)), NoteBucket.class))
+        {
+            return false;
+        }
+
+        // the log is emptied after the buckets are gone, a sync in between still resyncs afterwards
+        mongoOperations.remove(Query.query(Criteria.where("userId").is(userId)), NoteBucket.class);
+        mongoOperations.upsert(Query.query(Criteria.where("_id").is(userId)), new Update().set("notes", new ArrayList<Note>())
+                .set("changeLog", new ArrayList<NoteLogEntry>()).inc("version", 1), NoteUser.class);
+
+        return true;
+    }
+
+    /*
+     * The embedded notes are copied into buckets first and only then removed from
+     * NoteUser.notes, so a migration failing halfway loses nothing and is repeated on
+     * the next access. The copies take the bucketSeqs up to 0, below any bucket opened
+     * by a write, chunk by chunk in stored order. A repeated or concurrent migration
+     * of the same notes therefore inserts the same buckets and skips those present.
+     * The notes are emptied only while the NoteUser document is still at the version
+     * they were read at.
+     */
+    public int migrateToBuckets(final String userId) {
+
+        Query legacy = Query.query(Criteria.where("_id").is(userId).and("notes").exists(true).ne(new ArrayList<Note>()));
+        legacy.fields().include("notes").include("version");
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++)
+        {
+            NoteUser noteUser = mongoOperations.findOne(legacy, NoteUser.class);
+
+            if (noteUser == null || noteUser.getNotes() == null || noteUser.getNotes().isEmpty())
+            {
+                return 0;
+            }
+
+            List<Note> notes = noteUser.getNotes();
+            int chunks = (notes.size() + capacity - 1) / capacity;
+
+            for (int chunk = 0; chunk < chunks; chunk++)
+            {
+                List<Note> slice = new ArrayList<>(notes.subList(chunk * capacity, Math.min((chunk + 1) * capacity, notes.size())));
+
+                try
+                {
+                    mongoOperations.insert(new NoteBucket(userId, chunk - chunks + 1, slice));
+                }
+                catch (DuplicateKeyException exception)
+                {
+                    // copied by an earlier or a concurrent migration, unless the bucketSeq
+                    // holds notes of a migration before, then the slice goes after the last bucket
+                    Set<Integer> stored = new HashSet<>(NoteRepositoryImpl.noteIds(NoteRepositoryImpl.selectedNotes(mongoOperations,
+                            NoteBucket.class, Criteria.where("userId").is(userId), NoteRepositoryImpl.noteIds(slice))));
+                    slice.removeIf(note -> stored.contains(note.getNoteId()));
+                    openBuckets(userId, slice);
+                }
+            }
+
+            long version = noteUser.getVersion() != null ? noteUser.getVersion() : 0;
+            Query copied = Query.query(NoteRepositoryImpl.atVersion(userId, version));
+
+            if (mongoOperations.updateFirst(copied, new Update().set("notes", new ArrayList<Note>()), NoteUser.class).getModifiedCount() > 0)
+            {
+                return notes.size();
+            }
+            // a write was logged meanwhile or another migration finished first, look again
+        }
+        return 0;
+    }
+
+    public List<Note> findNotes(final String userId, final Collection<Integer> noteIds) {
+
+        migrateIfNeeded(userId);
+
+        return NoteRepositoryImpl.selectedNotes(mongoOperations, NoteBucket.class, Criteria.where("userId").is(userId), noteIds);
+    }
+
+    public int findHighestNoteId(final String userId) {
+
+        migrateIfNeeded(userId);
+
+        return NoteRepositoryImpl.highestNoteId(mongoOperations, NoteBucket.class, Criteria.where("userId").is(userId));
+    }
+
+    public List<String> findUserIds() {
+
+        return mongoOperations.getCollection(mongoOperations.getCollectionName(NoteBucket.class))
+                .distinct("userId", String.class).into(new ArrayList<>());
+    }
+
+    public List<String> findArchivableUserIds(final Date createdBefore, final String noteStatus, final int limit) {
+
+        Query query = Query.query(Criteria.where("notes").elemMatch(NoteRepositoryImpl.archivable("", createdBefore, noteStatus))).limit(limit);
+        query.fields().include("userId");
+
+        Set<String> userIds = new LinkedHashSet<>();
+        for (NoteBucket bucket : mongoOperations.find(query, NoteBucket.class))
+        {
+            userIds.add(bucket.getUserId());
+        }
+        return new ArrayList<>(userIds);
+    }
+
+    public List<Note> findArchivableNotes(final String userId, final Date createdBefore, final String noteStatus, final int limit) {
+
+        migrateIfNeeded(userId);
+
+        return NoteRepositoryImpl.archivableNotes(mongoOperations, NoteBucket.class, Criteria.where("userId").is(userId),
+                createdBefore, noteStatus, limit);
+    }
+
+    private boolean migrateIfNeeded(final String userId) {
+        return migrateOnAccess && migrateToBuckets(userId) > 0;
+    }
+
+    private int lastBucketSeq(final String userId) {
+
+        NoteBucket bucket = lastBucket(userId);
+
+        if (bucket == null)
+        {
+            return 0;
+        }
+        return bucket.getBucketSeq();
+    }
+
+    private NoteBucket lastBucket(final String userId) {
+
+        Query last = Query.query(Criteria.where("userId").is(userId))
+                .with(Sort.by(Sort.Direction.DESC, "bucketSeq")).limit(1);
+        last.fields().include("bucketSeq").include("count");
+
+        return mongoOperations.findOne(last, NoteBucket.class);
+    }
+}
@@ -0,0 +1,81 @@
+package com.stackroute.keepnote.repository;
+
+import com.stackroute.keepnote.model.NoteContent;
+import org.bson.types.Binary;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Maps Note.noteContent to Mongo. Contents shorter than minLength chars are stored as
+ * plain strings, longer ones are deflated and stored as binary when that makes them
+ * smaller. Existing string contents are read as they are, so no migration is needed.
+ */
+public final class NoteContentConverters {
+
+    private NoteContentConverters() {
+
+    }
+
+    public static List<Object> converters(final int minLength, final int level) {
+        return Arrays.asList(new NoteContentWriter(minLength, level), new StringToNoteContent(), new BinaryToNoteContent());
+    }
+
+    /*
+     * Writes a String or a Binary, content read compressed is written back as it is
+     * without being decompressed.
+     */
+    @WritingConverter
+    static class NoteContentWriter implements Converter<NoteContent, Object> {
+
+        private final int minLength;
+
+        private final int level;
+
+        NoteContentWriter(final int minLength, final int level) {
+            this.minLength = minLength;
+            this.level = level;
+        }
+
+        @Override
+        public Object convert(final NoteContent content) {
+
+            if (content.isCompressed())
+            {
+                return new Binary(content.getCompressed());
+            }
+
+            String text = content.getText();
+
+            if (minLength <= 0 || text.length() < minLength)
+            {
+                return text;
+            }
+
+            NoteContent compressed = NoteContent.compress(text, level);
+
+            return compressed.isCompressed() ? new Binary(compressed.getCompressed()) : text;
+        }
+    }
+
+    @ReadingConverter
+    static class StringToNoteContent implements Converter<String, NoteContent> {
+
+        @Override
+        public NoteContent convert(final String text) {
+            return NoteContent.of(text);
+        }
+    }
+
+    @ReadingConverter
+    static class BinaryToNoteContent implements Converter<Binary, NoteContent> {
+
+        @Override
+        public NoteContent convert(final Binary binary) {
+            return NoteContent.ofCompressed(binary.getData());
+        }
+    }
+}
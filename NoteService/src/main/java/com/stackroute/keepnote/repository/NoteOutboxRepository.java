@@ -0,0 +1,14 @@
+package com.stackroute.keepnote.repository;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import com.stackroute.keepnote.model.NoteOutboxEntry;
+
+/*
+* Outbox of the category and reminder changes whose copies in notes are still to be
+* updated. The entries are written by CategoryService and ReminderService.
+* */
+
+public interface NoteOutboxRepository extends MongoRepository<NoteOutboxEntry, String>, NoteOutboxRepositoryCustom {
+
+}
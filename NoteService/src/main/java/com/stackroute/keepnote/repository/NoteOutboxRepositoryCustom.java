@@ -0,0 +1,58 @@
+package com.stackroute.keepnote.repository;
+
+import com.stackroute.keepnote.model.NoteOutboxCheckpoint;
+import com.stackroute.keepnote.model.NoteOutboxEntry;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/*
+* Custom operations of NoteOutboxRepository, implemented in NoteOutboxRepositoryImpl
+* using MongoOperations.
+* */
+
+public interface NoteOutboxRepositoryCustom {
+
+    /*
+     * Returns at most limit entries which are neither applied nor failed, oldest first.
+     * Entries waiting for a retry are included.
+     */
+    List<NoteOutboxEntry> findPending(int limit);
+
+    /*
+     * Marks the entries as applied, unless a later change was relayed into them
+     * meanwhile, which leaves them pending.
+     */
+    void markApplied(Collection<NoteOutboxEntry> entries, Date appliedDate);
+
+    /*
+     * Records a failed attempt of an entry, which is retried after nextAttemptDate.
+     * Ignored if a later change was relayed into the entry meanwhile.
+     */
+    void markRetry(NoteOutboxEntry entry, int attempts, Date nextAttemptDate, String error);
+
+    /*
+     * Records the last failed attempt of an entry, which is not retried any more.
+     * Ignored if a later change was relayed into the entry meanwhile.
+     */
+    void markFailed(NoteOutboxEntry entry, int attempts, Date failedDate, String error);
+
+    /*
+     * Takes or renews the lease of the worker checkpoint for owner until leaseUntil.
+     * Returns false if another owner holds a lease which has not expired at now.
+     */
+    boolean acquireLease(String owner, Date now, Date leaseUntil);
+
+    /*
+     * Moves the checkpoint to the given entry and adds applied to its total, unless
+     * owner has lost the lease meanwhile.
+     */
+    void saveCheckpoint(String owner, NoteOutboxEntry last, int applied);
+
+    /*
+     * Returns the checkpoint, or null if no entry was ever applied.
+     */
+    NoteOutboxCheckpoint findCheckpoint();
+
+}
@@ -0,0 +1,115 @@
+package com.stackroute.keepnote.repository;
+
+import com.stackroute.keepnote.model.NoteOutboxCheckpoint;
+import com.stackroute.keepnote.model.NoteOutboxEntry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/*
+* Implementation of NoteOutboxRepositoryCustom. Spring Data picks this class up by its
+* "Impl" postfix and merges it into NoteOutboxRepository.
+*
+* The lease on the single NoteOutboxCheckpoint document keeps the entries applied by
+* one NoteService instance at a time, in order.
+* */
+
+public class NoteOutboxRepositoryImpl implements NoteOutboxRepositoryCustom {
+
+    private final MongoOperations mongoOperations;
+
+    @Autowired
+    public NoteOutboxRepositoryImpl(MongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    public List<NoteOutboxEntry> findPending(final int limit) {
+
+        Query query = Query.query(Criteria.where("appliedDate").is(null).and("failedDate").is(null))
+                .with(Sort.by(Sort.Direction.ASC, "createdDate", "_id"))
+                .limit(limit);
+
+        return mongoOperations.find(query, NoteOutboxEntry.class);
+    }
+
+    public void markApplied(final Collection<NoteOutboxEntry> entries, final Date appliedDate) {
+
+        if (entries.isEmpty())
+        {
+            return;
+        }
+
+        List<Criteria> unchanged = new ArrayList<>();
+        for (NoteOutboxEntry entry : entries)
+        {
+            unchanged.add(unchanged(entry));
+        }
+
+        mongoOperations.updateMulti(Query.query(new Criteria().orOperator(unchanged.toArray(new Criteria[0]))),
+                new Update().set("appliedDate", appliedDate), NoteOutboxEntry.class);
+    }
+
+    public void markRetry(final NoteOutboxEntry entry, final int attempts, final Date nextAttemptDate, final String error) {
+
+        mongoOperations.updateFirst(Query.query(unchanged(entry)),
+                new Update().set("attempts", attempts).set("nextAttemptDate", nextAttemptDate).set("lastError", error),
+                NoteOutboxEntry.class);
+    }
+
+    public void markFailed(final NoteOutboxEntry entry, final int attempts, final Date failedDate, final String error) {
+
+        mongoOperations.updateFirst(Query.query(unchanged(entry)),
+                new Update().set("attempts", attempts).set("failedDate", failedDate).set("lastError", error),
+                NoteOutboxEntry.class);
+    }
+
+    public boolean acquireLease(final String owner, final Date now, final Date leaseUntil) {
+
+        Query query = Query.query(Criteria.where("_id").is(NoteOutboxCheckpoint.ID)
+                .orOperator(Criteria.where("owner").is(owner), Criteria.where("leaseUntil").lt(now),
+                        Criteria.where("leaseUntil").exists(false)));
+        Update update = new Update().set("owner", owner).set("leaseUntil", leaseUntil);
+
+        try
+        {
+            // either the lease was free or ours, or the checkpoint did not exist yet
+            mongoOperations.upsert(query, update, NoteOutboxCheckpoint.class);
+            return true;
+        }
+        catch (DuplicateKeyException exception)
+        {
+            // the checkpoint exists and is leased to another instance
+            return false;
+        }
+    }
+
+    public void saveCheckpoint(final String owner, final NoteOutboxEntry last, final int applied) {
+
+        mongoOperations.updateFirst(Query.query(Criteria.where("_id").is(NoteOutboxCheckpoint.ID).and("owner").is(owner)),
+                new Update().set("lastEntryId", last.getId()).set("lastCreatedDate", last.getCreatedDate()).inc("applied", applied),
+                NoteOutboxCheckpoint.class);
+    }
+
+    public NoteOutboxCheckpoint findCheckpoint() {
+
+        return mongoOperations.findById(NoteOutboxCheckpoint.ID, NoteOutboxCheckpoint.class);
+    }
+
+    /*
+     * Matches the entry as long as no later change was relayed into it.
+     */
+    private static Criteria unchanged(final NoteOutboxEntry entry) {
+
+        return Criteria.where("_id").is(entry.getId()).and("seq").is(entry.getSeq());
+    }
+
+}
@@ -10,6 +10,6 @@ import com.stackroute.keepnote.model.NoteUser;
 * Annotate this class with @Repository annotation
 * */
 
-public interface NoteRepository extends MongoRepository<NoteUser, String> {
+public interface NoteRepository extends MongoRepository<NoteUser, String>, NoteRepositoryCustom {
 
 }
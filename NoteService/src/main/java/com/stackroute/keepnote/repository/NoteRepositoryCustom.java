@@ -0,0 +1,265 @@
+package com.stackroute.keepnote.repository;
+
+import com.stackroute.keepnote.model.Category;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteChanges;
+import com.stackroute.keepnote.model.NoteFilter;
+import com.stackroute.keepnote.model.NotePatch;
+import com.stackroute.keepnote.model.NoteStats;
+import com.stackroute.keepnote.model.NoteSummary;
+import com.stackroute.keepnote.model.Reminder;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/*
+* Custom repository operations for NoteUser which work on single elements of the
+* embedded notes array instead of loading and rewriting the whole NoteUser document.
+* These are implemented in NoteRepositoryImpl using MongoOperations. When the
+* bucketed storage mode is enabled the same operations are routed to NoteBucket
+* documents instead of NoteUser.notes.
+* */
+
+public interface NoteRepositoryCustom {
+
+    /*
+     * Appends a note to the notes of the given user, creating the user document (or a
+     * new bucket) when needed. Returns false if the user already has a note with the
+     * same noteId.
+     */
+    boolean insertNote(String userId, Note note);
+
+    /*
+     * Appends all given notes in one $push with $each (one push per bucket in bucketed
+     * mode). Nothing is written and false is returned if any of the noteIds is taken.
+     */
+    boolean insertNotes(String userId, List<Note> notes);
+
+    /*
+     * Replaces the note with the same noteId inside the notes array of the given user
+     * using a positional $set of its fields on "notes.$". Returns false if the user or
+     * note was not found.
+     */
+    boolean updateNote(String userId, Note note);
+
+    /*
+     * Replaces the note only if its changeSeq is still expectedChangeSeq, a null
+     * expectedChangeSeq updates unconditionally. Throws OptimisticLockingFailureException
+     * if the note has been changed since.
+     */
+    boolean updateNote(String userId, Note note, Long expectedChangeSeq);
+
+    /*
+     * Applies the patch to the note with the given noteId with a positional $set and
+     * $unset of the patched fields only, if its changeSeq is still expectedChangeSeq (a
+     * null expectedChangeSeq patches unconditionally). The note is not read first, the
+     * same findAndModify returns the patched note with its noteId, changeSeq, noteStatus
+     * and category.categoryId only. Returns null if the note was not found, throws
+     * OptimisticLockingFailureException if it has been changed since.
+     */
+    Note patchNote(String userId, int noteId, NotePatch patch, Long expectedChangeSeq);
+
+    /*
+     * Replaces all given notes of the given user in one update, with a $set on
+     * "notes.$[nX]" per note whose array filter selects it by noteId (one update per
+     * note in bucketed mode). Notes which do not exist are skipped, returns the noteIds
+     * which were replaced.
+     */
+    List<Integer> updateNotes(String userId, List<Note> notes);
+
+    /*
+     * Removes the note with the given noteId from the notes array of the given user
+     * using a single $pull. Returns false if nothing was removed.
+     */
+    boolean deleteNote(String userId, int noteId);
+
+    /*
+     * Removes the note only if its changeSeq is still expectedChangeSeq, a null
+     * expectedChangeSeq removes it unconditionally. Throws OptimisticLockingFailureException
+     * if the note has been changed since.
+     */
+    boolean deleteNote(String userId, int noteId, Long expectedChangeSeq);
+
+    /*
+     * Removes all notes with one of the given noteIds using a single $pull with $in
+     * (one per affected bucket in bucketed mode) and returns the noteIds which were
+     * actually removed.
+     */
+    List<Integer> deleteNotes(String userId, Collection<Integer> noteIds);
+
+    /*
+     * Fetches a single note of the given user using an $elemMatch projection so only
+     * the requested element of the notes array is returned. Returns null if not found.
+     */
+    Note findNote(String userId, int noteId);
+
+    /*
+     * Returns at most limit notes of the given user ordered by noteId, starting after
+     * afterNoteId (or from the first note when afterNoteId is null). The page is cut
+     * on the server with an $unwind/$match/$sort/$limit aggregation.
+     */
+    List<Note> findNotesAfter(String userId, Integer afterNoteId, int limit);
+
+    /*
+     * Streams the notes of the given user with a noteId after afterNoteId (from the first
+     * note when null) up to and including lastNoteId (to the last note when null) in
+     * noteId order. The notes are sorted on the server and read from its cursor batch by
+     * batch, so their number does not matter. The iterator must be closed.
+     */
+    CloseableIterator<Note> streamNotes(String userId, Integer afterNoteId, Integer lastNoteId);
+
+    /*
+     * Returns the noteId of the last of the next limit notes of the given user after
+     * afterNoteId in noteId order, or null if no note follows them. Only the noteIds are
+     * sorted on the server and at most two of them are returned.
+     */
+    Integer findPageEnd(String userId, Integer afterNoteId, int limit);
+
+    /*
+     * Returns the noteIds of the next limit notes of the given user after afterNoteId
+     * in noteId order. Like findPageEnd only the noteIds are sorted on the server.
+     */
+    List<Integer> findNoteIdsAfter(String userId, Integer afterNoteId, int limit);
+
+    /*
+     * Returns all notes of the given user, or null if the user has no notes document.
+     */
+    List<Note> findAllNotes(String userId);
+
+    /*
+     * Returns the notes of the given user matching the filter, which must not be empty.
+     * The notes are filtered on the server with an indexable $elemMatch on the owning
+     * documents and a $filter of their notes arrays, in stored order.
+     */
+    List<Note> findNotes(String userId, NoteFilter filter);
+
+    /*
+     * Returns the summaries of all notes of the given user, or null if the user has no
+     * notes document. Only the summary fields of the notes are read.
+     */
+    List<NoteSummary> findNoteSummaries(String userId);
+
+    /*
+     * Returns the notes of the given user with the given noteIds, those which do not
+     * exist are left out.
+     */
+    List<Note> findNotes(String userId, Collection<Integer> noteIds);
+
+    /*
+     * Returns the summaries of the notes of the given user with the given noteIds,
+     * those which do not exist are left out.
+     */
+    List<NoteSummary> findNoteSummaries(String userId, Collection<Integer> noteIds);
+
+    /*
+     * Counts the notes of the given user by noteStatus and by categoryId with an
+     * aggregation over all its notes.
+     */
+    NoteStats countNotes(String userId);
+
+    /*
+     * Removes all notes of the given user. Returns false if the user was not found.
+     */
+    boolean deleteAllNotes(String userId);
+
+    /*
+     * Returns the version of the notes of the given user, read with a projection on
+     * the version field only, or null if the user has no notes document. Every write
+     * above increments the changeSeq of the notes it writes and appends their noteIds
+     * to the user's change log, which moves the version by one per note.
+     */
+    Long findVersion(String userId);
+
+    /*
+     * Returns the notes of the given user written after the version since, taken from
+     * its change log, and the noteIds of those deleted. A since of 0, after the current
+     * version or before the start of the change log gets all notes as a full resync.
+     * nextSince is the version the changes were read at.
+     */
+    NoteChanges findChangesSince(String userId, long since);
+
+    /*
+     * Drops change log entries written before the given date. Clients which synced
+     * before the remaining entries get a full resync. Returns the number of entries
+     * removed.
+     */
+    int compactChangeLogs(Date changedBefore);
+
+    /*
+     * Moves the notes still embedded in the NoteUser document of the given user into
+     * buckets. Returns the number of notes moved, always 0 in embedded mode.
+     */
+    int migrateToBuckets(String userId);
+
+    /*
+     * Atomically reserves count consecutive noteIds for the given user with a
+     * findAndModify $inc on the user's NoteIdCounter and returns the highest id of the
+     * reserved range. The first reservation of a user starts after the highest noteId
+     * already stored, so server side ids never collide with client supplied ones.
+     */
+    int reserveNoteIds(String userId, int count);
+
+    /*
+     * Raises the user's NoteIdCounter with $max to the highest noteId stored, so ids
+     * reserved afterwards skip client supplied noteIds stored since the first
+     * reservation. Returns that highest noteId.
+     */
+    int raiseNoteIdCounter(String userId);
+
+    /*
+     * Returns the ids of all users which have notes stored.
+     */
+    List<String> findUserIds();
+
+    /*
+     * Returns the ids of at most limit users holding a note created before createdBefore
+     * or with the given noteStatus. Either condition may be null, but not both.
+     */
+    List<String> findArchivableUserIds(Date createdBefore, String noteStatus, int limit);
+
+    /*
+     * Returns at most limit notes of the given user created before createdBefore or with
+     * the given noteStatus, the notes due to move to the archive.
+     */
+    List<Note> findArchivableNotes(String userId, Date createdBefore, String noteStatus, int limit);
+
+    /*
+     * Replaces the copies of the given category in all notes of all users, moving every
+     * user holding one to a new version. Returns the number of documents changed.
+     */
+    long updateCategoryCopies(Category category);
+
+    /*
+     * Clears the category of all notes of all users which reference the given
+     * categoryId. Returns the number of documents changed.
+     */
+    long removeCategoryCopies(String categoryId);
+
+    /*
+     * Replaces the copies of the given reminder in all notes of all users. Returns the
+     * number of documents changed.
+     */
+    long updateReminderCopies(Reminder reminder);
+
+    /*
+     * Removes the reminder with the given reminderId from all notes of all users.
+     * Returns the number of documents changed.
+     */
+    long removeReminderCopies(String reminderId);
+
+    /*
+     * For notes keeping references only: moves every note referencing the categoryId,
+     * and every user holding one, to a new version, as updateCategoryCopies does, so
+     * the changed category is not hidden behind an ETag or the change log. Returns the
+     * number of documents changed.
+     */
+    long touchCategoryReferences(String categoryId);
+
+    /*
+     * touchCategoryReferences for a reminderId.
+     */
+    long touchReminderReferences(String reminderId);
+
+}
@@ -0,0 +1,1440 @@
+package com.stackroute.keepnote.repository;
+
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.stackroute.keepnote.model.ArchivedNote;
+import com.stackroute.keepnote.model.Category;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteBucket;
+import com.stackroute.keepnote.model.NoteChanges;
+import com.stackroute.keepnote.model.NoteFilter;
+import com.stackroute.keepnote.model.NotePatch;
+import com.stackroute.keepnote.model.NoteIdCounter;
+import com.stackroute.keepnote.model.NoteLogEntry;
+import com.stackroute.keepnote.model.NoteStats;
+import com.stackroute.keepnote.model.NoteSummary;
+import com.stackroute.keepnote.model.NoteUser;
+import com.stackroute.keepnote.model.Reminder;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.ArrayOperators;
+import org.springframework.data.mongodb.core.aggregation.BooleanOperators;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.Fields;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+* Implementation of NoteRepositoryCustom. Spring Data picks this class up by its
+* "Impl" postfix and merges it into NoteRepository.
+*
+* The storage mode is chosen with keepnote.note.storage: "embedded" (default) keeps
+* all notes in NoteUser.notes, "bucketed" routes every operation to NoteBucketOperations.
+*
+* Every write increments the changeSeq of the notes it writes and appends their noteIds
+* to the change log of the user, which moves the user's version by one per note. In
+* embedded mode this is one update of the NoteUser document, a conditional write only
+* checks the changeSeq of its own note, so writers of different notes never conflict.
+*
+* The note counters of NoteStats are moved after each write by the notes it replaced
+* or removed, as returned by the write itself, and the notes it wrote.
+* */
+
+public class NoteRepositoryImpl implements NoteRepositoryCustom {
+
+    static final int MAX_ATTEMPTS = 10;
+
+    private static final String[] SUMMARY_FIELDS = {"noteId", "noteTitle", "noteStatus", "noteCreationDate",
+            "category.categoryId", "category.categoryName"};
+
+    private static final String[] NOTE_FIELDS = {"noteTitle", "noteContent", "noteStatus", "noteCreationDate",
+            "noteCreatedBy", "category", "reminders"};
+
+    private final MongoOperations mongoOperations;
+
+    private final NoteBucketOperations bucketOperations;
+
+    private final int changeLogSize;
+
+    @Autowired
+    public NoteRepositoryImpl(MongoOperations mongoOperations,
+                              @Value("${keepnote.note.storage:embedded}") String storage,
+                              @Value("${keepnote.note.bucket-capacity:200}") int bucketCapacity,
+                              @Value("${keepnote.note.migration.enabled:false}") boolean migrateOnAccess,
+                              @Value("${keepnote.note.change-log.max-entries:1000}") int changeLogSize) {
+        this.mongoOperations = mongoOperations;
+        this.changeLogSize = Math.max(1, changeLogSize);
+
+        if ("bucketed".equalsIgnoreCase(storage))
+        {
+            this.bucketOperations = new NoteBucketOperations(mongoOperations, bucketCapacity, migrateOnAccess, this.changeLogSize);
+        }
+        else
+        {
+            this.bucketOperations = null;
+        }
+    }
+
+    public boolean insertNote(final String userId, final Note note) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.insertNote(userId, note);
+        }
+
+        startRevisions(Collections.singletonList(note));
+
+        // the $ne guard makes the upsert fail with a duplicate _id when the noteId is taken
+        Query query = Query.query(Criteria.where("_id").is(userId).and("notes.noteId").ne(note.getNoteId()));
+        Update update = logChanges(new Update().push("notes", note), Collections.singletonList(note.getNoteId()), changeLogSize);
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++)
+        {
+            try
+            {
+                boolean created = mongoOperations.upsert(query, update, NoteUser.class).getUpsertedId() != null;
+                NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId, Collections.emptyList(),
+                        Collections.singletonList(NoteSummary.of(note)), created);
+                return true;
+            }
+            catch (DuplicateKeyException exception)
+            {
+                if (containsNote(userId, note.getNoteId()))
+                {
+                    return false;
+                }
+                // a concurrent first write created the user document, push into it
+            }
+        }
+        throw concurrentWrites(userId);
+    }
+
+    public boolean insertNotes(final String userId, final List<Note> notes) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.insertNotes(userId, notes);
+        }
+
+        List<Integer> noteIds = noteIds(notes);
+        startRevisions(notes);
+
+        Query query = Query.query(Criteria.where("_id").is(userId).and("notes.noteId").nin(noteIds));
+        Update update = logChanges(new Update().push("notes").each(notes.toArray()), noteIds, changeLogSize);
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++)
+        {
+            try
+            {
+                boolean created = mongoOperations.upsert(query, update, NoteUser.class).getUpsertedId() != null;
+                NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId, Collections.emptyList(), summaries(notes), created);
+                return true;
+            }
+            catch (DuplicateKeyException exception)
+            {
+                if (mongoOperations.exists(Query.query(Criteria.where("_id").is(userId).and("notes.noteId").in(noteIds)), NoteUser.class))
+                {
+                    return false;
+                }
+            }
+        }
+        throw concurrentWrites(userId);
+    }
+
+    public boolean updateNote(final String userId, final Note note) {
+        return updateNote(userId, note, null);
+    }
+
+    /*
+     * The note before the update tells the changeSeq it was moved from. A miss is
+     * retried only if the note turns out to be present at the expected changeSeq.
+     */
+    public boolean updateNote(final String userId, final Note note, final Long expectedChangeSeq) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.updateNote(userId, note, expectedChangeSeq);
+        }
+
+        Query query = Query.query(withNote(Criteria.where("_id").is(userId), note.getNoteId(), expectedChangeSeq));
+        query.fields().elemMatch("notes", Criteria.where("noteId").is(note.getNoteId()));
+        Update update = logChanges(replaceNote(mongoOperations.getConverter(), new Update(), "notes.$", note),
+                Collections.singletonList(note.getNoteId()), changeLogSize);
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++)
+        {
+            NoteUser before = mongoOperations.findAndModify(query, update, NoteUser.class);
+
+            if (before != null)
+            {
+                note.setChangeSeq(nextRevision(before.getNotes().get(0)));
+                NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId, summaries(before.getNotes()),
+                        Collections.singletonList(NoteSummary.of(note)), false);
+                return true;
+            }
+
+            Note current = findNote(userId, note.getNoteId());
+            if (current == null)
+            {
+                return false;
+            }
+            if (!hasChangeSeq(current, expectedChangeSeq))
+            {
+                throw noteChanged(userId, note.getNoteId());
+            }
+        }
+        throw concurrentWrites(userId);
+    }
+
+    /*
+     * A patch of noteStatus or category moves the note counters. The write returns the
+     * patched note, so the note is read first and patched only at the changeSeq read.
+     * Only the fields of patchedFields come back, see there.
+     */
+    public Note patchNote(final String userId, final int noteId, final NotePatch patch, final Long expectedChangeSeq) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.patchNote(userId, noteId, patch, expectedChangeSeq);
+        }
+
+        Update update = logChanges(patchUpdate(patch), Collections.singletonList(noteId), changeLogSize);
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++)
+        {
+            Note before = countsChange(patch) ? findNote(userId, noteId) : null;
+            if (before != null && !hasChangeSeq(before, expectedChangeSeq))
+            {
+                throw noteChanged(userId, noteId);
+            }
+
+            Query query = patchedFields(Query.query(withNote(Criteria.where("_id").is(userId), noteId,
+                    before != null ? before.getChangeSeq() : expectedChangeSeq)));
+
+            NoteUser noteUser = mongoOperations.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), NoteUser.class);
+
+            if (noteUser != null)
+            {
+                Note patched = patchedNote(noteUser.getNotes(), noteId);
+                if (before != null)
+                {
+                    NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId, Collections.singletonList(NoteSummary.of(before)),
+                            Collections.singletonList(NoteSummary.of(patched)), false);
+                }
+                return patched;
+            }
+
+            Note current = findNote(userId, noteId);
+            if (current == null)
+            {
+                return null;
+            }
+            if (!hasChangeSeq(current, expectedChangeSeq))
+            {
+                throw noteChanged(userId, noteId);
+            }
+        }
+        throw concurrentWrites(userId);
+    }
+
+    /*
+     * Spring Data 2.0 has no array filters, the update is sent through the driver. It
+     * only matches while all notes are present ($all), so exactly the written notes are
+     * logged. On a miss it is retried with the notes which are still present, and the
+     * document before the update tells the changeSeq each note was moved from.
+     */
+    public List<Integer> updateNotes(final String userId, final List<Note> notes) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.updateNotes(userId, notes);
+        }
+
+        List<Note> present = notes;
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && !present.isEmpty(); attempt++)
+        {
+            List<Integer> noteIds = noteIds(present);
+            Update fields = new Update();
+            List<Document> arrayFilters = new ArrayList<>(present.size());
+
+            for (int i = 0; i < present.size(); i++)
+            {
+                replaceNote(mongoOperations.getConverter(), fields, "notes.$[n" + i + "]", present.get(i));
+                arrayFilters.add(new Document("n" + i + ".noteId", present.get(i).getNoteId()));
+            }
+
+            Document query = new Document("_id", userId).append("notes.noteId", new Document("$all", noteIds));
+            Document update = logChanges(fields.getUpdateObject(), noteIds, changeLogSize);
+            FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+                    .arrayFilters(arrayFilters)
+                    .projection(new Document("notes.noteId", 1).append("notes.changeSeq", 1)
+                            .append("notes.noteStatus", 1).append("notes.category.categoryId", 1));
+
+            Document before = mongoOperations.execute(NoteUser.class,
+                    collection -> collection.findOneAndUpdate(query, update, options));
+
+            if (before != null)
+            {
+                nextRevisions(before, present);
+                List<Note> replaced = mongoOperations.getConverter().read(NoteUser.class, before).getNotes();
+                NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId, summaries(replaced, noteIds), summaries(present), false);
+                return noteIds;
+            }
+
+            List<Integer> stored = storedNoteIds(userId, noteIds);
+            List<Note> remaining = new ArrayList<>(stored.size());
+            for (Note note : present)
+            {
+                if (stored.contains(note.getNoteId()))
+                {
+                    remaining.add(note);
+                }
+            }
+            present = remaining;
+        }
+        if (present.isEmpty())
+        {
+            return new ArrayList<>();
+        }
+        throw concurrentWrites(userId);
+    }
+
+    public boolean deleteNote(final String userId, final int noteId) {
+        return deleteNote(userId, noteId, null);
+    }
+
+    /*
+     * The change log entry is written by the $pull itself, a delete which removes
+     * nothing leaves no trace.
+     */
+    public boolean deleteNote(final String userId, final int noteId, final Long expectedChangeSeq) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.deleteNote(userId, noteId, expectedChangeSeq);
+        }
+
+        Query query = Query.query(withNote(Criteria.where("_id").is(userId), noteId, expectedChangeSeq));
+        query.fields().elemMatch("notes", Criteria.where("noteId").is(noteId));
+        Update update = logChanges(new Update().pull("notes", new Document("noteId", noteId)),
+                Collections.singletonList(noteId), changeLogSize);
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++)
+        {
+            NoteUser before = mongoOperations.findAndModify(query, update, NoteUser.class);
+
+            if (before != null)
+            {
+                NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId, summaries(before.getNotes()),
+                        Collections.emptyList(), false);
+                return true;
+            }
+
+            Note current = findNote(userId, noteId);
+            if (current == null)
+            {
+                return false;
+            }
+            if (!hasChangeSeq(current, expectedChangeSeq))
+            {
+                throw noteChanged(userId, noteId);
+            }
+        }
+        throw concurrentWrites(userId);
+    }
+
+    /*
+     * Like updateNotes the $pull only matches while all noteIds are present and is
+     * retried with those still present, so only removed notes are logged.
+     */
+    public List<Integer> deleteNotes(final String userId, final Collection<Integer> noteIds) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.deleteNotes(userId, noteIds);
+        }
+
+        List<Integer> present = new ArrayList<>(new LinkedHashSet<>(noteIds));
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && !present.isEmpty(); attempt++)
+        {
+            Query query = Query.query(Criteria.where("_id").is(userId).and("notes.noteId").all(present));
+            query.fields().include("notes.noteId").include("notes.noteStatus").include("notes.category.categoryId");
+            Update update = logChanges(new Update().pull("notes", new Document("noteId", new Document("$in", present))),
+                    present, changeLogSize);
+
+            NoteUser before = mongoOperations.findAndModify(query, update, NoteUser.class);
+
+            if (before != null)
+            {
+                NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId, summaries(before.getNotes(), present),
+                        Collections.emptyList(), false);
+                return present;
+            }
+            present = storedNoteIds(userId, present);
+        }
+        if (present.isEmpty())
+        {
+            return new ArrayList<>();
+        }
+        throw concurrentWrites(userId);
+    }
+
+    public Note findNote(final String userId, final int noteId) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.findNote(userId, noteId);
+        }
+
+        Query query = Query.query(Criteria.where("_id").is(userId).and("notes.noteId").is(noteId));
+        query.fields().elemMatch("notes", Criteria.where("noteId").is(noteId));
+
+        NoteUser noteUser = mongoOperations.findOne(query, NoteUser.class);
+
+        if (noteUser == null || noteUser.getNotes() == null || noteUser.getNotes().isEmpty())
+        {
+            return null;
+        }
+        return noteUser.getNotes().get(0);
+    }
+
+    public List<Note> findNotesAfter(final String userId, final Integer afterNoteId, final int limit) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.findNotesAfter(userId, afterNoteId, limit);
+        }
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("_id").is(userId)),
+                Aggregation.unwind("notes"),
+                Aggregation.match(pageCriteria(afterNoteId)),
+                Aggregation.sort(Sort.Direction.ASC, "notes.noteId"),
+                Aggregation.limit(limit),
+                Aggregation.replaceRoot("notes"));
+
+        return mongoOperations.aggregate(aggregation, NoteUser.class, Note.class).getMappedResults();
+    }
+
+    public CloseableIterator<Note> streamNotes(final String userId, final Integer afterNoteId, final Integer lastNoteId) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.streamNotes(userId, afterNoteId, lastNoteId);
+        }
+        return streamNotes(mongoOperations, NoteUser.class, Criteria.where("_id").is(userId), afterNoteId, lastNoteId);
+    }
+
+    public Integer findPageEnd(final String userId, final Integer afterNoteId, final int limit) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.findPageEnd(userId, afterNoteId, limit);
+        }
+        return pageEnd(mongoOperations, NoteUser.class, Criteria.where("_id").is(userId), afterNoteId, limit);
+    }
+
+    public List<Integer> findNoteIdsAfter(final String userId, final Integer afterNoteId, final int limit) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.findNoteIdsAfter(userId, afterNoteId, limit);
+        }
+        return noteIdsAfter(mongoOperations, NoteUser.class, Criteria.where("_id").is(userId), afterNoteId, limit);
+    }
+
+    public List<Note> findAllNotes(final String userId) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.findAllNotes(userId);
+        }
+
+        NoteUser noteUser = mongoOperations.findById(userId, NoteUser.class);
+
+        if (noteUser == null)
+        {
+            return null;
+        }
+        return noteUser.getNotes();
+    }
+
+    public List<Note> findNotes(final String userId, final NoteFilter filter) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.findNotes(userId, filter);
+        }
+        return filteredNotes(mongoOperations, NoteUser.class, Criteria.where("_id").is(userId), filter);
+    }
+
+    public List<NoteSummary> findNoteSummaries(final String userId) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.findNoteSummaries(userId);
+        }
+
+        Query query = Query.query(Criteria.where("_id").is(userId));
+        includeSummaryFields(query);
+
+        NoteUser noteUser = mongoOperations.findOne(query, NoteUser.class);
+
+        if (noteUser == null)
+        {
+            return null;
+        }
+        return summaries(noteUser.getNotes());
+    }
+
+    public List<NoteSummary> findNoteSummaries(final String userId, final Collection<Integer> noteIds) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.findNoteSummaries(userId, noteIds);
+        }
+        return selectedSummaries(mongoOperations, NoteUser.class, Criteria.where("_id").is(userId), noteIds);
+    }
+
+    /*
+     * In bucketed mode notes which are still embedded in NoteUser are counted as well.
+     */
+    public NoteStats countNotes(final String userId) {
+
+        NoteStats stats = new NoteStats(userId);
+
+        countNotes(mongoOperations, NoteUser.class, Criteria.where("_id").is(userId), stats);
+        if (bucketOperations != null)
+        {
+            countNotes(mongoOperations, NoteBucket.class, Criteria.where("userId").is(userId), stats);
+        }
+        return stats;
+    }
+
+    public List<Note> findNotes(final String userId, final Collection<Integer> noteIds) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.findNotes(userId, noteIds);
+        }
+        return selectedNotes(mongoOperations, NoteUser.class, Criteria.where("_id").is(userId), noteIds);
+    }
+
+    /*
+     * The change log is emptied along with the notes, clients which synced before have
+     * to start over.
+     */
+    public boolean deleteAllNotes(final String userId) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.deleteAllNotes(userId);
+        }
+
+        Query query = Query.query(Criteria.where("_id").is(userId));
+        Update update = new Update().set("notes", new ArrayList<Note>()).set("changeLog", new ArrayList<NoteLogEntry>()).inc("version", 1);
+
+        return mongoOperations.updateFirst(query, update, NoteUser.class).getMatchedCount() > 0;
+    }
+
+    public Long findVersion(final String userId) {
+
+        Query query = Query.query(Criteria.where("_id").is(userId));
+        query.fields().include("version");
+
+        NoteUser noteUser = mongoOperations.findOne(query, NoteUser.class);
+
+        if (noteUser == null)
+        {
+            return null;
+        }
+        return noteUser.getVersion() != null ? noteUser.getVersion() : 0L;
+    }
+
+    /*
+     * The version and the change log are read together, the last version - since log
+     * entries are the notes written after since. The notes are read afterwards and may
+     * already include later writes, which are logged after version and sent again by
+     * the next sync. A logged note which is not found has been deleted.
+     */
+    public NoteChanges findChangesSince(final String userId, final long since) {
+
+        Query query = Query.query(Criteria.where("_id").is(userId));
+        query.fields().include("version").include("changeLog");
+
+        NoteUser syncState = mongoOperations.findOne(query, NoteUser.class);
+
+        if (syncState == null)
+        {
+            return new NoteChanges(since, 0, since > 0, new ArrayList<>(), new ArrayList<>());
+        }
+
+        long version = syncState.getVersion() != null ? syncState.getVersion() : 0;
+        List<NoteLogEntry> changeLog = syncState.getChangeLog() != null ? syncState.getChangeLog() : new ArrayList<>();
+
+        if (since <= 0 || since < version - changeLog.size() || since > version)
+        {
+            List<Note> notes = findAllNotes(userId);
+            return new NoteChanges(since, version, true, notes != null ? notes : new ArrayList<>(), new ArrayList<>());
+        }
+
+        Set<Integer> noteIds = new LinkedHashSet<>();
+        for (NoteLogEntry entry : changeLog.subList(changeLog.size() - (int) (version - since), changeLog.size()))
+        {
+            noteIds.add(entry.getNoteId());
+        }
+
+        List<Note> changed = noteIds.isEmpty() ? new ArrayList<>() : findNotes(userId, noteIds);
+        for (Note note : changed)
+        {
+            noteIds.remove(note.getNoteId());
+        }
+        return new NoteChanges(since, version, false, changed, new ArrayList<>(noteIds));
+    }
+
+    /*
+     * Log entries are appended in time order, so the expired ones are a prefix of the
+     * log and trimming it keeps the last entry at the user's version. The trim is
+     * conditional on the version read, a user written meanwhile is trimmed next time.
+     */
+    public int compactChangeLogs(final Date changedBefore) {
+
+        Query expired = Query.query(Criteria.where("changeLog.0.changedDate").lt(changedBefore));
+        expired.fields().include("version").include("changeLog");
+
+        int removed = 0;
+
+        try (CloseableIterator<NoteUser> noteUsers = mongoOperations.stream(expired, NoteUser.class))
+        {
+            while (noteUsers.hasNext())
+            {
+                NoteUser noteUser = noteUsers.next();
+                List<NoteLogEntry> changeLog = noteUser.getChangeLog();
+
+                int kept = changeLog.size();
+                while (kept > 0 && changeLog.get(changeLog.size() - kept).getChangedDate().before(changedBefore))
+                {
+                    kept--;
+                }
+
+                Update update = kept > 0
+                        ? new Update().push("changeLog").slice(-kept).each()
+                        : new Update().set("changeLog", new ArrayList<NoteLogEntry>());
+                long version = noteUser.getVersion() != null ? noteUser.getVersion() : 0;
+
+                if (mongoOperations.updateFirst(Query.query(atVersion(noteUser.getUserId(), version)), update, NoteUser.class).getModifiedCount() > 0)
+                {
+                    removed += changeLog.size() - kept;
+                }
+            }
+        }
+        return removed;
+    }
+
+    public int migrateToBuckets(final String userId) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.migrateToBuckets(userId);
+        }
+        return 0;
+    }
+
+    public int reserveNoteIds(final String userId, final int count) {
+
+        Query query = Query.query(Criteria.where("_id").is(userId).and("lastNoteId").exists(true));
+        Update update = new Update().inc("lastNoteId", count);
+
+        NoteIdCounter counter = mongoOperations.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), NoteIdCounter.class);
+
+        if (counter != null)
+        {
+            return counter.getLastNoteId();
+        }
+
+        // first reservation for this user
+        seedNoteIdCounter(userId);
+        return reserveNoteIds(userId, count);
+    }
+
+    public int raiseNoteIdCounter(final String userId) {
+
+        return seedNoteIdCounter(userId);
+    }
+
+    /*
+     * Creates the user's NoteIdCounter at the highest noteId already stored, or raises
+     * it there. Archived notes keep their noteIds, so they count as stored. $max keeps
+     * the seed idempotent under concurrent callers.
+     */
+    private int seedNoteIdCounter(final String userId) {
+
+        int highest = Math.max(highestArchivedNoteId(userId), bucketOperations != null
+                ? bucketOperations.findHighestNoteId(userId)
+                : highestNoteId(mongoOperations, NoteUser.class, Criteria.where("_id").is(userId)));
+
+        try
+        {
+            mongoOperations.upsert(Query.query(Criteria.where("_id").is(userId)),
+                    new Update().max("lastNoteId", highest), NoteIdCounter.class);
+        }
+        catch (DuplicateKeyException exception)
+        {
+            // a concurrent caller created the counter first
+            mongoOperations.updateFirst(Query.query(Criteria.where("_id").is(userId)),
+                    new Update().max("lastNoteId", highest), NoteIdCounter.class);
+        }
+        return highest;
+    }
+
+    /*
+     * Read on the userId_noteId index of the archive, 0 without archived notes.
+     */
+    private int highestArchivedNoteId(final String userId) {
+
+        Query query = Query.query(Criteria.where("userId").is(userId))
+                .with(Sort.by(Sort.Direction.DESC, "noteId"))
+                .limit(1);
+        query.fields().include("noteId");
+
+        ArchivedNote highest = mongoOperations.findOne(query, ArchivedNote.class);
+
+        return highest == null ? 0 : highest.getNoteId();
+    }
+
+    public List<String> findUserIds() {
+
+        Set<String> userIds = mongoOperations.getCollection(mongoOperations.getCollectionName(NoteUser.class))
+                .distinct("_id", String.class).into(new LinkedHashSet<>());
+
+        if (bucketOperations != null)
+        {
+            userIds.addAll(bucketOperations.findUserIds());
+        }
+        return new ArrayList<>(userIds);
+    }
+
+    public List<String> findArchivableUserIds(final Date createdBefore, final String noteStatus, final int limit) {
+
+        Query query = Query.query(Criteria.where("notes").elemMatch(archivable("", createdBefore, noteStatus))).limit(limit);
+        query.fields().include("_id");
+
+        Set<String> userIds = new LinkedHashSet<>();
+        for (NoteUser noteUser : mongoOperations.find(query, NoteUser.class))
+        {
+            userIds.add(noteUser.getUserId());
+        }
+
+        if (bucketOperations != null && userIds.size() < limit)
+        {
+            userIds.addAll(bucketOperations.findArchivableUserIds(createdBefore, noteStatus, limit - userIds.size()));
+        }
+        return new ArrayList<>(userIds);
+    }
+
+    public List<Note> findArchivableNotes(final String userId, final Date createdBefore, final String noteStatus, final int limit) {
+
+        if (bucketOperations != null)
+        {
+            return bucketOperations.findArchivableNotes(userId, createdBefore, noteStatus, limit);
+        }
+        return archivableNotes(mongoOperations, NoteUser.class, Criteria.where("_id").is(userId), createdBefore, noteStatus, limit);
+    }
+
+    public long updateCategoryCopies(final Category category) {
+
+        Document set = new Document("notes.$[n].category", mongoOperations.getConverter().convertToMongoType(category));
+
+        return updateCopies("category.categoryId", category.getCategoryId(), new Document("$set", set),
+                Collections.singletonList(new Document("n.category.categoryId", category.getCategoryId())));
+    }
+
+    public long removeCategoryCopies(final String categoryId) {
+
+        Document set = new Document("notes.$[n].category", null);
+
+        return updateCopies("category.categoryId", categoryId, new Document("$set", set),
+                Collections.singletonList(new Document("n.category.categoryId", categoryId)));
+    }
+
+    public long updateReminderCopies(final Reminder reminder) {
+
+        Document set = new Document("notes.$[n].reminders.$[r]", mongoOperations.getConverter().convertToMongoType(reminder));
+
+        return updateCopies("reminders.reminderId", reminder.getReminderId(), new Document("$set", set),
+                Arrays.asList(new Document("n.reminders.reminderId", reminder.getReminderId()),
+                        new Document("r.reminderId", reminder.getReminderId())));
+    }
+
+    public long removeReminderCopies(final String reminderId) {
+
+        Document pull = new Document("notes.$[n].reminders", new Document("reminderId", reminderId));
+
+        return updateCopies("reminders.reminderId", reminderId, new Document("$pull", pull),
+                Collections.singletonList(new Document("n.reminders.reminderId", reminderId)));
+    }
+
+    public long touchCategoryReferences(final String categoryId) {
+
+        return updateCopies("category.categoryId", categoryId, new Document(),
+                Collections.singletonList(new Document("n.category.categoryId", categoryId)));
+    }
+
+    public long touchReminderReferences(final String reminderId) {
+
+        return updateCopies("reminders.reminderId", reminderId, new Document(),
+                Collections.singletonList(new Document("n.reminders.reminderId", reminderId)));
+    }
+
+    /*
+     * Applies update with one updateMany per collection to every document holding a
+     * note whose field equals id. Spring Data 2.0 has no array filters, the updates are
+     * sent through the driver. The changeSeq of every updated note moves to its next
+     * revision, so conditional writes against the old copy fail. An updateMany cannot
+     * log the changed noteIds per user, so every user holding a copy moves to a new
+     * version with an empty changeLog instead: ETags and cached lists become stale and
+     * delta sync from any earlier version falls back to a full resync.
+     */
+    private long updateCopies(final String field, final String id, final Document update, final List<Document> arrayFilters) {
+
+        Document selector = new Document("notes." + field, id);
+        UpdateOptions options = new UpdateOptions().arrayFilters(arrayFilters);
+        Document stamped = new Document(update).append("$inc", new Document("notes.$[n].changeSeq", 1));
+
+        Document set = update.containsKey("$set") ? new Document((Document) update.get("$set")) : new Document();
+        Document embedded = new Document(stamped)
+                .append("$set", set.append("changeLog", new ArrayList<>()))
+                .append("$inc", new Document("notes.$[n].changeSeq", 1).append("version", 1));
+
+        long modified = mongoOperations.execute(NoteUser.class,
+                collection -> collection.updateMany(selector, embedded, options)).getModifiedCount();
+
+        if (bucketOperations != null)
+        {
+            List<String> userIds = mongoOperations.getCollection(mongoOperations.getCollectionName(NoteBucket.class))
+                    .distinct("userId", selector, String.class).into(new ArrayList<>());
+
+            if (!userIds.isEmpty())
+            {
+                modified += mongoOperations.execute(NoteBucket.class,
+                        collection -> collection.updateMany(selector, stamped, options)).getModifiedCount();
+                mongoOperations.updateMulti(Query.query(Criteria.where("_id").in(userIds)),
+                        new Update().inc("version", 1).set("changeLog", new ArrayList<>()), NoteUser.class);
+            }
+        }
+        return modified;
+    }
+
+    /*
+     * Highest noteId stored in the "notes" arrays of the documents selected by owner,
+     * 0 if there are none.
+     */
+    static int highestNoteId(final MongoOperations mongoOperations, final Class<?> documentType, final Criteria owner) {
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(owner),
+                Aggregation.unwind("notes"),
+                Aggregation.sort(Sort.Direction.DESC, "notes.noteId"),
+                Aggregation.limit(1),
+                Aggregation.replaceRoot("notes"));
+
+        Note highest = mongoOperations.aggregate(aggregation, documentType, Note.class).getUniqueMappedResult();
+
+        if (highest == null)
+        {
+            return 0;
+        }
+        return highest.getNoteId();
+    }
+
+    /*
+     * Appends the noteIds to the change log of the user and moves its version by as
+     * many. Only the last logSize entries are kept, a larger batch leaves clients
+     * which synced before it to a full resync.
+     */
+    static Update logChanges(final Update update, final Collection<Integer> noteIds, final int logSize) {
+
+        update.push("changeLog").slice(-logSize).each(logEntries(noteIds).toArray());
+        return update.inc("version", noteIds.size());
+    }
+
+    /*
+     * logChanges for an update sent through the driver.
+     */
+    static Document logChanges(final Document update, final Collection<Integer> noteIds, final int logSize) {
+
+        Document inc = (Document) update.computeIfAbsent("$inc", operator -> new Document());
+        inc.append("version", noteIds.size());
+
+        return update.append("$push", new Document("changeLog",
+                new Document("$each", logEntries(noteIds)).append("$slice", -logSize)));
+    }
+
+    /*
+     * Logs notes written to another document than NoteUser, i.e. to a bucket, after
+     * that write has landed. The NoteUser document is created when needed, returns
+     * true if it was.
+     */
+    static boolean logChanges(final MongoOperations mongoOperations, final String userId,
+                              final Collection<Integer> noteIds, final int logSize) {
+
+        if (noteIds.isEmpty())
+        {
+            return false;
+        }
+
+        Query query = Query.query(Criteria.where("_id").is(userId));
+
+        try
+        {
+            return mongoOperations.upsert(query, logChanges(new Update(), noteIds, logSize), NoteUser.class).getUpsertedId() != null;
+        }
+        catch (DuplicateKeyException exception)
+        {
+            // a concurrent first write created the document, log in place
+            mongoOperations.updateFirst(query, logChanges(new Update(), noteIds, logSize), NoteUser.class);
+            return false;
+        }
+    }
+
+    private static List<Document> logEntries(final Collection<Integer> noteIds) {
+
+        Date now = new Date();
+        List<Document> entries = new ArrayList<>(noteIds.size());
+
+        for (int noteId : noteIds)
+        {
+            entries.add(new Document("noteId", noteId).append("changedDate", now));
+        }
+        return entries;
+    }
+
+    /*
+     * $set of the fields of note into the element at path, $unset of those it does not
+     * have and $inc of the element's changeSeq. A $set of the whole element would
+     * conflict with the $inc.
+     */
+    static Update replaceNote(final MongoConverter converter, final Update update, final String path, final Note note) {
+
+        Document fields = (Document) converter.convertToMongoType(note);
+
+        for (String field : NOTE_FIELDS)
+        {
+            if (fields.get(field) != null)
+            {
+                update.set(path + "." + field, fields.get(field));
+            }
+            else
+            {
+                update.unset(path + "." + field);
+            }
+        }
+        return update.inc(path + ".changeSeq", 1);
+    }
+
+    /*
+     * $set and $unset of the patched fields of the note matched by the query, whose
+     * changeSeq is incremented.
+     */
+    static Update patchUpdate(final NotePatch patch) {
+
+        Update update = new Update();
+
+        patch.getSet().forEach((path, value) -> update.set("notes.$." + path, value));
+        for (String path : patch.getUnset())
+        {
+            update.unset("notes.$." + path);
+        }
+        return update.inc("notes.$.changeSeq", 1);
+    }
+
+    /*
+     * Notes with the given noteIds in the "notes" arrays of the documents selected by
+     * owner, those which do not exist are left out.
+     */
+    static List<Note> selectedNotes(final MongoOperations mongoOperations, final Class<?> documentType,
+                                    final Criteria owner, final Collection<Integer> noteIds) {
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(owner.and("notes.noteId").in(noteIds)),
+                Aggregation.unwind("notes"),
+                Aggregation.match(Criteria.where("notes.noteId").in(noteIds)),
+                Aggregation.replaceRoot("notes"));
+
+        return mongoOperations.aggregate(aggregation, documentType, Note.class).getMappedResults();
+    }
+
+    /*
+     * Notes matching the filter in the "notes" arrays of the documents selected by
+     * owner. Only documents holding a matching note are read, and $filter drops the
+     * other notes before they are sent.
+     */
+    static List<Note> filteredNotes(final MongoOperations mongoOperations, final Class<?> documentType,
+                                    final Criteria owner, final NoteFilter filter) {
+
+        if (filter.isEmpty())
+        {
+            throw new IllegalArgumentException("Empty note filter");
+        }
+
+        Criteria element = new Criteria();
+        List<AggregationExpression> conditions = new ArrayList<>();
+
+        if (filter.getNoteStatus() != null)
+        {
+            element = element.and("noteStatus").is(filter.getNoteStatus());
+            conditions.add(ComparisonOperators.Eq.valueOf("note.noteStatus").equalToValue(filter.getNoteStatus()));
+        }
+        if (filter.getCategoryId() != null)
+        {
+            element = element.and("category.categoryId").is(filter.getCategoryId());
+            conditions.add(ComparisonOperators.Eq.valueOf("note.category.categoryId").equalToValue(filter.getCategoryId()));
+        }
+        if (filter.getCategoryName() != null)
+        {
+            element = element.and("category.categoryName").is(filter.getCategoryName());
+            conditions.add(ComparisonOperators.Eq.valueOf("note.category.categoryName").equalToValue(filter.getCategoryName()));
+        }
+        if (filter.getCreatedFrom() != null || filter.getCreatedTo() != null)
+        {
+            element = element.and("noteCreationDate");
+            if (filter.getCreatedFrom() != null)
+            {
+                element.gte(filter.getCreatedFrom());
+                conditions.add(ComparisonOperators.Gte.valueOf("note.noteCreationDate").greaterThanEqualToValue(filter.getCreatedFrom()));
+            }
+            if (filter.getCreatedTo() != null)
+            {
+                element.lt(filter.getCreatedTo());
+                conditions.add(ComparisonOperators.Lt.valueOf("note.noteCreationDate").lessThanValue(filter.getCreatedTo()));
+            }
+        }
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(owner.and("notes").elemMatch(element)),
+                Aggregation.sort(Sort.Direction.ASC, "bucketSeq"),
+                Aggregation.project().and(ArrayOperators.Filter.filter("notes").as("note")
+                        .by(BooleanOperators.And.and(conditions.toArray(new AggregationExpression[0])))).as("notes"),
+                Aggregation.unwind("notes"),
+                Aggregation.replaceRoot("notes"));
+
+        // the "note" variable of $filter is not a property of the document type, so the pipeline is not type checked
+        return mongoOperations.aggregate(aggregation, mongoOperations.getCollectionName(documentType), Note.class).getMappedResults();
+    }
+
+    /*
+     * At most limit notes matching archivable in the "notes" arrays of the documents
+     * selected by owner.
+     */
+    static List<Note> archivableNotes(final MongoOperations mongoOperations, final Class<?> documentType,
+                                      final Criteria owner, final Date createdBefore, final String noteStatus, final int limit) {
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(owner.and("notes").elemMatch(archivable("", createdBefore, noteStatus))),
+                Aggregation.unwind("notes"),
+                Aggregation.match(archivable("notes.", createdBefore, noteStatus)),
+                Aggregation.limit(limit),
+                Aggregation.replaceRoot("notes"));
+
+        // the fields after $replaceRoot are not properties of the document type, so the pipeline is not type checked
+        return mongoOperations.aggregate(aggregation, mongoOperations.getCollectionName(documentType), Note.class).getMappedResults();
+    }
+
+    /*
+     * Matches notes created before createdBefore or with the given noteStatus, with the
+     * field names prefixed by prefix.
+     */
+    static Criteria archivable(final String prefix, final Date createdBefore, final String noteStatus) {
+
+        List<Criteria> conditions = new ArrayList<>();
+
+        if (createdBefore != null)
+        {
+            conditions.add(Criteria.where(prefix + "noteCreationDate").lt(createdBefore));
+        }
+        if (noteStatus != null)
+        {
+            conditions.add(Criteria.where(prefix + "noteStatus").is(noteStatus));
+        }
+        if (conditions.isEmpty())
+        {
+            throw new IllegalArgumentException("Neither an age nor a status to archive notes by");
+        }
+        return new Criteria().orOperator(conditions.toArray(new Criteria[0]));
+    }
+
+    /*
+     * Summaries of the notes with the given noteIds in the "notes" arrays of the
+     * documents selected by owner. noteContent and reminders are dropped by Mongo.
+     */
+    static List<NoteSummary> selectedSummaries(final MongoOperations mongoOperations, final Class<?> documentType,
+                                               final Criteria owner, final Collection<Integer> noteIds) {
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(owner.and("notes.noteId").in(noteIds)),
+                Aggregation.unwind("notes"),
+                Aggregation.match(Criteria.where("notes.noteId").in(noteIds)),
+                Aggregation.replaceRoot("notes"),
+                Aggregation.project().andExclude("noteContent", "reminders"));
+
+        // the fields after $replaceRoot are not properties of the document type, so the pipeline is not type checked
+        return summaries(mongoOperations.aggregate(aggregation, mongoOperations.getCollectionName(documentType), Note.class).getMappedResults());
+    }
+
+    /*
+     * Adds the notes in the "notes" arrays of the documents selected by owner to stats,
+     * grouped by noteStatus and categoryId.
+     */
+    static void countNotes(final MongoOperations mongoOperations, final Class<?> documentType,
+                           final Criteria owner, final NoteStats stats) {
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(owner),
+                Aggregation.unwind("notes"),
+                Aggregation.group(Fields.from(Fields.field("noteStatus", "notes.noteStatus"),
+                        Fields.field("categoryId", "notes.category.categoryId"))).count().as("count"));
+
+        for (Document group : mongoOperations.aggregate(aggregation, documentType, Document.class))
+        {
+            Document key = group.get("_id", Document.class);
+            stats.add(key.getString("noteStatus"), key.getString("categoryId"), ((Number) group.get("count")).longValue());
+        }
+    }
+
+    /*
+     * Adds the note element with the given noteId to owner, and requires it to be at
+     * expectedChangeSeq unless that is null. Notes written before they were stamped
+     * have no changeSeq, they are at changeSeq 0.
+     */
+    static Criteria withNote(final Criteria owner, final int noteId, final Long expectedChangeSeq) {
+
+        if (expectedChangeSeq == null)
+        {
+            return owner.and("notes.noteId").is(noteId);
+        }
+        if (expectedChangeSeq == 0)
+        {
+            return owner.and("notes").elemMatch(Criteria.where("noteId").is(noteId).and("changeSeq").exists(false));
+        }
+        return owner.and("notes").elemMatch(Criteria.where("noteId").is(noteId).and("changeSeq").is(expectedChangeSeq));
+    }
+
+    static boolean hasChangeSeq(final Note note, final Long expectedChangeSeq) {
+
+        long changeSeq = note.getChangeSeq() != null ? note.getChangeSeq() : 0;
+
+        return expectedChangeSeq == null || changeSeq == expectedChangeSeq;
+    }
+
+    static OptimisticLockingFailureException noteChanged(final String userId, final int noteId) {
+
+        return new OptimisticLockingFailureException("Note " + noteId + " of " + userId + " was changed concurrently");
+    }
+
+    /*
+     * New notes start at their creation time, see Note.changeSeq.
+     */
+    static void startRevisions(final List<Note> notes) {
+
+        long now = System.currentTimeMillis();
+
+        for (Note note : notes)
+        {
+            note.setChangeSeq(now);
+        }
+    }
+
+    /*
+     * changeSeq of a note after one $inc, given the note before it.
+     */
+    static long nextRevision(final Note before) {
+
+        return (before.getChangeSeq() != null ? before.getChangeSeq() : 0) + 1;
+    }
+
+    /*
+     * Sets the changeSeq of the written notes from the "notes" array of a raw NoteUser
+     * document read before their $inc.
+     */
+    static void nextRevisions(final Document before, final List<Note> notes) {
+
+        Map<Integer, Long> revisions = new HashMap<>();
+        List<?> stored = before.get("notes", List.class);
+
+        if (stored != null)
+        {
+            for (Object note : stored)
+            {
+                Number changeSeq = (Number) ((Document) note).get("changeSeq");
+                revisions.put(((Document) note).getInteger("noteId"), changeSeq != null ? changeSeq.longValue() + 1 : 1);
+            }
+        }
+        for (Note note : notes)
+        {
+            note.setChangeSeq(revisions.get(note.getNoteId()));
+        }
+    }
+
+    /*
+     * Projects the notes array down to the fields of NoteSummary, noteContent and
+     * reminders are never sent by Mongo.
+     */
+    static void includeSummaryFields(final Query query) {
+
+        for (String field : SUMMARY_FIELDS)
+        {
+            query.fields().include("notes." + field);
+        }
+    }
+
+    static List<NoteSummary> summaries(final List<Note> notes) {
+
+        List<NoteSummary> summaries = new ArrayList<>();
+
+        if (notes != null)
+        {
+            for (Note note : notes)
+            {
+                summaries.add(NoteSummary.of(note));
+            }
+        }
+        return summaries;
+    }
+
+    /*
+     * Summaries of the notes with one of the given noteIds.
+     */
+    static List<NoteSummary> summaries(final List<Note> notes, final Collection<Integer> noteIds) {
+
+        List<NoteSummary> summaries = new ArrayList<>();
+
+        if (notes != null)
+        {
+            Set<Integer> selected = new HashSet<>(noteIds);
+            for (Note note : notes)
+            {
+                if (selected.contains(note.getNoteId()))
+                {
+                    summaries.add(NoteSummary.of(note));
+                }
+            }
+        }
+        return summaries;
+    }
+
+    /*
+     * Limits a patch's findAndModify to the fields its caller needs: the changeSeq for
+     * the ETag, noteStatus and the categoryId for the note counters. Mongo cannot
+     * project single fields of the element matched by $ or $elemMatch ("notes.$.changeSeq"
+     * projects the whole element before 4.4 and is rejected since), so these few fields
+     * come back for every note of the document and patchedNote picks the patched one,
+     * instead of the whole patched note with its content.
+     */
+    static Query patchedFields(final Query query) {
+
+        query.fields().include("notes.noteId").include("notes.changeSeq").include("notes.noteStatus")
+                .include("notes.category.categoryId");
+        return query;
+    }
+
+    static Note patchedNote(final List<Note> notes, final int noteId) {
+
+        for (Note note : notes)
+        {
+            if (note.getNoteId() == noteId)
+            {
+                return note;
+            }
+        }
+        throw new IllegalStateException("Patched note " + noteId + " missing from the patched document");
+    }
+
+    /*
+     * True if the patch may move the note to other counters of NoteStats.
+     */
+    static boolean countsChange(final NotePatch patch) {
+
+        return patch.touches("noteStatus") || patch.touches("category");
+    }
+
+    static List<Integer> noteIds(final List<Note> notes) {
+
+        List<Integer> noteIds = new ArrayList<>(notes.size());
+        for (Note note : notes)
+        {
+            noteIds.add(note.getNoteId());
+        }
+        return noteIds;
+    }
+
+    /*
+     * noteIds out of the requested ones which occur in notes, in the order of notes.
+     */
+    static List<Integer> removedNoteIds(final List<Note> notes, final Collection<Integer> noteIds) {
+
+        List<Integer> removed = new ArrayList<>();
+        if (notes != null)
+        {
+            Set<Integer> requested = new HashSet<>(noteIds);
+            for (Note note : notes)
+            {
+                if (requested.contains(note.getNoteId()))
+                {
+                    removed.add(note.getNoteId());
+                }
+            }
+        }
+        return removed;
+    }
+
+    /*
+     * noteIds out of the requested ones which are stored in the NoteUser document of
+     * the user, in stored order. Only the noteIds of its notes are read.
+     */
+    private List<Integer> storedNoteIds(final String userId, final Collection<Integer> noteIds) {
+
+        Query query = Query.query(Criteria.where("_id").is(userId));
+        query.fields().include("notes.noteId");
+
+        NoteUser noteUser = mongoOperations.findOne(query, NoteUser.class);
+
+        return removedNoteIds(noteUser != null ? noteUser.getNotes() : null, noteIds);
+    }
+
+    /*
+     * Selects the NoteUser document only while it is still at the given version.
+     * Documents written before versioning have no version field.
+     */
+    static Criteria atVersion(final String userId, final long version) {
+
+        if (version == 0)
+        {
+            return Criteria.where("_id").is(userId).and("version").exists(false);
+        }
+        return Criteria.where("_id").is(userId).and("version").is(version);
+    }
+
+    private boolean containsNote(final String userId, final int noteId) {
+
+        return mongoOperations.exists(Query.query(Criteria.where("_id").is(userId).and("notes.noteId").is(noteId)), NoteUser.class);
+    }
+
+    static OptimisticLockingFailureException concurrentWrites(final String userId) {
+
+        return new OptimisticLockingFailureException("Notes of " + userId + " kept changing, giving up after " + MAX_ATTEMPTS + " attempts");
+    }
+
+    /*
+     * Notes of the owning documents after afterNoteId up to and including lastNoteId in
+     * noteId order. The sort may spill to disk, owners with many buckets can hold more
+     * notes than an in-memory sort allows.
+     */
+    static CloseableIterator<Note> streamNotes(final MongoOperations mongoOperations, final Class<?> documentType,
+                                               final Criteria owner, final Integer afterNoteId, final Integer lastNoteId) {
+
+        Criteria range = pageCriteria(afterNoteId);
+        if (lastNoteId != null)
+        {
+            range = range.lte(lastNoteId);
+        }
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(owner),
+                Aggregation.unwind("notes"),
+                Aggregation.match(range),
+                Aggregation.sort(Sort.Direction.ASC, "notes.noteId"),
+                Aggregation.replaceRoot("notes"))
+                .withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        return mongoOperations.aggregateStream(aggregation, documentType, Note.class);
+    }
+
+    /*
+     * The noteId limit notes after afterNoteId, if a note follows it. The noteIds are
+     * projected before the sort so only they are sorted.
+     */
+    static Integer pageEnd(final MongoOperations mongoOperations, final Class<?> documentType,
+                           final Criteria owner, final Integer afterNoteId, final int limit) {
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(owner),
+                Aggregation.unwind("notes"),
+                Aggregation.match(pageCriteria(afterNoteId)),
+                Aggregation.project().and("notes.noteId").as("noteId"),
+                Aggregation.sort(Sort.Direction.ASC, "noteId"),
+                Aggregation.skip((long) limit - 1),
+                Aggregation.limit(2))
+                .withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        List<Document> noteIds = mongoOperations.aggregate(aggregation, documentType, Document.class).getMappedResults();
+
+        if (noteIds.size() < 2)
+        {
+            return null;
+        }
+        return noteIds.get(0).getInteger("noteId");
+    }
+
+    /*
+     * The noteIds of limit notes after afterNoteId, projected before the sort like
+     * pageEnd.
+     */
+    static List<Integer> noteIdsAfter(final MongoOperations mongoOperations, final Class<?> documentType,
+                                      final Criteria owner, final Integer afterNoteId, final int limit) {
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(owner),
+                Aggregation.unwind("notes"),
+                Aggregation.match(pageCriteria(afterNoteId)),
+                Aggregation.project().and("notes.noteId").as("noteId"),
+                Aggregation.sort(Sort.Direction.ASC, "noteId"),
+                Aggregation.limit(limit))
+                .withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        List<Integer> noteIds = new ArrayList<>();
+        for (Document noteId : mongoOperations.aggregate(aggregation, documentType, Document.class).getMappedResults())
+        {
+            noteIds.add(noteId.getInteger("noteId"));
+        }
+        return noteIds;
+    }
+
+    /*
+     * Criteria on the unwound "notes" element which selects the notes after the cursor.
+     */
+    static Criteria pageCriteria(final Integer afterNoteId) {
+
+        if (afterNoteId != null)
+        {
+            return Criteria.where("notes.noteId").gt(afterNoteId);
+        }
+        return Criteria.where("notes.noteId").exists(true);
+    }
+
+}
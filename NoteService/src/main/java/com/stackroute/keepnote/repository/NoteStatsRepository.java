@@ -0,0 +1,13 @@
+package com.stackroute.keepnote.repository;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import com.stackroute.keepnote.model.NoteStats;
+
+/*
+* Per-user note counters, one NoteStats document per user.
+* */
+
+public interface NoteStatsRepository extends MongoRepository<NoteStats, String>, NoteStatsRepositoryCustom {
+
+}
@@ -0,0 +1,48 @@
+package com.stackroute.keepnote.repository;
+
+import com.stackroute.keepnote.model.NoteStats;
+import com.stackroute.keepnote.model.NoteSummary;
+
+import java.util.Collection;
+import java.util.Date;
+
+/*
+* Custom operations of NoteStatsRepository, implemented in NoteStatsRepositoryImpl
+* using MongoOperations. Statuses and categoryIds are field names in the counter
+* maps, they are escaped so "." and "$" do not break the field paths.
+* */
+
+public interface NoteStatsRepositoryCustom {
+
+    /*
+     * Moves the counters of the given user from the removed notes to the added ones
+     * with a single $inc. Counters of keys which both lose and gain a note are not
+     * touched. Users without counters yet are skipped, their first counters are counted
+     * from their notes. The note writes of NoteRepository count themselves, from the
+     * notes as they were before the write.
+     */
+    void recordChange(String userId, Collection<NoteSummary> removed, Collection<NoteSummary> added);
+
+    /*
+     * Sets all counters of the given user to 0, if it has counters.
+     */
+    void reset(String userId);
+
+    /*
+     * Replaces the counters of the user of stats with stats.
+     */
+    void replace(NoteStats stats);
+
+    /*
+     * Returns the counters of the given user with their keys unescaped and keys counted
+     * 0 left out, or null if there are none yet.
+     */
+    NoteStats findStats(String userId);
+
+    /*
+     * Takes or renews the lease of the stats reconciliation for owner until leaseUntil.
+     * Returns false if another owner holds a lease which has not expired at now.
+     */
+    boolean acquireLease(String owner, Date now, Date leaseUntil);
+
+}
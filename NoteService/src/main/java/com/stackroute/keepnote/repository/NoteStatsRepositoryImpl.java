@@ -0,0 +1,248 @@
+package com.stackroute.keepnote.repository;
+
+import com.stackroute.keepnote.model.NoteStats;
+import com.stackroute.keepnote.model.NoteStatsLease;
+import com.stackroute.keepnote.model.NoteSummary;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+* Implementation of NoteStatsRepositoryCustom. Spring Data picks this class up by its
+* "Impl" postfix and merges it into NoteStatsRepository.
+*
+* The counter maps are read and written as raw documents, the mapping layer would
+* reject the escaped keys.
+* */
+
+public class NoteStatsRepositoryImpl implements NoteStatsRepositoryCustom {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NoteStatsRepositoryImpl.class);
+
+    private final MongoOperations mongoOperations;
+
+    @Autowired
+    public NoteStatsRepositoryImpl(MongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    public void recordChange(final String userId, final Collection<NoteSummary> removed, final Collection<NoteSummary> added) {
+        recordChange(mongoOperations, userId, removed, added, false);
+    }
+
+    /*
+     * With create the counters are upserted, for a user whose first notes were just
+     * written and who has nothing to count yet.
+     */
+    static void recordChange(final MongoOperations mongoOperations, final String userId,
+                             final Collection<NoteSummary> removed, final Collection<NoteSummary> added, final boolean create) {
+
+        Update update = increments(removed, added);
+
+        if (update.getUpdateObject().isEmpty())
+        {
+            return;
+        }
+
+        Query query = Query.query(Criteria.where("_id").is(userId));
+        if (create)
+        {
+            mongoOperations.upsert(query, update, NoteStats.class);
+        }
+        else
+        {
+            mongoOperations.updateFirst(query, update, NoteStats.class);
+        }
+    }
+
+    /*
+     * recordWrite for the writes of ReactiveNoteRepositoryImpl, a failed $inc is logged
+     * and left to NoteStatsReconciliation in the same way.
+     */
+    static Mono<Void> recordWrite(final ReactiveMongoOperations mongoOperations, final String userId,
+                                  final Collection<NoteSummary> removed, final Collection<NoteSummary> added, final boolean create) {
+
+        Update update = increments(removed, added);
+
+        if (update.getUpdateObject().isEmpty())
+        {
+            return Mono.empty();
+        }
+
+        Query query = Query.query(Criteria.where("_id").is(userId));
+
+        return (create ? mongoOperations.upsert(query, update, NoteStats.class) : mongoOperations.updateFirst(query, update, NoteStats.class))
+                .then()
+                .onErrorResume(RuntimeException.class, exception -> {
+                    LOG.warn("Note stats of " + userId + " not updated, left to the reconciliation: " + exception.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    /*
+     * reset for ReactiveNoteRepositoryImpl.deleteAllNotes.
+     */
+    static Mono<Void> reset(final ReactiveMongoOperations mongoOperations, final String userId) {
+
+        return mongoOperations.updateFirst(Query.query(Criteria.where("_id").is(userId)), resetCounters(), NoteStats.class)
+                .then()
+                .onErrorResume(RuntimeException.class, exception -> {
+                    LOG.warn("Note stats of " + userId + " not reset, left to the reconciliation: " + exception.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private static Update increments(final Collection<NoteSummary> removed, final Collection<NoteSummary> added) {
+
+        Map<String, Long> increments = new LinkedHashMap<>();
+
+        for (NoteSummary summary : removed)
+        {
+            count(increments, summary, -1);
+        }
+        for (NoteSummary summary : added)
+        {
+            count(increments, summary, 1);
+        }
+
+        Update update = new Update();
+        increments.forEach((field, increment) -> {
+            if (increment != 0)
+            {
+                update.inc(field, increment);
+            }
+        });
+        return update;
+    }
+
+    /*
+     * recordChange for the note writes of NoteRepositoryImpl, which know the notes
+     * before and after the write from the write itself. The note write has landed
+     * already, a failed $inc is left to NoteStatsReconciliation.
+     */
+    static void recordWrite(final MongoOperations mongoOperations, final String userId,
+                            final Collection<NoteSummary> removed, final Collection<NoteSummary> added, final boolean create) {
+
+        try
+        {
+            recordChange(mongoOperations, userId, removed, added, create);
+        }
+        catch (RuntimeException exception)
+        {
+            LOG.warn("Note stats of " + userId + " not updated, left to the reconciliation: " + exception.getMessage());
+        }
+    }
+
+    public void reset(final String userId) {
+
+        mongoOperations.updateFirst(Query.query(Criteria.where("_id").is(userId)), resetCounters(), NoteStats.class);
+    }
+
+    private static Update resetCounters() {
+
+        return new Update().set("total", 0L).set("byStatus", new Document()).set("byCategory", new Document());
+    }
+
+    public void replace(final NoteStats stats) {
+
+        Update update = new Update()
+                .set("total", stats.getTotal())
+                .set("byStatus", escaped(stats.getByStatus()))
+                .set("byCategory", escaped(stats.getByCategory()))
+                .set("reconciledDate", stats.getReconciledDate());
+
+        mongoOperations.upsert(Query.query(Criteria.where("_id").is(stats.getUserId())), update, NoteStats.class);
+    }
+
+    public NoteStats findStats(final String userId) {
+
+        Document document = mongoOperations.findById(userId, Document.class, mongoOperations.getCollectionName(NoteStats.class));
+
+        if (document == null)
+        {
+            return null;
+        }
+
+        NoteStats stats = new NoteStats(userId);
+        stats.setTotal(((Number) document.getOrDefault("total", 0L)).longValue());
+        stats.setByStatus(unescaped(document.get("byStatus", Document.class)));
+        stats.setByCategory(unescaped(document.get("byCategory", Document.class)));
+        stats.setReconciledDate(document.getDate("reconciledDate"));
+        return stats;
+    }
+
+    public boolean acquireLease(final String owner, final Date now, final Date leaseUntil) {
+
+        Query query = Query.query(Criteria.where("_id").is(NoteStatsLease.ID)
+                .orOperator(Criteria.where("owner").is(owner), Criteria.where("leaseUntil").lt(now),
+                        Criteria.where("leaseUntil").exists(false)));
+        Update update = new Update().set("owner", owner).set("leaseUntil", leaseUntil);
+
+        try
+        {
+            // either the lease was free or ours, or it did not exist yet
+            mongoOperations.upsert(query, update, NoteStatsLease.class);
+            return true;
+        }
+        catch (DuplicateKeyException exception)
+        {
+            // the lease is held by another instance
+            return false;
+        }
+    }
+
+    private static void count(final Map<String, Long> increments, final NoteSummary summary, final long count) {
+
+        increments.merge("total", count, Long::sum);
+        increments.merge("byStatus." + escape(NoteStats.key(summary.getNoteStatus())), count, Long::sum);
+        increments.merge("byCategory." + escape(NoteStats.key(summary.getCategoryId())), count, Long::sum);
+    }
+
+    private static Document escaped(final Map<String, Long> counts) {
+
+        Document document = new Document();
+        counts.forEach((key, count) -> document.append(escape(key), count));
+        return document;
+    }
+
+    private static Map<String, Long> unescaped(final Document document) {
+
+        Map<String, Long> counts = new LinkedHashMap<>();
+        if (document != null)
+        {
+            for (Map.Entry<String, Object> entry : document.entrySet())
+            {
+                long count = ((Number) entry.getValue()).longValue();
+                if (count != 0)
+                {
+                    counts.put(unescape(entry.getKey()), count);
+                }
+            }
+        }
+        return counts;
+    }
+
+    static String escape(final String key) {
+
+        return key.replace("%", "%25").replace(".", "%2E").replace("$", "%24");
+    }
+
+    static String unescape(final String key) {
+
+        return key.replace("%24", "$").replace("%2E", ".").replace("%25", "%");
+    }
+
+}
@@ -0,0 +1,13 @@
+package com.stackroute.keepnote.repository;
+
+import com.stackroute.keepnote.model.NoteUser;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+
+/*
+ * Non-blocking counterpart of NoteRepository on the reactive Mongo driver, used by the
+ * "reactive" profile. It works on the same NoteUser documents and only supports the
+ * embedded storage mode.
+ */
+public interface ReactiveNoteRepository extends ReactiveMongoRepository<NoteUser, String>, ReactiveNoteRepositoryCustom {
+
+}
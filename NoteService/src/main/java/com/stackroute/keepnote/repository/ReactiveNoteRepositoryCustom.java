@@ -0,0 +1,51 @@
+package com.stackroute.keepnote.repository;
+
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteSummary;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/*
+ * The operations of NoteRepositoryCustom needed by the reactive stack, with the same
+ * semantics. Conflicts are signalled as OptimisticLockingFailureException errors.
+ */
+public interface ReactiveNoteRepositoryCustom {
+
+    /*
+     * Emits false if the noteId is already taken.
+     */
+    Mono<Boolean> insertNote(String userId, Note note);
+
+    /*
+     * Emits false if the user or note was not found. A non-null expectedChangeSeq
+     * updates the note only if it is still at that changeSeq.
+     */
+    Mono<Boolean> updateNote(String userId, Note note, Long expectedChangeSeq);
+
+    /*
+     * Emits false if nothing was removed. A non-null expectedChangeSeq removes the note
+     * only if it is still at that changeSeq.
+     */
+    Mono<Boolean> deleteNote(String userId, int noteId, Long expectedChangeSeq);
+
+    /*
+     * Emits false if the user was not found.
+     */
+    Mono<Boolean> deleteAllNotes(String userId);
+
+    /*
+     * Completes empty if the user or note was not found.
+     */
+    Mono<Note> findNote(String userId, int noteId);
+
+    /*
+     * Completes empty if the user has no notes document.
+     */
+    Mono<Long> findVersion(String userId);
+
+    /*
+     * Completes empty if the user has no notes document.
+     */
+    Mono<List<NoteSummary>> findNoteSummaries(String userId);
+}
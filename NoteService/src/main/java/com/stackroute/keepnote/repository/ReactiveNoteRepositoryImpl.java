@@ -0,0 +1,170 @@
+package com.stackroute.keepnote.repository;
+
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteLogEntry;
+import com.stackroute.keepnote.model.NoteSummary;
+import com.stackroute.keepnote.model.NoteUser;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * The writes are the writes of NoteRepositoryImpl in embedded mode, each one update
+ * which also appends to the change log. The retry loops are turned into
+ * resubscriptions bounded by the same MAX_ATTEMPTS.
+ */
+public class ReactiveNoteRepositoryImpl implements ReactiveNoteRepositoryCustom {
+
+    private final ReactiveMongoOperations mongoOperations;
+
+    private final int changeLogSize;
+
+    @Autowired
+    public ReactiveNoteRepositoryImpl(ReactiveMongoOperations mongoOperations,
+                                      @Value("${keepnote.note.change-log.max-entries:1000}") int changeLogSize) {
+        this.mongoOperations = mongoOperations;
+        this.changeLogSize = Math.max(1, changeLogSize);
+    }
+
+    public Mono<Boolean> insertNote(final String userId, final Note note) {
+
+        NoteRepositoryImpl.startRevisions(Collections.singletonList(note));
+
+        return insertNote(userId, note, 0);
+    }
+
+    private Mono<Boolean> insertNote(final String userId, final Note note, final int attempt) {
+
+        if (attempt == NoteRepositoryImpl.MAX_ATTEMPTS)
+        {
+            return Mono.error(NoteRepositoryImpl.concurrentWrites(userId));
+        }
+
+        Query query = Query.query(Criteria.where("_id").is(userId).and("notes.noteId").ne(note.getNoteId()));
+        Update update = NoteRepositoryImpl.logChanges(new Update().push("notes", note),
+                Collections.singletonList(note.getNoteId()), changeLogSize);
+
+        return mongoOperations.upsert(query, update, NoteUser.class)
+                .flatMap(result -> NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId, Collections.emptyList(),
+                        Collections.singletonList(NoteSummary.of(note)), result.getUpsertedId() != null).thenReturn(true))
+                .onErrorResume(DuplicateKeyException.class, exception -> containsNote(userId, note.getNoteId())
+                        .flatMap(taken -> taken ? Mono.just(false) : insertNote(userId, note, attempt + 1)));
+    }
+
+    public Mono<Boolean> updateNote(final String userId, final Note note, final Long expectedChangeSeq) {
+        return updateNote(userId, note, expectedChangeSeq, 0);
+    }
+
+    private Mono<Boolean> updateNote(final String userId, final Note note, final Long expectedChangeSeq, final int attempt) {
+
+        if (attempt == NoteRepositoryImpl.MAX_ATTEMPTS)
+        {
+            return Mono.error(NoteRepositoryImpl.concurrentWrites(userId));
+        }
+
+        Query query = Query.query(NoteRepositoryImpl.withNote(Criteria.where("_id").is(userId), note.getNoteId(), expectedChangeSeq));
+        query.fields().elemMatch("notes", Criteria.where("noteId").is(note.getNoteId()));
+        Update update = NoteRepositoryImpl.logChanges(
+                NoteRepositoryImpl.replaceNote(mongoOperations.getConverter(), new Update(), "notes.$", note),
+                Collections.singletonList(note.getNoteId()), changeLogSize);
+
+        return mongoOperations.findAndModify(query, update, NoteUser.class)
+                .flatMap(before -> {
+                    note.setChangeSeq(NoteRepositoryImpl.nextRevision(before.getNotes().get(0)));
+                    return NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId, NoteRepositoryImpl.summaries(before.getNotes()),
+                            Collections.singletonList(NoteSummary.of(note)), false).thenReturn(true);
+                })
+                .switchIfEmpty(Mono.defer(() -> findNote(userId, note.getNoteId())
+                        .flatMap(current -> NoteRepositoryImpl.hasChangeSeq(current, expectedChangeSeq)
+                                ? updateNote(userId, note, expectedChangeSeq, attempt + 1)
+                                : Mono.<Boolean>error(NoteRepositoryImpl.noteChanged(userId, note.getNoteId())))
+                        .defaultIfEmpty(false)));
+    }
+
+    public Mono<Boolean> deleteNote(final String userId, final int noteId, final Long expectedChangeSeq) {
+        return deleteNote(userId, noteId, expectedChangeSeq, 0);
+    }
+
+    /*
+     * The change log entry is written by the $pull itself, a delete which removes
+     * nothing leaves no trace. The note removed is read back to take it off the stats.
+     */
+    private Mono<Boolean> deleteNote(final String userId, final int noteId, final Long expectedChangeSeq, final int attempt) {
+
+        if (attempt == NoteRepositoryImpl.MAX_ATTEMPTS)
+        {
+            return Mono.error(NoteRepositoryImpl.concurrentWrites(userId));
+        }
+
+        Query query = Query.query(NoteRepositoryImpl.withNote(Criteria.where("_id").is(userId), noteId, expectedChangeSeq));
+        query.fields().elemMatch("notes", Criteria.where("noteId").is(noteId));
+        Update update = NoteRepositoryImpl.logChanges(new Update().pull("notes", new Document("noteId", noteId)),
+                Collections.singletonList(noteId), changeLogSize);
+
+        return mongoOperations.findAndModify(query, update, NoteUser.class)
+                .flatMap(before -> NoteStatsRepositoryImpl.recordWrite(mongoOperations, userId,
+                        NoteRepositoryImpl.summaries(before.getNotes()), Collections.emptyList(), false).thenReturn(true))
+                .switchIfEmpty(Mono.defer(() -> findNote(userId, noteId)
+                        .flatMap(current -> NoteRepositoryImpl.hasChangeSeq(current, expectedChangeSeq)
+                                ? deleteNote(userId, noteId, expectedChangeSeq, attempt + 1)
+                                : Mono.<Boolean>error(NoteRepositoryImpl.noteChanged(userId, noteId)))
+                        .defaultIfEmpty(false)));
+    }
+
+    /*
+     * The change log is emptied along with the notes, clients which synced before have
+     * to start over. The stats are reset here, NoteServiceImpl resets them itself.
+     */
+    public Mono<Boolean> deleteAllNotes(final String userId) {
+
+        Query query = Query.query(Criteria.where("_id").is(userId));
+        Update update = new Update().set("notes", new ArrayList<Note>()).set("changeLog", new ArrayList<NoteLogEntry>()).inc("version", 1);
+
+        return mongoOperations.updateFirst(query, update, NoteUser.class)
+                .flatMap(result -> result.getMatchedCount() > 0
+                        ? NoteStatsRepositoryImpl.reset(mongoOperations, userId).thenReturn(true)
+                        : Mono.just(false));
+    }
+
+    public Mono<Note> findNote(final String userId, final int noteId) {
+
+        Query query = Query.query(Criteria.where("_id").is(userId).and("notes.noteId").is(noteId));
+        query.fields().elemMatch("notes", Criteria.where("noteId").is(noteId));
+
+        return mongoOperations.findOne(query, NoteUser.class)
+                .filter(noteUser -> noteUser.getNotes() != null && !noteUser.getNotes().isEmpty())
+                .map(noteUser -> noteUser.getNotes().get(0));
+    }
+
+    public Mono<Long> findVersion(final String userId) {
+
+        Query query = Query.query(Criteria.where("_id").is(userId));
+        query.fields().include("version");
+
+        return mongoOperations.findOne(query, NoteUser.class)
+                .map(noteUser -> noteUser.getVersion() != null ? noteUser.getVersion() : 0L);
+    }
+
+    public Mono<List<NoteSummary>> findNoteSummaries(final String userId) {
+
+        Query query = Query.query(Criteria.where("_id").is(userId));
+        NoteRepositoryImpl.includeSummaryFields(query);
+
+        return mongoOperations.findOne(query, NoteUser.class)
+                .map(noteUser -> NoteRepositoryImpl.summaries(noteUser.getNotes()));
+    }
+
+    private Mono<Boolean> containsNote(final String userId, final int noteId) {
+        return mongoOperations.exists(Query.query(Criteria.where("_id").is(userId).and("notes.noteId").is(noteId)), NoteUser.class);
+    }
+}
@@ -0,0 +1,99 @@
+package com.stackroute.keepnote.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.stackroute.keepnote.model.Category;
+import com.stackroute.keepnote.model.Reminder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Asks CategoryService and ReminderService for the referenced categories and reminders,
+ * with one GET ?ids= per service. Both services sit behind the same JwtFilter, so every
+ * call carries the service credential keepnote.note.references.authorization, the
+ * same on request threads and on the export, cache and reactive threads which have no
+ * request to take one from. Failed calls throw, NoteReferences then keeps the stored
+ * references.
+ */
+class HttpNoteReferenceResolver implements NoteReferenceResolver {
+
+	private final RestTemplate restTemplate;
+
+	private final ObjectMapper objectMapper;
+
+	private final String categoryUrl;
+
+	private final String reminderUrl;
+
+	private final HttpHeaders headers;
+
+	HttpNoteReferenceResolver(final RestTemplate restTemplate, final ObjectMapper objectMapper,
+			final String categoryUrl, final String reminderUrl, final String authorization) {
+		this.restTemplate = restTemplate;
+		this.objectMapper = objectMapper;
+		this.categoryUrl = categoryUrl;
+		this.reminderUrl = reminderUrl;
+		this.headers = new HttpHeaders();
+
+		if (!authorization.isEmpty())
+		{
+			headers.set(HttpHeaders.AUTHORIZATION, authorization);
+		}
+	}
+
+	public Map<String, Category> findCategories(final Set<String> categoryIds)
+	{
+		Map<String, Category> categories = new HashMap<>();
+
+		for (JsonNode node : get(categoryUrl + "/api/v1/category", categoryIds))
+		{
+			// CategoryService names the id "id"
+			ObjectNode category = node.deepCopy();
+			category.set("categoryId", category.remove("id"));
+			categories.put(category.path("categoryId").asText(), read(category, Category.class));
+		}
+		return categories;
+	}
+
+	public Map<String, Reminder> findReminders(final Set<String> reminderIds)
+	{
+		Map<String, Reminder> reminders = new HashMap<>();
+
+		for (JsonNode node : get(reminderUrl + "/api/v1/reminder", reminderIds))
+		{
+			reminders.put(node.path("reminderId").asText(), read(node, Reminder.class));
+		}
+		return reminders;
+	}
+
+	private JsonNode get(final String url, final Set<String> ids)
+	{
+		String uri = UriComponentsBuilder.fromHttpUrl(url).queryParam("ids", String.join(",", ids)).toUriString();
+
+		JsonNode body = restTemplate.exchange(uri, HttpMethod.GET, new HttpEntity<>(headers), JsonNode.class).getBody();
+
+		return body != null ? body : objectMapper.createArrayNode();
+	}
+
+	private <T> T read(final JsonNode node, final Class<T> type)
+	{
+		try
+		{
+			return objectMapper.treeToValue(node, type);
+		}
+		catch (JsonProcessingException exception)
+		{
+			throw new UncheckedIOException(exception);
+		}
+	}
+}
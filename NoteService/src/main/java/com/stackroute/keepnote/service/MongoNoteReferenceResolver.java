@@ -0,0 +1,76 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.model.Category;
+import com.stackroute.keepnote.model.Reminder;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Reads categories and reminders straight from the collections of CategoryService and
+ * ReminderService in the shared database, with one $in query per collection. Their
+ * documents keep the id in _id, stored as an ObjectId when it is a valid one.
+ */
+class MongoNoteReferenceResolver implements NoteReferenceResolver {
+
+	static final String CATEGORY_COLLECTION = "category";
+
+	static final String REMINDER_COLLECTION = "reminder";
+
+	private final MongoOperations mongoOperations;
+
+	MongoNoteReferenceResolver(final MongoOperations mongoOperations) {
+		this.mongoOperations = mongoOperations;
+	}
+
+	public Map<String, Category> findCategories(final Set<String> categoryIds)
+	{
+		Map<String, Category> categories = new HashMap<>();
+
+		for (Document document : find(categoryIds, CATEGORY_COLLECTION))
+		{
+			String categoryId = document.get("_id").toString();
+			document.put("categoryId", categoryId);
+			categories.put(categoryId, mongoOperations.getConverter().read(Category.class, document));
+		}
+		return categories;
+	}
+
+	public Map<String, Reminder> findReminders(final Set<String> reminderIds)
+	{
+		Map<String, Reminder> reminders = new HashMap<>();
+
+		for (Document document : find(reminderIds, REMINDER_COLLECTION))
+		{
+			String reminderId = document.get("_id").toString();
+			document.put("reminderId", reminderId);
+			reminders.put(reminderId, mongoOperations.getConverter().read(Reminder.class, document));
+		}
+		return reminders;
+	}
+
+	private List<Document> find(final Set<String> ids, final String collectionName)
+	{
+		List<Object> keys = new ArrayList<>(ids.size() * 2);
+
+		for (String id : ids)
+		{
+			keys.add(id);
+			if (ObjectId.isValid(id))
+			{
+				keys.add(new ObjectId(id));
+			}
+		}
+		// deleted categories and reminders stay behind until their delete is relayed
+		return mongoOperations.find(Query.query(Criteria.where("_id").in(keys).and("outbox.deleted").ne(true)), Document.class,
+				collectionName);
+	}
+}
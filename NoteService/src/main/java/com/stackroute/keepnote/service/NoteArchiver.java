@@ -0,0 +1,198 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.model.ArchivedNote;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteSummary;
+import com.stackroute.keepnote.repository.NoteArchiveRepository;
+import com.stackroute.keepnote.repository.NoteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+/*
+ * Moves notes created more than keepnote.note.archive.age-ms ago, or with the noteStatus
+ * keepnote.note.archive.status, out of the notes of their users into the archive
+ * collection. Every tick moves at most "batch-size" notes and then waits "interval-ms"
+ * before the next batch, which keeps the extra load on Mongo bounded.
+ *
+ * A note is copied into the archive first, as a pending copy under the moveId of the
+ * batch, and then removed from its user only if its changeSeq is unchanged. The copy is
+ * confirmed once the note is removed and dropped otherwise, so a note updated meanwhile
+ * stays where it is and is looked at again on a later tick. Copies left pending longer
+ * than "pending-ms" by a batch which stopped halfway are confirmed if their note is no
+ * longer with its user and dropped if it is. Archived notes leave the cache, the search
+ * index and the note counters, and delta sync reports them as deleted.
+ *
+ * Only active with keepnote.note.archive.enabled=true.
+ */
+@Component
+@ConditionalOnExpression("${keepnote.note.archive.enabled:false}")
+public class NoteArchiver {
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	private final NoteRepository noteRepository;
+
+	private final NoteArchiveRepository noteArchiveRepository;
+
+	private final NoteSearchService noteSearchService;
+
+	private final NoteCache noteCache;
+
+	private final NoteWriteBehind noteWriteBehind;
+
+	private final long ageMillis;
+
+	private final String status;
+
+	private final int batchSize;
+
+	private final long pendingMillis;
+
+	@Autowired
+	public NoteArchiver(NoteRepository noteRepository, NoteArchiveRepository noteArchiveRepository,
+			NoteSearchService noteSearchService, NoteCache noteCache, NoteWriteBehind noteWriteBehind,
+			@Value("${keepnote.note.archive.age-ms:15552000000}") long ageMillis,
+			@Value("${keepnote.note.archive.status:archived}") String status,
+			@Value("${keepnote.note.archive.batch-size:200}") int batchSize,
+			@Value("${keepnote.note.archive.pending-ms:600000}") long pendingMillis) {
+		this.noteRepository = noteRepository;
+		this.noteArchiveRepository = noteArchiveRepository;
+		this.noteSearchService = noteSearchService;
+		this.noteCache = noteCache;
+		this.noteWriteBehind = noteWriteBehind;
+		this.ageMillis = ageMillis;
+		this.status = status.isEmpty() ? null : status;
+		this.batchSize = batchSize;
+		this.pendingMillis = pendingMillis;
+
+		if (ageMillis <= 0 && this.status == null)
+		{
+			throw new IllegalArgumentException("keepnote.note.archive needs an age-ms or a status");
+		}
+	}
+
+	/*
+	 * Moves the next batch of notes and returns the number of notes moved.
+	 */
+	@Scheduled(fixedDelayString = "${keepnote.note.archive.interval-ms:1000}")
+	public int archiveBatch()
+	{
+		// queued writes are flushed first, the changeSeq checks below need them in Mongo
+		noteWriteBehind.flush();
+		resolvePending();
+
+		Date createdBefore = ageMillis > 0 ? new Date(System.currentTimeMillis() - ageMillis) : null;
+
+		// notes which could not be moved count against the batch as well
+		int remaining = batchSize;
+		int moved = 0;
+		for (String userId : noteRepository.findArchivableUserIds(createdBefore, status, batchSize))
+		{
+			if (remaining <= 0)
+			{
+				break;
+			}
+			List<Note> notes = noteRepository.findArchivableNotes(userId, createdBefore, status, remaining);
+			remaining -= notes.size();
+			moved += archive(userId, notes);
+		}
+
+		if (moved > 0)
+		{
+			LOG.info("Archived " + moved + " notes");
+		}
+		return moved;
+	}
+
+	private int archive(final String userId, final List<Note> notes)
+	{
+		if (notes.isEmpty())
+		{
+			return 0;
+		}
+
+		String moveId = noteArchiveRepository.saveNotes(userId, notes);
+
+		List<NoteSummary> moved = new ArrayList<>();
+		List<Integer> movedIds = new ArrayList<>();
+		List<Integer> kept = new ArrayList<>();
+		for (Note note : notes)
+		{
+			try
+			{
+				// false if the note is gone, deleted by its user or moved by another instance
+				// under its own moveId, either way this copy is not the archived one
+				if (noteRepository.deleteNote(userId, note.getNoteId(), note.getChangeSeq()))
+				{
+					moved.add(NoteSummary.of(note));
+					movedIds.add(note.getNoteId());
+				}
+				else
+				{
+					kept.add(note.getNoteId());
+				}
+			}
+			catch (OptimisticLockingFailureException exception)
+			{
+				kept.add(note.getNoteId());
+			}
+		}
+
+		noteArchiveRepository.confirmNotes(userId, moveId, movedIds);
+		noteArchiveRepository.discardNotes(userId, moveId, kept);
+		if (moved.isEmpty())
+		{
+			return 0;
+		}
+
+		noteCache.invalidate(userId);
+		for (NoteSummary summary : moved)
+		{
+			noteSearchService.removeNote(userId, summary.getNoteId());
+		}
+		return moved.size();
+	}
+
+	/*
+	 * Settles copies left pending by a batch which stopped between copying and removing
+	 * its notes. A note still with its user under the same noteCreationDate was not
+	 * moved; a note which is gone, or whose noteId now belongs to a newer note, was.
+	 */
+	private void resolvePending()
+	{
+		Date archivedBefore = new Date(System.currentTimeMillis() - pendingMillis);
+
+		for (ArchivedNote archivedNote : noteArchiveRepository.findPendingNotes(archivedBefore, batchSize))
+		{
+			String userId = archivedNote.getUserId();
+			List<Integer> noteIds = Collections.singletonList(archivedNote.getNoteId());
+			Note note = noteRepository.findNote(userId, archivedNote.getNoteId());
+
+			if (note != null && Objects.equals(note.getNoteCreationDate(), archivedNote.getNote().getNoteCreationDate()))
+			{
+				noteArchiveRepository.discardNotes(userId, archivedNote.getMoveId(), noteIds);
+			}
+			else
+			{
+				noteArchiveRepository.confirmNotes(userId, archivedNote.getMoveId(), noteIds);
+			}
+			if (note == null)
+			{
+				// the batch may have stopped before taking the note out of the search index
+				noteSearchService.removeNote(userId, archivedNote.getNoteId());
+			}
+		}
+	}
+}
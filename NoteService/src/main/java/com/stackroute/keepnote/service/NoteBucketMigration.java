@@ -0,0 +1,71 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteUser;
+import com.stackroute.keepnote.repository.NoteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Online migration from embedded NoteUser.notes to NoteBucket documents. Every tick
+ * moves the notes of at most "batch-size" users and then waits "interval-ms" before
+ * the next batch, which keeps the extra load on Mongo bounded while the service stays
+ * online. Users touched by requests in between are migrated on access by the repository.
+ *
+ * Only active with keepnote.note.storage=bucketed and keepnote.note.migration.enabled=true.
+ */
+@Component
+@ConditionalOnExpression("'${keepnote.note.storage:embedded}' == 'bucketed' and ${keepnote.note.migration.enabled:false}")
+public class NoteBucketMigration {
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	private final MongoOperations mongoOperations;
+
+	private final NoteRepository noteRepository;
+
+	private final int batchSize;
+
+	@Autowired
+	public NoteBucketMigration(MongoOperations mongoOperations, NoteRepository noteRepository,
+			@Value("${keepnote.note.migration.batch-size:50}") int batchSize) {
+		this.mongoOperations = mongoOperations;
+		this.noteRepository = noteRepository;
+		this.batchSize = batchSize;
+	}
+
+	/*
+	 * Migrates the next batch of users and returns the number of notes moved.
+	 */
+	@Scheduled(fixedDelayString = "${keepnote.note.migration.interval-ms:1000}")
+	public int migrateBatch()
+	{
+		Query pending = Query.query(Criteria.where("notes").exists(true).ne(new ArrayList<Note>())).limit(batchSize);
+		pending.fields().include("_id");
+
+		List<NoteUser> noteUsers = mongoOperations.find(pending, NoteUser.class);
+
+		int migrated = 0;
+		for (NoteUser noteUser : noteUsers)
+		{
+			migrated += noteRepository.migrateToBuckets(noteUser.getUserId());
+		}
+
+		if (!noteUsers.isEmpty())
+		{
+			LOG.info("Migrated " + migrated + " notes of " + noteUsers.size() + " users into buckets");
+		}
+		return migrated;
+	}
+}
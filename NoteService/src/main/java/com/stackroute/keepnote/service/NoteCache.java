@@ -0,0 +1,137 @@
+package com.stackroute.keepnote.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteCacheStats;
+import com.stackroute.keepnote.model.NoteUser;
+import com.stackroute.keepnote.model.Reminder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/*
+ * Read-through cache of the notes of a user together with their version, keyed by
+ * userId. Caffeine evicts with
+ * W-TinyLFU once the estimated size of all cached lists exceeds
+ * keepnote.note.cache.max-weight-bytes, and every entry expires
+ * keepnote.note.cache.ttl-ms after it was loaded.
+ *
+ * Writers invalidate the user after their Mongo write. A load runs inside the cache's
+ * per-key computation and an invalidation of the same key waits for it, so a list
+ * read from Mongo before a write can never be stored after that write's invalidation.
+ */
+@Component
+public class NoteCache {
+
+	private static final int NOTE_OVERHEAD = 128;
+
+	private static final int REMINDER_OVERHEAD = 96;
+
+	private final Cache<String, NoteUser> cache;
+
+	@Autowired
+	public NoteCache(@Value("${keepnote.note.cache.max-weight-bytes:67108864}") long maxWeightBytes,
+			@Value("${keepnote.note.cache.ttl-ms:300000}") long ttlMillis) {
+		this.cache = Caffeine.newBuilder()
+				.maximumWeight(maxWeightBytes)
+				.weigher((String userId, NoteUser noteUser) -> weigh(noteUser.getNotes()))
+				.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+				.recordStats()
+				.build();
+	}
+
+	/*
+	 * Returns the cached notes of the user, loading them on a miss. The returned value
+	 * is shared and must not be modified. A null result of the loader is not cached.
+	 */
+	public NoteUser getNoteUser(final String userId, final Function<String, NoteUser> loader)
+	{
+		return cache.get(userId, loader);
+	}
+
+	/*
+	 * Returns the cached notes of the user without loading them, null on a miss.
+	 */
+	public List<Note> getNotesIfPresent(final String userId)
+	{
+		NoteUser noteUser = cache.getIfPresent(userId);
+
+		return noteUser == null ? null : noteUser.getNotes();
+	}
+
+	public void invalidate(final String userId)
+	{
+		cache.invalidate(userId);
+	}
+
+	/*
+	 * Drops every cached list, for writes which change notes of users they do not know.
+	 */
+	public void invalidateAll()
+	{
+		cache.invalidateAll();
+	}
+
+	public NoteCacheStats getStats()
+	{
+		// runs pending evictions first, Caffeine otherwise applies them asynchronously
+		cache.cleanUp();
+		CacheStats stats = cache.stats();
+
+		return new NoteCacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount(),
+				stats.evictionWeight(), cache.estimatedSize(), weightedSize());
+	}
+
+	private long weightedSize()
+	{
+		return cache.policy().eviction()
+				.map(eviction -> eviction.weightedSize().orElse(0L))
+				.orElse(0L);
+	}
+
+	/*
+	 * Rough estimate of the heap taken by a list of notes, strings count two bytes
+	 * per char and compressed contents their compressed size.
+	 */
+	static int weigh(final List<Note> notes)
+	{
+		long weight = NOTE_OVERHEAD;
+
+		if (notes == null)
+		{
+			return (int) weight;
+		}
+
+		for (Note note : notes)
+		{
+			weight += NOTE_OVERHEAD + chars(note.getNoteTitle()) + note.noteContentWeight()
+					+ chars(note.getNoteStatus()) + chars(note.getNoteCreatedBy());
+
+			if (note.getCategory() != null)
+			{
+				weight += NOTE_OVERHEAD + chars(note.getCategory().getCategoryName())
+						+ chars(note.getCategory().getCategoryDescription());
+			}
+			if (note.getReminders() != null)
+			{
+				for (Reminder reminder : note.getReminders())
+				{
+					weight += REMINDER_OVERHEAD + chars(reminder.getReminderName())
+							+ chars(reminder.getReminderDescription());
+				}
+			}
+		}
+		return (int) Math.min(weight, Integer.MAX_VALUE);
+	}
+
+	private static long chars(final String value)
+	{
+		return value == null ? 0 : 2L * value.length();
+	}
+}
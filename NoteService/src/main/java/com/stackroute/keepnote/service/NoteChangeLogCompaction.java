@@ -0,0 +1,49 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.repository.NoteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+
+/*
+ * Drops change log entries older than keepnote.note.change-log.retention-ms every
+ * keepnote.note.change-log.compaction-interval-ms, so the change logs, and with them
+ * the delete tombstones, grow with recent churn only. Clients which have not synced
+ * within the retention get a full resync instead of a delta.
+ */
+@Component
+public class NoteChangeLogCompaction {
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	private final NoteRepository noteRepository;
+
+	private final long retentionMillis;
+
+	@Autowired
+	public NoteChangeLogCompaction(NoteRepository noteRepository,
+			@Value("${keepnote.note.change-log.retention-ms:2592000000}") long retentionMillis) {
+		this.noteRepository = noteRepository;
+		this.retentionMillis = retentionMillis;
+	}
+
+	/*
+	 * Removes the expired entries and returns their number.
+	 */
+	@Scheduled(fixedDelayString = "${keepnote.note.change-log.compaction-interval-ms:3600000}")
+	public int compact()
+	{
+		int removed = noteRepository.compactChangeLogs(new Date(System.currentTimeMillis() - retentionMillis));
+
+		if (removed > 0)
+		{
+			LOG.info("Compacted " + removed + " note change log entries");
+		}
+		return removed;
+	}
+}
@@ -0,0 +1,50 @@
+package com.stackroute.keepnote.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/*
+ * Encodes and decodes the opaque "after" cursor used by the paginated note listing.
+ * The cursor carries the noteId of the last note of the previous page.
+ */
+public final class NoteCursor {
+
+    private static final String PREFIX = "n:";
+
+    private NoteCursor() {
+
+    }
+
+    public static String encode(final int noteId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + noteId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * Returns the noteId carried by the cursor, null for an empty cursor. Throws
+     * IllegalArgumentException if the cursor was not produced by encode.
+     */
+    public static Integer decode(final String cursor) {
+
+        if (cursor == null || cursor.isEmpty())
+        {
+            return null;
+        }
+
+        String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+
+        if (!value.startsWith(PREFIX))
+        {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+
+        try
+        {
+            return Integer.valueOf(value.substring(PREFIX.length()));
+        }
+        catch (NumberFormatException exception)
+        {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.model.NoteDeleteJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Runs bulk deletes which are too large to answer synchronously. The noteIds are
+ * deleted in chunks of keepnote.note.delete-jobs.chunk-size on a background thread,
+ * so one job never holds a single huge $pull, and the job's progress can be polled
+ * by its jobId. Jobs live in memory only; finished jobs are dropped after
+ * keepnote.note.delete-jobs.retention-ms.
+ */
+@Component
+public class NoteDeleteJobs {
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	private final NoteService noteService;
+
+	private final int chunkSize;
+
+	private final long retentionMillis;
+
+	private final ConcurrentMap<String, NoteDeleteJob> jobs = new ConcurrentHashMap<>();
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	@Autowired
+	public NoteDeleteJobs(NoteService noteService,
+			@Value("${keepnote.note.delete-jobs.chunk-size:1000}") int chunkSize,
+			@Value("${keepnote.note.delete-jobs.retention-ms:3600000}") long retentionMillis) {
+		this.noteService = noteService;
+		this.chunkSize = chunkSize;
+		this.retentionMillis = retentionMillis;
+	}
+
+	public NoteDeleteJob submit(final String userId, final List<Integer> noteIds)
+	{
+		evictFinishedJobs();
+
+		NoteDeleteJob job = new NoteDeleteJob(UUID.randomUUID().toString(), userId, noteIds.size());
+		jobs.put(job.getJobId(), job);
+
+		List<Integer> pending = new ArrayList<>(noteIds);
+		executor.submit(() -> run(job, pending));
+
+		return job;
+	}
+
+	/*
+	 * Returns the job of the given user, or null if it is unknown or has expired.
+	 */
+	public NoteDeleteJob getJob(final String userId, final String jobId)
+	{
+		NoteDeleteJob job = jobs.get(jobId);
+
+		if (job == null || !job.getUserId().equals(userId))
+		{
+			return null;
+		}
+		return job;
+	}
+
+	@PreDestroy
+	public void close()
+	{
+		executor.shutdownNow();
+	}
+
+	private void run(final NoteDeleteJob job, final List<Integer> noteIds)
+	{
+		String status = NoteDeleteJob.DONE;
+
+		try
+		{
+			for (int from = 0; from < noteIds.size(); from += chunkSize)
+			{
+				List<Integer> chunk = noteIds.subList(from, Math.min(from + chunkSize, noteIds.size()));
+				job.addDeletedNoteIds(noteService.deleteNotes(job.getUserId(), chunk));
+			}
+			LOG.info("Delete job " + job.getJobId() + " removed " + job.getDeleted() + " of " + noteIds.size() + " notes of " + job.getUserId());
+		}
+		catch (RuntimeException exception)
+		{
+			status = NoteDeleteJob.FAILED;
+			LOG.error("Delete job " + job.getJobId() + " of " + job.getUserId() + " failed", exception);
+		}
+
+		// the finished date is set first, so a job read as finished always has one
+		job.setFinishedDate(new Date());
+		job.setStatus(status);
+	}
+
+	private void evictFinishedJobs()
+	{
+		long oldest = System.currentTimeMillis() - retentionMillis;
+
+		jobs.values().removeIf(job -> job.getFinishedDate() != null && job.getFinishedDate().getTime() < oldest);
+	}
+}
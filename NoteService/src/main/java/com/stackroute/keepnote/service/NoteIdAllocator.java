@@ -0,0 +1,137 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.repository.NoteRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Hands out server side noteIds. With keepnote.note.id-block-size of 1 every id is
+ * allocated directly with a findAndModify $inc on the user's counter. With a larger
+ * block size this instance reserves a range of ids per user in one round trip and
+ * hands them out from an AtomicLong without locking; a new range is only reserved
+ * once the current one is used up, outside any lock, and installed if no other thread
+ * installed one meanwhile. Ids left unused in a block (for example after a restart)
+ * are simply skipped, noteIds are unique but not gap free. At most id-block-max-users
+ * blocks are cached, a user beyond that evicts one other user's block.
+ *
+ * Client supplied noteIds are not looked at when they are created, so an allocated id
+ * can turn out to be taken, possibly by a note created through another instance. The
+ * caller then passes it to skipTaken and retries with the next id.
+ */
+@Component
+public class NoteIdAllocator {
+
+	private final NoteRepository noteRepository;
+
+	private final int blockSize;
+
+	private final int maxCachedUsers;
+
+	private final ConcurrentMap<String, IdBlock> blocks = new ConcurrentHashMap<>();
+
+	@Autowired
+	public NoteIdAllocator(NoteRepository noteRepository,
+			@Value("${keepnote.note.id-block-size:100}") int blockSize,
+			@Value("${keepnote.note.id-block-max-users:10000}") int maxCachedUsers) {
+		this.noteRepository = noteRepository;
+		this.blockSize = blockSize;
+		this.maxCachedUsers = maxCachedUsers;
+	}
+
+	public int nextNoteId(final String userId)
+	{
+		if (blockSize <= 1)
+		{
+			return noteRepository.reserveNoteIds(userId, 1);
+		}
+
+		while (true)
+		{
+			IdBlock block = blocks.get(userId);
+
+			if (block != null)
+			{
+				long noteId = block.next.getAndIncrement();
+				if (noteId <= block.last)
+				{
+					return (int) noteId;
+				}
+			}
+
+			if (block == null && blocks.size() >= maxCachedUsers)
+			{
+				evictOne(userId);
+			}
+
+			// the round trip runs outside the map, a thread losing the race skips its block
+			IdBlock reserved = reserve(userId);
+			if (block == null)
+			{
+				blocks.putIfAbsent(userId, reserved);
+			}
+			else
+			{
+				blocks.replace(userId, block, reserved);
+			}
+		}
+	}
+
+	/*
+	 * Called after an allocated noteId turned out to be taken: the user's counter is
+	 * raised to the highest stored noteId, and the block of this instance skips it and
+	 * the ids below it.
+	 */
+	public void skipTaken(final String userId)
+	{
+		int highest = noteRepository.raiseNoteIdCounter(userId);
+
+		IdBlock block = blocks.get(userId);
+		if (block != null)
+		{
+			block.next.accumulateAndGet(highest + 1L, Math::max);
+		}
+	}
+
+	/*
+	 * Reserves count consecutive ids in one round trip, bypassing the cached block,
+	 * and returns the first of them.
+	 */
+	public int nextNoteIds(final String userId, final int count)
+	{
+		return noteRepository.reserveNoteIds(userId, count) - count + 1;
+	}
+
+	private IdBlock reserve(final String userId)
+	{
+		int last = noteRepository.reserveNoteIds(userId, blockSize);
+		return new IdBlock(last - blockSize + 1, last);
+	}
+
+	private void evictOne(final String userId)
+	{
+		for (String cached : blocks.keySet())
+		{
+			if (!cached.equals(userId) && blocks.remove(cached) != null)
+			{
+				return;
+			}
+		}
+	}
+
+	private static final class IdBlock {
+
+		private final AtomicLong next;
+
+		private final long last;
+
+		private IdBlock(long first, long last) {
+			this.next = new AtomicLong(first);
+			this.last = last;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.model.NoteImportError;
+import com.stackroute.keepnote.model.NoteImportResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/*
+ * Command line import of a note dump with NoteImporter, e.g.
+ *
+ *   java -jar NoteService.jar --spring.main.web-application-type=none --keepnote.note.import.file=notes.ndjson.gz
+ *
+ * The application exits once the dump is imported: with 0 if all notes were imported,
+ * 2 if some were rejected and 1 if the dump could not be read to its end.
+ *
+ * Only active with keepnote.note.import.file set.
+ */
+@Component
+@ConditionalOnExpression("!'${keepnote.note.import.file:}'.isEmpty()")
+public class NoteImportRunner implements ApplicationRunner {
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private NoteImporter noteImporter;
+
+	@Autowired
+	private ConfigurableApplicationContext applicationContext;
+
+	private final String file;
+
+	public NoteImportRunner(NoteImporter noteImporter, ConfigurableApplicationContext applicationContext,
+			@Value("${keepnote.note.import.file}") String file) {
+		this.noteImporter = noteImporter;
+		this.applicationContext = applicationContext;
+		this.file = file;
+	}
+
+	public void run(final ApplicationArguments arguments) throws Exception
+	{
+		NoteImportResult result = null;
+
+		LOG.info("Importing notes from " + file);
+		try (InputStream input = Files.newInputStream(Paths.get(file)))
+		{
+			result = noteImporter.importNotes(input);
+		}
+
+		for (NoteImportError error : result.getErrors())
+		{
+			LOG.info("Rejected " + error);
+		}
+		if (result.getFailure() != null)
+		{
+			LOG.error(result.getFailure());
+		}
+
+		int exitCode = result.getFailure() != null ? 1 : result.getRejected() > 0 ? 2 : 0;
+		System.exit(SpringApplication.exit(applicationContext, () -> exitCode));
+	}
+}
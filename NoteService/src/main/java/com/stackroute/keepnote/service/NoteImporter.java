@@ -0,0 +1,367 @@
+package com.stackroute.keepnote.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteBatchResult;
+import com.stackroute.keepnote.model.NoteImportError;
+import com.stackroute.keepnote.model.NoteImportResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/*
+ * Imports note dumps, NDJSON or a JSON array of notes and optionally gzip compressed
+ * (e.g. an export), of any number of users. The dump is read note by note with
+ * NoteJsonReader and every note is validated. Valid notes are collected into batches
+ * of keepnote.note.import.batch-size and written by createNotes, one $push per user
+ * and batch.
+ *
+ * Batches are written by "workers" lanes in parallel. Each lane is a single thread
+ * with a queue of "queue-size" batches, and all notes of a user go to the same lane,
+ * so the notes of a user are written in dump order. The reader waits while a lane is
+ * full, which keeps at most workers * (queue-size + 2) batches in memory however
+ * large the dump is.
+ *
+ * Notes which cannot be imported are counted and the first "max-errors" of them are
+ * reported with their position in the dump. A note whose noteId is taken is rejected,
+ * a note without a noteId gets one allocated.
+ */
+@Service
+public class NoteImporter {
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+	@Autowired
+	private NoteService noteService;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private final int batchSize;
+
+	private final int workers;
+
+	private final int queueSize;
+
+	private final int maxErrors;
+
+	private final long progressInterval;
+
+	public NoteImporter(NoteService noteService, ObjectMapper objectMapper,
+			@Value("${keepnote.note.import.batch-size:500}") int batchSize,
+			@Value("${keepnote.note.import.workers:0}") int workers,
+			@Value("${keepnote.note.import.queue-size:2}") int queueSize,
+			@Value("${keepnote.note.import.max-errors:1000}") int maxErrors,
+			@Value("${keepnote.note.import.progress-interval:10000}") long progressInterval) {
+		this.noteService = noteService;
+		this.objectMapper = objectMapper;
+		this.batchSize = Math.max(1, batchSize);
+		this.workers = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+		this.queueSize = Math.max(1, queueSize);
+		this.maxErrors = maxErrors;
+		this.progressInterval = progressInterval;
+	}
+
+	/*
+	 * Imports the dump and returns once all its notes are written. A dump which is not
+	 * valid JSON ends the import at that point, see NoteImportResult.failure.
+	 */
+	public NoteImportResult importNotes(final InputStream input) throws IOException
+	{
+		Progress progress = new Progress();
+		ThreadPoolExecutor[] lanes = new ThreadPoolExecutor[workers];
+
+		for (int i = 0; i < workers; i++)
+		{
+			lanes[i] = newLane(i);
+		}
+
+		try
+		{
+			read(open(input), lanes, progress);
+		}
+		finally
+		{
+			for (ThreadPoolExecutor lane : lanes)
+			{
+				lane.shutdown();
+			}
+			awaitLanes(lanes);
+		}
+
+		LOG.info("Note import done, " + progress);
+		return progress.result();
+	}
+
+	private void read(final InputStream input, final ThreadPoolExecutor[] lanes, final Progress progress) throws IOException
+	{
+		List<List<Record>> batches = new ArrayList<>(workers);
+		for (int i = 0; i < workers; i++)
+		{
+			batches.add(new ArrayList<>(batchSize));
+		}
+
+		try (NoteJsonReader reader = new NoteJsonReader(objectMapper, input))
+		{
+			while (reader.hasNext())
+			{
+				JsonNode tree = reader.nextTree();
+				long position = progress.read.getAndIncrement();
+				Note note = null;
+
+				if (progressInterval > 0 && (position + 1) % progressInterval == 0)
+				{
+					LOG.info("Note import running, " + progress);
+				}
+
+				try
+				{
+					note = objectMapper.treeToValue(tree, Note.class);
+				}
+				catch (JsonProcessingException exception)
+				{
+					progress.reject(position, tree.path("noteCreatedBy").asText(null), tree.path("noteId").asInt(),
+							exception.getOriginalMessage(), maxErrors);
+					continue;
+				}
+
+				String invalid = validate(note);
+				if (invalid != null)
+				{
+					progress.reject(position, note.getNoteCreatedBy(), note.getNoteId(), invalid, maxErrors);
+					continue;
+				}
+
+				int lane = (note.getNoteCreatedBy().hashCode() & Integer.MAX_VALUE) % workers;
+				List<Record> batch = batches.get(lane);
+				batch.add(new Record(position, note));
+
+				if (batch.size() == batchSize)
+				{
+					submit(lanes[lane], batch, progress);
+					batches.set(lane, new ArrayList<>(batchSize));
+				}
+			}
+		}
+		catch (UncheckedIOException exception)
+		{
+			progress.failure = "Invalid note dump after " + progress.read.get() + " notes: " + exception.getCause().getMessage();
+			LOG.info(progress.failure);
+		}
+
+		for (int i = 0; i < workers; i++)
+		{
+			if (!batches.get(i).isEmpty())
+			{
+				submit(lanes[i], batches.get(i), progress);
+			}
+		}
+	}
+
+	private void submit(final ThreadPoolExecutor lane, final List<Record> batch, final Progress progress)
+	{
+		lane.execute(() -> write(batch, progress));
+	}
+
+	/*
+	 * Writes one batch with one createNotes per user, keeping the order of the notes
+	 * of each user.
+	 */
+	private void write(final List<Record> batch, final Progress progress)
+	{
+		Map<String, List<Record>> byUser = new LinkedHashMap<>();
+		for (Record record : batch)
+		{
+			byUser.computeIfAbsent(record.note.getNoteCreatedBy(), userId -> new ArrayList<>()).add(record);
+		}
+
+		for (Map.Entry<String, List<Record>> user : byUser.entrySet())
+		{
+			String userId = user.getKey();
+			List<Record> records = user.getValue();
+			List<Note> notes = new ArrayList<>(records.size());
+			for (Record record : records)
+			{
+				notes.add(record.note);
+			}
+
+			try
+			{
+				for (NoteBatchResult result : noteService.createNotes(userId, notes.iterator()))
+				{
+					if (NoteBatchResult.CREATED.equals(result.getStatus()))
+					{
+						progress.imported.incrementAndGet();
+					}
+					else
+					{
+						progress.reject(records.get(result.getIndex()).position, userId, result.getNoteId(),
+								"noteId " + result.getNoteId() + " is already taken", maxErrors);
+					}
+				}
+			}
+			catch (RuntimeException exception)
+			{
+				LOG.warn("Import of " + records.size() + " notes of " + userId + " failed: " + exception.getMessage());
+				for (Record record : records)
+				{
+					progress.reject(record.position, userId, record.note.getNoteId(), exception.getMessage(), maxErrors);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Returns why the note cannot be imported, null if it can.
+	 */
+	static String validate(final Note note)
+	{
+		if (note.getNoteCreatedBy() == null || note.getNoteCreatedBy().trim().isEmpty())
+		{
+			return "noteCreatedBy is missing";
+		}
+		if (isBlank(note.getNoteTitle()) && isBlank(note.getNoteContent()))
+		{
+			return "Note has neither a title nor content";
+		}
+		return null;
+	}
+
+	/*
+	 * The dump itself, or its decompressed content if it starts with the gzip magic.
+	 */
+	static InputStream open(final InputStream input) throws IOException
+	{
+		BufferedInputStream buffered = new BufferedInputStream(input);
+		buffered.mark(2);
+		int first = buffered.read();
+		int second = buffered.read();
+		buffered.reset();
+
+		if (first == 0x1f && second == 0x8b)
+		{
+			return new GZIPInputStream(buffered, GZIP_BUFFER_SIZE);
+		}
+		return buffered;
+	}
+
+	/*
+	 * A single thread working off its queue in order. The reader waits for room in a
+	 * full queue instead of being rejected.
+	 */
+	private ThreadPoolExecutor newLane(final int index)
+	{
+		return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+				runnable -> new Thread(runnable, "note-import-" + index),
+				(task, lane) -> {
+					try
+					{
+						lane.getQueue().put(task);
+					}
+					catch (InterruptedException exception)
+					{
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException("Interrupted while waiting for note import lane " + index, exception);
+					}
+				});
+	}
+
+	private static void awaitLanes(final ThreadPoolExecutor[] lanes)
+	{
+		try
+		{
+			for (ThreadPoolExecutor lane : lanes)
+			{
+				lane.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			}
+		}
+		catch (InterruptedException exception)
+		{
+			for (ThreadPoolExecutor lane : lanes)
+			{
+				lane.shutdownNow();
+			}
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static boolean isBlank(final String value)
+	{
+		return value == null || value.trim().isEmpty();
+	}
+
+	private static final class Record {
+
+		private final long position;
+
+		private final Note note;
+
+		private Record(long position, Note note) {
+			this.position = position;
+			this.note = note;
+		}
+	}
+
+	/*
+	 * Counters shared by the reader and the lanes.
+	 */
+	private static final class Progress {
+
+		private final AtomicLong read = new AtomicLong();
+
+		private final AtomicLong imported = new AtomicLong();
+
+		private final AtomicLong rejected = new AtomicLong();
+
+		private final List<NoteImportError> errors = new ArrayList<>();
+
+		private volatile String failure;
+
+		private void reject(final long position, final String userId, final int noteId, final String message, final int maxErrors)
+		{
+			rejected.incrementAndGet();
+			synchronized (errors)
+			{
+				if (errors.size() < maxErrors)
+				{
+					errors.add(new NoteImportError(position, userId, noteId, message));
+				}
+			}
+		}
+
+		private NoteImportResult result()
+		{
+			synchronized (errors)
+			{
+				return new NoteImportResult(read.get(), imported.get(), rejected.get(), new ArrayList<>(errors), failure);
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return "read " + read.get() + ", imported " + imported.get() + ", rejected " + rejected.get();
+		}
+	}
+}
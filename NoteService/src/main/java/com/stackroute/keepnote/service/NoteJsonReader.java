@@ -0,0 +1,101 @@
+package com.stackroute.keepnote.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stackroute.keepnote.model.Note;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * Reads notes one at a time from a JSON array of notes (or from a sequence of
+ * top-level note objects) with Jackson's streaming JsonParser. Only the note being
+ * read is materialized, no tree of the whole body is built.
+ *
+ * Malformed input surfaces as UncheckedIOException from hasNext()/next(). With
+ * nextTree() a note is read without binding it, so notes which are valid JSON but do
+ * not bind to Note can be skipped and reading goes on.
+ */
+public class NoteJsonReader implements Iterator<Note>, Closeable {
+
+	private final ObjectMapper objectMapper;
+
+	private final JsonParser parser;
+
+	private JsonToken next;
+
+	private int position;
+
+	public NoteJsonReader(ObjectMapper objectMapper, InputStream input) throws IOException {
+		this.objectMapper = objectMapper;
+		this.parser = objectMapper.getFactory().createParser(input);
+
+		JsonToken first = parser.nextToken();
+		this.next = first == JsonToken.START_ARRAY ? parser.nextToken() : first;
+	}
+
+	public boolean hasNext()
+	{
+		if (next == null || next == JsonToken.END_ARRAY)
+		{
+			return false;
+		}
+		if (next != JsonToken.START_OBJECT)
+		{
+			throw new UncheckedIOException(new IOException("Expected a note object at position " + position + " but found " + next));
+		}
+		return true;
+	}
+
+	public Note next()
+	{
+		return read(Note.class);
+	}
+
+	/*
+	 * Reads the next note as a tree, only this note is materialized.
+	 */
+	public JsonNode nextTree()
+	{
+		return read(JsonNode.class);
+	}
+
+	private <T> T read(final Class<T> type)
+	{
+		if (!hasNext())
+		{
+			throw new NoSuchElementException();
+		}
+
+		try
+		{
+			T value = objectMapper.readValue(parser, type);
+			next = parser.nextToken();
+			position++;
+			return value;
+		}
+		catch (IOException exception)
+		{
+			throw new UncheckedIOException(exception);
+		}
+	}
+
+	/*
+	 * Number of notes read so far.
+	 */
+	public int getPosition()
+	{
+		return position;
+	}
+
+	public void close() throws IOException
+	{
+		parser.close();
+	}
+}
@@ -0,0 +1,53 @@
+package com.stackroute.keepnote.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.stackroute.keepnote.model.Note;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/*
+ * Writes notes as NDJSON, one note per line, with Jackson's streaming JsonGenerator,
+ * the counterpart of NoteJsonReader. Every note is serialized straight into the
+ * output, nothing but the generator's buffer is held. Closing the writer flushes it
+ * but leaves the output open.
+ *
+ * Write failures, e.g. a client which went away, surface as UncheckedIOException
+ * from write().
+ */
+public class NoteJsonWriter implements Closeable {
+
+	private final ObjectWriter noteWriter;
+
+	private final JsonGenerator generator;
+
+	public NoteJsonWriter(ObjectMapper objectMapper, OutputStream output) throws IOException {
+		this.noteWriter = objectMapper.writerFor(Note.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		this.generator = objectMapper.getFactory().createGenerator(output);
+		this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		this.generator.setRootValueSeparator(null);
+	}
+
+	public void write(final Note note)
+	{
+		try
+		{
+			noteWriter.writeValue(generator, note);
+			generator.writeRaw('\n');
+		}
+		catch (IOException exception)
+		{
+			throw new UncheckedIOException(exception);
+		}
+	}
+
+	public void close() throws IOException
+	{
+		generator.close();
+	}
+}
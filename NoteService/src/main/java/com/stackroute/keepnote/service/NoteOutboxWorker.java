@@ -0,0 +1,323 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.model.Category;
+import com.stackroute.keepnote.model.NoteOutboxEntry;
+import com.stackroute.keepnote.model.NoteOutboxStats;
+import com.stackroute.keepnote.model.Reminder;
+import com.stackroute.keepnote.repository.NoteOutboxRepository;
+import com.stackroute.keepnote.repository.NoteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Copies the category and reminder changes recorded in the outbox by CategoryService
+ * and ReminderService into the notes holding a copy of them. Every
+ * keepnote.note.outbox.interval-ms the instance holding the lease on the checkpoint
+ * reads the pending entries in batches of batch-size, oldest first. CategoryService and
+ * ReminderService keep one entry per category or reminder and relay each change into it
+ * with the sequence of the change, so a late relay never replaces a newer change. Each
+ * change is a full replacement or a removal, so of several entries for one category or
+ * reminder in a batch, left by older releases, only the one with the highest seq is
+ * applied, with one updateMany per collection. An entry is only marked applied, retried
+ * or failed while it still holds the seq applied, a change relayed meanwhile keeps it
+ * pending.
+ *
+ * An entry which fails is retried after retry-backoff-ms, doubled with every attempt,
+ * and the changes of its category or reminder wait for it so they are never applied
+ * out of order. After max-attempts it is marked failed and skipped.
+ *
+ * When notes keep references only there are no copies to update, the entries drop the
+ * changed category or reminder from the near-cache of NoteReferences and then move the
+ * notes referencing it to a new version, so ETags and delta sync see the change.
+ */
+@Component
+public class NoteOutboxWorker {
+
+	private static final Comparator<NoteOutboxEntry> BY_SEQ = Comparator.comparingLong(NoteOutboxEntry::getSeq)
+			.thenComparing(NoteOutboxEntry::getCreatedDate, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	private final NoteOutboxRepository noteOutboxRepository;
+
+	private final NoteRepository noteRepository;
+
+	private final NoteCache noteCache;
+
+	private final NoteReferences noteReferences;
+
+	private final boolean enabled;
+
+	private final int batchSize;
+
+	private final int maxAttempts;
+
+	private final long retryBackoffMillis;
+
+	private final long leaseMillis;
+
+	private final String owner = UUID.randomUUID().toString();
+
+	private final AtomicLong applied = new AtomicLong();
+
+	private final AtomicLong retried = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	private final AtomicLong documentsModified = new AtomicLong();
+
+	private final AtomicLong batches = new AtomicLong();
+
+	private volatile int lastBatchSize;
+
+	private volatile long lastBatchMillis;
+
+	private volatile long lagMillis;
+
+	private volatile Date lastAppliedDate;
+
+	@Autowired
+	public NoteOutboxWorker(NoteOutboxRepository noteOutboxRepository, NoteRepository noteRepository, NoteCache noteCache,
+			NoteReferences noteReferences,
+			@Value("${keepnote.note.outbox.enabled:false}") boolean enabled,
+			@Value("${keepnote.note.outbox.batch-size:500}") int batchSize,
+			@Value("${keepnote.note.outbox.max-attempts:8}") int maxAttempts,
+			@Value("${keepnote.note.outbox.retry-backoff-ms:1000}") long retryBackoffMillis,
+			@Value("${keepnote.note.outbox.lease-ms:30000}") long leaseMillis) {
+		this.noteOutboxRepository = noteOutboxRepository;
+		this.noteRepository = noteRepository;
+		this.noteCache = noteCache;
+		this.noteReferences = noteReferences;
+		this.enabled = enabled;
+		this.batchSize = batchSize;
+		this.maxAttempts = maxAttempts;
+		this.retryBackoffMillis = retryBackoffMillis;
+		this.leaseMillis = leaseMillis;
+	}
+
+	/*
+	 * Applies batches until the outbox is drained, or another instance holds the lease.
+	 * Returns the number of entries applied or given up.
+	 */
+	@Scheduled(fixedDelayString = "${keepnote.note.outbox.interval-ms:1000}")
+	public int drain()
+	{
+		if (!enabled)
+		{
+			return 0;
+		}
+
+		int total = 0;
+
+		while (true)
+		{
+			long now = System.currentTimeMillis();
+			if (!noteOutboxRepository.acquireLease(owner, new Date(now), new Date(now + leaseMillis)))
+			{
+				return total;
+			}
+
+			List<NoteOutboxEntry> pending = noteOutboxRepository.findPending(batchSize);
+			int done = applyBatch(pending);
+			total += done;
+
+			// a short batch drained the outbox, a batch without progress only holds entries waiting for a retry
+			if (pending.size() < batchSize || done == 0)
+			{
+				return total;
+			}
+		}
+	}
+
+	public NoteOutboxStats getStats()
+	{
+		return new NoteOutboxStats(applied.get(), retried.get(), failed.get(), documentsModified.get(), batches.get(),
+				lastBatchSize, lastBatchMillis, lastBatchMillis == 0 ? 0 : lastBatchSize * 1000.0 / lastBatchMillis,
+				lagMillis, lastAppliedDate);
+	}
+
+	private int applyBatch(final List<NoteOutboxEntry> pending)
+	{
+		if (pending.isEmpty())
+		{
+			return 0;
+		}
+
+		long start = System.currentTimeMillis();
+		Date now = new Date(start);
+
+		/* the entries of each category or reminder by seq, only the last one is applied */
+		Map<String, List<NoteOutboxEntry>> changes = new LinkedHashMap<>();
+		for (NoteOutboxEntry entry : pending)
+		{
+			changes.computeIfAbsent(key(entry), key -> new ArrayList<>()).add(entry);
+		}
+		for (List<NoteOutboxEntry> entries : changes.values())
+		{
+			entries.sort(BY_SEQ);
+		}
+
+		List<NoteOutboxEntry> appliedEntries = new ArrayList<>();
+		NoteOutboxEntry lastApplied = null;
+		long modified = 0;
+		int given = 0;
+
+		for (List<NoteOutboxEntry> entries : changes.values())
+		{
+			if (waiting(entries, now))
+			{
+				continue;
+			}
+
+			NoteOutboxEntry last = entries.get(entries.size() - 1);
+			try
+			{
+				modified += apply(last);
+				appliedEntries.addAll(entries);
+				if (lastApplied == null || last.getCreatedDate().after(lastApplied.getCreatedDate()))
+				{
+					lastApplied = last;
+				}
+			}
+			catch (RuntimeException exception)
+			{
+				given += retryOrFail(entries, last, exception);
+			}
+		}
+
+		if (!appliedEntries.isEmpty())
+		{
+			noteOutboxRepository.markApplied(appliedEntries, now);
+			if (modified > 0 || noteReferences.isEnabled())
+			{
+				// the users holding the copies are not known, updateMany only counts them
+				noteCache.invalidateAll();
+			}
+			noteOutboxRepository.saveCheckpoint(owner, lastApplied, appliedEntries.size());
+
+			applied.addAndGet(appliedEntries.size());
+			documentsModified.addAndGet(modified);
+			lagMillis = start - lastApplied.getCreatedDate().getTime();
+			lastAppliedDate = now;
+		}
+
+		batches.incrementAndGet();
+		lastBatchSize = appliedEntries.size();
+		lastBatchMillis = System.currentTimeMillis() - start;
+
+		LOG.debug("Applied " + appliedEntries.size() + " note outbox entries to " + modified + " documents in " + lastBatchMillis + " ms");
+		return appliedEntries.size() + given;
+	}
+
+	/*
+	 * Returns the number of documents changed.
+	 */
+	private long apply(final NoteOutboxEntry entry)
+	{
+		if (noteReferences.isEnabled())
+		{
+			return evict(entry);
+		}
+
+		switch (entry.getType())
+		{
+			case NoteOutboxEntry.CATEGORY_UPDATED:
+				Category category = payload(entry, entry.getCategory());
+				category.setCategoryId(entry.getEntityId());
+				return noteRepository.updateCategoryCopies(category);
+			case NoteOutboxEntry.CATEGORY_DELETED:
+				return noteRepository.removeCategoryCopies(entry.getEntityId());
+			case NoteOutboxEntry.REMINDER_UPDATED:
+				Reminder reminder = payload(entry, entry.getReminder());
+				reminder.setReminderId(entry.getEntityId());
+				return noteRepository.updateReminderCopies(reminder);
+			case NoteOutboxEntry.REMINDER_DELETED:
+				return noteRepository.removeReminderCopies(entry.getEntityId());
+			default:
+				throw new IllegalStateException("Unknown note outbox entry type " + entry.getType());
+		}
+	}
+
+	private long evict(final NoteOutboxEntry entry)
+	{
+		if (entry.getType().startsWith("CATEGORY_"))
+		{
+			noteReferences.evictCategory(entry.getEntityId());
+			return noteRepository.touchCategoryReferences(entry.getEntityId());
+		}
+		noteReferences.evictReminder(entry.getEntityId());
+		return noteRepository.touchReminderReferences(entry.getEntityId());
+	}
+
+	/*
+	 * Schedules the next attempt of the change, or gives up on all its entries once
+	 * max-attempts is reached. Returns the number of entries given up.
+	 */
+	private int retryOrFail(final List<NoteOutboxEntry> entries, final NoteOutboxEntry last, final RuntimeException exception)
+	{
+		int attempts = last.getAttempts() + 1;
+		String error = String.valueOf(exception.getMessage());
+
+		if (attempts >= maxAttempts)
+		{
+			LOG.error("Giving up on note outbox entry " + last + " after " + attempts + " attempts", exception);
+			Date failedDate = new Date();
+			for (NoteOutboxEntry entry : entries)
+			{
+				noteOutboxRepository.markFailed(entry, attempts, failedDate, error);
+			}
+			failed.addAndGet(entries.size());
+			return entries.size();
+		}
+
+		long backoff = retryBackoffMillis << Math.min(attempts - 1, 16);
+		LOG.warn("Note outbox entry " + last + " failed, retrying in " + backoff + " ms: " + error);
+		noteOutboxRepository.markRetry(last, attempts, new Date(System.currentTimeMillis() + backoff), error);
+		retried.incrementAndGet();
+		return 0;
+	}
+
+	private static boolean waiting(final List<NoteOutboxEntry> entries, final Date now)
+	{
+		for (NoteOutboxEntry entry : entries)
+		{
+			if (entry.getNextAttemptDate() != null && entry.getNextAttemptDate().after(now))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static <T> T payload(final NoteOutboxEntry entry, final T payload)
+	{
+		if (payload == null)
+		{
+			throw new IllegalStateException("Note outbox entry " + entry.getId() + " has no " + entry.getType() + " payload");
+		}
+		return payload;
+	}
+
+	/*
+	 * Categories and reminders are keyed apart, their ids come from different services.
+	 */
+	private static String key(final NoteOutboxEntry entry)
+	{
+		String type = String.valueOf(entry.getType());
+
+		return type.substring(0, Math.max(type.indexOf('_'), 0)) + ":" + entry.getEntityId();
+	}
+}
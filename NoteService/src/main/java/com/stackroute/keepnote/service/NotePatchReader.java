@@ -0,0 +1,197 @@
+package com.stackroute.keepnote.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stackroute.keepnote.model.Category;
+import com.stackroute.keepnote.model.NoteContent;
+import com.stackroute.keepnote.model.NotePatch;
+import com.stackroute.keepnote.model.Reminder;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Reads a NotePatch from a JSON Merge Patch (RFC 7396) or a JSON Patch (RFC 6902)
+ * body. Only noteTitle, noteContent, noteStatus, category (as a whole or its id, name
+ * and description) and reminders (as a whole) can be changed, the other fields are
+ * kept by the server. Of JSON Patch the operations add, replace and remove are
+ * supported. A remove of a missing field is not an error, and a null value removes
+ * the field as in a merge patch.
+ *
+ * Invalid patches surface as IllegalArgumentException.
+ */
+public final class NotePatchReader {
+
+	public static final String MERGE_PATCH = "application/merge-patch+json";
+
+	public static final String JSON_PATCH = "application/json-patch+json";
+
+	private static final Set<String> FIELDS = new HashSet<>(Arrays.asList(
+			"noteTitle", "noteContent", "noteStatus", "category", "reminders"));
+
+	private static final Set<String> CATEGORY_FIELDS = new HashSet<>(Arrays.asList(
+			"categoryId", "categoryName", "categoryDescription"));
+
+	private NotePatchReader() {
+
+	}
+
+	/*
+	 * Reads the patch in the format of the given media type.
+	 */
+	public static NotePatch read(final ObjectMapper objectMapper, final String mediaType, final JsonNode body)
+	{
+		if (mediaType != null && mediaType.startsWith(JSON_PATCH))
+		{
+			return fromJsonPatch(objectMapper, body);
+		}
+		return fromMergePatch(objectMapper, body);
+	}
+
+	public static NotePatch fromMergePatch(final ObjectMapper objectMapper, final JsonNode body)
+	{
+		if (body == null || !body.isObject())
+		{
+			throw new IllegalArgumentException("A merge patch of a note must be an object");
+		}
+
+		NotePatch patch = new NotePatch();
+		Iterator<Map.Entry<String, JsonNode>> fields = body.fields();
+		while (fields.hasNext())
+		{
+			Map.Entry<String, JsonNode> field = fields.next();
+
+			// an object merges into the category, anything else replaces it
+			if (field.getKey().equals("category") && field.getValue().isObject())
+			{
+				Iterator<Map.Entry<String, JsonNode>> categoryFields = field.getValue().fields();
+				while (categoryFields.hasNext())
+				{
+					Map.Entry<String, JsonNode> categoryField = categoryFields.next();
+					change(objectMapper, patch, "category." + categoryField.getKey(), categoryField.getValue());
+				}
+			}
+			else
+			{
+				change(objectMapper, patch, field.getKey(), field.getValue());
+			}
+		}
+		return patch;
+	}
+
+	public static NotePatch fromJsonPatch(final ObjectMapper objectMapper, final JsonNode body)
+	{
+		if (body == null || !body.isArray())
+		{
+			throw new IllegalArgumentException("A JSON patch must be an array of operations");
+		}
+
+		NotePatch patch = new NotePatch();
+		for (JsonNode operation : body)
+		{
+			String op = operation.path("op").asText();
+			String path = path(operation.path("path").asText());
+
+			if (op.equals("add") || op.equals("replace"))
+			{
+				if (!operation.has("value"))
+				{
+					throw new IllegalArgumentException("Missing value for " + op + " " + path);
+				}
+				change(objectMapper, patch, path, operation.get("value"));
+			}
+			else if (op.equals("remove"))
+			{
+				change(objectMapper, patch, path, null);
+			}
+			else
+			{
+				throw new IllegalArgumentException("Unsupported patch operation \"" + op + "\"");
+			}
+		}
+		return patch;
+	}
+
+	/*
+	 * The dotted path of a JSON pointer, e.g. "/category/categoryName".
+	 */
+	private static String path(final String pointer)
+	{
+		if (!pointer.startsWith("/"))
+		{
+			throw new IllegalArgumentException("Invalid patch path \"" + pointer + "\"");
+		}
+
+		StringBuilder path = new StringBuilder();
+		for (String token : pointer.substring(1).split("/", -1))
+		{
+			if (path.length() > 0)
+			{
+				path.append('.');
+			}
+			path.append(token.replace("~1", "/").replace("~0", "~"));
+		}
+		return path.toString();
+	}
+
+	private static void change(final ObjectMapper objectMapper, final NotePatch patch, final String path, final JsonNode value)
+	{
+		boolean remove = value == null || value.isNull();
+
+		if (path.startsWith("category."))
+		{
+			if (!CATEGORY_FIELDS.contains(path.substring("category.".length())))
+			{
+				throw new IllegalArgumentException(path + " cannot be patched");
+			}
+			if (remove)
+			{
+				patch.unset(path);
+			}
+			else
+			{
+				patch.set(path, text(path, value));
+			}
+			return;
+		}
+
+		if (!FIELDS.contains(path))
+		{
+			throw new IllegalArgumentException(path + " cannot be patched");
+		}
+		if (remove)
+		{
+			patch.unset(path);
+		}
+		else if (path.equals("category"))
+		{
+			patch.set(path, objectMapper.convertValue(value, Category.class));
+		}
+		else if (path.equals("reminders"))
+		{
+			patch.set(path, objectMapper.convertValue(value, new TypeReference<List<Reminder>>() { }));
+		}
+		else if (path.equals("noteContent"))
+		{
+			patch.set(path, NoteContent.of(text(path, value)));
+		}
+		else
+		{
+			patch.set(path, text(path, value));
+		}
+	}
+
+	private static String text(final String path, final JsonNode value)
+	{
+		if (!value.isTextual())
+		{
+			throw new IllegalArgumentException(path + " must be a string");
+		}
+		return value.asText();
+	}
+}
@@ -0,0 +1,19 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.model.Category;
+import com.stackroute.keepnote.model.Reminder;
+
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Looks up the categories and reminders referenced by notes, each call with a single
+ * round trip for all the given ids. Ids which are not found are left out of the result.
+ */
+public interface NoteReferenceResolver {
+
+	Map<String, Category> findCategories(Set<String> categoryIds);
+
+	Map<String, Reminder> findReminders(Set<String> reminderIds);
+
+}
@@ -0,0 +1,300 @@
+package com.stackroute.keepnote.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.stackroute.keepnote.model.Category;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NotePatch;
+import com.stackroute.keepnote.model.NoteSummary;
+import com.stackroute.keepnote.model.Reminder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * With keepnote.note.references.mode "reference" notes are stored with the categoryId
+ * of their category and the reminderIds of their reminders only, and both are resolved
+ * when notes are read. All notes read by one request are resolved together: their ids
+ * are deduplicated, taken from a near-cache where possible, and the rest is looked up
+ * with one call per kind through the NoteReferenceResolver chosen with
+ * keepnote.note.references.resolver, "mongo" or "http". A reference which cannot be
+ * resolved, because it is unknown or its lookup failed, is returned as stored; failed
+ * lookups are not cached.
+ *
+ * In the default "embedded" mode notes keep full copies and nothing is resolved.
+ */
+@Component
+public class NoteReferences {
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	private final boolean enabled;
+
+	private final NoteReferenceResolver resolver;
+
+	private final Cache<String, Category> categories;
+
+	private final Cache<String, Reminder> reminders;
+
+	@Autowired
+	public NoteReferences(MongoOperations mongoOperations, RestTemplateBuilder restTemplateBuilder, ObjectMapper objectMapper,
+			@Value("${keepnote.note.references.mode:embedded}") String mode,
+			@Value("${keepnote.note.references.resolver:mongo}") String resolver,
+			@Value("${keepnote.note.references.category-url:http://localhost:8083}") String categoryUrl,
+			@Value("${keepnote.note.references.reminder-url:http://localhost:8081}") String reminderUrl,
+			@Value("${keepnote.note.references.authorization:}") String authorization,
+			@Value("${keepnote.note.references.timeout-ms:2000}") int timeoutMillis,
+			@Value("${keepnote.note.references.cache-size:10000}") long cacheSize,
+			@Value("${keepnote.note.references.cache-ttl-ms:60000}") long cacheTtlMillis) {
+		this(reference(mode), "http".equalsIgnoreCase(resolver)
+				? new HttpNoteReferenceResolver(restTemplateBuilder.setConnectTimeout(timeoutMillis).setReadTimeout(timeoutMillis).build(),
+						objectMapper, categoryUrl, reminderUrl, authorization)
+				: new MongoNoteReferenceResolver(mongoOperations),
+				cacheSize, cacheTtlMillis);
+	}
+
+	public NoteReferences(boolean enabled, NoteReferenceResolver resolver, long cacheSize, long cacheTtlMillis) {
+		this.enabled = enabled;
+		this.resolver = resolver;
+		this.categories = Caffeine.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterWrite(cacheTtlMillis, TimeUnit.MILLISECONDS)
+				.build();
+		this.reminders = Caffeine.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterWrite(cacheTtlMillis, TimeUnit.MILLISECONDS)
+				.build();
+	}
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/*
+	 * Reduces a category or reminders set by a patch to their ids. Other fields of the
+	 * category are not stored and cannot be patched.
+	 */
+	@SuppressWarnings("unchecked")
+	public void strip(final NotePatch patch)
+	{
+		if (!enabled)
+		{
+			return;
+		}
+
+		for (String path : patch.getSet().keySet())
+		{
+			if (path.startsWith("category.") && !path.equals("category.categoryId"))
+			{
+				throw new IllegalArgumentException(path + " cannot be patched, notes keep the categoryId only");
+			}
+		}
+
+		Note note = new Note();
+		note.setCategory((Category) patch.getSet().get("category"));
+		note.setReminders((List<Reminder>) patch.getSet().get("reminders"));
+		strip(note);
+
+		if (note.getCategory() != null)
+		{
+			patch.set("category", note.getCategory());
+		}
+		if (note.getReminders() != null)
+		{
+			patch.set("reminders", note.getReminders());
+		}
+	}
+
+	/*
+	 * Reduces the category and reminders of a note about to be written to their ids.
+	 */
+	public void strip(final Note note)
+	{
+		if (!enabled)
+		{
+			return;
+		}
+
+		if (note.getCategory() != null)
+		{
+			Category category = new Category();
+			category.setCategoryId(note.getCategory().getCategoryId());
+			note.setCategory(category);
+		}
+		if (note.getReminders() != null)
+		{
+			List<Reminder> references = new ArrayList<>(note.getReminders().size());
+			for (Reminder reminder : note.getReminders())
+			{
+				Reminder reference = new Reminder();
+				reference.setReminderId(reminder.getReminderId());
+				references.add(reference);
+			}
+			note.setReminders(references);
+		}
+	}
+
+	/*
+	 * Replaces the references of the given notes, which must not be shared yet, with
+	 * the categories and reminders they point to. Resolved values are shared between
+	 * notes and must not be modified.
+	 */
+	public <T extends Collection<Note>> T resolve(final T notes)
+	{
+		if (!enabled || notes == null || notes.isEmpty())
+		{
+			return notes;
+		}
+
+		Set<String> categoryIds = new LinkedHashSet<>();
+		Set<String> reminderIds = new LinkedHashSet<>();
+
+		for (Note note : notes)
+		{
+			if (note.getCategory() != null && note.getCategory().getCategoryId() != null)
+			{
+				categoryIds.add(note.getCategory().getCategoryId());
+			}
+			if (note.getReminders() != null)
+			{
+				for (Reminder reminder : note.getReminders())
+				{
+					if (reminder.getReminderId() != null)
+					{
+						reminderIds.add(reminder.getReminderId());
+					}
+				}
+			}
+		}
+
+		Map<String, Category> resolvedCategories = findCategories(categoryIds);
+		Map<String, Reminder> resolvedReminders = findReminders(reminderIds);
+
+		for (Note note : notes)
+		{
+			if (note.getCategory() != null)
+			{
+				note.setCategory(resolvedCategories.getOrDefault(note.getCategory().getCategoryId(), note.getCategory()));
+			}
+			if (note.getReminders() != null)
+			{
+				List<Reminder> resolved = new ArrayList<>(note.getReminders().size());
+				for (Reminder reminder : note.getReminders())
+				{
+					resolved.add(resolvedReminders.getOrDefault(reminder.getReminderId(), reminder));
+				}
+				note.setReminders(resolved);
+			}
+		}
+		return notes;
+	}
+
+	/*
+	 * Fills in the category names of summaries read from notes which keep references.
+	 */
+	public List<NoteSummary> resolveSummaries(final List<NoteSummary> summaries)
+	{
+		if (!enabled || summaries == null || summaries.isEmpty())
+		{
+			return summaries;
+		}
+
+		Set<String> categoryIds = new LinkedHashSet<>();
+		for (NoteSummary summary : summaries)
+		{
+			if (summary.getCategoryId() != null)
+			{
+				categoryIds.add(summary.getCategoryId());
+			}
+		}
+
+		Map<String, Category> resolvedCategories = findCategories(categoryIds);
+
+		for (NoteSummary summary : summaries)
+		{
+			Category category = resolvedCategories.get(summary.getCategoryId());
+			if (category != null)
+			{
+				summary.setCategoryName(category.getCategoryName());
+			}
+		}
+		return summaries;
+	}
+
+	/*
+	 * Drops a changed category from the near-cache, so it is looked up again.
+	 */
+	public void evictCategory(final String categoryId)
+	{
+		categories.invalidate(categoryId);
+	}
+
+	public void evictReminder(final String reminderId)
+	{
+		reminders.invalidate(reminderId);
+	}
+
+	private Map<String, Category> findCategories(final Set<String> categoryIds)
+	{
+		try
+		{
+			return categories.getAll(categoryIds, ids -> resolver.findCategories(asSet(ids)));
+		}
+		catch (RuntimeException exception)
+		{
+			LOG.warn("Could not resolve " + categoryIds.size() + " categories, returning references: " + exception.getMessage());
+			return Collections.emptyMap();
+		}
+	}
+
+	private Map<String, Reminder> findReminders(final Set<String> reminderIds)
+	{
+		try
+		{
+			return reminders.getAll(reminderIds, ids -> resolver.findReminders(asSet(ids)));
+		}
+		catch (RuntimeException exception)
+		{
+			LOG.warn("Could not resolve " + reminderIds.size() + " reminders, returning references: " + exception.getMessage());
+			return Collections.emptyMap();
+		}
+	}
+
+	private static boolean reference(final String mode)
+	{
+		if ("reference".equalsIgnoreCase(mode))
+		{
+			return true;
+		}
+		if ("embedded".equalsIgnoreCase(mode))
+		{
+			return false;
+		}
+		throw new IllegalArgumentException("Unknown keepnote.note.references.mode " + mode);
+	}
+
+	private static Set<String> asSet(final Iterable<? extends String> ids)
+	{
+		Set<String> set = new LinkedHashSet<>();
+		for (String id : ids)
+		{
+			set.add(id);
+		}
+		return set;
+	}
+}
@@ -0,0 +1,23 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteSearchResult;
+
+/*
+ * Full-text search over noteTitle and noteContent. The index is a derived view of
+ * the notes stored in Mongo: it is kept up to date by NoteServiceImpl on every
+ * create, update and delete and can be rebuilt from Mongo at any time.
+ */
+public interface NoteSearchService {
+
+    void indexNote(String userId, Note note);
+
+    void removeNote(String userId, int noteId);
+
+    void removeAllNotes(String userId);
+
+    NoteSearchResult search(String userId, String query, int page, int size);
+
+    void rebuildIndex();
+
+}
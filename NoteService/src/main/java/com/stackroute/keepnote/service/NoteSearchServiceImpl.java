@@ -0,0 +1,433 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteSearchHit;
+import com.stackroute.keepnote.model.NoteSearchResult;
+import com.stackroute.keepnote.repository.NoteRepository;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.search.highlight.SimpleSpanFragmenter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Lucene based implementation of NoteSearchService.
+ *
+ * The index is split into keepnote.search.partitions partitions and every user is
+ * hashed to exactly one of them, so a search only touches the partition of its user
+ * and writes for different users go to independent IndexWriters. Each partition has a
+ * SearcherManager which is refreshed every keepnote.search.refresh-ms, which gives
+ * near-real-time visibility of writes without reopening on every request. Ranking is
+ * Lucene's default BM25 similarity.
+ *
+ * The index lives in memory unless keepnote.search.index-dir is set, and is rebuilt
+ * from Mongo on startup. rebuildIndex() reindexes every note on a background thread
+ * while writes keep going: documents are tagged with the generation that wrote them
+ * and, once a user has been reindexed, only that user's documents from older
+ * generations are removed. Notes indexed or removed while a rebuild runs are recorded,
+ * and the rebuild does not write its possibly older copy of them, so a note deleted
+ * after the rebuild read its user does not come back. Failures to update the index
+ * are logged and never fail the Mongo write, a rebuild brings the index back in line.
+ */
+@Service
+public class NoteSearchServiceImpl implements NoteSearchService {
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	private static final String ID = "id";
+	private static final String USER_ID = "userId";
+	private static final String NOTE_ID = "noteId";
+	private static final String NOTE_TITLE = "noteTitle";
+	private static final String NOTE_CONTENT = "noteContent";
+	private static final String GENERATION = "generation";
+
+	private static final int MAX_PAGE_SIZE = 100;
+	private static final int FRAGMENT_SIZE = 120;
+
+	private final NoteRepository noteRepository;
+
+	private final Analyzer analyzer = new StandardAnalyzer();
+
+	private final IndexWriter[] writers;
+
+	private final SearcherManager[] searcherManagers;
+
+	private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor();
+
+	private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+	// documents and users written by indexNote, removeNote and removeAllNotes during a rebuild
+	private final Set<String> touchedDocuments = ConcurrentHashMap.newKeySet();
+
+	private final Set<String> touchedUsers = ConcurrentHashMap.newKeySet();
+
+	private final boolean rebuildOnStartup;
+
+	private volatile long generation = System.currentTimeMillis();
+
+	@Autowired
+	public NoteSearchServiceImpl(NoteRepository noteRepository,
+			@Value("${keepnote.search.partitions:4}") int partitions,
+			@Value("${keepnote.search.index-dir:}") String indexDir,
+			@Value("${keepnote.search.rebuild-on-startup:true}") boolean rebuildOnStartup) throws IOException {
+		this.noteRepository = noteRepository;
+		this.rebuildOnStartup = rebuildOnStartup;
+		this.writers = new IndexWriter[partitions];
+		this.searcherManagers = new SearcherManager[partitions];
+
+		for (int partition = 0; partition < partitions; partition++)
+		{
+			Directory directory = indexDir.isEmpty()
+					? new RAMDirectory()
+					: FSDirectory.open(Paths.get(indexDir, "partition-" + partition));
+			writers[partition] = new IndexWriter(directory, new IndexWriterConfig(analyzer));
+			searcherManagers[partition] = new SearcherManager(writers[partition], new SearcherFactory());
+		}
+	}
+
+	public void indexNote(final String userId, final Note note)
+	{
+		String id = documentId(userId, note.getNoteId());
+
+		try
+		{
+			write(userId, id, writer -> writer.updateDocument(new Term(ID, id), toDocument(userId, note, generation)));
+		}
+		catch (IOException exception)
+		{
+			LOG.error("Indexing note " + note.getNoteId() + " of " + userId + " failed", exception);
+		}
+	}
+
+	public void removeNote(final String userId, final int noteId)
+	{
+		String id = documentId(userId, noteId);
+
+		try
+		{
+			write(userId, id, writer -> writer.deleteDocuments(new Term(ID, id)));
+		}
+		catch (IOException exception)
+		{
+			LOG.error("Removing note " + noteId + " of " + userId + " from the index failed", exception);
+		}
+	}
+
+	public void removeAllNotes(final String userId)
+	{
+		try
+		{
+			write(userId, null, writer -> writer.deleteDocuments(new Term(USER_ID, userId)));
+		}
+		catch (IOException exception)
+		{
+			LOG.error("Removing notes of " + userId + " from the index failed", exception);
+		}
+	}
+
+	/*
+	 * Runs the query against noteTitle (boosted) and noteContent of the given user's
+	 * notes only. Throws IllegalArgumentException if the query cannot be parsed.
+	 */
+	public NoteSearchResult search(final String userId, final String queryText, final int page, final int size)
+	{
+		int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+		int pageNumber = Math.max(0, page);
+
+		Query textQuery = parse(queryText);
+		Query query = new BooleanQuery.Builder()
+				.add(textQuery, BooleanClause.Occur.MUST)
+				.add(new TermQuery(new Term(USER_ID, userId)), BooleanClause.Occur.FILTER)
+				.build();
+
+		SearcherManager searcherManager = searcherManagers[partition(userId)];
+
+		try
+		{
+			IndexSearcher searcher = searcherManager.acquire();
+			try
+			{
+				TopDocs topDocs = searcher.search(query, (pageNumber + 1) * pageSize);
+				List<NoteSearchHit> hits = new ArrayList<>();
+
+				QueryScorer titleScorer = new QueryScorer(textQuery, NOTE_TITLE);
+				QueryScorer contentScorer = new QueryScorer(textQuery, NOTE_CONTENT);
+
+				for (int i = pageNumber * pageSize; i < topDocs.scoreDocs.length; i++)
+				{
+					ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+					Document document = searcher.doc(scoreDoc.doc);
+					hits.add(new NoteSearchHit(
+							document.getField(NOTE_ID).numericValue().intValue(),
+							document.get(NOTE_TITLE),
+							scoreDoc.score,
+							highlight(titleScorer, NOTE_TITLE, document.get(NOTE_TITLE)),
+							highlight(contentScorer, NOTE_CONTENT, document.get(NOTE_CONTENT))));
+				}
+				return new NoteSearchResult(topDocs.totalHits, pageNumber, pageSize, hits);
+			}
+			finally
+			{
+				searcherManager.release(searcher);
+			}
+		}
+		catch (IOException exception)
+		{
+			throw new UncheckedIOException(exception);
+		}
+	}
+
+	/*
+	 * Starts a rebuild on the background thread unless one is already running.
+	 */
+	public void rebuildIndex()
+	{
+		if (rebuilding.compareAndSet(false, true))
+		{
+			rebuildExecutor.submit(this::rebuild);
+		}
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void rebuildOnStartup()
+	{
+		if (rebuildOnStartup)
+		{
+			rebuildIndex();
+		}
+	}
+
+	@Scheduled(fixedDelayString = "${keepnote.search.refresh-ms:500}")
+	public void refresh() throws IOException
+	{
+		for (SearcherManager searcherManager : searcherManagers)
+		{
+			searcherManager.maybeRefresh();
+		}
+	}
+
+	@PreDestroy
+	public void close() throws IOException
+	{
+		rebuildExecutor.shutdownNow();
+		for (int partition = 0; partition < writers.length; partition++)
+		{
+			searcherManagers[partition].close();
+			writers[partition].close();
+		}
+	}
+
+	private void rebuild()
+	{
+		long rebuildGeneration = Math.max(generation + 1, System.currentTimeMillis());
+		generation = rebuildGeneration;
+
+		// writes recorded before this point are contained in what the rebuild reads,
+		// writes recorded after it carry the new generation
+		touchedDocuments.clear();
+		touchedUsers.clear();
+		int users = 0;
+		int notes = 0;
+
+		try
+		{
+			LOG.info("Rebuilding note search index, generation " + rebuildGeneration);
+
+			for (String userId : noteRepository.findUserIds())
+			{
+				List<Note> userNotes = noteRepository.findAllNotes(userId);
+				IndexWriter writer = writer(userId);
+
+				if (userNotes != null)
+				{
+					for (Note note : userNotes)
+					{
+						String id = documentId(userId, note.getNoteId());
+
+						// a note written since it was read is already indexed as it is now, or removed
+						synchronized (writer)
+						{
+							if (!touchedDocuments.contains(id) && !touchedUsers.contains(userId))
+							{
+								writer.updateDocument(new Term(ID, id), toDocument(userId, note, rebuildGeneration));
+								notes++;
+							}
+						}
+					}
+				}
+
+				// notes deleted from Mongo since the last build still carry an older generation
+				writer.deleteDocuments(new BooleanQuery.Builder()
+						.add(new TermQuery(new Term(USER_ID, userId)), BooleanClause.Occur.FILTER)
+						.add(LongPoint.newRangeQuery(GENERATION, Long.MIN_VALUE, rebuildGeneration - 1), BooleanClause.Occur.FILTER)
+						.build());
+				users++;
+			}
+
+			for (IndexWriter writer : writers)
+			{
+				writer.commit();
+			}
+			LOG.info("Rebuilt note search index with " + notes + " notes of " + users + " users");
+		}
+		catch (IOException | RuntimeException exception)
+		{
+			LOG.error("Rebuilding note search index failed", exception);
+		}
+		finally
+		{
+			rebuilding.set(false);
+		}
+	}
+
+	/*
+	 * Applies a write of indexNote, removeNote or removeAllNotes (id null). While a
+	 * rebuild runs the write is recorded, under the same lock the rebuild takes to
+	 * check the record, so the rebuild cannot overwrite it with an older copy.
+	 */
+	private void write(final String userId, final String id, final IndexOperation operation) throws IOException
+	{
+		IndexWriter writer = writer(userId);
+
+		if (!rebuilding.get())
+		{
+			operation.apply(writer);
+			return;
+		}
+
+		synchronized (writer)
+		{
+			if (id != null)
+			{
+				touchedDocuments.add(id);
+			}
+			else
+			{
+				touchedUsers.add(userId);
+			}
+			operation.apply(writer);
+		}
+	}
+
+	private Query parse(final String queryText)
+	{
+		Map<String, Float> boosts = new HashMap<>();
+		boosts.put(NOTE_TITLE, 2.0f);
+		boosts.put(NOTE_CONTENT, 1.0f);
+
+		MultiFieldQueryParser parser = new MultiFieldQueryParser(new String[] {NOTE_TITLE, NOTE_CONTENT}, analyzer, boosts);
+
+		try
+		{
+			return parser.parse(queryText);
+		}
+		catch (ParseException exception)
+		{
+			throw new IllegalArgumentException("Invalid search query " + queryText, exception);
+		}
+	}
+
+	private String highlight(final QueryScorer scorer, final String field, final String text) throws IOException
+	{
+		if (text == null || text.isEmpty())
+		{
+			return null;
+		}
+
+		Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter("<em>", "</em>"), scorer);
+		highlighter.setTextFragmenter(new SimpleSpanFragmenter(scorer, FRAGMENT_SIZE));
+
+		try
+		{
+			return highlighter.getBestFragment(analyzer, field, text);
+		}
+		catch (InvalidTokenOffsetsException exception)
+		{
+			return null;
+		}
+	}
+
+	private static Document toDocument(final String userId, final Note note, final long generation)
+	{
+		Document document = new Document();
+		document.add(new StringField(ID, documentId(userId, note.getNoteId()), Field.Store.NO));
+		document.add(new StringField(USER_ID, userId, Field.Store.NO));
+		document.add(new StoredField(NOTE_ID, note.getNoteId()));
+		document.add(new TextField(NOTE_TITLE, nullToEmpty(note.getNoteTitle()), Field.Store.YES));
+		document.add(new TextField(NOTE_CONTENT, nullToEmpty(note.getNoteContent()), Field.Store.YES));
+		document.add(new LongPoint(GENERATION, generation));
+		return document;
+	}
+
+	private IndexWriter writer(final String userId)
+	{
+		return writers[partition(userId)];
+	}
+
+	private int partition(final String userId)
+	{
+		return Math.floorMod(userId.hashCode(), writers.length);
+	}
+
+	private static String documentId(final String userId, final int noteId)
+	{
+		return userId + ":" + noteId;
+	}
+
+	private static String nullToEmpty(final String value)
+	{
+		return value == null ? "" : value;
+	}
+
+	private interface IndexOperation {
+
+		void apply(IndexWriter writer) throws IOException;
+	}
+}
@@ -2,8 +2,20 @@ package com.stackroute.keepnote.service;
 
 import com.stackroute.keepnote.exception.NoteNotFoundExeption;
 import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteBatchResult;
+import com.stackroute.keepnote.model.NoteChanges;
+import com.stackroute.keepnote.model.NoteDurability;
+import com.stackroute.keepnote.model.NoteFilter;
+import com.stackroute.keepnote.model.NotePage;
+import com.stackroute.keepnote.model.NotePatch;
+import com.stackroute.keepnote.model.NoteStats;
+import com.stackroute.keepnote.model.NoteSummary;
+import com.stackroute.keepnote.model.NoteUser;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 
 
 public interface NoteService {
@@ -16,15 +28,54 @@ public interface NoteService {
 
     boolean createNote(Note note);
 
+    boolean createNote(Note note, NoteDurability durability);
+
+    List<NoteBatchResult> createNotes(String userId, Iterator<Note> notes);
+
     boolean deleteNote(String userId, int noteId);
 
+    boolean deleteNote(String userId, int noteId, Long ifMatchVersion);
+
+    List<Integer> deleteNotes(String userId, Collection<Integer> noteIds);
+
     boolean deleteAllNotes(String userId) throws NoteNotFoundExeption;
 
     Note updateNote(Note note, int id, String userId) throws NoteNotFoundExeption;
 
+    Note updateNote(Note note, int id, String userId, Long ifMatchVersion) throws NoteNotFoundExeption;
+
+    Note updateNote(Note note, int id, String userId, Long ifMatchVersion, NoteDurability durability)
+            throws NoteNotFoundExeption;
+
+    Note patchNote(String userId, int noteId, NotePatch patch, Long ifMatchVersion) throws NoteNotFoundExeption;
+
+    NoteDurability resolveDurability(NoteDurability requested);
+
     Note getNoteByNoteId(String userId,int noteId) throws NoteNotFoundExeption;
 
     List<Note> getAllNoteByUserId(String userId);
 
+    List<Note> getAllNotesWithArchive(String userId);
+
+    List<NoteSummary> getNoteSummaries(String userId);
+
+    List<Note> getNotesByFilter(String userId, NoteFilter filter);
+
+    NoteUser getVersionedNotes(String userId);
+
+    Long getNotesVersion(String userId);
+
+    NoteChanges getChangesSince(String userId, long since);
+
+    NotePage getNotePage(String userId, String after, int limit);
+
+    NotePage getNotePageWithArchive(String userId, String after, int limit);
+
+    NoteStats getNoteStats(String userId);
+
+    String getExportEnd(String userId, String after, int limit, boolean includeArchived);
+
+    long exportNotes(String userId, String after, String until, boolean includeArchived, Consumer<Note> consumer);
+
 
 }
@@ -2,16 +2,34 @@ package com.stackroute.keepnote.service;
 
 import com.stackroute.keepnote.exception.NoteNotFoundExeption;
 import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteBatchResult;
+import com.stackroute.keepnote.model.NoteChanges;
+import com.stackroute.keepnote.model.NoteDurability;
+import com.stackroute.keepnote.model.NoteFilter;
+import com.stackroute.keepnote.model.NotePage;
+import com.stackroute.keepnote.model.NotePatch;
+import com.stackroute.keepnote.model.NoteStats;
+import com.stackroute.keepnote.model.NoteSummary;
 import com.stackroute.keepnote.model.NoteUser;
+import com.stackroute.keepnote.repository.NoteArchiveRepository;
 import com.stackroute.keepnote.repository.NoteRepository;
+import com.stackroute.keepnote.repository.NoteStatsRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /*
 * Service classes are used here to implement additional business logic/validation
@@ -28,6 +46,14 @@ public class NoteServiceImpl implements NoteService {
 
 	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
 
+	private static final int MAX_PAGE_SIZE = 200;
+
+	private static final int BATCH_CHUNK_SIZE = 1000;
+
+	private static final int EXPORT_BATCH_SIZE = 500;
+
+	private static final int MAX_ALLOCATION_ATTEMPTS = 5;
+
 	/*
      * Autowiring should be implemented for the NoteRepository and MongoOperation.
      * (Use Constructor-based autowiring) Please note that we should not create any
@@ -36,47 +62,336 @@ public class NoteServiceImpl implements NoteService {
 	@Autowired
 	private NoteRepository noteRepository;
 
-	public NoteServiceImpl(NoteRepository noteRepository) {
+	@Autowired
+	private NoteIdAllocator noteIdAllocator;
+
+	@Autowired
+	private NoteSearchService noteSearchService;
+
+	@Autowired
+	private NoteCache noteCache;
+
+	@Autowired
+	private NoteWriteBehind noteWriteBehind;
+
+	@Autowired
+	private NoteReferences noteReferences;
+
+	@Autowired
+	private NoteStatsRepository noteStatsRepository;
+
+	@Autowired
+	private NoteArchiveRepository noteArchiveRepository;
+
+	public NoteServiceImpl(NoteRepository noteRepository, NoteIdAllocator noteIdAllocator,
+			NoteSearchService noteSearchService, NoteCache noteCache, NoteWriteBehind noteWriteBehind,
+			NoteReferences noteReferences, NoteStatsRepository noteStatsRepository,
+			NoteArchiveRepository noteArchiveRepository) {
 		this.noteRepository = noteRepository;
+		this.noteIdAllocator = noteIdAllocator;
+		this.noteSearchService = noteSearchService;
+		this.noteCache = noteCache;
+		this.noteWriteBehind = noteWriteBehind;
+		this.noteReferences = noteReferences;
+		this.noteStatsRepository = noteStatsRepository;
+		this.noteArchiveRepository = noteArchiveRepository;
 	}
 
 	/*
-         * This method should be used to save a new note.
+         * This method should be used to save a new note. The note is appended to the
+         * notes of the user who created it, returns false if its noteId is already taken.
+         * Notes sent without a noteId get one allocated on the server.
          */
 	public boolean createNote(final Note note)
 	{
-		NoteUser newNote = noteRepository.insert(note);
+		return createNote(note, null);
+	}
+
+	/*
+	 * This method should be used to save a new note with the given durability, null
+	 * for the configured one. With the write-behind queue enabled the note is queued,
+	 * and unless it is ACKNOWLEDGED false is only returned for a noteId taken by a
+	 * queued note.
+	 */
+	public boolean createNote(final Note note, final NoteDurability durability)
+	{
+		noteReferences.strip(note);
+
+		String userId = note.getNoteCreatedBy();
+		Predicate<Note> insert = noteWriteBehind.isEnabled()
+				? queued -> noteWriteBehind.create(userId, queued, noteWriteBehind.resolve(durability))
+				: inserted -> insertNote(userId, inserted);
 
-		if (newNote == null)
+		if (note.getNoteId() > 0)
 		{
-			return false;
+			return !archived(userId, note.getNoteId()) && insert.test(note);
 		}
-		else
+		note.setNoteId(noteIdAllocator.nextNoteId(userId));
+		return insertAllocated(userId, note, insert);
+	}
+
+	/*
+	 * A noteId held by an archived note stays taken. A new note under it would hide the
+	 * archived one in the merged listings, and a delete of the noteId would only reach
+	 * the new note. The archive is checked before the insert, a note archived between
+	 * the check and the insert can still slip through.
+	 */
+	private boolean archived(final String userId, final int noteId)
+	{
+		return !noteArchiveRepository.findArchivedNoteIds(userId, Collections.singletonList(noteId)).isEmpty();
+	}
+
+	private boolean insertNote(final String userId, final Note note)
+	{
+		if (noteRepository.insertNote(userId, note))
 		{
+			noteCache.invalidate(userId);
+			noteSearchService.indexNote(userId, note);
 			return true;
 		}
+		return false;
 	}
 
-	/* This method should be used to delete an existing note. */
+	/*
+	 * Inserts a note whose noteId was allocated on the server. The id can be taken by a
+	 * client supplied noteId or an archived note, then the allocator skips the stored
+	 * ids and the note is retried with the next one. A queued note whose id is only found taken when it is
+	 * flushed is dropped like any other queued create.
+	 */
+	private boolean insertAllocated(final String userId, final Note note, final Predicate<Note> insert)
+	{
+		for (int attempt = 1; ; attempt++)
+		{
+			if (!archived(userId, note.getNoteId()) && insert.test(note))
+			{
+				return true;
+			}
+			if (attempt == MAX_ALLOCATION_ATTEMPTS)
+			{
+				return false;
+			}
+			noteIdAllocator.skipTaken(userId);
+			note.setNoteId(noteIdAllocator.nextNoteId(userId));
+		}
+	}
 
+	/*
+	 * This method should be used to save a batch of notes for one user. The notes are
+	 * consumed chunk by chunk, so the whole batch is never held in memory, and every
+	 * chunk is written with a single $push with $each. If a chunk contains a noteId
+	 * which is already taken it is retried note by note to report the conflicts.
+	 */
+	public List<NoteBatchResult> createNotes(final String userId, final Iterator<Note> notes)
+	{
+		noteWriteBehind.flush();
 
-	public boolean deleteNote(final String userId, final int noteId)
+		List<NoteBatchResult> results = new ArrayList<>();
+		List<Note> chunk = new ArrayList<>(BATCH_CHUNK_SIZE);
+
+		while (notes.hasNext())
+		{
+			chunk.add(notes.next());
+
+			if (chunk.size() == BATCH_CHUNK_SIZE)
+			{
+				createChunk(userId, chunk, results);
+				chunk.clear();
+			}
+		}
+		if (!chunk.isEmpty())
+		{
+			createChunk(userId, chunk, results);
+		}
+		return results;
+	}
+
+	private void createChunk(final String userId, final List<Note> chunk, final List<NoteBatchResult> results)
 	{
-		Note note = new Note();
+		int offset = results.size();
+		Set<Integer> clientIds = new HashSet<>();
+		boolean[] allocated = new boolean[chunk.size()];
+		int missingIds = 0;
 
-		note.setNoteId(noteId);
+		for (int i = 0; i < chunk.size(); i++)
+		{
+			Note note = chunk.get(i);
+			note.setNoteCreatedBy(userId);
+			noteReferences.strip(note);
+			if (note.getNoteId() <= 0)
+			{
+				allocated[i] = true;
+				missingIds++;
+			}
+			else
+			{
+				clientIds.add(note.getNoteId());
+			}
+		}
 
-		Optional<NoteUser> notes = noteRepository.findById(userId);
+		if (missingIds > 0)
+		{
+			int noteId = noteIdAllocator.nextNoteIds(userId, missingIds);
+			for (int i = 0; i < chunk.size(); i++)
+			{
+				if (allocated[i])
+				{
+					chunk.get(i).setNoteId(noteId++);
+				}
+			}
+			// an allocated id taken by a client supplied one of the same chunk is replaced
+			for (int i = 0; i < chunk.size(); i++)
+			{
+				while (allocated[i] && clientIds.contains(chunk.get(i).getNoteId()))
+				{
+					chunk.get(i).setNoteId(noteIdAllocator.nextNoteId(userId));
+				}
+			}
+		}
 
-		//noteRepository.save(notes.get().getNotes().get(0));
+		// noteIds held by archived notes are taken as well, see archived
+		List<Integer> noteIds = new ArrayList<>(chunk.size());
+		for (Note note : chunk)
+		{
+			noteIds.add(note.getNoteId());
+		}
+		Set<Integer> archived = new HashSet<>(noteArchiveRepository.findArchivedNoteIds(userId, noteIds));
+		boolean skipped = false;
+		for (int i = 0; i < chunk.size(); i++)
+		{
+			if (allocated[i] && archived.contains(chunk.get(i).getNoteId()))
+			{
+				if (!skipped)
+				{
+					// raises the counter past the archived ids, the next ones are free of them
+					noteIdAllocator.skipTaken(userId);
+					skipped = true;
+				}
+				do
+				{
+					chunk.get(i).setNoteId(noteIdAllocator.nextNoteId(userId));
+				}
+				while (clientIds.contains(chunk.get(i).getNoteId()));
+			}
+		}
+
+		NoteBatchResult[] chunkResults = new NoteBatchResult[chunk.size()];
+		List<Note> unique = new ArrayList<>(chunk.size());
+		Set<Integer> seen = new HashSet<>();
 
-		if(notes.isPresent())
+		for (int i = 0; i < chunk.size(); i++)
 		{
-			noteRepository.delete(note);
+			Note note = chunk.get(i);
+			if (!allocated[i] && archived.contains(note.getNoteId()))
+			{
+				chunkResults[i] = new NoteBatchResult(offset + i, note.getNoteId(), NoteBatchResult.CONFLICT);
+			}
+			else if (seen.add(note.getNoteId()))
+			{
+				unique.add(note);
+			}
+			else
+			{
+				chunkResults[i] = new NoteBatchResult(offset + i, note.getNoteId(), NoteBatchResult.CONFLICT);
+			}
+		}
+
+		boolean written = !unique.isEmpty() && noteRepository.insertNotes(userId, unique);
+
+		if (!written)
+		{
+			LOG.info("Batch of " + chunk.size() + " notes of " + userId + " has taken noteIds, writing note by note");
+		}
+
+		for (int i = 0; i < chunk.size(); i++)
+		{
+			if (chunkResults[i] != null)
+			{
+				results.add(chunkResults[i]);
+				continue;
+			}
+
+			Note note = chunk.get(i);
+			if (written || (allocated[i]
+					? insertAllocated(userId, note, retried -> noteRepository.insertNote(userId, retried))
+					: noteRepository.insertNote(userId, note)))
+			{
+				noteSearchService.indexNote(userId, note);
+				results.add(new NoteBatchResult(offset + i, note.getNoteId(), NoteBatchResult.CREATED));
+			}
+			else
+			{
+				results.add(new NoteBatchResult(offset + i, note.getNoteId(), NoteBatchResult.CONFLICT));
+			}
+		}
+		noteCache.invalidate(userId);
+	}
+
+	/*
+	 * This method should be used to delete an existing note. The note is pulled out of
+	 * the notes array on the server, the NoteUser document is never loaded.
+	 */
+
+
+	public boolean deleteNote(final String userId, final int noteId)
+	{
+		return deleteNote(userId, noteId, null);
+	}
+
+	/*
+	 * This method should be used to delete a note only if it is still at the version
+	 * ifMatchVersion, a null ifMatchVersion deletes it unconditionally. Throws
+	 * OptimisticLockingFailureException if the note has been changed since. An archived
+	 * note has no version to match and is only deleted unconditionally, together with
+	 * the note of the user when a noteId was reused before archived noteIds were taken.
+	 */
+	public boolean deleteNote(final String userId, final int noteId, final Long ifMatchVersion)
+	{
+		noteWriteBehind.flush();
+
+		boolean archived = ifMatchVersion == null && noteArchiveRepository.deleteNote(userId, noteId);
+
+		if (noteRepository.deleteNote(userId, noteId, ifMatchVersion))
+		{
+			noteCache.invalidate(userId);
+			noteSearchService.removeNote(userId, noteId);
 			return true;
 		}
+		return archived;
+	}
 
-		return false;
+	/*
+	 * This method should be used to delete a set of notes of a user in one round trip.
+	 * Returns the noteIds which existed and were removed, archived notes included. Like
+	 * deleteNote a noteId held by both loses both.
+	 */
+	public List<Integer> deleteNotes(final String userId, final Collection<Integer> noteIds)
+	{
+		if (noteIds.isEmpty())
+		{
+			return new ArrayList<>();
+		}
+
+		noteWriteBehind.flush();
+		List<Integer> removed = noteRepository.deleteNotes(userId, noteIds);
+
+		if (!removed.isEmpty())
+		{
+			noteCache.invalidate(userId);
+		}
+
+		for (int noteId : removed)
+		{
+			noteSearchService.removeNote(userId, noteId);
+		}
+
+		Set<Integer> archived = new HashSet<>(noteArchiveRepository.deleteNotes(userId, noteIds));
+		archived.removeAll(removed);
+		if (!archived.isEmpty())
+		{
+			removed = new ArrayList<>(removed);
+			removed.addAll(archived);
+		}
+		return removed;
 	}
 
 	/* This method should be used to delete all notes with specific userId. */
@@ -84,68 +399,491 @@ public class NoteServiceImpl implements NoteService {
 
 	public boolean deleteAllNotes(final String userId)
 	{
-		noteRepository.deleteAll();
+		noteWriteBehind.flush();
+		boolean archived = noteArchiveRepository.deleteAllNotes(userId) > 0;
 
-		if(noteRepository.findAll().isEmpty())
+		if (noteRepository.deleteAllNotes(userId))
 		{
+			noteCache.invalidate(userId);
+			noteSearchService.removeAllNotes(userId);
+			try
+			{
+				noteStatsRepository.reset(userId);
+			}
+			catch (RuntimeException exception)
+			{
+				LOG.warn("Note stats of " + userId + " not reset, left to the reconciliation: " + exception.getMessage());
+			}
 			return true;
 		}
-		return false;
+		return archived;
 	}
 
 	/*
-     * This method should be used to update a existing note.
+     * This method should be used to update a existing note. Only the matching element
+     * of the notes array is replaced, the rest of the NoteUser document is not read.
      */
 	public Note updateNote(final Note note, final int id, final String userId) throws NoteNotFoundExeption {
+		return updateNote(note, id, userId, null);
+	}
 
-		Optional<NoteUser> notes = null;
+	/*
+	 * This method should be used to update a note only if it is still at the version
+	 * ifMatchVersion, a null ifMatchVersion updates it unconditionally. The version of
+	 * a note is its changeSeq. Throws OptimisticLockingFailureException if the note has
+	 * been changed since.
+	 */
+	public Note updateNote(final Note note, final int id, final String userId, final Long ifMatchVersion)
+			throws NoteNotFoundExeption {
+		return updateNote(note, id, userId, ifMatchVersion, null);
+	}
 
-		try
-		{
-			notes = noteRepository.findById(userId);
-		}
-		catch (NoSuchElementException exception)
+	/*
+	 * This method should be used to update a note with the given durability, null for
+	 * the configured one. With the write-behind queue enabled an unconditional update
+	 * is queued, and unless it is ACKNOWLEDGED a missing note is not reported. A
+	 * conditional update flushes the queue and is written right away.
+	 */
+	public Note updateNote(final Note note, final int id, final String userId, final Long ifMatchVersion,
+			final NoteDurability durability) throws NoteNotFoundExeption {
+
+		note.setNoteId(id);
+		noteReferences.strip(note);
+
+		if (noteWriteBehind.isEnabled() && ifMatchVersion == null)
 		{
+			if (noteWriteBehind.update(userId, note, noteWriteBehind.resolve(durability)))
+			{
+				return note;
+			}
 			throw new NoteNotFoundExeption("Entered Note not found to update");
 		}
 
-		if (notes.get().getNotes().size() > 0)
+		noteWriteBehind.flush();
+
+		if (noteRepository.updateNote(userId, note, ifMatchVersion))
 		{
-			noteRepository.insert(note);
+			noteCache.invalidate(userId);
+			noteSearchService.indexNote(userId, note);
 			return note;
 		}
-		else {
+		else
+		{
 			throw new NoteNotFoundExeption("Entered Note not found to update");
 		}
 	}
 
 	/*
-     * This method should be used to get a note by noteId created by specific user
+	 * This method should be used to change single fields of a note. Only the patched
+	 * fields are sent to Mongo and the note is not read before, its new changeSeq comes
+	 * back from the write. Only if its title or content changed it is read and indexed
+	 * again.
+	 * Patches are never queued by the write-behind queue, queued writes are flushed
+	 * first so they do not overwrite the patch later.
+	 */
+	public Note patchNote(final String userId, final int noteId, final NotePatch patch, final Long ifMatchVersion)
+			throws NoteNotFoundExeption
+	{
+		if (patch.isEmpty())
+		{
+			return getNoteByNoteId(userId, noteId);
+		}
+
+		noteReferences.strip(patch);
+		noteWriteBehind.flush();
+
+		Note patched = noteRepository.patchNote(userId, noteId, patch, ifMatchVersion);
+
+		if (patched == null)
+		{
+			throw new NoteNotFoundExeption("Entered Note not found to patch");
+		}
+
+		noteCache.invalidate(userId);
+		if (patch.touches("noteTitle") || patch.touches("noteContent"))
+		{
+			Note note = noteRepository.findNote(userId, noteId);
+			if (note != null)
+			{
+				noteSearchService.indexNote(userId, note);
+			}
+		}
+		return patched;
+	}
+
+	/*
+	 * This method should be used to find out how a write with the requested durability
+	 * is answered, see NoteWriteBehind.resolve.
+	 */
+	public NoteDurability resolveDurability(final NoteDurability requested)
+	{
+		return noteWriteBehind.resolve(requested);
+	}
+
+	/*
+     * This method should be used to get a note by noteId created by specific user.
+     * It is served from the cached notes of the user if present, otherwise only the
+     * requested note is fetched from the NoteUser document.
      */
 	public Note getNoteByNoteId(final String userId, final int noteId) throws NoteNotFoundExeption {
 
-		Optional<NoteUser> optional = null;
+		Note note = null;
+		List<Note> cached = noteCache.getNotesIfPresent(userId);
 
-		try
+		if (cached != null)
 		{
-			optional = noteRepository.findById(userId);
+			for (Note candidate : cached)
+			{
+				if (candidate.getNoteId() == noteId)
+				{
+					note = candidate;
+				}
+			}
 		}
-		catch (NoSuchElementException exception)
+		else
 		{
-			throw new NoteNotFoundExeption("Entered Note not found to update");
+			note = noteRepository.findNote(userId, noteId);
 		}
 
-		return optional.get().getNotes().get(0);
+		if (note != null)
+		{
+			if (cached == null)
+			{
+				noteReferences.resolve(Collections.singletonList(note));
+			}
+			return note;
+		}
+		else
+		{
+			throw new NoteNotFoundExeption("Requested Note not found " + noteId);
+		}
 	}
 
 	/*
-     * This method should be used to get all notes with specific userId.
+     * This method should be used to get all notes with specific userId. The list is
+     * read through the per-user NoteCache and must not be modified.
      */
 	public List<Note> getAllNoteByUserId(final String userId)
 	{
-		Optional<NoteUser> optional = noteRepository.findById(userId);
-		return optional.get().getNotes();
+		NoteUser noteUser = getVersionedNotes(userId);
+
+		return noteUser == null ? null : noteUser.getNotes();
+	}
+
+	/*
+	 * This method should be used to get all notes of a user including the archived ones,
+	 * which follow the notes of the user ordered by noteId. Null if the user has neither.
+	 * Only the notes of the user are served from the cache.
+	 */
+	public List<Note> getAllNotesWithArchive(final String userId)
+	{
+		List<Note> notes = getAllNoteByUserId(userId);
+		List<Note> archived = noteArchiveRepository.findAllNotes(userId);
+
+		if (archived.isEmpty())
+		{
+			return notes;
+		}
+
+		return appendArchived(notes, noteReferences.resolve(archived));
+	}
+
+	/*
+	 * The archived notes after the notes of the user, shared with ReactiveNoteServiceImpl.
+	 * A noteId the user still holds is taken from the notes of the user.
+	 */
+	static List<Note> appendArchived(final List<Note> notes, final List<Note> archived)
+	{
+		List<Note> merged = notes != null ? new ArrayList<>(notes) : new ArrayList<>();
+		Set<Integer> noteIds = new HashSet<>();
+		for (Note note : merged)
+		{
+			noteIds.add(note.getNoteId());
+		}
+		for (Note note : archived)
+		{
+			// a copy left behind by a move which did not complete
+			if (noteIds.add(note.getNoteId()))
+			{
+				merged.add(note);
+			}
+		}
+		return merged;
+	}
+
+	/*
+	 * This method should be used to get the summaries of all notes of a user for list
+	 * views, null if the user has no notes document. Built from the cached notes if
+	 * present, otherwise read with a projection which leaves out noteContent and
+	 * reminders. Summaries are not cached.
+	 */
+	public List<NoteSummary> getNoteSummaries(final String userId)
+	{
+		List<Note> cached = noteCache.getNotesIfPresent(userId);
+
+		if (cached == null)
+		{
+			return noteReferences.resolveSummaries(noteRepository.findNoteSummaries(userId));
+		}
+
+		List<NoteSummary> summaries = new ArrayList<>(cached.size());
+		for (Note note : cached)
+		{
+			summaries.add(NoteSummary.of(note));
+		}
+		return summaries;
+	}
+
+	/*
+	 * This method should be used to get the notes of a user matching the filter. The
+	 * notes are filtered by Mongo, only an empty filter is served from the cached
+	 * notes, as all notes of the user. Notes which keep references have no category
+	 * names to match, so a categoryName filter is rejected with an
+	 * IllegalArgumentException in reference mode, the categoryId filter works in both.
+	 */
+	public List<Note> getNotesByFilter(final String userId, final NoteFilter filter)
+	{
+		if (noteReferences.isEnabled() && filter.getCategoryName() != null)
+		{
+			throw new IllegalArgumentException("Notes keep the categoryId only, filter by categoryId instead of category");
+		}
+		if (filter.isEmpty())
+		{
+			List<Note> notes = getAllNoteByUserId(userId);
+			return notes != null ? notes : new ArrayList<>();
+		}
+		return noteReferences.resolve(noteRepository.findNotes(userId, filter));
+	}
+
+	/*
+	 * This method should be used to get all notes of a user together with the version
+	 * they belong to, null if the user has no notes document.
+	 */
+	public NoteUser getVersionedNotes(final String userId)
+	{
+		return noteCache.getNoteUser(userId, this::loadVersionedNotes);
+	}
 
+	/*
+	 * This method should be used to check the version of the notes of a user without
+	 * reading the notes, null if the user has no notes document.
+	 */
+	public Long getNotesVersion(final String userId)
+	{
+		return noteRepository.findVersion(userId);
+	}
+
+	/*
+	 * This method should be used to get the notes of a user created, updated or deleted
+	 * after the version "since", as recorded in the user's change log. A since of 0 or
+	 * before the start of the change log gets all notes as a full resync.
+	 */
+	public NoteChanges getChangesSince(final String userId, final long since)
+	{
+		NoteChanges changes = noteRepository.findChangesSince(userId, since);
+
+		noteReferences.resolve(changes.getChanged());
+		return changes;
+	}
+
+	/*
+	 * The version is read before the notes, so the notes are never older than the
+	 * version they are tagged with.
+	 */
+	private NoteUser loadVersionedNotes(final String userId)
+	{
+		Long version = noteRepository.findVersion(userId);
+		List<Note> notes = noteRepository.findAllNotes(userId);
+
+		if (notes == null)
+		{
+			return null;
+		}
+
+		// resolved before the notes are cached and shared
+		noteReferences.resolve(notes);
+		NoteUser noteUser = new NoteUser(userId, Collections.unmodifiableList(notes));
+		noteUser.setVersion(version != null ? version : 0L);
+		return noteUser;
+	}
+
+	/*
+	 * This method should be used to get the note counts of a user by status and by
+	 * category, read from its counters. The counters are moved by the note writes
+	 * themselves, a user whose notes predate them is counted from its notes until
+	 * NoteStatsReconciliation stores its first counters. Nothing is written here.
+	 */
+	public NoteStats getNoteStats(final String userId)
+	{
+		NoteStats stats = noteStatsRepository.findStats(userId);
+
+		if (stats == null)
+		{
+			return noteRepository.countNotes(userId);
+		}
+		return stats;
+	}
+
+	/*
+	 * This method should be used to get one page of notes of a specific user ordered
+	 * by noteId. One extra note is fetched to find out whether a next page exists.
+	 */
+	public NotePage getNotePage(final String userId, final String after, final int limit)
+	{
+		int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+
+		List<Note> notes = noteReferences.resolve(noteRepository.findNotesAfter(userId, NoteCursor.decode(after), pageSize + 1));
+
+		if (notes.size() > pageSize)
+		{
+			notes = new ArrayList<>(notes.subList(0, pageSize));
+			return new NotePage(notes, NoteCursor.encode(notes.get(pageSize - 1).getNoteId()));
+		}
+		return new NotePage(notes, null);
+	}
+
+	/*
+	 * This method should be used to get one page of the notes of a user and its archived
+	 * notes together. Both are read in noteId order from the cursor on and merged, a
+	 * noteId present in both is taken from the notes of the user.
+	 */
+	public NotePage getNotePageWithArchive(final String userId, final String after, final int limit)
+	{
+		int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+		Integer afterNoteId = NoteCursor.decode(after);
+
+		Iterator<Note> hot = noteRepository.findNotesAfter(userId, afterNoteId, pageSize + 1).iterator();
+		Iterator<Note> cold = noteArchiveRepository.findNotesAfter(userId, afterNoteId, pageSize + 1).iterator();
+
+		List<Note> notes = new ArrayList<>(pageSize + 1);
+		Note nextHot = hot.hasNext() ? hot.next() : null;
+		Note nextCold = cold.hasNext() ? cold.next() : null;
+		while (notes.size() <= pageSize && (nextHot != null || nextCold != null))
+		{
+			if (nextCold == null || (nextHot != null && nextHot.getNoteId() <= nextCold.getNoteId()))
+			{
+				if (nextCold != null && nextCold.getNoteId() == nextHot.getNoteId())
+				{
+					nextCold = cold.hasNext() ? cold.next() : null;
+				}
+				notes.add(nextHot);
+				nextHot = hot.hasNext() ? hot.next() : null;
+			}
+			else
+			{
+				notes.add(nextCold);
+				nextCold = cold.hasNext() ? cold.next() : null;
+			}
+		}
+		noteReferences.resolve(notes);
+
+		if (notes.size() > pageSize)
+		{
+			notes = new ArrayList<>(notes.subList(0, pageSize));
+			return new NotePage(notes, NoteCursor.encode(notes.get(pageSize - 1).getNoteId()));
+		}
+		return new NotePage(notes, null);
+	}
+
+	/*
+	 * This method should be used to find where an export of at most limit notes after
+	 * the cursor ends. Returns the cursor of its last note, which is where the next
+	 * export starts, or null if the export runs to the last note of the user. With
+	 * includeArchived the archived notes count as well, a noteId in both once.
+	 */
+	public String getExportEnd(final String userId, final String after, final int limit, final boolean includeArchived)
+	{
+		Integer afterNoteId = NoteCursor.decode(after);
+		int exportSize = Math.max(1, limit);
+
+		noteWriteBehind.flush();
+
+		if (!includeArchived)
+		{
+			Integer lastNoteId = noteRepository.findPageEnd(userId, afterNoteId, exportSize);
+
+			return lastNoteId == null ? null : NoteCursor.encode(lastNoteId);
+		}
+
+		// the first exportSize + 1 noteIds of the merged export are among the first exportSize + 1 of either
+		TreeSet<Integer> noteIds = new TreeSet<>(noteRepository.findNoteIdsAfter(userId, afterNoteId, exportSize + 1));
+		noteIds.addAll(noteArchiveRepository.findNoteIdsAfter(userId, afterNoteId, exportSize + 1));
+
+		if (noteIds.size() <= exportSize)
+		{
+			return null;
+		}
+		Iterator<Integer> exported = noteIds.iterator();
+		for (int i = 1; i < exportSize; i++)
+		{
+			exported.next();
+		}
+		return NoteCursor.encode(exported.next());
+	}
+
+	/*
+	 * This method should be used to export the notes of a user in noteId order, from the
+	 * cursor after up to and including the cursor until (to the last note when null).
+	 * The notes are read from a Mongo cursor and handed to the consumer in batches of
+	 * EXPORT_BATCH_SIZE with their references resolved, so memory use does not grow with
+	 * the number of notes. The cache is bypassed. This runs on the async thread of the
+	 * streaming response, outside the request: lookups use the service credential of
+	 * NoteReferences, and a reference which cannot be resolved is exported as stored
+	 * instead of breaking off the download. With includeArchived the archived notes are
+	 * read from a second cursor and merged in like getNotePageWithArchive does. Returns
+	 * the number of notes exported.
+	 */
+	public long exportNotes(final String userId, final String after, final String until, final boolean includeArchived,
+			final Consumer<Note> consumer)
+	{
+		Integer afterNoteId = NoteCursor.decode(after);
+		Integer lastNoteId = NoteCursor.decode(until);
+		List<Note> batch = new ArrayList<>(EXPORT_BATCH_SIZE);
+		long exported = 0;
+
+		noteWriteBehind.flush();
+
+		try (CloseableIterator<Note> hot = noteRepository.streamNotes(userId, afterNoteId, lastNoteId);
+				CloseableIterator<Note> cold = includeArchived ? noteArchiveRepository.streamNotes(userId, afterNoteId, lastNoteId) : null)
+		{
+			Note nextHot = next(hot);
+			Note nextCold = next(cold);
+
+			while (nextHot != null || nextCold != null)
+			{
+				Note note = nextHot;
+				if (nextCold == null || (nextHot != null && nextHot.getNoteId() <= nextCold.getNoteId()))
+				{
+					nextHot = next(hot);
+				}
+				else
+				{
+					note = nextCold;
+				}
+				// a noteId present in both, or archived more than once, is exported once
+				while (nextCold != null && nextCold.getNoteId() == note.getNoteId())
+				{
+					nextCold = next(cold);
+				}
+				batch.add(note);
+
+				if (batch.size() == EXPORT_BATCH_SIZE || (nextHot == null && nextCold == null))
+				{
+					for (Note resolved : noteReferences.resolve(batch))
+					{
+						consumer.accept(resolved);
+					}
+					exported += batch.size();
+					batch.clear();
+				}
+			}
+		}
+		return exported;
+	}
+
+	private static Note next(final CloseableIterator<Note> notes)
+	{
+		return notes != null && notes.hasNext() ? notes.next() : null;
 	}
 
 }
@@ -0,0 +1,122 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.model.NoteStats;
+import com.stackroute.keepnote.repository.NoteRepository;
+import com.stackroute.keepnote.repository.NoteStatsRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.Objects;
+import java.util.UUID;
+
+/*
+ * Recounts the notes of every user every keepnote.note.stats.reconcile-interval-ms and
+ * overwrites the counters with the result, which also starts the counters of users
+ * whose notes predate them. The counters are moved with $inc right after each note
+ * write, so a writer failing in between or a category removed by the outbox worker
+ * lets them drift until then.
+ *
+ * Only the instance holding the lease recounts, renewing it as it goes. A user whose
+ * notes are written while being recounted is counted again, see reconcile(userId).
+ */
+@Component
+public class NoteStatsReconciliation {
+
+	private static final int MAX_ATTEMPTS = 3;
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	private final NoteRepository noteRepository;
+
+	private final NoteStatsRepository noteStatsRepository;
+
+	private final long leaseMillis;
+
+	private final String owner = UUID.randomUUID().toString();
+
+	@Autowired
+	public NoteStatsReconciliation(NoteRepository noteRepository, NoteStatsRepository noteStatsRepository,
+			@Value("${keepnote.note.stats.lease-ms:600000}") long leaseMillis) {
+		this.noteRepository = noteRepository;
+		this.noteStatsRepository = noteStatsRepository;
+		this.leaseMillis = leaseMillis;
+	}
+
+	/*
+	 * Recounts all users and returns the number of users whose counters had drifted.
+	 * Stops when the lease is held or taken over by another instance.
+	 */
+	@Scheduled(fixedDelayString = "${keepnote.note.stats.reconcile-interval-ms:86400000}",
+			initialDelayString = "${keepnote.note.stats.reconcile-interval-ms:86400000}")
+	public int reconcile()
+	{
+		int drifted = 0;
+		long renewAt = 0;
+
+		for (String userId : noteRepository.findUserIds())
+		{
+			long now = System.currentTimeMillis();
+			if (now >= renewAt)
+			{
+				if (!noteStatsRepository.acquireLease(owner, new Date(now), new Date(now + leaseMillis)))
+				{
+					break;
+				}
+				renewAt = now + leaseMillis / 2;
+			}
+
+			if (reconcile(userId))
+			{
+				drifted++;
+			}
+		}
+
+		if (drifted > 0)
+		{
+			LOG.info("Corrected the note stats of " + drifted + " users");
+		}
+		return drifted;
+	}
+
+	/*
+	 * Recounts one user, returns true if its counters had drifted. The version of the
+	 * user's notes is read before the count and again after the overwrite, if a write
+	 * moved it in between its $inc may have been overwritten and the user is counted
+	 * again, up to MAX_ATTEMPTS times. A write which lands before the count but moves
+	 * the counters only after the overwrite is counted twice until the next run.
+	 */
+	public boolean reconcile(final String userId)
+	{
+		for (int attempt = 1; ; attempt++)
+		{
+			Long version = noteRepository.findVersion(userId);
+			NoteStats stored = noteStatsRepository.findStats(userId);
+			NoteStats counted = noteRepository.countNotes(userId);
+
+			counted.setReconciledDate(new Date());
+			noteStatsRepository.replace(counted);
+
+			if (!Objects.equals(version, noteRepository.findVersion(userId)))
+			{
+				if (attempt < MAX_ATTEMPTS)
+				{
+					continue;
+				}
+				LOG.debug("Notes of " + userId + " kept changing while recounted, left to the next run");
+				return false;
+			}
+
+			if (stored != null && !counted.sameCounts(stored))
+			{
+				LOG.warn("Note stats of " + userId + " had drifted to " + stored + ", counted " + counted);
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,649 @@
+package com.stackroute.keepnote.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.stackroute.keepnote.exception.NoteWriteQueueFullException;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteDurability;
+import com.stackroute.keepnote.repository.NoteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Optional write-behind queue for createNote and updateNote, for clients which autosave
+ * the same notes many times a second. Queued writes are kept per user and noteId, so a
+ * note saved again before it is flushed is only written with its latest content. Every
+ * keepnote.note.write-behind.flush-interval-ms, or as soon as max-batch notes are
+ * pending, the pending notes of each user are written with one $push of the new notes
+ * and one $set of the updated ones.
+ *
+ * When a write is answered depends on its NoteDurability. Queued writes are not visible
+ * to reads before they are flushed, deletes and conditional writes flush the queue
+ * first. Once capacity notes are pending or being written, writers wait up to
+ * offer-timeout-ms for room and then get a NoteWriteQueueFullException. A batch which
+ * fails is retried with the next flush, a write which failed max-attempts flushes is
+ * dropped and logged with its content.
+ *
+ * With a journal-dir every queued write is appended to the journal, which is replayed
+ * on startup. A segment is only deleted after its writes are flushed, so a crash right
+ * after a flush writes them a second time.
+ */
+@Component
+public class NoteWriteBehind {
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	private final NoteRepository noteRepository;
+
+	private final NoteSearchService noteSearchService;
+
+	private final NoteCache noteCache;
+
+	private final ObjectMapper objectMapper;
+
+	private final boolean enabled;
+
+	private final NoteDurability defaultDurability;
+
+	private final int capacity;
+
+	private final long offerTimeoutMillis;
+
+	private final long flushIntervalMillis;
+
+	private final int maxBatch;
+
+	private final long ackTimeoutMillis;
+
+	private final int maxAttempts;
+
+	private final String journalDir;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notFull = lock.newCondition();
+
+	/* serializes flushes, so the writes of a note reach Mongo in order */
+	private final ReentrantLock flushLock = new ReentrantLock();
+
+	private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor();
+
+	/* pending writes by userId and noteId, guarded by lock */
+	private Map<String, Map<Integer, PendingWrite>> pending = new LinkedHashMap<>();
+
+	/* pending writes plus the writes of the batch being flushed, guarded by lock */
+	private int queued;
+
+	/* guarded by lock */
+	private boolean flushRequested;
+
+	private NoteWriteJournal journal;
+
+	@Autowired
+	public NoteWriteBehind(NoteRepository noteRepository, NoteSearchService noteSearchService, NoteCache noteCache,
+			ObjectMapper objectMapper,
+			@Value("${keepnote.note.write-behind.enabled:false}") boolean enabled,
+			@Value("${keepnote.note.write-behind.durability:acknowledged}") String defaultDurability,
+			@Value("${keepnote.note.write-behind.capacity:10000}") int capacity,
+			@Value("${keepnote.note.write-behind.offer-timeout-ms:200}") long offerTimeoutMillis,
+			@Value("${keepnote.note.write-behind.flush-interval-ms:5}") long flushIntervalMillis,
+			@Value("${keepnote.note.write-behind.max-batch:500}") int maxBatch,
+			@Value("${keepnote.note.write-behind.ack-timeout-ms:10000}") long ackTimeoutMillis,
+			@Value("${keepnote.note.write-behind.max-attempts:10}") int maxAttempts,
+			@Value("${keepnote.note.write-behind.journal-dir:}") String journalDir) {
+		this.noteRepository = noteRepository;
+		this.noteSearchService = noteSearchService;
+		this.noteCache = noteCache;
+		this.objectMapper = objectMapper;
+		this.enabled = enabled;
+		this.defaultDurability = NoteDurability.parse(defaultDurability);
+		this.capacity = capacity;
+		this.offerTimeoutMillis = offerTimeoutMillis;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.maxBatch = maxBatch;
+		this.ackTimeoutMillis = ackTimeoutMillis;
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.journalDir = journalDir;
+	}
+
+	@PostConstruct
+	public void start() throws IOException
+	{
+		if (!enabled)
+		{
+			return;
+		}
+
+		if (journalDir != null && !journalDir.trim().isEmpty())
+		{
+			journal = new NoteWriteJournal(Paths.get(journalDir));
+			replay(journal.readClosedSegments());
+		}
+
+		flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+		LOG.info("Write-behind enabled, flushing every " + flushIntervalMillis + " ms, " + queued + " notes replayed");
+	}
+
+	@PreDestroy
+	public void close() throws IOException
+	{
+		flusher.shutdown();
+		flush();
+
+		if (journal != null)
+		{
+			journal.close();
+		}
+	}
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/*
+	 * The durability a write is answered with: the requested one, the configured one if
+	 * none was requested. Always ACKNOWLEDGED while the queue is disabled, and JOURNALED
+	 * becomes ACKNOWLEDGED without a journal.
+	 */
+	public NoteDurability resolve(final NoteDurability requested)
+	{
+		NoteDurability durability = requested != null ? requested : defaultDurability;
+
+		if (!enabled || (durability == NoteDurability.JOURNALED && journal == null))
+		{
+			return NoteDurability.ACKNOWLEDGED;
+		}
+		return durability;
+	}
+
+	/*
+	 * Queues a new note. Returns false if its noteId is taken by a queued note, with
+	 * ACKNOWLEDGED also if it is taken in Mongo.
+	 */
+	public boolean create(final String userId, final Note note, final NoteDurability durability)
+	{
+		return enqueue(userId, note, true, durability);
+	}
+
+	/*
+	 * Queues the new content of a note. With ACKNOWLEDGED returns false if the note
+	 * does not exist, otherwise a missing note is only logged when it is flushed.
+	 */
+	public boolean update(final String userId, final Note note, final NoteDurability durability)
+	{
+		return enqueue(userId, note, false, durability);
+	}
+
+	/*
+	 * Writes all pending notes, user by user, on the calling thread. Waits for a flush
+	 * which is running already. The journal is rotated before the pending notes are
+	 * taken, if that fails they stay pending. The journal segments are deleted once a
+	 * flush has written or dropped every write they hold.
+	 */
+	public void flush()
+	{
+		if (!enabled)
+		{
+			return;
+		}
+
+		flushLock.lock();
+		try
+		{
+			Map<String, Map<Integer, PendingWrite>> batch;
+			List<Path> segments = Collections.emptyList();
+
+			lock.lock();
+			try
+			{
+				flushRequested = false;
+				if (pending.isEmpty())
+				{
+					return;
+				}
+				if (journal != null)
+				{
+					segments = journal.rotate();
+				}
+
+				batch = pending;
+				pending = new LinkedHashMap<>();
+			}
+			catch (IOException exception)
+			{
+				throw new UncheckedIOException(exception);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+
+			boolean complete = true;
+			for (Map.Entry<String, Map<Integer, PendingWrite>> writes : batch.entrySet())
+			{
+				complete &= write(writes.getKey(), writes.getValue().values());
+			}
+
+			if (complete && journal != null)
+			{
+				journal.delete(segments);
+			}
+		}
+		catch (IOException exception)
+		{
+			LOG.error("Could not delete flushed journal segments", exception);
+		}
+		finally
+		{
+			flushLock.unlock();
+		}
+	}
+
+	private void flushQuietly()
+	{
+		try
+		{
+			flush();
+		}
+		catch (RuntimeException exception)
+		{
+			// a failing run must not cancel the schedule
+			LOG.error("Write-behind flush failed", exception);
+		}
+	}
+
+	private boolean enqueue(final String userId, final Note note, final boolean create, final NoteDurability durability)
+	{
+		CompletableFuture<Long> written = durability == NoteDurability.ACKNOWLEDGED ? new CompletableFuture<>() : null;
+		long ticket = 0;
+
+		lock.lock();
+		try
+		{
+			PendingWrite previous = awaitRoom(userId, note.getNoteId());
+
+			if (create && previous != null)
+			{
+				return false;
+			}
+			if (journal != null)
+			{
+				ticket = journal.append(journalEntry(userId, note, create));
+			}
+
+			if (previous == null)
+			{
+				previous = new PendingWrite(note, create);
+				pending.computeIfAbsent(userId, key -> new LinkedHashMap<>()).put(note.getNoteId(), previous);
+				queued++;
+			}
+			else
+			{
+				// the note keeps being created if it is not written yet
+				previous.note = note;
+			}
+
+			if (written != null)
+			{
+				previous.waiters.add(written);
+			}
+			if (queued >= maxBatch && !flushRequested)
+			{
+				flushRequested = true;
+				flusher.execute(this::flushQuietly);
+			}
+		}
+		catch (IOException exception)
+		{
+			throw new UncheckedIOException(exception);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		if (durability == NoteDurability.JOURNALED && journal != null)
+		{
+			try
+			{
+				journal.sync(ticket);
+			}
+			catch (IOException exception)
+			{
+				throw new UncheckedIOException(exception);
+			}
+		}
+		if (written != null)
+		{
+			Long changeSeq = await(written, userId, note.getNoteId());
+			note.setChangeSeq(changeSeq);
+			return changeSeq != null;
+		}
+		return true;
+	}
+
+	/*
+	 * Returns the pending write of the note, waiting for room in the queue first if
+	 * there is none. Called with lock held.
+	 */
+	private PendingWrite awaitRoom(final String userId, final int noteId)
+	{
+		long remaining = TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+		PendingWrite previous = pendingWrite(userId, noteId);
+
+		try
+		{
+			while (previous == null && queued >= capacity)
+			{
+				if (remaining <= 0)
+				{
+					throw new NoteWriteQueueFullException("Write-behind queue full with " + queued + " notes");
+				}
+				remaining = notFull.awaitNanos(remaining);
+				previous = pendingWrite(userId, noteId);
+			}
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+			throw new NoteWriteQueueFullException("Interrupted while waiting for the write-behind queue");
+		}
+		return previous;
+	}
+
+	private PendingWrite pendingWrite(final String userId, final int noteId)
+	{
+		Map<Integer, PendingWrite> writes = pending.get(userId);
+
+		return writes == null ? null : writes.get(noteId);
+	}
+
+	private Long await(final CompletableFuture<Long> written, final String userId, final int noteId)
+	{
+		try
+		{
+			return written.get(ackTimeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		catch (ExecutionException exception)
+		{
+			if (exception.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException) exception.getCause();
+			}
+			throw new IllegalStateException(exception.getCause());
+		}
+		catch (TimeoutException exception)
+		{
+			throw new QueryTimeoutException("Note " + noteId + " of " + userId + " not flushed after " + ackTimeoutMillis + " ms");
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+			throw new QueryTimeoutException("Interrupted while waiting for note " + noteId + " of " + userId);
+		}
+	}
+
+	/*
+	 * Writes the new notes of the user and then the updated ones. Returns false if a
+	 * part failed and was queued again. The writes leave the count of queued notes
+	 * whatever happens, those queued again are counted again.
+	 */
+	private boolean write(final String userId, final Collection<PendingWrite> writes)
+	{
+		List<PendingWrite> creates = new ArrayList<>();
+		List<PendingWrite> updates = new ArrayList<>();
+
+		for (PendingWrite write : writes)
+		{
+			(write.create ? creates : updates).add(write);
+		}
+
+		try
+		{
+			boolean complete = creates.isEmpty() || write(userId, creates, true);
+			return (updates.isEmpty() || write(userId, updates, false)) && complete;
+		}
+		finally
+		{
+			lock.lock();
+			try
+			{
+				queued -= writes.size();
+				notFull.signalAll();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+
+	private boolean write(final String userId, final List<PendingWrite> writes, final boolean create)
+	{
+		List<Note> notes = new ArrayList<>(writes.size());
+		for (PendingWrite write : writes)
+		{
+			notes.add(write.note);
+		}
+
+		Set<Integer> written;
+		try
+		{
+			written = new HashSet<>(create ? insertNotes(userId, notes) : noteRepository.updateNotes(userId, notes));
+		}
+		catch (RuntimeException exception)
+		{
+			LOG.error("Flush of " + notes.size() + " notes of " + userId + " failed", exception);
+			noteCache.invalidate(userId);
+			return !requeue(userId, writes, exception);
+		}
+
+		noteCache.invalidate(userId);
+
+		for (PendingWrite write : writes)
+		{
+			Note note = write.note;
+			boolean done = written.contains(note.getNoteId());
+
+			if (done)
+			{
+				noteSearchService.indexNote(userId, note);
+			}
+			else
+			{
+				LOG.info("Dropped queued " + (create ? "create" : "update") + " of note " + note.getNoteId() + " of " + userId
+						+ (create ? ", noteId taken" : ", note not found"));
+			}
+			for (CompletableFuture<Long> waiter : write.waiters)
+			{
+				waiter.complete(done ? note.getChangeSeq() : null);
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * One $push for all new notes, note by note if some noteId is taken.
+	 */
+	private List<Integer> insertNotes(final String userId, final List<Note> notes)
+	{
+		List<Integer> inserted = new ArrayList<>(notes.size());
+
+		if (noteRepository.insertNotes(userId, notes))
+		{
+			for (Note note : notes)
+			{
+				inserted.add(note.getNoteId());
+			}
+			return inserted;
+		}
+
+		for (Note note : notes)
+		{
+			if (noteRepository.insertNote(userId, note))
+			{
+				inserted.add(note.getNoteId());
+			}
+		}
+		return inserted;
+	}
+
+	/*
+	 * Queues failed writes again, a note queued again meanwhile keeps its newer
+	 * content. Their waiters get the failure, the writes are still retried until they
+	 * failed maxAttempts flushes and are dropped. Returns true if any write was queued
+	 * again.
+	 */
+	private boolean requeue(final String userId, final List<PendingWrite> writes, final RuntimeException failure)
+	{
+		boolean requeued = false;
+
+		lock.lock();
+		try
+		{
+			Map<Integer, PendingWrite> newer = pending.computeIfAbsent(userId, key -> new LinkedHashMap<>());
+
+			for (PendingWrite write : writes)
+			{
+				for (CompletableFuture<Long> waiter : write.waiters)
+				{
+					waiter.completeExceptionally(failure);
+				}
+				write.waiters.clear();
+
+				PendingWrite later = newer.get(write.note.getNoteId());
+				if (later != null)
+				{
+					later.create |= write.create;
+				}
+				else if (++write.attempts >= maxAttempts)
+				{
+					LOG.error("Dropped queued " + (write.create ? "create" : "update") + " of note " + write.note.getNoteId()
+							+ " of " + userId + " after " + write.attempts + " failed flushes: " + deadLetter(userId, write));
+				}
+				else
+				{
+					newer.put(write.note.getNoteId(), write);
+					queued++;
+					requeued = true;
+				}
+			}
+			if (newer.isEmpty())
+			{
+				pending.remove(userId);
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return requeued;
+	}
+
+	/*
+	 * The journal entry of a dropped write, so it can be replayed by hand.
+	 */
+	private String deadLetter(final String userId, final PendingWrite write)
+	{
+		try
+		{
+			return journalEntry(userId, write.note, write.create);
+		}
+		catch (IOException | RuntimeException exception)
+		{
+			return String.valueOf(write.note);
+		}
+	}
+
+	/*
+	 * Queues the writes of the journal again in their original order, torn or
+	 * unreadable lines are skipped.
+	 */
+	private void replay(final List<String> lines)
+	{
+		for (String line : lines)
+		{
+			try
+			{
+				JsonNode entry = objectMapper.readTree(line);
+				String userId = entry.get("userId").asText();
+				Note note = objectMapper.treeToValue(entry.get("note"), Note.class);
+				boolean create = entry.get("create").asBoolean();
+
+				Map<Integer, PendingWrite> writes = pending.computeIfAbsent(userId, key -> new LinkedHashMap<>());
+				PendingWrite previous = writes.get(note.getNoteId());
+
+				if (previous == null)
+				{
+					writes.put(note.getNoteId(), new PendingWrite(note, create));
+					queued++;
+				}
+				else
+				{
+					previous.note = note;
+					previous.create |= create;
+				}
+			}
+			catch (IOException | RuntimeException exception)
+			{
+				LOG.warn("Skipping unreadable journal entry: " + exception.getMessage());
+			}
+		}
+	}
+
+	private String journalEntry(final String userId, final Note note, final boolean create) throws IOException
+	{
+		ObjectNode entry = objectMapper.createObjectNode();
+		entry.put("userId", userId);
+		entry.put("create", create);
+		entry.set("note", objectMapper.valueToTree(note));
+
+		return objectMapper.writeValueAsString(entry);
+	}
+
+	private static final class PendingWrite {
+
+		Note note;
+
+		boolean create;
+
+		/* failed flushes so far */
+		int attempts;
+
+		final List<CompletableFuture<Long>> waiters = new ArrayList<>(1);
+
+		PendingWrite(final Note note, final boolean create) {
+			this.note = note;
+			this.create = create;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package com.stackroute.keepnote.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Append-only journal of the writes queued by NoteWriteBehind, one line per write, in
+ * segment files journal-<n>.log. The open segment is closed by rotate when its writes
+ * are taken for a flush, and closed segments are deleted once their writes have been
+ * written to Mongo. Segments left over from a previous run are kept until then too.
+ */
+final class NoteWriteJournal implements Closeable {
+
+	private static final String PREFIX = "journal-";
+
+	private static final String SUFFIX = ".log";
+
+	private final Path dir;
+
+	/* closed segments whose writes are not known to be flushed, oldest first */
+	private final List<Path> closed = new ArrayList<>();
+
+	private final Object syncMonitor = new Object();
+
+	private Path segment;
+
+	private FileChannel channel;
+
+	private long nextSegment;
+
+	private long appended;
+
+	/* guarded by syncMonitor */
+	private long synced;
+
+	NoteWriteJournal(final Path dir) throws IOException {
+		this.dir = dir;
+
+		Files.createDirectories(dir);
+		try (Stream<Path> files = Files.list(dir))
+		{
+			closed.addAll(files.filter(NoteWriteJournal::isSegment)
+					.sorted(Comparator.comparingLong(NoteWriteJournal::segmentNumber))
+					.collect(Collectors.toList()));
+		}
+		nextSegment = closed.isEmpty() ? 0 : segmentNumber(closed.get(closed.size() - 1)) + 1;
+		open();
+	}
+
+	/*
+	 * Lines of the segments left over from a previous run, oldest first. The last line
+	 * of a segment may be torn by a crash.
+	 */
+	synchronized List<String> readClosedSegments() throws IOException
+	{
+		List<String> lines = new ArrayList<>();
+		for (Path path : closed)
+		{
+			lines.addAll(Files.readAllLines(path, StandardCharsets.UTF_8));
+		}
+		return lines;
+	}
+
+	/*
+	 * Appends a line without forcing it to disk, returns the ticket to pass to sync.
+	 */
+	synchronized long append(final String line) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+		return ++appended;
+	}
+
+	/*
+	 * Forces the journal to disk up to the line of the given ticket. Callers arriving
+	 * while a force is running share the next one, so concurrent writers are committed
+	 * in groups.
+	 */
+	void sync(final long ticket) throws IOException
+	{
+		synchronized (syncMonitor)
+		{
+			if (synced >= ticket)
+			{
+				return;
+			}
+
+			FileChannel current;
+			long target;
+			synchronized (this)
+			{
+				current = channel;
+				target = appended;
+			}
+
+			try
+			{
+				current.force(false);
+			}
+			catch (ClosedChannelException exception)
+			{
+				// rotated meanwhile, rotate forces a segment before closing it
+			}
+			synced = Math.max(synced, target);
+		}
+	}
+
+	/*
+	 * Closes the open segment and starts a new one. Returns all closed segments, which
+	 * hold every write appended so far.
+	 */
+	synchronized List<Path> rotate() throws IOException
+	{
+		channel.force(false);
+		channel.close();
+		closed.add(segment);
+		open();
+		return new ArrayList<>(closed);
+	}
+
+	/*
+	 * Deletes closed segments whose writes have all been written to Mongo.
+	 */
+	synchronized void delete(final List<Path> segments) throws IOException
+	{
+		for (Path path : segments)
+		{
+			Files.deleteIfExists(path);
+			closed.remove(path);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		channel.close();
+		if (Files.size(segment) == 0)
+		{
+			Files.delete(segment);
+		}
+	}
+
+	private void open() throws IOException
+	{
+		segment = dir.resolve(PREFIX + nextSegment++ + SUFFIX);
+		channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	private static boolean isSegment(final Path path)
+	{
+		String name = path.getFileName().toString();
+
+		return name.startsWith(PREFIX) && name.endsWith(SUFFIX)
+				&& name.substring(PREFIX.length(), name.length() - SUFFIX.length()).matches("\\d+");
+	}
+
+	private static long segmentNumber(final Path path)
+	{
+		String name = path.getFileName().toString();
+
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+}
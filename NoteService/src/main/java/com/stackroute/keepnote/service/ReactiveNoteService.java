@@ -0,0 +1,34 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteSummary;
+import com.stackroute.keepnote.model.NoteUser;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/*
+ * Non-blocking variant of NoteService for the "reactive" profile. Lookups complete
+ * empty where NoteService returns null or throws NoteNotFoundExeption, conflicts are
+ * signalled as OptimisticLockingFailureException errors.
+ */
+public interface ReactiveNoteService {
+
+    Mono<Boolean> createNote(Note note);
+
+    Mono<Boolean> deleteNote(String userId, int noteId, Long ifMatchVersion);
+
+    Mono<Boolean> deleteAllNotes(String userId);
+
+    Mono<Note> updateNote(Note note, int id, String userId, Long ifMatchVersion);
+
+    Mono<Note> getNoteByNoteId(String userId, int noteId);
+
+    Mono<NoteUser> getVersionedNotes(String userId);
+
+    Mono<List<Note>> getAllNotesWithArchive(String userId);
+
+    Mono<Long> getNotesVersion(String userId);
+
+    Mono<List<NoteSummary>> getNoteSummaries(String userId);
+}
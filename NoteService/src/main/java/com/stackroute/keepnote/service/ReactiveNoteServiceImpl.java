@@ -0,0 +1,258 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteSummary;
+import com.stackroute.keepnote.model.NoteUser;
+import com.stackroute.keepnote.repository.NoteArchiveRepository;
+import com.stackroute.keepnote.repository.ReactiveNoteRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * NoteServiceImpl on the reactive Mongo driver. No request thread waits for Mongo,
+ * only the noteId allocation, which is shared with the servlet stack and still
+ * blocking, is moved to the elastic scheduler. So is the resolution of category and
+ * reminder references, when notes keep references only. Writes invalidate the
+ * NoteCache and update the search index like NoteServiceImpl does, after switching to
+ * the elastic scheduler as well: Lucene writes block on I/O and on the index lock
+ * while a rebuild runs, which must not stall the event loop.
+ *
+ * Notes moved out by NoteArchiver are reached like on the servlet stack: deletes fall
+ * through to the archive, archived noteIds stay taken and getAllNotesWithArchive
+ * lists them. NoteArchiveRepository is blocking and called on the elastic scheduler.
+ * Writes are never queued, so keepnote.note.write-behind.enabled is refused.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveNoteServiceImpl implements ReactiveNoteService {
+
+	private static final int MAX_ALLOCATION_ATTEMPTS = 5;
+
+	@Autowired
+	private ReactiveNoteRepository noteRepository;
+
+	@Autowired
+	private NoteIdAllocator noteIdAllocator;
+
+	@Autowired
+	private NoteSearchService noteSearchService;
+
+	@Autowired
+	private NoteCache noteCache;
+
+	@Autowired
+	private NoteReferences noteReferences;
+
+	@Autowired
+	private NoteArchiveRepository noteArchiveRepository;
+
+	public ReactiveNoteServiceImpl(ReactiveNoteRepository noteRepository, NoteIdAllocator noteIdAllocator,
+			NoteSearchService noteSearchService, NoteCache noteCache, NoteReferences noteReferences,
+			NoteArchiveRepository noteArchiveRepository,
+			@Value("${keepnote.note.storage:embedded}") String storage,
+			@Value("${keepnote.note.write-behind.enabled:false}") boolean writeBehind) {
+
+		if ("bucketed".equalsIgnoreCase(storage))
+		{
+			throw new IllegalStateException("The reactive profile supports embedded note storage only");
+		}
+		if (writeBehind)
+		{
+			throw new IllegalStateException("The reactive profile does not queue writes, disable keepnote.note.write-behind.enabled");
+		}
+		this.noteRepository = noteRepository;
+		this.noteIdAllocator = noteIdAllocator;
+		this.noteSearchService = noteSearchService;
+		this.noteCache = noteCache;
+		this.noteReferences = noteReferences;
+		this.noteArchiveRepository = noteArchiveRepository;
+	}
+
+	public Mono<Boolean> createNote(final Note note)
+	{
+		String userId = note.getNoteCreatedBy();
+
+		noteReferences.strip(note);
+
+		Mono<Boolean> created = note.getNoteId() > 0
+				? archived(userId, note.getNoteId())
+						.flatMap(archived -> archived ? Mono.just(false) : noteRepository.insertNote(userId, note))
+				: Mono.fromCallable(() -> {
+					note.setNoteId(noteIdAllocator.nextNoteId(userId));
+					return note;
+				}).subscribeOn(Schedulers.elastic()).flatMap(allocated -> insertAllocated(userId, allocated, 1));
+
+		return created
+				.publishOn(Schedulers.elastic())
+				.doOnNext(inserted -> {
+					if (inserted)
+					{
+						noteCache.invalidate(userId);
+						noteSearchService.indexNote(userId, note);
+					}
+				});
+	}
+
+	/*
+	 * Like NoteServiceImpl a server allocated noteId found taken, by a note or by an
+	 * archived note, is skipped and the note retried with the next one.
+	 */
+	private Mono<Boolean> insertAllocated(final String userId, final Note note, final int attempt)
+	{
+		return archived(userId, note.getNoteId())
+				.flatMap(archived -> archived ? Mono.just(false) : noteRepository.insertNote(userId, note))
+				.flatMap(inserted -> {
+					if (inserted || attempt == MAX_ALLOCATION_ATTEMPTS)
+					{
+						return Mono.just(inserted);
+					}
+					return Mono.fromCallable(() -> {
+						noteIdAllocator.skipTaken(userId);
+						note.setNoteId(noteIdAllocator.nextNoteId(userId));
+						return note;
+					}).subscribeOn(Schedulers.elastic()).flatMap(retried -> insertAllocated(userId, retried, attempt + 1));
+				});
+	}
+
+	/*
+	 * Like NoteServiceImpl an unconditional delete removes the archived copies of the
+	 * noteId as well, and succeeds if there were any.
+	 */
+	public Mono<Boolean> deleteNote(final String userId, final int noteId, final Long ifMatchVersion)
+	{
+		Mono<Boolean> archived = ifMatchVersion != null
+				? Mono.just(false)
+				: Mono.fromCallable(() -> noteArchiveRepository.deleteNote(userId, noteId)).subscribeOn(Schedulers.elastic());
+
+		return archived.flatMap(archivedDeleted -> noteRepository.deleteNote(userId, noteId, ifMatchVersion)
+				.publishOn(Schedulers.elastic())
+				.map(deleted -> {
+					if (deleted)
+					{
+						noteCache.invalidate(userId);
+						noteSearchService.removeNote(userId, noteId);
+					}
+					return deleted || archivedDeleted;
+				}));
+	}
+
+	public Mono<Boolean> deleteAllNotes(final String userId)
+	{
+		Mono<Boolean> archived = Mono.fromCallable(() -> noteArchiveRepository.deleteAllNotes(userId) > 0)
+				.subscribeOn(Schedulers.elastic());
+
+		return archived.flatMap(archivedDeleted -> noteRepository.deleteAllNotes(userId)
+				.publishOn(Schedulers.elastic())
+				.map(deleted -> {
+					if (deleted)
+					{
+						noteCache.invalidate(userId);
+						noteSearchService.removeAllNotes(userId);
+					}
+					return deleted || archivedDeleted;
+				}));
+	}
+
+	/*
+	 * Completes empty if the note was not found.
+	 */
+	public Mono<Note> updateNote(final Note note, final int id, final String userId, final Long ifMatchVersion)
+	{
+		note.setNoteId(id);
+		noteReferences.strip(note);
+
+		return noteRepository.updateNote(userId, note, ifMatchVersion)
+				.filter(updated -> updated)
+				.publishOn(Schedulers.elastic())
+				.map(updated -> {
+					noteCache.invalidate(userId);
+					noteSearchService.indexNote(userId, note);
+					return note;
+				});
+	}
+
+	public Mono<Note> getNoteByNoteId(final String userId, final int noteId)
+	{
+		return noteRepository.findNote(userId, noteId)
+				.flatMap(note -> resolve(Collections.singletonList(note)).thenReturn(note));
+	}
+
+	/*
+	 * The notes and the version are read with a single findById, so they always belong
+	 * together.
+	 */
+	public Mono<NoteUser> getVersionedNotes(final String userId)
+	{
+		return noteRepository.findById(userId)
+				.map(noteUser -> {
+					if (noteUser.getVersion() == null)
+					{
+						noteUser.setVersion(0L);
+					}
+					return noteUser;
+				})
+				.flatMap(noteUser -> resolve(noteUser.getNotes()).thenReturn(noteUser));
+	}
+
+	/*
+	 * The notes of the user followed by its archived notes, see
+	 * NoteServiceImpl.getAllNotesWithArchive. Completes with an empty list if the user
+	 * has neither.
+	 */
+	public Mono<List<Note>> getAllNotesWithArchive(final String userId)
+	{
+		Mono<List<Note>> notes = getVersionedNotes(userId)
+				.map(noteUser -> noteUser.getNotes() != null ? noteUser.getNotes() : Collections.<Note>emptyList())
+				.defaultIfEmpty(Collections.emptyList());
+		Mono<List<Note>> archived = Mono.fromCallable(() -> noteArchiveRepository.findAllNotes(userId))
+				.subscribeOn(Schedulers.elastic())
+				.flatMap(this::resolve);
+
+		return notes.zipWith(archived, NoteServiceImpl::appendArchived);
+	}
+
+	public Mono<Long> getNotesVersion(final String userId)
+	{
+		return noteRepository.findVersion(userId);
+	}
+
+	public Mono<List<NoteSummary>> getNoteSummaries(final String userId)
+	{
+		Mono<List<NoteSummary>> summaries = noteRepository.findNoteSummaries(userId);
+
+		if (!noteReferences.isEnabled())
+		{
+			return summaries;
+		}
+		return summaries.publishOn(Schedulers.elastic()).map(noteReferences::resolveSummaries);
+	}
+
+	/*
+	 * True if an archived note holds the noteId, which keeps it taken like in
+	 * NoteServiceImpl.
+	 */
+	private Mono<Boolean> archived(final String userId, final int noteId)
+	{
+		return Mono.fromCallable(() -> !noteArchiveRepository.findArchivedNoteIds(userId, Collections.singletonList(noteId)).isEmpty())
+				.subscribeOn(Schedulers.elastic());
+	}
+
+	/*
+	 * Resolves the references of the notes off the event loop, the lookup blocks.
+	 */
+	private Mono<List<Note>> resolve(final List<Note> notes)
+	{
+		if (!noteReferences.isEnabled() || notes == null)
+		{
+			return Mono.justOrEmpty(notes);
+		}
+		return Mono.fromCallable(() -> noteReferences.resolve(notes)).subscribeOn(Schedulers.elastic());
+	}
+}
@@ -0,0 +1,157 @@
+package com.stackroute.keepnote.test.benchmark;
+
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteContent;
+import com.stackroute.keepnote.model.NoteUser;
+import com.stackroute.keepnote.repository.NoteContentConverters;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.mockito.Mockito.mock;
+
+/*
+ * Cost of the noteContent codec per content size, and the BSON size of a sample
+ * dataset of NoteUser documents with and without compression. The dataset mixes short
+ * notes with a few pasted documents, as seen in production.
+ * Run with: mvn test -Dtest=NoteContentBenchmark -Dbenchmark=true
+ */
+public class NoteContentBenchmark {
+
+    protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+    private static final int[] CONTENT_LENGTHS = {1024, 16 * 1024, 256 * 1024};
+    private static final int[] LEVELS = {1, 6};
+    private static final int ITERATIONS = 200;
+
+    private static final int USERS = 50;
+    private static final int NOTES_PER_USER = 200;
+    private static final int MIN_LENGTH = 4096;
+
+    private static final String[] WORDS = {"match", "scheduled", "meeting", "the", "of", "and", "report",
+            "quarterly", "budget", "team", "review", "notes", "action", "item", "deadline", "Mumbai",
+            "project", "customer", "release", "draft", "to", "for", "with", "shopping", "list", "milk"};
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("benchmark disabled, pass -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void codecCost() {
+
+        Random random = new Random(42);
+
+        for (int length : CONTENT_LENGTHS) {
+            String text = text(random, length);
+
+            for (int level : LEVELS) {
+                NoteContent compressed = NoteContent.compress(text, level);
+
+                long compress = time(() -> NoteContent.compress(text, level));
+                long decompress = time(() -> compressed.getText());
+
+                LOG.info(String.format("chars=%d level=%d ratio=%.2f compress=%.1f us/op decompress=%.1f us/op",
+                        length, level, (double) compressed.getCompressed().length / text.length(),
+                        compress / 1e3 / ITERATIONS, decompress / 1e3 / ITERATIONS));
+            }
+        }
+    }
+
+    @Test
+    public void storageSizeReport() {
+
+        MappingMongoConverter plain = converter(0);
+        MappingMongoConverter compressing = converter(MIN_LENGTH);
+        Random random = new Random(7);
+
+        long plainBytes = 0;
+        long compressedBytes = 0;
+        long largestPlain = 0;
+        long largestCompressed = 0;
+
+        for (int user = 0; user < USERS; user++) {
+            NoteUser noteUser = sampleUser(random, "user" + user);
+
+            long plainSize = bsonSize(plain, noteUser);
+            long compressedSize = bsonSize(compressing, noteUser);
+
+            plainBytes += plainSize;
+            compressedBytes += compressedSize;
+            largestPlain = Math.max(largestPlain, plainSize);
+            largestCompressed = Math.max(largestCompressed, compressedSize);
+        }
+
+        LOG.info(String.format("users=%d notes/user=%d min-length=%d", USERS, NOTES_PER_USER, MIN_LENGTH));
+        LOG.info(String.format("total plain=%d KB compressed=%d KB (%.1f%%)",
+                plainBytes / 1024, compressedBytes / 1024, 100.0 * compressedBytes / plainBytes));
+        LOG.info(String.format("largest document plain=%d KB compressed=%d KB",
+                largestPlain / 1024, largestCompressed / 1024));
+    }
+
+    private static MappingMongoConverter converter(int minLength) {
+
+        MongoCustomConversions conversions = new MongoCustomConversions(NoteContentConverters.converters(minLength, 6));
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        mappingContext.afterPropertiesSet();
+
+        MappingMongoConverter converter = new MappingMongoConverter(mock(DbRefResolver.class), mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        return converter;
+    }
+
+    private static long bsonSize(MappingMongoConverter converter, NoteUser noteUser) {
+        Document document = new Document();
+        converter.write(noteUser, document);
+        return new RawBsonDocument(document, new DocumentCodec()).getByteBuffer().remaining();
+    }
+
+    /*
+     * 2% of the notes are pasted documents of 8k to 200k chars, the rest are short.
+     */
+    private static NoteUser sampleUser(Random random, String userId) {
+        List<Note> notes = new ArrayList<>(NOTES_PER_USER);
+        for (int i = 0; i < NOTES_PER_USER; i++) {
+            Note note = NoteUpdateBenchmark.newNote(i);
+            note.setNoteCreatedBy(userId);
+            int length = random.nextInt(50) == 0 ? 8192 + random.nextInt(200 * 1024) : 40 + random.nextInt(400);
+            note.setNoteContent(text(random, length));
+            notes.add(note);
+        }
+        return new NoteUser(userId, notes);
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(12) == 0 ? ".\n" : " ");
+        }
+        return text.substring(0, length);
+    }
+
+    private static long time(Runnable operation) {
+        for (int i = 0; i < 20; i++) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.run();
+        }
+        return System.nanoTime() - start;
+    }
+}
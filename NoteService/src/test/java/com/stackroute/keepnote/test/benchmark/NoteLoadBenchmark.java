@@ -0,0 +1,115 @@
+package com.stackroute.keepnote.test.benchmark;
+
+import com.stackroute.keepnote.NoteServiceApplication;
+import com.stackroute.keepnote.repository.NoteRepository;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.ipc.netty.resources.PoolResources;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Throughput and latency of GET /api/v1/note/{userId}/{noteId} at 5k concurrent
+ * connections, for the servlet stack and for the "reactive" profile. Both stacks are
+ * started in turn on a random port against the configured Mongo.
+ * Run with: mvn test -Dtest=NoteLoadBenchmark -Dbenchmark=true
+ */
+public class NoteLoadBenchmark {
+
+    protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+    private static final int CONCURRENCY = 5000;
+    private static final int REQUESTS = 100000;
+    private static final int WARMUP_REQUESTS = 20000;
+    private static final int NOTE_COUNT = 100;
+    private static final String USER_ID = "loadtest";
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("benchmark disabled, pass -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void compareStacks() {
+        run("servlet");
+        run("reactive");
+    }
+
+    private void run(String stack) {
+
+        SpringApplicationBuilder builder = new SpringApplicationBuilder(NoteServiceApplication.class)
+                .properties("server.port=0", "keepnote.search.rebuild-on-startup=false");
+        if (stack.equals("reactive")) {
+            builder.profiles("reactive");
+        }
+
+        try (ConfigurableApplicationContext context = builder.run()) {
+            NoteRepository noteRepository = context.getBean(NoteRepository.class);
+            noteRepository.save(NoteUpdateBenchmark.newNoteUser(USER_ID, NOTE_COUNT));
+
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            WebClient client = WebClient.builder()
+                    .baseUrl("http://localhost:" + port)
+                    .clientConnector(new ReactorClientHttpConnector(options -> options.poolResources(PoolResources.elastic("benchmark"))))
+                    .defaultHeader("Authorization", "Bearer " + token())
+                    .build();
+
+            load(client, WARMUP_REQUESTS);
+
+            long start = System.nanoTime();
+            long[] latencies = load(client, REQUESTS);
+            long elapsed = System.nanoTime() - start;
+
+            Arrays.sort(latencies);
+            LOG.info(String.format("stack=%s concurrency=%d requests=%d throughput=%.0f req/s p50=%.1f ms p99=%.1f ms errors=%d",
+                    stack, CONCURRENCY, REQUESTS, REQUESTS / (elapsed / 1e9),
+                    latencies[REQUESTS / 2] / 1e6, latencies[REQUESTS * 99 / 100] / 1e6, errors(latencies)));
+
+            noteRepository.deleteById(USER_ID);
+        }
+    }
+
+    /*
+     * Failed requests are recorded with a latency of Long.MAX_VALUE, so they count
+     * against the percentiles.
+     */
+    private static long[] load(WebClient client, int requests) {
+
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+
+        Flux.range(0, requests)
+                .flatMap(i -> {
+                    long start = System.nanoTime();
+                    return client.get().uri("/api/v1/note/{userId}/{noteId}", USER_ID, i % NOTE_COUNT)
+                            .exchange()
+                            .flatMap(response -> response.bodyToMono(String.class).map(body -> response.statusCode().is2xxSuccessful()))
+                            .map(ok -> ok ? System.nanoTime() - start : Long.MAX_VALUE)
+                            .onErrorReturn(Long.MAX_VALUE);
+                }, CONCURRENCY)
+                .doOnNext(latency -> latencies[next.getAndIncrement()] = latency)
+                .blockLast();
+
+        return latencies;
+    }
+
+    private static long errors(long[] latencies) {
+        return Arrays.stream(latencies).filter(latency -> latency == Long.MAX_VALUE).count();
+    }
+
+    private static String token() {
+        return Jwts.builder().setSubject(USER_ID).signWith(SignatureAlgorithm.HS256, "secretkey").compact();
+    }
+}
@@ -0,0 +1,140 @@
+package com.stackroute.keepnote.test.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stackroute.keepnote.config.MongoConfig;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NotePatch;
+import com.stackroute.keepnote.model.NoteUser;
+import com.stackroute.keepnote.repository.NoteRepository;
+import com.stackroute.keepnote.service.NotePatchReader;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.UpdateMapper;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Random;
+
+/*
+ * Cost of a one word edit of a note of 1 KB, 16 KB and 200 KB, sent as a full PUT
+ * (positional "notes.$" replacement) and as a PATCH ($set of the patched field):
+ * the request body in bytes, the update document sent to Mongo in BSON bytes, which
+ * is also what ends up in the oplog, and the latency of the repository write.
+ * Run with: mvn test -Dtest=NotePatchBenchmark -Dbenchmark=true
+ */
+@RunWith(SpringRunner.class)
+@DataMongoTest
+@Import(MongoConfig.class)
+public class NotePatchBenchmark {
+
+    protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+    private static final int[] CONTENT_LENGTHS = {1024, 16 * 1024, 200 * 1024};
+    private static final int NOTE_COUNT = 100;
+    private static final int ITERATIONS = 200;
+
+    @Autowired
+    private NoteRepository noteRepository;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("benchmark disabled, pass -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+    }
+
+    @After
+    public void tearDown() {
+        noteRepository.deleteAll();
+    }
+
+    @Test
+    public void comparePutAndPatch() throws Exception {
+
+        Random random = new Random(42);
+
+        for (int length : CONTENT_LENGTHS) {
+            noteRepository.deleteAll();
+            NoteUser noteUser = NoteUpdateBenchmark.newNoteUser("Jhon123", NOTE_COUNT);
+            Note note = noteUser.getNotes().get(NOTE_COUNT / 2);
+            note.setNoteContent(text(random, length));
+            noteRepository.insert(noteUser);
+
+            String patchBody = "{\"noteTitle\":\"Note " + note.getNoteId() + " edited\"}";
+            NotePatch patch = NotePatchReader.fromMergePatch(objectMapper, objectMapper.readTree(patchBody));
+
+            long putRequest = objectMapper.writeValueAsBytes(note).length;
+            long patchRequest = patchBody.getBytes("UTF-8").length;
+            long putUpdate = updateBytes(new Update().set("notes.$", note));
+            long patchUpdate = updateBytes(patchUpdate(patch));
+
+            long put = time(() -> {
+                note.setNoteTitle("Note " + note.getNoteId() + " edited " + System.nanoTime());
+                noteRepository.updateNote("Jhon123", note);
+            });
+            long patched = time(() -> noteRepository.patchNote("Jhon123", note.getNoteId(), patch, null));
+
+            LOG.info(String.format("content=%d KB request put=%d B patch=%d B | update put=%d B patch=%d B (%.0fx) | put=%.3f ms/op patch=%.3f ms/op",
+                    length / 1024, putRequest, patchRequest, putUpdate, patchUpdate, (double) putUpdate / patchUpdate,
+                    put / 1e6 / ITERATIONS, patched / 1e6 / ITERATIONS));
+        }
+    }
+
+    /*
+     * The same $set as NoteRepositoryImpl.patchUpdate, which is package-private.
+     */
+    private static Update patchUpdate(NotePatch patch) {
+        Update update = new Update();
+        patch.getSet().forEach((path, value) -> update.set("notes.$." + path, value));
+        patch.getUnset().forEach(path -> update.unset("notes.$." + path));
+        return update.inc("notes.$.changeSeq", 1);
+    }
+
+    /*
+     * BSON size of the update as mapped and converted for NoteUser, e.g. with the
+     * content compressed, the way the driver sends it.
+     */
+    private long updateBytes(Update update) {
+        UpdateMapper mapper = new UpdateMapper(mongoOperations.getConverter());
+        Document mapped = mapper.getMappedObject(update.getUpdateObject(),
+                mongoOperations.getConverter().getMappingContext().getPersistentEntity(NoteUser.class));
+        return new RawBsonDocument(mapped, new DocumentCodec()).getByteBuffer().remaining();
+    }
+
+    private static long time(Runnable operation) {
+        for (int i = 0; i < 5; i++) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append((char) ('a' + random.nextInt(26)));
+            if (random.nextInt(6) == 0) {
+                text.append(' ');
+            }
+        }
+        return text.substring(0, length);
+    }
+}
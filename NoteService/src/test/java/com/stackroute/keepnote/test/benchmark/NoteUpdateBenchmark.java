@@ -0,0 +1,104 @@
+package com.stackroute.keepnote.test.benchmark;
+
+import com.stackroute.keepnote.config.MongoConfig;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteUser;
+import com.stackroute.keepnote.repository.NoteRepository;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/*
+ * Compares the old whole-document update path (findById + save of the full NoteUser)
+ * with the positional "notes.$" update for users holding 10, 1k and 10k notes.
+ * Run with: mvn test -Dtest=NoteUpdateBenchmark -Dbenchmark=true
+ */
+@RunWith(SpringRunner.class)
+@DataMongoTest
+@Import(MongoConfig.class)
+public class NoteUpdateBenchmark {
+
+    protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+    private static final int[] NOTE_COUNTS = {10, 1000, 10000};
+    private static final int ITERATIONS = 50;
+
+    @Autowired
+    private NoteRepository noteRepository;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("benchmark disabled, pass -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+    }
+
+    @After
+    public void tearDown() {
+        noteRepository.deleteAll();
+    }
+
+    @Test
+    public void compareUpdatePaths() {
+
+        for (int noteCount : NOTE_COUNTS) {
+            noteRepository.deleteAll();
+            noteRepository.insert(newNoteUser("Jhon123", noteCount));
+
+            long wholeDocument = time(() -> {
+                NoteUser noteUser = noteRepository.findById("Jhon123").get();
+                noteUser.getNotes().get(noteCount / 2).setNoteContent("edited " + System.nanoTime());
+                noteRepository.save(noteUser);
+            });
+
+            long positional = time(() -> {
+                Note note = newNote(noteCount / 2);
+                note.setNoteContent("edited " + System.nanoTime());
+                noteRepository.updateNote("Jhon123", note);
+            });
+
+            LOG.info(String.format("notes=%d whole-document=%.3f ms/op positional=%.3f ms/op",
+                    noteCount, wholeDocument / 1e6 / ITERATIONS, positional / 1e6 / ITERATIONS));
+        }
+    }
+
+    private static long time(Runnable operation) {
+        for (int i = 0; i < 5; i++) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    static NoteUser newNoteUser(String userId, int noteCount) {
+        List<Note> notes = new ArrayList<>(noteCount);
+        for (int i = 0; i < noteCount; i++) {
+            notes.add(newNote(i));
+        }
+        return new NoteUser(userId, notes);
+    }
+
+    static Note newNote(int noteId) {
+        Note note = new Note();
+        note.setNoteId(noteId);
+        note.setNoteTitle("Note " + noteId);
+        note.setNoteContent("Content of note " + noteId + " with a few more words to give it a realistic size");
+        note.setNoteStatus("Active");
+        note.setNoteCreatedBy("Jhon123");
+        note.setNoteCreationDate(new Date());
+        return note;
+    }
+}
@@ -3,32 +3,62 @@ package com.stackroute.keepnote.test.controller;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.stackroute.keepnote.controller.NoteController;
 import com.stackroute.keepnote.exception.NoteNotFoundExeption;
+import com.stackroute.keepnote.exception.NoteWriteQueueFullException;
 import com.stackroute.keepnote.model.Category;
 import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteBatchResult;
+import com.stackroute.keepnote.model.NoteChanges;
+import com.stackroute.keepnote.model.NoteDurability;
+import com.stackroute.keepnote.model.NoteFilter;
+import com.stackroute.keepnote.model.NotePage;
+import com.stackroute.keepnote.model.NoteStats;
+import com.stackroute.keepnote.model.NoteSummary;
+import com.stackroute.keepnote.model.NoteUser;
 import com.stackroute.keepnote.model.Reminder;
+import com.stackroute.keepnote.service.NoteCache;
+import com.stackroute.keepnote.service.NoteDeleteJobs;
+import com.stackroute.keepnote.service.NoteImporter;
+import com.stackroute.keepnote.service.NoteSearchService;
 import com.stackroute.keepnote.service.NoteService;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultHandlers;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 
 @RunWith(SpringRunner.class)
 @WebMvcTest
@@ -45,6 +75,16 @@ public class NoteControllerTest {
     private Reminder reminder;
     @MockBean
     private NoteService noteService;
+    @MockBean
+    private NoteSearchService noteSearchService;
+    @MockBean
+    private NoteDeleteJobs noteDeleteJobs;
+    @MockBean
+    private NoteCache noteCache;
+    @MockBean
+    private NoteImporter noteImporter;
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
     @InjectMocks
     private NoteController noteController;
     private List<Note> noteList;
@@ -95,7 +135,7 @@ public class NoteControllerTest {
 
     @Test
     public void addNoteSuccess() throws Exception {
-        when(noteService.createNote(any())).thenReturn(true);
+        when(noteService.createNote(any(), isNull())).thenReturn(true);
         mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/note").contentType(MediaType.APPLICATION_JSON)
                 .content(asJsonString(note)))
                 .andExpect(MockMvcResultMatchers.status().isCreated())
@@ -106,7 +146,7 @@ public class NoteControllerTest {
 
     @Test
     public void addNoteFailure() throws Exception {
-        when(noteService.createNote(any())).thenReturn(false);
+        when(noteService.createNote(any(), isNull())).thenReturn(false);
         mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/note").contentType(MediaType.APPLICATION_JSON)
                 .content(asJsonString(note)))
                 .andExpect(MockMvcResultMatchers.status().isConflict())
@@ -115,10 +155,38 @@ public class NoteControllerTest {
     }
 
 
+    @Test
+    public void addNotesBatchSuccess() throws Exception {
+        when(noteService.createNotes(eq("Jhon123"), any())).thenReturn(Arrays.asList(
+                new NoteBatchResult(0, 1, NoteBatchResult.CREATED)));
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/note/Jhon123/batch").contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(noteList)))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].status").value(NoteBatchResult.CREATED))
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+
+    @Test
+    public void addNotesBatchMalformed() throws Exception {
+        when(noteService.createNotes(eq("Jhon123"), any())).thenAnswer(invocation -> {
+            Iterator<Note> notes = invocation.getArgument(1);
+            while (notes.hasNext()) {
+                notes.next();
+            }
+            return new ArrayList<NoteBatchResult>();
+        });
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/note/Jhon123/batch").contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"noteId\": 1}, 42]"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+
     @Test
     public void deleteNoteSuccess() throws Exception {
 
-        when(noteService.deleteNote("Jhon123", note.getNoteId())).thenReturn(true);
+        when(noteService.deleteNote("Jhon123", note.getNoteId(), null)).thenReturn(true);
         mockMvc.perform(MockMvcRequestBuilders.delete("/api/v1/note/Jhon123/1")
                 .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(MockMvcResultMatchers.status().isOk())
@@ -129,7 +197,7 @@ public class NoteControllerTest {
     @Test
     public void deleteNoteFailure() throws Exception {
 
-        when(noteService.deleteNote("Jhon123", note.getNoteId())).thenReturn(false);
+        when(noteService.deleteNote("Jhon123", note.getNoteId(), null)).thenReturn(false);
         mockMvc.perform(MockMvcRequestBuilders.delete("/api/v1/note/Jhon123/1")
                 .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(MockMvcResultMatchers.status().isNotFound())
@@ -160,10 +228,47 @@ public class NoteControllerTest {
     }
 
 
+    @Test
+    public void addNoteQueued() throws Exception {
+        when(noteService.resolveDurability(NoteDurability.QUEUED)).thenReturn(NoteDurability.QUEUED);
+        when(noteService.createNote(any(), eq(NoteDurability.QUEUED))).thenReturn(true);
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/note").contentType(MediaType.APPLICATION_JSON)
+                .header(NoteDurability.HEADER, "queued")
+                .content(asJsonString(note)))
+                .andExpect(MockMvcResultMatchers.status().isAccepted())
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+
+    @Test
+    public void addNoteQueueFull() throws Exception {
+        when(noteService.resolveDurability(NoteDurability.JOURNALED)).thenReturn(NoteDurability.JOURNALED);
+        when(noteService.createNote(any(), eq(NoteDurability.JOURNALED)))
+                .thenThrow(new NoteWriteQueueFullException("Write-behind queue full with 10000 notes"));
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/note").contentType(MediaType.APPLICATION_JSON)
+                .header(NoteDurability.HEADER, "journaled")
+                .content(asJsonString(note)))
+                .andExpect(MockMvcResultMatchers.status().isServiceUnavailable())
+                .andExpect(MockMvcResultMatchers.header().string("Retry-After", "1"))
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+
+    @Test
+    public void addNoteUnknownDurability() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/note").contentType(MediaType.APPLICATION_JSON)
+                .header(NoteDurability.HEADER, "eventually")
+                .content(asJsonString(note)))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andDo(MockMvcResultHandlers.print());
+        verify(noteService, times(0)).createNote(any(), any());
+    }
+
+
     @Test
     public void updateNoteSuccess() throws Exception {
 
-        when(noteService.updateNote(any(), eq(note.getNoteId()), eq("Jhon123"))).thenReturn(note);
+        when(noteService.updateNote(any(), eq(note.getNoteId()), eq("Jhon123"), isNull(), isNull())).thenReturn(note);
         note.setNoteContent("Mumbai Indians vs RCB match scheduled  for 6 PM");
         mockMvc.perform(MockMvcRequestBuilders.put("/api/v1/note/Jhon123/1")
                 .contentType(MediaType.APPLICATION_JSON)
@@ -176,7 +281,7 @@ public class NoteControllerTest {
     @Test
     public void updateNoteFailure() throws Exception {
 
-        when(noteService.updateNote(any(), eq(note.getNoteId()), eq("Jhon123"))).thenThrow(NoteNotFoundExeption.class);
+        when(noteService.updateNote(any(), eq(note.getNoteId()), eq("Jhon123"), isNull(), isNull())).thenThrow(NoteNotFoundExeption.class);
         note.setNoteContent("Mumbai Indians vs RCB match scheduled  for 6 PM");
         mockMvc.perform(MockMvcRequestBuilders.put("/api/v1/note/Jhon123/" + note.getNoteId())
                 .contentType(MediaType.APPLICATION_JSON)
@@ -186,6 +291,86 @@ public class NoteControllerTest {
     }
 
 
+    @Test
+    public void updateNoteIfMatchSuccess() throws Exception {
+
+        note.setChangeSeq(4L);
+        when(noteService.updateNote(any(), eq(note.getNoteId()), eq("Jhon123"), eq(4L), isNull())).thenAnswer(invocation -> {
+            Note updated = invocation.getArgument(0);
+            updated.setChangeSeq(9L);
+            return updated;
+        });
+        mockMvc.perform(MockMvcRequestBuilders.put("/api/v1/note/Jhon123/1")
+                .contentType(MediaType.APPLICATION_JSON).header("If-Match", "\"4\"")
+                .content(asJsonString(note)))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string("ETag", "\"9\""))
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+
+    @Test
+    public void patchNoteSuccess() throws Exception {
+
+        note.setChangeSeq(9L);
+        when(noteService.patchNote(eq("Jhon123"), eq(1), any(), eq(4L))).thenReturn(note);
+        mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/note/Jhon123/1")
+                .contentType("application/merge-patch+json").header("If-Match", "\"4\"")
+                .content("{\"noteTitle\":\"IPL final\"}"))
+                .andExpect(MockMvcResultMatchers.status().isNoContent())
+                .andExpect(MockMvcResultMatchers.header().string("ETag", "\"9\""))
+                .andExpect(MockMvcResultMatchers.content().string(""))
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+    @Test
+    public void patchNoteInvalid() throws Exception {
+
+        mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/note/Jhon123/1")
+                .contentType("application/json-patch+json")
+                .content("[{\"op\":\"replace\",\"path\":\"/noteId\",\"value\":7}]"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andDo(MockMvcResultHandlers.print());
+        verify(noteService, times(0)).patchNote(any(), anyInt(), any(), any());
+    }
+
+    @Test
+    public void updateNoteIfMatchStale() throws Exception {
+
+        when(noteService.updateNote(any(), eq(note.getNoteId()), eq("Jhon123"), eq(3L), isNull()))
+                .thenThrow(new OptimisticLockingFailureException("Note 1 of Jhon123 was changed concurrently"));
+        mockMvc.perform(MockMvcRequestBuilders.put("/api/v1/note/Jhon123/1")
+                .contentType(MediaType.APPLICATION_JSON).header("If-Match", "\"3\"")
+                .content(asJsonString(note)))
+                .andExpect(MockMvcResultMatchers.status().isPreconditionFailed())
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+
+    @Test
+    public void deleteNoteWeakIfMatch() throws Exception {
+
+        mockMvc.perform(MockMvcRequestBuilders.delete("/api/v1/note/Jhon123/1")
+                .contentType(MediaType.APPLICATION_JSON).header("If-Match", "W/\"3\""))
+                .andExpect(MockMvcResultMatchers.status().isPreconditionFailed())
+                .andDo(MockMvcResultHandlers.print());
+        verify(noteService, times(0)).deleteNote(any(), eq(note.getNoteId()), any());
+    }
+
+
+    @Test
+    public void getNoteByIdETag() throws Exception {
+
+        note.setChangeSeq(5L);
+        when(noteService.getNoteByNoteId("Jhon123", 1)).thenReturn(note);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123/1")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string("ETag", "\"5\""))
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+
     @Test
     public void getNoteByIdSuccess() throws Exception {
 
@@ -209,22 +394,186 @@ public class NoteControllerTest {
 
     @Test
     public void getAllNotesByUserIdSuccess() throws Exception {
-        when(noteService.getAllNoteByUserId("Jhon123")).thenReturn(noteList);
+        when(noteService.getVersionedNotes("Jhon123")).thenReturn(versionedNotes(7L));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string("ETag", "\"7\""))
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+    @Test
+    public void getNoteSummariesByUserIdSuccess() throws Exception {
+        when(noteService.getNoteSummaries("Jhon123")).thenReturn(Arrays.asList(NoteSummary.of(note)));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123").param("view", "summary")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].categoryName").value(note.getCategory().getCategoryName()))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].noteContent").doesNotExist())
+                .andDo(MockMvcResultHandlers.print());
+        verify(noteService, times(0)).getVersionedNotes("Jhon123");
+    }
+
+
+    @Test
+    public void getNotesByFilterSuccess() throws Exception {
+        when(noteService.getNotesByFilter(eq("Jhon123"), any())).thenReturn(noteList);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123/query")
+                .param("status", "Active").param("category", "Cricket-Category").param("from", "2018-05-01T00:00:00.000Z")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].noteId").value(1))
+                .andDo(MockMvcResultHandlers.print());
+        ArgumentCaptor<NoteFilter> filter = ArgumentCaptor.forClass(NoteFilter.class);
+        verify(noteService).getNotesByFilter(eq("Jhon123"), filter.capture());
+        Assert.assertEquals("Cricket-Category", filter.getValue().getCategoryName());
+        Assert.assertNotNull(filter.getValue().getCreatedFrom());
+        Assert.assertNull(filter.getValue().getCreatedTo());
+    }
+
+
+    @Test
+    public void getNotesByFilterInvalidDate() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123/query").param("from", "last week")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+    @Test
+    public void getAllNotesByUserIdNotModified() throws Exception {
+        when(noteService.getNotesVersion("Jhon123")).thenReturn(7L);
         mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123")
+                .header("If-None-Match", "W/\"7\"")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isNotModified())
+                .andDo(MockMvcResultHandlers.print());
+        verify(noteService, times(0)).getVersionedNotes("Jhon123");
+    }
+
+    @Test
+    public void getAllNotesByUserIdChangedSinceETag() throws Exception {
+        when(noteService.getNotesVersion("Jhon123")).thenReturn(8L);
+        when(noteService.getVersionedNotes("Jhon123")).thenReturn(versionedNotes(8L));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123")
+                .header("If-None-Match", "\"7\"")
                 .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string("ETag", "\"8\""))
                 .andDo(MockMvcResultHandlers.print());
     }
 
     @Test
     public void getAllNotesByUserIdFailure() throws Exception {
-        when(noteService.getAllNoteByUserId("Jhon123")).thenReturn(null);
+        when(noteService.getVersionedNotes("Jhon123")).thenReturn(null);
         mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123")
                 .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(MockMvcResultMatchers.status().isOk())
                 .andDo(MockMvcResultHandlers.print());
     }
 
+    @Test
+    public void getPageOfNotesByUserIdSuccess() throws Exception {
+        when(noteService.getNotePage("Jhon123", null, 30)).thenReturn(new NotePage(noteList, null));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123").param("limit", "30")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.notes[0].noteId").value(1))
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+    @Test
+    public void getPageOfNotesByUserIdInvalidCursor() throws Exception {
+        when(noteService.getNotePage("Jhon123", "bad", 30)).thenThrow(IllegalArgumentException.class);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123").param("limit", "30").param("after", "bad")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+    @Test
+    public void getChangesSinceSuccess() throws Exception {
+        when(noteService.getChangesSince("Jhon123", 5)).thenReturn(
+                new NoteChanges(5, 9, false, noteList, Arrays.asList(4)));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123/changes").param("since", "5")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.nextSince").value(9))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.deletedNoteIds[0]").value(4))
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+    @Test
+    public void getAllNotesWithArchiveSuccess() throws Exception {
+        when(noteService.getAllNotesWithArchive("Jhon123")).thenReturn(noteList);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123").param("includeArchived", "true")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().doesNotExist("ETag"))
+                .andDo(MockMvcResultHandlers.print());
+        verify(noteService, times(0)).getVersionedNotes("Jhon123");
+    }
+
+    @Test
+    public void getNoteStatsSuccess() throws Exception {
+        NoteStats stats = new NoteStats("Jhon123");
+        stats.add("Active", "5b04f7411764e3765c35f8f6", 1);
+        when(noteService.getNoteStats("Jhon123")).thenReturn(stats);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123/stats")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.total").value(1))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.byStatus.Active").value(1))
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+    @Test
+    public void exportNotesSuccess() throws Exception {
+        when(noteService.getExportEnd("Jhon123", null, 1, true)).thenReturn("next");
+        when(noteService.exportNotes(eq("Jhon123"), isNull(), eq("next"), eq(true), any())).thenAnswer(invocation -> {
+            Consumer<Note> consumer = invocation.getArgument(4);
+            noteList.forEach(consumer);
+            return (long) noteList.size();
+        });
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123/export").param("limit", "1"))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        byte[] body = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string(NoteController.NEXT_CURSOR_HEADER, "next"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        BufferedReader lines = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(body)), StandardCharsets.UTF_8));
+        Assert.assertEquals(1, objectMapper.readTree(lines.readLine()).get("noteId").asInt());
+        Assert.assertNull(lines.readLine());
+    }
+
+    @Test
+    public void exportNotesWithoutArchive() throws Exception {
+        when(noteService.getExportEnd("Jhon123", null, 10000, false)).thenReturn(null);
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123/export").param("includeArchived", "false"))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        verify(noteService).exportNotes(eq("Jhon123"), isNull(), isNull(), eq(false), any());
+    }
+
+    @Test
+    public void exportNotesInvalidCursor() throws Exception {
+        when(noteService.getExportEnd("Jhon123", "bad", 10000, true)).thenThrow(IllegalArgumentException.class);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/note/Jhon123/export").param("after", "bad"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andDo(MockMvcResultHandlers.print());
+    }
+
+    private NoteUser versionedNotes(long version) {
+        NoteUser noteUser = new NoteUser("Jhon123", noteList);
+        noteUser.setVersion(version);
+        return noteUser;
+    }
+
     private static String asJsonString(final Object obj) {
         try {
             return new ObjectMapper().writeValueAsString(obj);
@@ -0,0 +1,169 @@
+package com.stackroute.keepnote.test.controller;
+
+import com.stackroute.keepnote.controller.ReactiveNoteController;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteUser;
+import com.stackroute.keepnote.service.ReactiveNoteService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReactiveNoteControllerTest {
+
+    @Mock
+    private ReactiveNoteService noteService;
+
+    private WebTestClient webTestClient;
+
+    private Note note;
+
+    @Before
+    public void setUp() {
+
+        MockitoAnnotations.initMocks(this);
+        webTestClient = WebTestClient.bindToController(new ReactiveNoteController(noteService)).build();
+
+        note = new Note();
+        note.setNoteId(1);
+        note.setNoteTitle("IPL lists");
+        note.setNoteContent("Mumbai Indians vs RCB match scheduled  for 4 PM");
+        note.setNoteCreatedBy("Jhon123");
+        note.setChangeSeq(4L);
+    }
+
+    @Test
+    public void createNoteSuccess() {
+
+        when(noteService.createNote(any())).thenReturn(Mono.just(true));
+        webTestClient.post().uri("/api/v1/note").contentType(MediaType.APPLICATION_JSON).syncBody(note)
+                .exchange()
+                .expectStatus().isCreated();
+    }
+
+    @Test
+    public void createNoteFailure() {
+
+        when(noteService.createNote(any())).thenReturn(Mono.just(false));
+        webTestClient.post().uri("/api/v1/note").contentType(MediaType.APPLICATION_JSON).syncBody(note)
+                .exchange()
+                .expectStatus().isEqualTo(409);
+    }
+
+    @Test
+    public void updateNoteIfMatchStale() {
+
+        when(noteService.updateNote(any(), eq(1), eq("Jhon123"), eq(3L)))
+                .thenReturn(Mono.error(new OptimisticLockingFailureException("Note 1 of Jhon123 was changed concurrently")));
+        webTestClient.put().uri("/api/v1/note/Jhon123/1").header("If-Match", "\"3\"")
+                .contentType(MediaType.APPLICATION_JSON).syncBody(note)
+                .exchange()
+                .expectStatus().isEqualTo(412);
+    }
+
+    @Test
+    public void updateNoteNotFound() {
+
+        when(noteService.updateNote(any(), eq(1), eq("Jhon123"), isNull())).thenReturn(Mono.empty());
+        webTestClient.put().uri("/api/v1/note/Jhon123/1")
+                .contentType(MediaType.APPLICATION_JSON).syncBody(note)
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    public void deleteNoteWeakIfMatch() {
+
+        webTestClient.delete().uri("/api/v1/note/Jhon123/1").header("If-Match", "W/\"4\"")
+                .exchange()
+                .expectStatus().isEqualTo(412);
+        verify(noteService, times(0)).deleteNote(any(), eq(1), any());
+    }
+
+    @Test
+    public void getNoteByIdSuccess() {
+
+        when(noteService.getNoteByNoteId("Jhon123", 1)).thenReturn(Mono.just(note));
+        webTestClient.get().uri("/api/v1/note/Jhon123/1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("ETag", "\"4\"")
+                .expectBody().jsonPath("$.noteTitle").isEqualTo("IPL lists");
+    }
+
+    @Test
+    public void getNoteByIdFailure() {
+
+        when(noteService.getNoteByNoteId("Jhon123", 1)).thenReturn(Mono.empty());
+        webTestClient.get().uri("/api/v1/note/Jhon123/1")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    public void getAllNotesByUserIdSuccess() {
+
+        when(noteService.getVersionedNotes("Jhon123")).thenReturn(Mono.just(versionedNotes(7L)));
+        webTestClient.get().uri("/api/v1/note/Jhon123")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("ETag", "\"7\"");
+    }
+
+    @Test
+    public void getAllNotesByUserIdNotModified() {
+
+        when(noteService.getNotesVersion("Jhon123")).thenReturn(Mono.just(7L));
+        when(noteService.getVersionedNotes("Jhon123")).thenReturn(Mono.just(versionedNotes(7L)));
+        webTestClient.get().uri("/api/v1/note/Jhon123").header("If-None-Match", "\"7\"")
+                .exchange()
+                .expectStatus().isNotModified();
+    }
+
+    @Test
+    public void getAllNotesWithArchive() {
+
+        Note archived = new Note();
+        archived.setNoteId(2);
+        List<Note> notes = new ArrayList<>();
+        notes.add(note);
+        notes.add(archived);
+        when(noteService.getAllNotesWithArchive("Jhon123")).thenReturn(Mono.just(notes));
+        webTestClient.get().uri("/api/v1/note/Jhon123?includeArchived=true")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Note.class).hasSize(2);
+        verify(noteService, times(0)).getVersionedNotes(any());
+    }
+
+    @Test
+    public void getAllNotesWithArchiveNotFound() {
+
+        when(noteService.getAllNotesWithArchive("Jhon123")).thenReturn(Mono.just(new ArrayList<>()));
+        webTestClient.get().uri("/api/v1/note/Jhon123?includeArchived=true")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    private NoteUser versionedNotes(long version) {
+        List<Note> notes = new ArrayList<>();
+        notes.add(note);
+        NoteUser noteUser = new NoteUser("Jhon123", notes);
+        noteUser.setVersion(version);
+        return noteUser;
+    }
+}
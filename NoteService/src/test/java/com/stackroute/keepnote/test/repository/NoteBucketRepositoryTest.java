@@ -0,0 +1,274 @@
+package com.stackroute.keepnote.test.repository;
+
+import com.stackroute.keepnote.config.MongoConfig;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteBucket;
+import com.stackroute.keepnote.model.NoteChanges;
+import com.stackroute.keepnote.model.NoteUser;
+import com.stackroute.keepnote.repository.NoteRepository;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@RunWith(SpringRunner.class)
+@DataMongoTest
+@Import(MongoConfig.class)
+@TestPropertySource(properties = {
+        "keepnote.note.storage=bucketed",
+        "keepnote.note.bucket-capacity=2",
+        "keepnote.note.migration.enabled=true"})
+public class NoteBucketRepositoryTest {
+
+    @Autowired
+    private NoteRepository noteRepository;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @After
+    public void tearDown() throws Exception {
+
+        noteRepository.deleteAll();
+        mongoOperations.dropCollection(NoteBucket.class);
+    }
+
+    @Test
+    public void insertNoteOpensNewBucketWhenFull() {
+
+        for (int noteId = 1; noteId <= 5; noteId++) {
+            Assert.assertTrue(noteRepository.insertNote("Jhon123", newNote(noteId)));
+        }
+
+        Assert.assertEquals(3, mongoOperations.findAll(NoteBucket.class).size());
+        List<Note> allNotes = noteRepository.findAllNotes("Jhon123");
+        Assert.assertEquals(5, allNotes.size());
+        Assert.assertEquals(1, allNotes.get(0).getNoteId());
+        Assert.assertEquals(5, allNotes.get(4).getNoteId());
+        Assert.assertEquals(Long.valueOf(5L), noteRepository.findVersion("Jhon123"));
+    }
+
+    @Test
+    public void insertNotesFillsOpenBucketThenOpensNewOnes() {
+
+        noteRepository.insertNote("Jhon123", newNote(1));
+
+        List<Note> notes = new ArrayList<>();
+        for (int noteId = 2; noteId <= 6; noteId++) {
+            notes.add(newNote(noteId));
+        }
+
+        Assert.assertTrue(noteRepository.insertNotes("Jhon123", notes));
+        Assert.assertEquals(3, mongoOperations.findAll(NoteBucket.class).size());
+        Assert.assertEquals(6, noteRepository.findAllNotes("Jhon123").size());
+
+        // a batch containing a taken noteId is rejected as a whole
+        List<Note> conflicting = new ArrayList<>();
+        conflicting.add(newNote(7));
+        conflicting.add(newNote(3));
+        Assert.assertFalse(noteRepository.insertNotes("Jhon123", conflicting));
+        Assert.assertNull(noteRepository.findNote("Jhon123", 7));
+    }
+
+    @Test
+    public void updateFindAndDeleteAreRoutedToBucket() {
+
+        for (int noteId = 1; noteId <= 3; noteId++) {
+            noteRepository.insertNote("Jhon123", newNote(noteId));
+        }
+
+        Note changed = newNote(3);
+        changed.setNoteContent("changed");
+        Assert.assertTrue(noteRepository.updateNote("Jhon123", changed));
+        Assert.assertEquals("changed", noteRepository.findNote("Jhon123", 3).getNoteContent());
+
+        Assert.assertTrue(noteRepository.deleteNote("Jhon123", 2));
+        Assert.assertNull(noteRepository.findNote("Jhon123", 2));
+        Assert.assertFalse(noteRepository.deleteNote("Jhon123", 2));
+
+        List<Note> page = noteRepository.findNotesAfter("Jhon123", 1, 10);
+        Assert.assertEquals(1, page.size());
+        Assert.assertEquals(3, page.get(0).getNoteId());
+
+        // the freed slot in the first bucket is reused before a new bucket is opened
+        noteRepository.insertNote("Jhon123", newNote(4));
+        Assert.assertEquals(2, mongoOperations.findAll(NoteBucket.class).size());
+    }
+
+    @Test
+    public void deleteNotesPullsFromEveryBucket() {
+
+        for (int noteId = 1; noteId <= 5; noteId++) {
+            noteRepository.insertNote("Jhon123", newNote(noteId));
+        }
+
+        List<Integer> removed = noteRepository.deleteNotes("Jhon123", Arrays.asList(1, 4, 5, 9));
+        Assert.assertEquals(3, removed.size());
+        Assert.assertTrue(removed.containsAll(Arrays.asList(1, 4, 5)));
+        Assert.assertEquals(2, noteRepository.findAllNotes("Jhon123").size());
+
+        // the freed slots are counted, the next insert goes to an existing bucket
+        noteRepository.insertNote("Jhon123", newNote(6));
+        Assert.assertEquals(3, mongoOperations.findAll(NoteBucket.class).size());
+    }
+
+    @Test
+    public void embeddedNotesAreMigratedOnAccess() {
+
+        List<Note> notes = new ArrayList<>();
+        for (int noteId = 1; noteId <= 3; noteId++) {
+            notes.add(newNote(noteId));
+        }
+        noteRepository.insert(new NoteUser("Jhon123", notes));
+
+        Assert.assertEquals(2, noteRepository.findNote("Jhon123", 2).getNoteId());
+        Assert.assertEquals(2, mongoOperations.findAll(NoteBucket.class).size());
+        Assert.assertTrue(noteRepository.findById("Jhon123").get().getNotes().isEmpty());
+        Assert.assertEquals(0, noteRepository.migrateToBuckets("Jhon123"));
+        Assert.assertEquals(3, noteRepository.findAllNotes("Jhon123").size());
+    }
+
+    @Test
+    public void interruptedMigrationIsRepeated() {
+
+        List<Note> notes = new ArrayList<>();
+        for (int noteId = 1; noteId <= 3; noteId++) {
+            notes.add(newNote(noteId));
+        }
+        noteRepository.insert(new NoteUser("Jhon123", notes));
+        // the first of the two buckets was copied before the migration stopped
+        mongoOperations.insert(new NoteBucket("Jhon123", -1, new ArrayList<>(notes.subList(0, 2))));
+
+        Assert.assertEquals(3, noteRepository.migrateToBuckets("Jhon123"));
+        Assert.assertEquals(2, mongoOperations.findAll(NoteBucket.class).size());
+        Assert.assertEquals(3, noteRepository.findAllNotes("Jhon123").size());
+        Assert.assertTrue(noteRepository.findById("Jhon123").get().getNotes().isEmpty());
+
+        // later writes go after the migrated notes
+        noteRepository.insertNote("Jhon123", newNote(4));
+        noteRepository.insertNote("Jhon123", newNote(5));
+        Assert.assertEquals(5, noteRepository.findAllNotes("Jhon123").get(4).getNoteId());
+    }
+
+    @Test
+    public void deleteAllNotesRemovesBuckets() {
+
+        noteRepository.insertNote("Jhon123", newNote(1));
+        Assert.assertTrue(noteRepository.deleteAllNotes("Jhon123"));
+        Assert.assertTrue(noteRepository.findAllNotes("Jhon123").isEmpty());
+        Assert.assertTrue(noteRepository.findChangesSince("Jhon123", 1).isFullResync());
+        Assert.assertFalse(noteRepository.deleteAllNotes("Unknown"));
+    }
+
+    @Test
+    public void interleavedWritersAreSynced() throws Exception {
+
+        noteRepository.insertNote("Jhon123", newNote(1));
+        noteRepository.insertNote("Jhon123", newNote(3));
+
+        Map<Integer, String> synced = new HashMap<>();
+        long since = 0;
+        ExecutorService writers = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> written = new ArrayList<>();
+            for (int noteId : Arrays.asList(1, 3)) {
+                written.add(writers.submit(() -> {
+                    Note note = newNote(noteId);
+                    for (int i = 0; i < 100; i++) {
+                        note.setNoteContent("Content " + noteId + " edit " + i);
+                        Assert.assertTrue(noteRepository.updateNote("Jhon123", note));
+                    }
+                }));
+            }
+            // a client syncing while both notes are written must not step over a write
+            while (!written.stream().allMatch(Future::isDone)) {
+                since = sync(synced, since);
+            }
+            for (Future<?> writer : written) {
+                writer.get();
+            }
+        } finally {
+            writers.shutdown();
+        }
+        sync(synced, since);
+
+        for (Note note : noteRepository.findAllNotes("Jhon123")) {
+            Assert.assertEquals(note.getNoteContent(), synced.get(note.getNoteId()));
+        }
+        Assert.assertEquals(2, synced.size());
+    }
+
+    @Test
+    public void concurrentInsertsOfOneNoteIdStoreOneNote() throws Exception {
+
+        ExecutorService writers = Executors.newFixedThreadPool(2);
+        try {
+            for (int noteId = 1; noteId <= 20; noteId++) {
+                Note note = newNote(noteId);
+                List<Future<Boolean>> inserted = new ArrayList<>();
+                for (int writer = 0; writer < 2; writer++) {
+                    inserted.add(writers.submit(() -> noteRepository.insertNote("Jhon123", newNote(note.getNoteId()))));
+                }
+                int stored = 0;
+                for (Future<Boolean> insert : inserted) {
+                    stored += insert.get() ? 1 : 0;
+                }
+                Assert.assertEquals(1, stored);
+            }
+        } finally {
+            writers.shutdown();
+        }
+
+        Assert.assertEquals(20, noteRepository.findAllNotes("Jhon123").size());
+        Assert.assertTrue(noteRepository.insertNote("Jhon123", newNote(21)));
+    }
+
+    @Test
+    public void insertSeesEmbeddedNotes() {
+
+        noteRepository.insert(new NoteUser("Jhon123", new ArrayList<>(Arrays.asList(newNote(1), newNote(2)))));
+
+        Assert.assertFalse(noteRepository.insertNote("Jhon123", newNote(2)));
+        Assert.assertFalse(noteRepository.insertNotes("Jhon123", Arrays.asList(newNote(1), newNote(3))));
+        Assert.assertEquals(2, noteRepository.findAllNotes("Jhon123").size());
+        Assert.assertTrue(noteRepository.insertNote("Jhon123", newNote(3)));
+    }
+
+    private long sync(Map<Integer, String> synced, long since) {
+        NoteChanges changes = noteRepository.findChangesSince("Jhon123", since);
+        if (changes.isFullResync())
+        {
+            synced.clear();
+        }
+        changes.getDeletedNoteIds().forEach(synced::remove);
+        changes.getChanged().forEach(note -> synced.put(note.getNoteId(), note.getNoteContent()));
+        return changes.getNextSince();
+    }
+
+    private static Note newNote(int noteId) {
+        Note note = new Note();
+        note.setNoteId(noteId);
+        note.setNoteTitle("Note " + noteId);
+        note.setNoteContent("Content " + noteId);
+        note.setNoteStatus("Active");
+        note.setNoteCreatedBy("Jhon123");
+        note.setNoteCreationDate(new Date());
+        return note;
+    }
+}
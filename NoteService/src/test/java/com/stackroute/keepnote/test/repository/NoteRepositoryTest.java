@@ -1,10 +1,24 @@
 package com.stackroute.keepnote.test.repository;
 
+import com.stackroute.keepnote.config.MongoConfig;
+import com.stackroute.keepnote.model.ArchivedNote;
 import com.stackroute.keepnote.model.Category;
 import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteChanges;
+import com.stackroute.keepnote.model.NoteContent;
+import com.stackroute.keepnote.model.NoteFilter;
+import com.stackroute.keepnote.model.NotePatch;
+import com.stackroute.keepnote.model.NoteIdCounter;
+import com.stackroute.keepnote.model.NoteStats;
+import com.stackroute.keepnote.model.NoteStatsLease;
+import com.stackroute.keepnote.model.NoteSummary;
 import com.stackroute.keepnote.model.NoteUser;
 import com.stackroute.keepnote.model.Reminder;
+import com.stackroute.keepnote.repository.NoteArchiveRepository;
 import com.stackroute.keepnote.repository.NoteRepository;
+import com.stackroute.keepnote.repository.NoteStatsRepository;
+import org.bson.Document;
+import org.bson.types.Binary;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -12,20 +26,39 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @RunWith(SpringRunner.class)
 @DataMongoTest
+@Import(MongoConfig.class)
 public class NoteRepositoryTest {
 
     @Autowired
     private NoteRepository noteRepository;
 
+    @Autowired
+    private NoteStatsRepository noteStatsRepository;
+
+    @Autowired
+    private NoteArchiveRepository noteArchiveRepository;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
     private Note note;
     private Category category;
     private Reminder reminder;
@@ -82,6 +115,10 @@ public class NoteRepositoryTest {
     public void tearDown() throws Exception {
 
         noteRepository.deleteAll();
+        mongoOperations.dropCollection(NoteIdCounter.class);
+        mongoOperations.dropCollection(NoteStats.class);
+        mongoOperations.dropCollection(NoteStatsLease.class);
+        mongoOperations.dropCollection(ArchivedNote.class);
     }
 
     @Test
@@ -132,6 +169,482 @@ public class NoteRepositoryTest {
         Assert.assertEquals("Mumbai Indians vs RCB match scheduled  for 4 PM is cancelled", allNotes.get(0).getNoteContent());
     }
 
+    @Test
+    public void updateNotePositionalTest() {
+
+        Note other = new Note();
+        other.setNoteId(2);
+        other.setNoteTitle("Shopping");
+        other.setNoteContent("Milk");
+        noteList.add(other);
+        noteRepository.insert(noteUser);
+
+        Note changed = new Note();
+        changed.setNoteId(1);
+        changed.setNoteTitle("IPL lists");
+        changed.setNoteContent("Mumbai Indians vs RCB match scheduled  for 4 PM is cancelled");
+        Assert.assertTrue(noteRepository.updateNote("Jhon123", changed));
+
+        List<Note> allNotes = noteRepository.findById("Jhon123").get().getNotes();
+        Assert.assertEquals(2, allNotes.size());
+        Assert.assertEquals("Mumbai Indians vs RCB match scheduled  for 4 PM is cancelled", allNotes.get(0).getNoteContent());
+        Assert.assertEquals("Milk", allNotes.get(1).getNoteContent());
+    }
+
+    @Test
+    public void updateNotesArrayFiltersTest() {
+
+        Note other = new Note();
+        other.setNoteId(2);
+        other.setNoteContent("Milk");
+        noteRepository.insertNote("Jhon123", note);
+        noteRepository.insertNote("Jhon123", other);
+
+        Note first = new Note();
+        first.setNoteId(1);
+        first.setNoteContent("Match moved to 6 PM");
+        Note second = new Note();
+        second.setNoteId(2);
+        second.setNoteContent("Milk and eggs");
+        Note missing = new Note();
+        missing.setNoteId(9);
+
+        Assert.assertEquals(Arrays.asList(1, 2), noteRepository.updateNotes("Jhon123", Arrays.asList(first, second, missing)));
+
+        List<Note> allNotes = noteRepository.findAllNotes("Jhon123");
+        Assert.assertEquals(2, allNotes.size());
+        Assert.assertEquals("Match moved to 6 PM", allNotes.get(0).getNoteContent());
+        Assert.assertEquals("Milk and eggs", allNotes.get(1).getNoteContent());
+        Assert.assertNull(allNotes.get(0).getNoteStatus());
+        // one write, logged once per note written
+        Assert.assertEquals(Long.valueOf(4L), noteRepository.findVersion("Jhon123"));
+        Assert.assertEquals(Long.valueOf(other.getChangeSeq() + 1), allNotes.get(1).getChangeSeq());
+        Assert.assertEquals(allNotes.get(1).getChangeSeq(), second.getChangeSeq());
+        Assert.assertNull(missing.getChangeSeq());
+    }
+
+    @Test
+    public void categoryAndReminderCopiesTest() {
+
+        Note other = new Note();
+        other.setNoteId(2);
+        other.setNoteContent("Milk");
+        noteRepository.insertNote("Jhon123", note);
+        noteRepository.insertNote("Jhon123", other);
+        long created = noteRepository.findNote("Jhon123", 1).getChangeSeq();
+        Long otherCreated = noteRepository.findNote("Jhon123", 2).getChangeSeq();
+
+        Category renamed = new Category("5b04f7411764e3765c35f8f6", "Sports-Category", "All about Sports", "Jhon123", new Date());
+        Assert.assertEquals(1, noteRepository.updateCategoryCopies(renamed));
+        // the copy moves to a new revision and syncing from before it is a full resync
+        Assert.assertEquals(Long.valueOf(created + 1), noteRepository.findNote("Jhon123", 1).getChangeSeq());
+        Assert.assertEquals(otherCreated, noteRepository.findNote("Jhon123", 2).getChangeSeq());
+        Assert.assertTrue(noteRepository.findChangesSince("Jhon123", 2).isFullResync());
+        Assert.assertFalse(noteRepository.findChangesSince("Jhon123", 3).isFullResync());
+
+        Reminder moved = new Reminder(new Date(), "5b0509731764e3096984eae6", "Sms-Reminder", "sending sms", "sms type", "Jhon123");
+        Assert.assertEquals(1, noteRepository.updateReminderCopies(moved));
+
+        List<Note> allNotes = noteRepository.findAllNotes("Jhon123");
+        Assert.assertEquals("Sports-Category", allNotes.get(0).getCategory().getCategoryName());
+        Assert.assertEquals("Sms-Reminder", allNotes.get(0).getReminders().get(0).getReminderName());
+        Assert.assertNull(allNotes.get(1).getCategory());
+        // every propagation moves the user to a new version
+        Assert.assertEquals(Long.valueOf(4L), noteRepository.findVersion("Jhon123"));
+
+        Assert.assertEquals(1, noteRepository.removeReminderCopies("5b0509731764e3096984eae6"));
+        Assert.assertEquals(1, noteRepository.removeCategoryCopies("5b04f7411764e3765c35f8f6"));
+        Assert.assertEquals(0, noteRepository.removeCategoryCopies("5b04f7411764e3765c35f8f6"));
+
+        Note stripped = noteRepository.findNote("Jhon123", 1);
+        Assert.assertNull(stripped.getCategory());
+        Assert.assertTrue(stripped.getReminders().isEmpty());
+    }
+
+    @Test
+    public void touchReferencesTest() {
+
+        noteRepository.insertNote("Jhon123", note);
+        long created = noteRepository.findNote("Jhon123", 1).getChangeSeq();
+        Long version = noteRepository.findVersion("Jhon123");
+
+        // a renamed category only moves the referencing notes and their user to a new version
+        Assert.assertEquals(1, noteRepository.touchCategoryReferences("5b04f7411764e3765c35f8f6"));
+        Assert.assertEquals(Long.valueOf(created + 1), noteRepository.findNote("Jhon123", 1).getChangeSeq());
+        Assert.assertEquals("Cricket-Category", noteRepository.findNote("Jhon123", 1).getCategory().getCategoryName());
+        Assert.assertEquals(Long.valueOf(version + 1), noteRepository.findVersion("Jhon123"));
+        Assert.assertTrue(noteRepository.findChangesSince("Jhon123", version).isFullResync());
+
+        Assert.assertEquals(1, noteRepository.touchReminderReferences("5b0509731764e3096984eae6"));
+        Assert.assertEquals(0, noteRepository.touchReminderReferences("unknown"));
+    }
+
+    @Test
+    public void patchNoteTest() {
+
+        Note other = new Note();
+        other.setNoteId(2);
+        other.setNoteContent("Milk");
+        noteRepository.insertNote("Jhon123", note);
+        noteRepository.insertNote("Jhon123", other);
+
+        long created = note.getChangeSeq();
+        NotePatch patch = new NotePatch();
+        patch.set("noteTitle", "IPL final");
+        patch.set("category.categoryName", "Sports-Category");
+        patch.unset("noteStatus");
+
+        Note patched = noteRepository.patchNote("Jhon123", 1, patch, created);
+        Assert.assertEquals(Long.valueOf(created + 1), patched.getChangeSeq());
+        Assert.assertNull(patched.getNoteStatus());
+        Assert.assertEquals(note.getCategory().getCategoryId(), patched.getCategory().getCategoryId());
+        // only the fields needed for the ETag and the counters come back
+        Assert.assertNull(patched.getNoteTitle());
+        Assert.assertNull(patched.getNoteContent());
+
+        Note stored = noteRepository.findNote("Jhon123", 1);
+        Assert.assertEquals("IPL final", stored.getNoteTitle());
+        Assert.assertEquals("Sports-Category", stored.getCategory().getCategoryName());
+        // untouched fields are kept
+        Assert.assertEquals("Mumbai Indians vs RCB match scheduled  for 4 PM", stored.getNoteContent());
+        Assert.assertEquals("All about Cricket", stored.getCategory().getCategoryDescription());
+        Assert.assertEquals("Milk", noteRepository.findNote("Jhon123", 2).getNoteContent());
+
+        try {
+            noteRepository.patchNote("Jhon123", 1, patch, created);
+            Assert.fail();
+        } catch (OptimisticLockingFailureException exception) {
+            Assert.assertEquals(Long.valueOf(3L), noteRepository.findVersion("Jhon123"));
+        }
+        Assert.assertNull(noteRepository.patchNote("Jhon123", 99, patch, null));
+    }
+
+    @Test
+    public void updateNotePositionalNotFoundTest() {
+
+        noteRepository.insert(noteUser);
+        Note missing = new Note();
+        missing.setNoteId(99);
+        Assert.assertFalse(noteRepository.updateNote("Jhon123", missing));
+        Assert.assertFalse(noteRepository.updateNote("Unknown", note));
+    }
+
+    @Test
+    public void deleteNotePullTest() {
+
+        noteRepository.insert(noteUser);
+        Assert.assertTrue(noteRepository.deleteNote("Jhon123", 1));
+        Assert.assertTrue(noteRepository.findById("Jhon123").get().getNotes().isEmpty());
+        Assert.assertFalse(noteRepository.deleteNote("Jhon123", 1));
+        Assert.assertFalse(noteRepository.deleteNote("Unknown", 1));
+    }
+
+    @Test
+    public void findNoteProjectionTest() {
+
+        Note other = new Note();
+        other.setNoteId(2);
+        other.setNoteTitle("Shopping");
+        noteList.add(other);
+        noteRepository.insert(noteUser);
+
+        Note fetched = noteRepository.findNote("Jhon123", 2);
+        Assert.assertEquals(2, fetched.getNoteId());
+        Assert.assertEquals("Shopping", fetched.getNoteTitle());
+        Assert.assertNull(noteRepository.findNote("Jhon123", 3));
+        Assert.assertNull(noteRepository.findNote("Unknown", 1));
+    }
+
+    @Test
+    public void findNoteSummariesProjectionTest() {
+
+        noteRepository.insert(noteUser);
+
+        List<NoteSummary> summaries = noteRepository.findNoteSummaries("Jhon123");
+        Assert.assertEquals(1, summaries.size());
+        Assert.assertEquals("IPL lists", summaries.get(0).getNoteTitle());
+        Assert.assertEquals("Active", summaries.get(0).getNoteStatus());
+        Assert.assertEquals("Cricket-Category", summaries.get(0).getCategoryName());
+        Assert.assertNull(noteRepository.findNoteSummaries("Unknown"));
+    }
+
+    @Test
+    public void findNotesFilterTest() {
+
+        Date lastWeek = new Date(System.currentTimeMillis() - 7L * 24 * 60 * 60 * 1000);
+        Note archived = new Note();
+        archived.setNoteId(2);
+        archived.setNoteStatus("Archived");
+        archived.setCategory(category);
+        archived.setNoteCreationDate(new Date());
+        Note old = new Note();
+        old.setNoteId(3);
+        old.setNoteStatus("Active");
+        old.setCategory(category);
+        old.setNoteCreationDate(new Date(lastWeek.getTime() - 1000));
+        noteList.add(archived);
+        noteList.add(old);
+        noteRepository.insert(noteUser);
+
+        List<Note> notes = noteRepository.findNotes("Jhon123", new NoteFilter("Active", "Cricket-Category", lastWeek, null));
+        Assert.assertEquals(1, notes.size());
+        Assert.assertEquals(1, notes.get(0).getNoteId());
+        Assert.assertEquals(note.getNoteContent(), notes.get(0).getNoteContent());
+
+        Assert.assertEquals(2, noteRepository.findNotes("Jhon123", new NoteFilter("Active", null, null, null)).size());
+        Assert.assertTrue(noteRepository.findNotes("Jhon123", new NoteFilter(null, "Shopping", null, null)).isEmpty());
+        // notes which keep category references are filtered by categoryId
+        Assert.assertEquals(3, noteRepository.findNotes("Jhon123", new NoteFilter(null, category.getCategoryId(), null, null, null)).size());
+        Assert.assertTrue(noteRepository.findNotes("Jhon123", new NoteFilter(null, "unknown", null, null, null)).isEmpty());
+        Assert.assertTrue(noteRepository.findNotes("Nobody", new NoteFilter("Active", null, null, null)).isEmpty());
+    }
+
+    @Test
+    public void findNotesAfterTest() {
+
+        for (int noteId = 5; noteId >= 2; noteId--) {
+            Note other = new Note();
+            other.setNoteId(noteId);
+            noteList.add(other);
+        }
+        noteRepository.insert(noteUser);
+
+        List<Note> firstPage = noteRepository.findNotesAfter("Jhon123", null, 2);
+        Assert.assertEquals(2, firstPage.size());
+        Assert.assertEquals(1, firstPage.get(0).getNoteId());
+        Assert.assertEquals(2, firstPage.get(1).getNoteId());
+
+        List<Note> lastPage = noteRepository.findNotesAfter("Jhon123", 3, 10);
+        Assert.assertEquals(2, lastPage.size());
+        Assert.assertEquals(4, lastPage.get(0).getNoteId());
+        Assert.assertEquals(5, lastPage.get(1).getNoteId());
+    }
+
+    @Test
+    public void streamNotesTest() {
+
+        for (int noteId = 5; noteId >= 2; noteId--) {
+            Note other = new Note();
+            other.setNoteId(noteId);
+            noteList.add(other);
+        }
+        noteRepository.insert(noteUser);
+
+        Assert.assertEquals(Integer.valueOf(3), noteRepository.findPageEnd("Jhon123", 1, 2));
+        Assert.assertNull(noteRepository.findPageEnd("Jhon123", 3, 2));
+        Assert.assertNull(noteRepository.findPageEnd("Mary", null, 2));
+        Assert.assertEquals(Arrays.asList(2, 3), noteRepository.findNoteIdsAfter("Jhon123", 1, 2));
+        Assert.assertTrue(noteRepository.findNoteIdsAfter("Jhon123", 5, 2).isEmpty());
+
+        List<Integer> noteIds = new ArrayList<>();
+        try (CloseableIterator<Note> notes = noteRepository.streamNotes("Jhon123", 1, 3)) {
+            notes.forEachRemaining(streamed -> noteIds.add(streamed.getNoteId()));
+        }
+        Assert.assertEquals(Arrays.asList(2, 3), noteIds);
+
+        noteIds.clear();
+        try (CloseableIterator<Note> notes = noteRepository.streamNotes("Jhon123", 3, null)) {
+            notes.forEachRemaining(streamed -> noteIds.add(streamed.getNoteId()));
+        }
+        Assert.assertEquals(Arrays.asList(4, 5), noteIds);
+    }
+
+    @Test
+    public void insertNotePushTest() {
+
+        Assert.assertTrue(noteRepository.insertNote("Jhon123", note));
+        Note other = new Note();
+        other.setNoteId(2);
+        Assert.assertTrue(noteRepository.insertNote("Jhon123", other));
+        Assert.assertFalse(noteRepository.insertNote("Jhon123", note));
+        Assert.assertEquals(2, noteRepository.findAllNotes("Jhon123").size());
+    }
+
+    @Test
+    public void insertNotesPushEachTest() {
+
+        Assert.assertTrue(noteRepository.insertNote("Jhon123", note));
+        Note second = new Note();
+        second.setNoteId(2);
+        Note third = new Note();
+        third.setNoteId(3);
+        Assert.assertTrue(noteRepository.insertNotes("Jhon123", Arrays.asList(second, third)));
+        Assert.assertEquals(3, noteRepository.findAllNotes("Jhon123").size());
+
+        Note fourth = new Note();
+        fourth.setNoteId(4);
+        Assert.assertFalse(noteRepository.insertNotes("Jhon123", Arrays.asList(fourth, note)));
+        Assert.assertEquals(3, noteRepository.findAllNotes("Jhon123").size());
+    }
+
+    @Test
+    public void deleteNotesPullInTest() {
+
+        Note second = new Note();
+        second.setNoteId(2);
+        Note third = new Note();
+        third.setNoteId(3);
+        noteRepository.insertNotes("Jhon123", Arrays.asList(note, second, third));
+
+        List<Integer> removed = noteRepository.deleteNotes("Jhon123", Arrays.asList(3, 1, 9));
+        Assert.assertEquals(Arrays.asList(1, 3), removed);
+        Assert.assertEquals(1, noteRepository.findAllNotes("Jhon123").size());
+        Assert.assertTrue(noteRepository.deleteNotes("Jhon123", Arrays.asList(1, 3)).isEmpty());
+    }
+
+    @Test
+    public void writesIncrementVersionTest() {
+
+        Assert.assertNull(noteRepository.findVersion("Jhon123"));
+        noteRepository.insertNote("Jhon123", note);
+        Assert.assertEquals(Long.valueOf(1L), noteRepository.findVersion("Jhon123"));
+        noteRepository.updateNote("Jhon123", note);
+        Assert.assertFalse(noteRepository.deleteNote("Jhon123", 99));
+        Assert.assertEquals(Long.valueOf(2L), noteRepository.findVersion("Jhon123"));
+        noteRepository.deleteNote("Jhon123", note.getNoteId());
+        Assert.assertEquals(Long.valueOf(3L), noteRepository.findVersion("Jhon123"));
+    }
+
+    @Test
+    public void changesSinceTest() {
+
+        Note second = new Note();
+        second.setNoteId(2);
+        noteRepository.insertNote("Jhon123", note);
+        noteRepository.insertNote("Jhon123", second);
+        noteRepository.updateNote("Jhon123", note);
+        noteRepository.deleteNote("Jhon123", 2);
+
+        NoteChanges changes = noteRepository.findChangesSince("Jhon123", 1);
+        Assert.assertFalse(changes.isFullResync());
+        Assert.assertEquals(4, changes.getNextSince());
+        Assert.assertEquals(1, changes.getChanged().size());
+        Assert.assertEquals(note.getChangeSeq(), changes.getChanged().get(0).getChangeSeq());
+        Assert.assertEquals(Arrays.asList(2), changes.getDeletedNoteIds());
+        Assert.assertTrue(noteRepository.findChangesSince("Jhon123", 3).getChanged().isEmpty());
+        Assert.assertEquals(Arrays.asList(2), noteRepository.findChangesSince("Jhon123", 3).getDeletedNoteIds());
+        Assert.assertTrue(noteRepository.findChangesSince("Jhon123", 4).getDeletedNoteIds().isEmpty());
+        Assert.assertTrue(noteRepository.findChangesSince("Jhon123", 0).isFullResync());
+
+        Assert.assertEquals(4, noteRepository.compactChangeLogs(new Date(System.currentTimeMillis() + 1000)));
+        Assert.assertTrue(noteRepository.findChangesSince("Jhon123", 3).isFullResync());
+        Assert.assertFalse(noteRepository.findChangesSince("Jhon123", 4).isFullResync());
+    }
+
+    @Test
+    public void conditionalWritesTest() {
+
+        Note second = new Note();
+        second.setNoteId(2);
+        noteRepository.insertNote("Jhon123", note);
+        noteRepository.insertNote("Jhon123", second);
+        long created = note.getChangeSeq();
+
+        // the write of note 2 moved the user's version, but not the changeSeq of note 1
+        Assert.assertTrue(noteRepository.updateNote("Jhon123", note, created));
+        Assert.assertEquals(Long.valueOf(created + 1), noteRepository.findNote("Jhon123", 1).getChangeSeq());
+
+        try {
+            noteRepository.updateNote("Jhon123", note, created);
+            Assert.fail();
+        } catch (OptimisticLockingFailureException exception) {
+            Assert.assertEquals(Long.valueOf(3L), noteRepository.findVersion("Jhon123"));
+        }
+        try {
+            noteRepository.deleteNote("Jhon123", 1, created);
+            Assert.fail();
+        } catch (OptimisticLockingFailureException exception) {
+            Assert.assertTrue(noteRepository.findChangesSince("Jhon123", 3).getDeletedNoteIds().isEmpty());
+        }
+
+        Assert.assertFalse(noteRepository.updateNote("Jhon123", new Note(), 0L));
+        Assert.assertTrue(noteRepository.deleteNote("Jhon123", 1, created + 1));
+        Assert.assertEquals(1, noteRepository.findAllNotes("Jhon123").size());
+    }
+
+    @Test
+    public void concurrentWritersOfDifferentNotesTest() throws Exception {
+
+        Note second = new Note();
+        second.setNoteId(2);
+        noteRepository.insertNote("Jhon123", note);
+        noteRepository.insertNote("Jhon123", second);
+
+        ExecutorService writers = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> written = new ArrayList<>();
+            for (Note own : Arrays.asList(note, second)) {
+                // every conditional write expects the changeSeq of the previous one, only the other note is written meanwhile
+                written.add(writers.submit(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        Assert.assertTrue(noteRepository.updateNote("Jhon123", own, own.getChangeSeq()));
+                    }
+                }));
+            }
+            for (Future<?> writer : written) {
+                writer.get();
+            }
+        } finally {
+            writers.shutdown();
+        }
+
+        Assert.assertEquals(Long.valueOf(102L), noteRepository.findVersion("Jhon123"));
+        Assert.assertEquals(note.getChangeSeq(), noteRepository.findNote("Jhon123", 1).getChangeSeq());
+    }
+
+    @Test
+    public void largeContentStoredCompressedTest() {
+
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 20000) {
+            content.append("Mumbai Indians vs RCB match scheduled for 4 PM at Wankhede. ");
+        }
+        Note large = new Note();
+        large.setNoteId(2);
+        large.setNoteContent(content.toString());
+        noteRepository.insertNote("Jhon123", note);
+        noteRepository.insertNote("Jhon123", large);
+
+        Document stored = mongoOperations.getCollection(mongoOperations.getCollectionName(NoteUser.class)).find(new Document("_id", "Jhon123")).first();
+        List<?> storedNotes = stored.get("notes", List.class);
+        Assert.assertTrue(((Document) storedNotes.get(0)).get("noteContent") instanceof String);
+        Assert.assertTrue(((Document) storedNotes.get(1)).get("noteContent") instanceof Binary);
+        Assert.assertTrue(((Document) storedNotes.get(1)).get("noteContent", Binary.class).length() < content.length() / 10);
+
+        Assert.assertEquals(content.toString(), noteRepository.findNote("Jhon123", 2).getNoteContent());
+        Assert.assertEquals(note.getNoteContent(), noteRepository.findNote("Jhon123", 1).getNoteContent());
+
+        // a stored length beyond what the bytes can inflate to is not allocated
+        try {
+            NoteContent.ofCompressed(new byte[] {NoteContent.DEFLATE, 0x7f, 0, 0, 0, 0x78}).getText();
+            Assert.fail();
+        } catch (IllegalStateException exception) {
+            Assert.assertTrue(exception.getMessage().startsWith("Corrupt noteContent"));
+        }
+    }
+
+    @Test
+    public void reserveNoteIdsTest() {
+
+        Note other = new Note();
+        other.setNoteId(7);
+        noteList.add(other);
+        noteRepository.insert(noteUser);
+
+        Assert.assertEquals(8, noteRepository.reserveNoteIds("Jhon123", 1));
+        Assert.assertEquals(108, noteRepository.reserveNoteIds("Jhon123", 100));
+        Assert.assertEquals(1, noteRepository.reserveNoteIds("NewUser", 1));
+
+        // a taken id raises the counter to the highest stored noteId, never back
+        Note taken = new Note();
+        taken.setNoteId(500);
+        Assert.assertTrue(noteRepository.insertNote("Jhon123", taken));
+        Assert.assertEquals(500, noteRepository.raiseNoteIdCounter("Jhon123"));
+        Assert.assertEquals(501, noteRepository.reserveNoteIds("Jhon123", 1));
+        Assert.assertEquals(0, noteRepository.raiseNoteIdCounter("OtherUser"));
+        Assert.assertEquals(1, noteRepository.reserveNoteIds("OtherUser", 1));
+    }
+
     @Test
     public void getAllNotesByUserId() {
 
@@ -139,4 +652,163 @@ public class NoteRepositoryTest {
         List<Note> allNotes = noteRepository.findById("Jhon123").get().getNotes();
         Assert.assertEquals(1, allNotes.size());
     }
+
+    @Test
+    public void countNotesTest() {
+
+        Note second = new Note();
+        second.setNoteId(2);
+        second.setNoteTitle("no category");
+        second.setNoteStatus("Active");
+        noteList.add(second);
+        noteRepository.insert(noteUser);
+
+        NoteStats stats = noteRepository.countNotes("Jhon123");
+        Assert.assertEquals(2, stats.getTotal());
+        Assert.assertEquals(Long.valueOf(2), stats.getByStatus().get("Active"));
+        Assert.assertEquals(Long.valueOf(1), stats.getByCategory().get("5b04f7411764e3765c35f8f6"));
+        Assert.assertEquals(Long.valueOf(1), stats.getByCategory().get(NoteStats.NONE));
+
+        List<NoteSummary> summaries = noteRepository.findNoteSummaries("Jhon123", Collections.singletonList(2));
+        Assert.assertEquals(1, summaries.size());
+        Assert.assertEquals("no category", summaries.get(0).getNoteTitle());
+    }
+
+    @Test
+    public void noteStatsRecordChangeTest() {
+
+        // no counters yet, the change is left to the first read
+        noteStatsRepository.recordChange("Jhon123", Collections.emptyList(), Collections.singletonList(NoteSummary.of(note)));
+        Assert.assertNull(noteStatsRepository.findStats("Jhon123"));
+
+        noteStatsRepository.replace(new NoteStats("Jhon123"));
+        note.setNoteStatus("on.hold$");
+        noteStatsRepository.recordChange("Jhon123", Collections.emptyList(), Collections.singletonList(NoteSummary.of(note)));
+
+        NoteStats stats = noteStatsRepository.findStats("Jhon123");
+        Assert.assertEquals(1, stats.getTotal());
+        Assert.assertEquals(Long.valueOf(1), stats.getByStatus().get("on.hold$"));
+
+        noteStatsRepository.recordChange("Jhon123", Collections.singletonList(NoteSummary.of(note)), Collections.emptyList());
+        stats = noteStatsRepository.findStats("Jhon123");
+        Assert.assertEquals(0, stats.getTotal());
+        Assert.assertTrue(stats.getByStatus().isEmpty());
+    }
+
+    @Test
+    public void noteStatsLeaseTest() {
+
+        Date now = new Date();
+        Assert.assertTrue(noteStatsRepository.acquireLease("first", now, new Date(now.getTime() + 1000)));
+        Assert.assertFalse(noteStatsRepository.acquireLease("second", now, new Date(now.getTime() + 1000)));
+        Assert.assertTrue(noteStatsRepository.acquireLease("first", now, new Date(now.getTime() + 2000)));
+        // an expired lease is taken over
+        Assert.assertTrue(noteStatsRepository.acquireLease("second", new Date(now.getTime() + 3000), new Date(now.getTime() + 4000)));
+    }
+
+    @Test
+    public void noteWritesMoveStatsTest() {
+
+        Note second = new Note();
+        second.setNoteId(2);
+        second.setNoteStatus("Active");
+        // the first notes of a user start its counters
+        noteRepository.insertNote("Jhon123", note);
+        noteRepository.insertNotes("Jhon123", Collections.singletonList(second));
+
+        Note done = new Note();
+        done.setNoteId(1);
+        done.setNoteStatus("Done");
+        noteRepository.updateNote("Jhon123", done);
+        NotePatch patch = new NotePatch();
+        patch.set("noteStatus", "Done");
+        noteRepository.patchNote("Jhon123", 2, patch, null);
+
+        NoteStats stats = noteRepository.countNotes("Jhon123");
+        Assert.assertTrue(stats.sameCounts(noteStatsRepository.findStats("Jhon123")));
+        Assert.assertEquals(Long.valueOf(2), noteStatsRepository.findStats("Jhon123").getByStatus().get("Done"));
+
+        // deletes which remove nothing do not count
+        Assert.assertEquals(Arrays.asList(1), noteRepository.deleteNotes("Jhon123", Arrays.asList(1, 9)));
+        Assert.assertFalse(noteRepository.deleteNote("Jhon123", 1));
+        Assert.assertTrue(noteRepository.deleteNote("Jhon123", 2));
+        Assert.assertEquals(0, noteStatsRepository.findStats("Jhon123").getTotal());
+
+        // a user whose notes predate the counters gets none until reconciled
+        noteRepository.insert(new NoteUser("Mary", new ArrayList<>()));
+        noteRepository.insertNote("Mary", note);
+        Assert.assertNull(noteStatsRepository.findStats("Mary"));
+    }
+
+    @Test
+    public void archivableNotesTest() {
+
+        Note old = new Note();
+        old.setNoteId(2);
+        old.setNoteStatus("Active");
+        old.setNoteCreationDate(new Date(System.currentTimeMillis() - 86400000L * 365));
+        Note done = new Note();
+        done.setNoteId(3);
+        done.setNoteStatus("archived");
+        done.setNoteCreationDate(new Date());
+        noteList.add(old);
+        noteList.add(done);
+        noteRepository.insert(noteUser);
+
+        Date createdBefore = new Date(System.currentTimeMillis() - 86400000L * 180);
+        Assert.assertEquals(Arrays.asList("Jhon123"), noteRepository.findArchivableUserIds(createdBefore, "archived", 10));
+
+        List<Note> archivable = noteRepository.findArchivableNotes("Jhon123", createdBefore, "archived", 10);
+        Assert.assertEquals(2, archivable.size());
+        Assert.assertEquals(1, noteRepository.findArchivableNotes("Jhon123", null, "archived", 10).size());
+        Assert.assertEquals(1, noteRepository.findArchivableNotes("Jhon123", createdBefore, null, 1).size());
+    }
+
+    @Test
+    public void noteArchiveTest() {
+
+        Note second = new Note();
+        second.setNoteId(2);
+        second.setNoteTitle("old");
+        String moveId = noteArchiveRepository.saveNotes("Jhon123", Arrays.asList(second, note));
+        // copies are pending until confirmed
+        Assert.assertTrue(noteArchiveRepository.findAllNotes("Jhon123").isEmpty());
+        // but their noteIds are taken already, and the noteId counter starts above them
+        Assert.assertEquals(Collections.singletonList(2), noteArchiveRepository.findArchivedNoteIds("Jhon123", Arrays.asList(2, 3)));
+        Assert.assertEquals(2, noteRepository.raiseNoteIdCounter("Jhon123"));
+        Assert.assertEquals(2, noteArchiveRepository.findPendingNotes(new Date(System.currentTimeMillis() + 1000), 10).size());
+        noteArchiveRepository.confirmNotes("Jhon123", moveId, Arrays.asList(1, 2));
+        Assert.assertTrue(noteArchiveRepository.findPendingNotes(new Date(System.currentTimeMillis() + 1000), 10).isEmpty());
+
+        // a second move of the same noteId, e.g. reused by a client, keeps the first copy
+        Note reused = new Note();
+        reused.setNoteId(1);
+        reused.setNoteTitle("reused");
+        String secondMoveId = noteArchiveRepository.saveNotes("Jhon123", Collections.singletonList(reused));
+        Assert.assertNotEquals(moveId, secondMoveId);
+        noteArchiveRepository.discardNotes("Jhon123", secondMoveId, Collections.singletonList(1));
+        // discarding leaves confirmed copies alone
+        noteArchiveRepository.discardNotes("Jhon123", moveId, Collections.singletonList(1));
+
+        List<Note> archived = noteArchiveRepository.findAllNotes("Jhon123");
+        Assert.assertEquals(2, archived.size());
+        Assert.assertEquals(1, archived.get(0).getNoteId());
+        Assert.assertEquals("IPL lists", archived.get(0).getNoteTitle());
+
+        List<Note> page = noteArchiveRepository.findNotesAfter("Jhon123", 1, 10);
+        Assert.assertEquals(1, page.size());
+        Assert.assertEquals("old", page.get(0).getNoteTitle());
+
+        Assert.assertEquals(Arrays.asList(1, 2), noteArchiveRepository.findNoteIdsAfter("Jhon123", null, 10));
+        Assert.assertEquals(Collections.singletonList(2), noteArchiveRepository.findNoteIdsAfter("Jhon123", 1, 10));
+        try (CloseableIterator<Note> notes = noteArchiveRepository.streamNotes("Jhon123", null, 1)) {
+            Assert.assertEquals("IPL lists", notes.next().getNoteTitle());
+            Assert.assertFalse(notes.hasNext());
+        }
+
+        Assert.assertEquals(Collections.singletonList(2), noteArchiveRepository.deleteNotes("Jhon123", Arrays.asList(2, 5)));
+        Assert.assertTrue(noteArchiveRepository.deleteNote("Jhon123", 1));
+        Assert.assertFalse(noteArchiveRepository.deleteNote("Jhon123", 1));
+        Assert.assertEquals(0, noteArchiveRepository.deleteAllNotes("Jhon123"));
+    }
 }
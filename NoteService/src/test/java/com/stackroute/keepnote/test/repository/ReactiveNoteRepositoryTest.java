@@ -0,0 +1,107 @@
+package com.stackroute.keepnote.test.repository;
+
+import com.stackroute.keepnote.config.MongoConfig;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteStats;
+import com.stackroute.keepnote.repository.NoteStatsRepository;
+import com.stackroute.keepnote.repository.ReactiveNoteRepository;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@DataMongoTest
+@Import(MongoConfig.class)
+public class ReactiveNoteRepositoryTest {
+
+    @Autowired
+    private ReactiveNoteRepository noteRepository;
+
+    @Autowired
+    private NoteStatsRepository noteStatsRepository;
+
+    @Autowired
+    private MongoOperations mongoOperations;
+
+    @After
+    public void tearDown() throws Exception {
+
+        noteRepository.deleteAll().block();
+        mongoOperations.dropCollection(NoteStats.class);
+    }
+
+    @Test
+    public void insertAndFindNoteTest() {
+
+        Assert.assertTrue(noteRepository.insertNote("Jhon123", newNote(1)).block());
+        Assert.assertFalse(noteRepository.insertNote("Jhon123", newNote(1)).block());
+        Assert.assertEquals("Note 1", noteRepository.findNote("Jhon123", 1).block().getNoteTitle());
+        Assert.assertNull(noteRepository.findNote("Jhon123", 2).block());
+        Assert.assertEquals(Long.valueOf(1L), noteRepository.findVersion("Jhon123").block());
+    }
+
+    @Test
+    public void conditionalWritesTest() {
+
+        Note first = newNote(1);
+        noteRepository.insertNote("Jhon123", first).block();
+        noteRepository.insertNote("Jhon123", newNote(2)).block();
+        long created = first.getChangeSeq();
+
+        Assert.assertTrue(noteRepository.updateNote("Jhon123", newNote(1), created).block());
+        try {
+            noteRepository.updateNote("Jhon123", newNote(1), created).block();
+            Assert.fail();
+        } catch (OptimisticLockingFailureException exception) {
+            Assert.assertEquals(Long.valueOf(3L), noteRepository.findVersion("Jhon123").block());
+        }
+        try {
+            noteRepository.deleteNote("Jhon123", 1, created).block();
+            Assert.fail();
+        } catch (OptimisticLockingFailureException exception) {
+            Assert.assertEquals(Long.valueOf(3L), noteRepository.findVersion("Jhon123").block());
+        }
+
+        Assert.assertFalse(noteRepository.updateNote("Jhon123", newNote(9), null).block());
+        // a note which is not there is not logged as deleted
+        Assert.assertFalse(noteRepository.deleteNote("Jhon123", 9, null).block());
+        Assert.assertEquals(Long.valueOf(3L), noteRepository.findVersion("Jhon123").block());
+        Assert.assertTrue(noteRepository.deleteNote("Jhon123", 1, created + 1).block());
+        Assert.assertEquals(1, noteRepository.findNoteSummaries("Jhon123").block().size());
+        Assert.assertTrue(noteRepository.deleteAllNotes("Jhon123").block());
+        Assert.assertFalse(noteRepository.deleteAllNotes("Unknown").block());
+    }
+
+    @Test
+    public void writesAreCountedTest() {
+
+        noteRepository.insertNote("Jhon123", newNote(1)).block();
+        noteRepository.insertNote("Jhon123", newNote(2)).block();
+        Assert.assertEquals(2, noteStatsRepository.findStats("Jhon123").getTotal());
+
+        Note archived = newNote(1);
+        archived.setNoteStatus("Archived");
+        noteRepository.updateNote("Jhon123", archived, null).block();
+        Assert.assertEquals(Long.valueOf(1), noteStatsRepository.findStats("Jhon123").getByStatus().get("Archived"));
+
+        noteRepository.deleteNote("Jhon123", 2, null).block();
+        Assert.assertEquals(1, noteStatsRepository.findStats("Jhon123").getTotal());
+        noteRepository.deleteAllNotes("Jhon123").block();
+        Assert.assertEquals(0, noteStatsRepository.findStats("Jhon123").getTotal());
+    }
+
+    private static Note newNote(int noteId) {
+        Note note = new Note();
+        note.setNoteId(noteId);
+        note.setNoteTitle("Note " + noteId);
+        note.setNoteContent("Content of note " + noteId);
+        return note;
+    }
+}
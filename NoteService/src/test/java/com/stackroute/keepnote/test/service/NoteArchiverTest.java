@@ -0,0 +1,135 @@
+package com.stackroute.keepnote.test.service;
+
+import com.stackroute.keepnote.model.ArchivedNote;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.repository.NoteArchiveRepository;
+import com.stackroute.keepnote.repository.NoteRepository;
+import com.stackroute.keepnote.service.NoteArchiver;
+import com.stackroute.keepnote.service.NoteCache;
+import com.stackroute.keepnote.service.NoteSearchService;
+import com.stackroute.keepnote.service.NoteWriteBehind;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NoteArchiverTest {
+
+    @Mock
+    private NoteRepository noteRepository;
+    @Mock
+    private NoteArchiveRepository noteArchiveRepository;
+    @Mock
+    private NoteSearchService noteSearchService;
+    @Mock
+    private NoteWriteBehind noteWriteBehind;
+
+    private NoteArchiver noteArchiver;
+
+    @Before
+    public void setUp() throws Exception {
+
+        MockitoAnnotations.initMocks(this);
+        // archives by status only
+        noteArchiver = new NoteArchiver(noteRepository, noteArchiveRepository, noteSearchService,
+                new NoteCache(1024 * 1024, 60000), noteWriteBehind, 0, "archived", 3, 600000);
+    }
+
+    @Test
+    public void unchangedNotesAreMoved() {
+
+        Note first = newNote(1, 4L);
+        Note changed = newNote(2, 5L);
+        Note gone = newNote(3, 6L);
+        List<Note> notes = Arrays.asList(first, changed, gone);
+
+        when(noteRepository.findArchivableUserIds(isNull(), eq("archived"), eq(3))).thenReturn(Arrays.asList("Jhon123", "Mary"));
+        when(noteRepository.findArchivableNotes("Jhon123", null, "archived", 3)).thenReturn(notes);
+        when(noteArchiveRepository.saveNotes("Jhon123", notes)).thenReturn("move1");
+        when(noteRepository.deleteNote("Jhon123", 1, 4L)).thenReturn(true);
+        when(noteRepository.deleteNote("Jhon123", 2, 5L))
+                .thenThrow(new OptimisticLockingFailureException("Note 2 of Jhon123 was changed concurrently"));
+        when(noteRepository.deleteNote("Jhon123", 3, 6L)).thenReturn(false);
+
+        Assert.assertEquals(1, noteArchiver.archiveBatch());
+
+        verify(noteWriteBehind, times(1)).flush();
+        verify(noteArchiveRepository, times(1)).saveNotes("Jhon123", notes);
+        verify(noteArchiveRepository, times(1)).confirmNotes("Jhon123", "move1", Collections.singletonList(1));
+        // the copies of the changed note, which stays with its user, and of the gone note are dropped
+        verify(noteArchiveRepository, times(1)).discardNotes("Jhon123", "move1", Arrays.asList(2, 3));
+        verify(noteArchiveRepository, never()).deleteNotes(any(), any());
+        verify(noteSearchService, times(1)).removeNote("Jhon123", 1);
+        verify(noteSearchService, never()).removeNote("Jhon123", 3);
+
+        // the batch was used up by the first user
+        verify(noteRepository, never()).findArchivableNotes(eq("Mary"), any(), any(), anyInt());
+    }
+
+    @Test
+    public void pendingCopiesAreSettled() {
+
+        Note live = newNote(1, 4L);
+        live.setNoteCreationDate(new Date(1000));
+        Note reused = newNote(2, 5L);
+        reused.setNoteCreationDate(new Date(3000));
+
+        when(noteArchiveRepository.findPendingNotes(any(), eq(3))).thenReturn(Arrays.asList(
+                newArchivedNote(1, new Date(1000)), newArchivedNote(2, new Date(2000)), newArchivedNote(3, new Date(2000))));
+        when(noteRepository.findNote("Jhon123", 1)).thenReturn(live);
+        when(noteRepository.findNote("Jhon123", 2)).thenReturn(reused);
+
+        noteArchiver.archiveBatch();
+
+        // note 1 is still with its user, note 2 was moved and its noteId reused, note 3 was moved
+        verify(noteArchiveRepository, times(1)).discardNotes("Jhon123", "move0", Collections.singletonList(1));
+        verify(noteArchiveRepository, times(1)).confirmNotes("Jhon123", "move0", Collections.singletonList(2));
+        verify(noteArchiveRepository, times(1)).confirmNotes("Jhon123", "move0", Collections.singletonList(3));
+        verify(noteSearchService, times(1)).removeNote("Jhon123", 3);
+        verify(noteSearchService, never()).removeNote("Jhon123", 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void neitherAgeNorStatusIsRejected() {
+
+        new NoteArchiver(noteRepository, noteArchiveRepository, noteSearchService,
+                new NoteCache(1024 * 1024, 60000), noteWriteBehind, 0, "", 3, 600000);
+    }
+
+    private static ArchivedNote newArchivedNote(int noteId, Date noteCreationDate) {
+        Note note = new Note();
+        note.setNoteCreationDate(noteCreationDate);
+        ArchivedNote archivedNote = new ArchivedNote();
+        archivedNote.setUserId("Jhon123");
+        archivedNote.setNoteId(noteId);
+        archivedNote.setMoveId("move0");
+        archivedNote.setPending(true);
+        archivedNote.setNote(note);
+        return archivedNote;
+    }
+
+    private static Note newNote(int noteId, long changeSeq) {
+        Note note = new Note();
+        note.setNoteId(noteId);
+        note.setNoteTitle("note " + noteId);
+        note.setNoteStatus("archived");
+        note.setChangeSeq(changeSeq);
+        return note;
+    }
+}
@@ -0,0 +1,72 @@
+package com.stackroute.keepnote.test.service;
+
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteUser;
+import com.stackroute.keepnote.service.NoteCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class NoteCacheTest {
+
+    @Test
+    public void invalidateDuringLoadDropsLoadedNotes() throws Exception {
+
+        NoteCache noteCache = new NoteCache(1024 * 1024, 60000);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread reader = new Thread(() -> noteCache.getNoteUser("Jhon123", userId -> {
+            loading.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+            return new NoteUser(userId, Collections.singletonList(newNote(1, "stale")));
+        }));
+        reader.start();
+        Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        // a writer invalidating while the stale list is being loaded
+        Thread writer = new Thread(() -> noteCache.invalidate("Jhon123"));
+        writer.start();
+        release.countDown();
+        reader.join(5000);
+        writer.join(5000);
+
+        Assert.assertNull(noteCache.getNotesIfPresent("Jhon123"));
+    }
+
+    @Test
+    public void evictsBeyondWeightBudget() {
+
+        NoteCache noteCache = new NoteCache(64 * 1024, 60000);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 4096; i++) {
+            content.append('x');
+        }
+
+        for (int user = 0; user < 50; user++) {
+            List<Note> notes = new ArrayList<>();
+            notes.add(newNote(1, content.toString()));
+            noteCache.getNoteUser("user" + user, userId -> new NoteUser(userId, notes));
+        }
+
+        Assert.assertTrue(noteCache.getStats().getWeightedSize() <= 64 * 1024);
+        Assert.assertTrue(noteCache.getStats().getEvictionCount() > 0);
+        Assert.assertEquals(50, noteCache.getStats().getMissCount());
+    }
+
+    private static Note newNote(int noteId, String content) {
+        Note note = new Note();
+        note.setNoteId(noteId);
+        note.setNoteContent(content);
+        return note;
+    }
+}
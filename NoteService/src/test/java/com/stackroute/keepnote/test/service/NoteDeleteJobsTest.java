@@ -0,0 +1,59 @@
+package com.stackroute.keepnote.test.service;
+
+import com.stackroute.keepnote.model.NoteDeleteJob;
+import com.stackroute.keepnote.service.NoteDeleteJobs;
+import com.stackroute.keepnote.service.NoteService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NoteDeleteJobsTest {
+
+    @Mock
+    private NoteService noteService;
+
+    private NoteDeleteJobs noteDeleteJobs;
+
+    @Before
+    public void setUp() {
+
+        MockitoAnnotations.initMocks(this);
+        noteDeleteJobs = new NoteDeleteJobs(noteService, 2, 60000);
+    }
+
+    @After
+    public void tearDown() {
+        noteDeleteJobs.close();
+    }
+
+    @Test
+    public void jobDeletesInChunks() throws Exception {
+
+        when(noteService.deleteNotes(eq("Jhon123"), any())).thenAnswer(invocation -> invocation.getArgument(1));
+
+        NoteDeleteJob job = noteDeleteJobs.submit("Jhon123", Arrays.asList(1, 2, 3, 4, 5));
+
+        for (int i = 0; i < 100 && NoteDeleteJob.RUNNING.equals(job.getStatus()); i++) {
+            Thread.sleep(50);
+        }
+
+        Assert.assertEquals(NoteDeleteJob.DONE, job.getStatus());
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5), new ArrayList<>(job.getDeletedNoteIds()));
+        Assert.assertEquals(5, job.getDeleted());
+        verify(noteService, times(3)).deleteNotes(eq("Jhon123"), any());
+        Assert.assertSame(job, noteDeleteJobs.getJob("Jhon123", job.getJobId()));
+        Assert.assertNull(noteDeleteJobs.getJob("Other", job.getJobId()));
+    }
+}
@@ -0,0 +1,112 @@
+package com.stackroute.keepnote.test.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteBatchResult;
+import com.stackroute.keepnote.model.NoteImportResult;
+import com.stackroute.keepnote.service.NoteImporter;
+import com.stackroute.keepnote.service.NoteService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+public class NoteImporterTest {
+
+    @Mock
+    private NoteService noteService;
+
+    private NoteImporter noteImporter;
+
+    private final Map<String, List<Integer>> written = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() {
+
+        MockitoAnnotations.initMocks(this);
+        // 2 workers writing batches of 2 notes, noteId 3 is taken
+        noteImporter = new NoteImporter(noteService, new ObjectMapper(), 2, 2, 1, 10, 0);
+
+        when(noteService.createNotes(anyString(), any())).thenAnswer(invocation -> {
+            String userId = invocation.getArgument(0);
+            Iterator<Note> notes = invocation.getArgument(1);
+            List<NoteBatchResult> results = new ArrayList<>();
+            while (notes.hasNext()) {
+                Note note = notes.next();
+                String status = note.getNoteId() == 3 ? NoteBatchResult.CONFLICT : NoteBatchResult.CREATED;
+                results.add(new NoteBatchResult(results.size(), note.getNoteId(), status));
+                written.computeIfAbsent(userId, user -> Collections.synchronizedList(new ArrayList<>())).add(note.getNoteId());
+            }
+            return results;
+        });
+    }
+
+    @Test
+    public void importKeepsOrderPerUserAndReportsRejectedNotes() throws Exception {
+
+        StringBuilder dump = new StringBuilder();
+        for (int noteId = 1; noteId <= 5; noteId++) {
+            dump.append(note("Jhon123", noteId)).append('\n');
+            dump.append(note("Mary", 10 + noteId)).append('\n');
+        }
+        dump.append("{\"noteId\":20,\"noteTitle\":\"no owner\"}\n");
+        dump.append("{\"noteId\":\"x\",\"noteCreatedBy\":\"Mary\",\"noteTitle\":\"bad id\"}\n");
+
+        NoteImportResult result = noteImporter.importNotes(input(dump.toString()));
+
+        Assert.assertEquals(12, result.getRead());
+        Assert.assertEquals(9, result.getImported());
+        Assert.assertEquals(3, result.getRejected());
+        Assert.assertNull(result.getFailure());
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5), written.get("Jhon123"));
+        Assert.assertEquals(Arrays.asList(11, 12, 13, 14, 15), written.get("Mary"));
+
+        List<Long> positions = new ArrayList<>();
+        result.getErrors().forEach(error -> positions.add(error.getPosition()));
+        Collections.sort(positions);
+        Assert.assertEquals(Arrays.asList(4L, 10L, 11L), positions);
+    }
+
+    @Test
+    public void importReadsGzipArrayUpToMalformedNote() throws Exception {
+
+        String dump = "[" + note("Jhon123", 1) + "," + note("Jhon123", 2) + ",{\"noteId\":";
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(dump.getBytes(StandardCharsets.UTF_8));
+        }
+
+        NoteImportResult result = noteImporter.importNotes(new ByteArrayInputStream(compressed.toByteArray()));
+
+        Assert.assertNotNull(result.getFailure());
+        Assert.assertEquals(2, result.getRead());
+        Assert.assertEquals(2, result.getImported());
+        Assert.assertEquals(Arrays.asList(1, 2), written.get("Jhon123"));
+    }
+
+    private static String note(String userId, int noteId) {
+        return "{\"noteId\":" + noteId + ",\"noteTitle\":\"Note " + noteId + "\",\"noteCreatedBy\":\"" + userId + "\"}";
+    }
+
+    private static InputStream input(String dump) {
+        return new ByteArrayInputStream(dump.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,162 @@
+package com.stackroute.keepnote.test.service;
+
+import com.stackroute.keepnote.model.Category;
+import com.stackroute.keepnote.model.NoteOutboxEntry;
+import com.stackroute.keepnote.model.NoteOutboxStats;
+import com.stackroute.keepnote.repository.NoteOutboxRepository;
+import com.stackroute.keepnote.repository.NoteRepository;
+import com.stackroute.keepnote.service.NoteCache;
+import com.stackroute.keepnote.service.NoteOutboxWorker;
+import com.stackroute.keepnote.service.NoteReferences;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NoteOutboxWorkerTest {
+
+    @Mock
+    private NoteOutboxRepository noteOutboxRepository;
+    @Mock
+    private NoteRepository noteRepository;
+
+    private NoteOutboxWorker noteOutboxWorker;
+
+    @Before
+    public void setUp() throws Exception {
+
+        MockitoAnnotations.initMocks(this);
+        noteOutboxWorker = new NoteOutboxWorker(noteOutboxRepository, noteRepository, new NoteCache(1024 * 1024, 60000),
+                new NoteReferences(false, null, 100, 60000), true, 10, 2, 1000, 30000);
+        when(noteOutboxRepository.acquireLease(anyString(), any(), any())).thenReturn(true);
+    }
+
+    @Test
+    public void onlyTheLastChangeOfACategoryIsApplied() {
+
+        NoteOutboxEntry renamed = categoryUpdated("e1", "Sports", 1000);
+        NoteOutboxEntry renamedAgain = categoryUpdated("e2", "Games", 2000);
+        NoteOutboxEntry reminderDeleted = entry("e3", NoteOutboxEntry.REMINDER_DELETED, "r1", 3000);
+
+        when(noteOutboxRepository.findPending(10)).thenReturn(Arrays.asList(renamed, reminderDeleted, renamedAgain));
+        when(noteRepository.updateCategoryCopies(any())).thenReturn(5L);
+        when(noteRepository.removeReminderCopies("r1")).thenReturn(2L);
+
+        Assert.assertEquals(3, noteOutboxWorker.drain());
+
+        ArgumentCaptor<Category> category = ArgumentCaptor.forClass(Category.class);
+        verify(noteRepository, times(1)).updateCategoryCopies(category.capture());
+        Assert.assertEquals("Games", category.getValue().getCategoryName());
+        Assert.assertEquals("c1", category.getValue().getCategoryId());
+
+        ArgumentCaptor<Collection> applied = ArgumentCaptor.forClass(Collection.class);
+        verify(noteOutboxRepository).markApplied(applied.capture(), any());
+        Assert.assertEquals(3, applied.getValue().size());
+        verify(noteOutboxRepository).saveCheckpoint(anyString(), eq(reminderDeleted), eq(3));
+
+        NoteOutboxStats stats = noteOutboxWorker.getStats();
+        Assert.assertEquals(3, stats.getApplied());
+        Assert.assertEquals(7, stats.getDocumentsModified());
+    }
+
+    @Test
+    public void theChangeWithTheHighestSeqIsApplied() {
+
+        NoteOutboxEntry renamed = categoryUpdated("e1", "Sports", 2000);
+        renamed.setSeq(3);
+        NoteOutboxEntry relayedLate = categoryUpdated("e2", "Games", 3000);
+        relayedLate.setSeq(2);
+
+        when(noteOutboxRepository.findPending(10)).thenReturn(Arrays.asList(renamed, relayedLate));
+        when(noteRepository.updateCategoryCopies(any())).thenReturn(1L);
+
+        Assert.assertEquals(2, noteOutboxWorker.drain());
+
+        ArgumentCaptor<Category> category = ArgumentCaptor.forClass(Category.class);
+        verify(noteRepository, times(1)).updateCategoryCopies(category.capture());
+        Assert.assertEquals("Sports", category.getValue().getCategoryName());
+        verify(noteOutboxRepository).saveCheckpoint(anyString(), eq(renamed), eq(2));
+    }
+
+    @Test
+    public void failedEntryIsRetriedAndThenGivenUp() {
+
+        NoteOutboxEntry renamed = categoryUpdated("e1", "Sports", 1000);
+
+        when(noteOutboxRepository.findPending(10)).thenReturn(Collections.singletonList(renamed));
+        when(noteRepository.updateCategoryCopies(any())).thenThrow(new IllegalStateException("timeout"));
+
+        Assert.assertEquals(0, noteOutboxWorker.drain());
+        verify(noteOutboxRepository).markRetry(eq(renamed), eq(1), any(), eq("timeout"));
+
+        // not due yet, the change is not attempted again
+        renamed.setAttempts(1);
+        renamed.setNextAttemptDate(new Date(System.currentTimeMillis() + 60000));
+        Assert.assertEquals(0, noteOutboxWorker.drain());
+        verify(noteRepository, times(1)).updateCategoryCopies(any());
+
+        renamed.setNextAttemptDate(new Date(System.currentTimeMillis() - 1));
+        Assert.assertEquals(1, noteOutboxWorker.drain());
+        verify(noteOutboxRepository).markFailed(eq(renamed), eq(2), any(), eq("timeout"));
+        verify(noteOutboxRepository, never()).markApplied(any(), any());
+
+        NoteOutboxStats stats = noteOutboxWorker.getStats();
+        Assert.assertEquals(1, stats.getRetried());
+        Assert.assertEquals(1, stats.getFailed());
+    }
+
+    @Test
+    public void nothingIsAppliedWithoutTheLease() {
+
+        when(noteOutboxRepository.acquireLease(anyString(), any(), any())).thenReturn(false);
+
+        Assert.assertEquals(0, noteOutboxWorker.drain());
+        verify(noteOutboxRepository, never()).findPending(anyInt());
+    }
+
+    @Test
+    public void referencingNotesMoveToANewVersion() {
+
+        noteOutboxWorker = new NoteOutboxWorker(noteOutboxRepository, noteRepository, new NoteCache(1024 * 1024, 60000),
+                new NoteReferences(true, null, 100, 60000), true, 10, 2, 1000, 30000);
+        when(noteOutboxRepository.findPending(10)).thenReturn(Arrays.asList(categoryUpdated("e1", "Sports", 1000),
+                entry("e2", NoteOutboxEntry.REMINDER_DELETED, "r1", 2000)));
+        when(noteRepository.touchCategoryReferences("c1")).thenReturn(3L);
+        when(noteRepository.touchReminderReferences("r1")).thenReturn(1L);
+
+        Assert.assertEquals(2, noteOutboxWorker.drain());
+        verify(noteRepository, never()).updateCategoryCopies(any());
+        verify(noteRepository, never()).removeReminderCopies(any());
+        Assert.assertEquals(4, noteOutboxWorker.getStats().getDocumentsModified());
+    }
+
+    private static NoteOutboxEntry categoryUpdated(String id, String categoryName, long createdMillis) {
+        NoteOutboxEntry entry = entry(id, NoteOutboxEntry.CATEGORY_UPDATED, "c1", createdMillis);
+        Category category = new Category();
+        category.setCategoryName(categoryName);
+        entry.setCategory(category);
+        return entry;
+    }
+
+    private static NoteOutboxEntry entry(String id, String type, String entityId, long createdMillis) {
+        NoteOutboxEntry entry = new NoteOutboxEntry(type, entityId, new Date(createdMillis));
+        entry.setId(id);
+        return entry;
+    }
+}
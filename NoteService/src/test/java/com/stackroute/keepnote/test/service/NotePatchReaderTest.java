@@ -0,0 +1,75 @@
+package com.stackroute.keepnote.test.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stackroute.keepnote.model.Category;
+import com.stackroute.keepnote.model.NoteContent;
+import com.stackroute.keepnote.model.NotePatch;
+import com.stackroute.keepnote.service.NotePatchReader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class NotePatchReaderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void mergePatchSetsAndUnsetsFields() throws Exception {
+
+        NotePatch patch = NotePatchReader.read(objectMapper, "application/merge-patch+json",
+                json("{\"noteTitle\":\"IPL final\",\"noteStatus\":null,\"category\":{\"categoryName\":\"Sports\"}}"));
+
+        Assert.assertEquals("IPL final", patch.getSet().get("noteTitle"));
+        Assert.assertEquals("Sports", patch.getSet().get("category.categoryName"));
+        Assert.assertEquals(Collections.singleton("noteStatus"), patch.getUnset());
+        Assert.assertTrue(patch.touches("category"));
+        Assert.assertFalse(patch.touches("noteContent"));
+    }
+
+    @Test
+    public void jsonPatchOperations() throws Exception {
+
+        NotePatch patch = NotePatchReader.read(objectMapper, "application/json-patch+json; charset=UTF-8",
+                json("[{\"op\":\"replace\",\"path\":\"/noteContent\",\"value\":\"Match cancelled\"},"
+                        + "{\"op\":\"add\",\"path\":\"/category\",\"value\":{\"categoryId\":\"c1\",\"categoryName\":\"Cricket\"}},"
+                        + "{\"op\":\"remove\",\"path\":\"/reminders\"}]"));
+
+        Assert.assertEquals("Match cancelled", ((NoteContent) patch.getSet().get("noteContent")).getText());
+        Assert.assertEquals("c1", ((Category) patch.getSet().get("category")).getCategoryId());
+        Assert.assertEquals(Collections.singleton("reminders"), patch.getUnset());
+    }
+
+    @Test
+    public void invalidPatchesAreRejected() throws Exception {
+
+        List<String> mergePatches = Arrays.asList("[]", "{\"noteId\":5}", "{\"noteTitle\":5}",
+                "{\"category\":{\"categoryCreatedBy\":\"Jhon123\"}}");
+        for (String body : mergePatches) {
+            assertRejected(() -> NotePatchReader.fromMergePatch(objectMapper, json(body)));
+        }
+
+        List<String> jsonPatches = Arrays.asList("{}", "[{\"op\":\"move\",\"from\":\"/noteTitle\",\"path\":\"/noteStatus\"}]",
+                "[{\"op\":\"replace\",\"path\":\"/noteTitle\"}]", "[{\"op\":\"remove\",\"path\":\"/reminders/0\"}]",
+                "[{\"op\":\"remove\",\"path\":\"/category\"},{\"op\":\"add\",\"path\":\"/category/categoryName\",\"value\":\"x\"}]");
+        for (String body : jsonPatches) {
+            assertRejected(() -> NotePatchReader.fromJsonPatch(objectMapper, json(body)));
+        }
+    }
+
+    private JsonNode json(String body) throws Exception {
+        return objectMapper.readTree(body);
+    }
+
+    private static void assertRejected(Runnable read) {
+        try {
+            read.run();
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException exception) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.stackroute.keepnote.test.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stackroute.keepnote.model.Category;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteSummary;
+import com.stackroute.keepnote.model.Reminder;
+import com.stackroute.keepnote.service.NoteReferenceResolver;
+import com.stackroute.keepnote.service.NoteReferences;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class NoteReferencesTest {
+
+    @Mock
+    private NoteReferenceResolver resolver;
+
+    private NoteReferences noteReferences;
+
+    private Category category;
+    private Reminder reminder;
+
+    @Before
+    public void setUp() throws Exception {
+
+        MockitoAnnotations.initMocks(this);
+        noteReferences = new NoteReferences(true, resolver, 100, 60000);
+
+        category = new Category("5b04f7411764e3765c35f8f6", "Cricket-Category", "All about Cricket", "Jhon123", new Date());
+        reminder = new Reminder(new Date(), "5b0509731764e3096984eae6", "Email-Reminder", "sending emails", "email type", "Jhon123");
+    }
+
+    @Test
+    public void writtenNotesKeepOnlyIds() {
+
+        Note note = newNote(1, category, reminder);
+        noteReferences.strip(note);
+
+        Assert.assertEquals("5b04f7411764e3765c35f8f6", note.getCategory().getCategoryId());
+        Assert.assertNull(note.getCategory().getCategoryName());
+        Assert.assertEquals("5b0509731764e3096984eae6", note.getReminders().get(0).getReminderId());
+        Assert.assertNull(note.getReminders().get(0).getReminderName());
+    }
+
+    @Test
+    public void notesOfOneReadAreResolvedWithOneLookupPerKind() {
+
+        when(resolver.findCategories(any())).thenReturn(Collections.singletonMap(category.getCategoryId(), category));
+        when(resolver.findReminders(any())).thenReturn(Collections.singletonMap(reminder.getReminderId(), reminder));
+
+        Reminder missing = new Reminder();
+        missing.setReminderId("missing");
+        List<Note> notes = new ArrayList<>(Arrays.asList(newNote(1, category, reminder), newNote(2, category, reminder, missing)));
+        notes.forEach(noteReferences::strip);
+
+        noteReferences.resolve(notes);
+
+        verify(resolver, times(1)).findCategories(new HashSet<>(Collections.singletonList(category.getCategoryId())));
+        verify(resolver, times(1)).findReminders(new HashSet<>(Arrays.asList(reminder.getReminderId(), "missing")));
+        Assert.assertEquals("Cricket-Category", notes.get(1).getCategory().getCategoryName());
+        Assert.assertEquals("Email-Reminder", notes.get(1).getReminders().get(0).getReminderName());
+        // not found, returned as stored
+        Assert.assertEquals("missing", notes.get(1).getReminders().get(1).getReminderId());
+
+        // the category comes from the near-cache now
+        List<NoteSummary> summaries = noteReferences.resolveSummaries(Collections.singletonList(
+                new NoteSummary(1, "IPL lists", "Active", new Date(), category.getCategoryId(), null)));
+        Assert.assertEquals("Cricket-Category", summaries.get(0).getCategoryName());
+        verify(resolver, times(1)).findCategories(any());
+    }
+
+    @Test
+    public void failedLookupKeepsReferences() {
+
+        when(resolver.findCategories(any())).thenThrow(new IllegalStateException("CategoryService unavailable"))
+                .thenReturn(Collections.singletonMap(category.getCategoryId(), category));
+        Note note = newNote(1, category);
+        noteReferences.strip(note);
+
+        noteReferences.resolve(Collections.singletonList(note));
+        Assert.assertEquals(category.getCategoryId(), note.getCategory().getCategoryId());
+        Assert.assertNull(note.getCategory().getCategoryName());
+
+        // the failure was not cached
+        noteReferences.resolve(Collections.singletonList(note));
+        Assert.assertEquals("Cricket-Category", note.getCategory().getCategoryName());
+    }
+
+    @Test
+    public void httpLookupsOutsideRequestsSendServiceCredential() throws Exception {
+
+        MockRestServiceServer[] server = new MockRestServiceServer[1];
+        RestTemplateBuilder builder = new RestTemplateBuilder()
+                .additionalCustomizers(restTemplate -> server[0] = MockRestServiceServer.bindTo(restTemplate).build());
+        noteReferences = new NoteReferences(null, builder, new ObjectMapper(), "reference", "http",
+                "http://category", "http://reminder", "Bearer service", 2000, 100, 60000);
+
+        server[0].expect(requestTo("http://category/api/v1/category?ids=" + category.getCategoryId()))
+                .andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer service"))
+                .andRespond(withSuccess("[{\"id\":\"" + category.getCategoryId() + "\",\"categoryName\":\"Cricket-Category\"}]",
+                        MediaType.APPLICATION_JSON));
+
+        Note note = newNote(1, category);
+        noteReferences.strip(note);
+
+        // like an export, resolved on a thread which serves no request
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> noteReferences.resolve(Collections.singletonList(note))).get();
+        } finally {
+            executor.shutdown();
+        }
+
+        server[0].verify();
+        Assert.assertEquals("Cricket-Category", note.getCategory().getCategoryName());
+    }
+
+    @Test
+    public void embeddedModeLeavesNotesAlone() {
+
+        noteReferences = new NoteReferences(false, resolver, 100, 60000);
+        Note note = newNote(1, category, reminder);
+
+        noteReferences.strip(note);
+        noteReferences.resolve(Collections.singletonList(note));
+
+        Assert.assertEquals("Cricket-Category", note.getCategory().getCategoryName());
+        verify(resolver, times(0)).findCategories(any());
+    }
+
+    private static Note newNote(int noteId, Category category, Reminder... reminders) {
+        Note note = new Note();
+        note.setNoteId(noteId);
+        note.setNoteTitle("note " + noteId);
+        note.setCategory(category);
+        note.setReminders(new ArrayList<>(Arrays.asList(reminders)));
+        return note;
+    }
+}
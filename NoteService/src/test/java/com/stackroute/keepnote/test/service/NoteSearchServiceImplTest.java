@@ -0,0 +1,134 @@
+package com.stackroute.keepnote.test.service;
+
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteSearchResult;
+import com.stackroute.keepnote.repository.NoteRepository;
+import com.stackroute.keepnote.service.NoteSearchServiceImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.Mockito.when;
+
+public class NoteSearchServiceImplTest {
+
+    @Mock
+    private NoteRepository noteRepository;
+
+    private NoteSearchServiceImpl noteSearchService;
+
+    @Before
+    public void setUp() throws Exception {
+
+        MockitoAnnotations.initMocks(this);
+        noteSearchService = new NoteSearchServiceImpl(noteRepository, 2, "", false);
+
+        noteSearchService.indexNote("Jhon123", newNote(1, "IPL lists", "Mumbai Indians vs RCB match scheduled for 4 PM"));
+        noteSearchService.indexNote("Jhon123", newNote(2, "Shopping", "Milk, bread and cricket balls"));
+        noteSearchService.indexNote("Other", newNote(1, "Cricket", "Cricket practice at 6"));
+        noteSearchService.refresh();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        noteSearchService.close();
+    }
+
+    @Test
+    public void searchRanksTitleMatchesAndHighlights() {
+
+        NoteSearchResult result = noteSearchService.search("Jhon123", "ipl OR cricket", 0, 10);
+        Assert.assertEquals(2, result.getTotalHits());
+        Assert.assertEquals(1, result.getHits().get(0).getNoteId());
+        Assert.assertEquals("<em>IPL</em> lists", result.getHits().get(0).getTitleHighlight());
+        Assert.assertTrue(result.getHits().get(1).getContentHighlight().contains("<em>cricket</em>"));
+    }
+
+    @Test
+    public void searchIsScopedToUser() {
+
+        NoteSearchResult result = noteSearchService.search("Other", "milk", 0, 10);
+        Assert.assertEquals(0, result.getTotalHits());
+    }
+
+    @Test
+    public void searchPaginates() {
+
+        NoteSearchResult result = noteSearchService.search("Jhon123", "ipl OR cricket", 1, 1);
+        Assert.assertEquals(2, result.getTotalHits());
+        Assert.assertEquals(1, result.getHits().size());
+        Assert.assertEquals(2, result.getHits().get(0).getNoteId());
+    }
+
+    @Test
+    public void removedNotesAreNotFound() throws Exception {
+
+        noteSearchService.removeNote("Jhon123", 1);
+        noteSearchService.refresh();
+        Assert.assertEquals(0, noteSearchService.search("Jhon123", "ipl", 0, 10).getTotalHits());
+    }
+
+    @Test
+    public void rebuildDropsNotesMissingFromMongo() throws Exception {
+
+        when(noteRepository.findUserIds()).thenReturn(Arrays.asList("Jhon123", "Other"));
+        when(noteRepository.findAllNotes("Jhon123")).thenReturn(new ArrayList<>(Collections.singletonList(
+                newNote(2, "Shopping", "Milk, bread and cricket balls"))));
+        when(noteRepository.findAllNotes("Other")).thenReturn(new ArrayList<>());
+
+        noteSearchService.rebuildIndex();
+        for (int i = 0; i < 50 && (noteSearchService.search("Jhon123", "ipl", 0, 10).getTotalHits() > 0
+                || noteSearchService.search("Other", "cricket", 0, 10).getTotalHits() > 0); i++) {
+            Thread.sleep(100);
+            noteSearchService.refresh();
+        }
+
+        Assert.assertEquals(0, noteSearchService.search("Jhon123", "ipl", 0, 10).getTotalHits());
+        Assert.assertEquals(1, noteSearchService.search("Jhon123", "milk", 0, 10).getTotalHits());
+        Assert.assertEquals(0, noteSearchService.search("Other", "cricket", 0, 10).getTotalHits());
+    }
+
+    @Test
+    public void noteRemovedDuringRebuildStaysRemoved() throws Exception {
+
+        when(noteRepository.findUserIds()).thenReturn(Arrays.asList("Jhon123", "Other"));
+        when(noteRepository.findAllNotes("Jhon123")).thenAnswer(invocation -> {
+            // deleted from Mongo and the index after the rebuild read the notes
+            noteSearchService.removeNote("Jhon123", 2);
+            return new ArrayList<>(Arrays.asList(newNote(1, "IPL lists", "Mumbai Indians vs RCB"),
+                    newNote(2, "Shopping", "Milk, bread and cricket balls")));
+        });
+        when(noteRepository.findAllNotes("Other")).thenReturn(new ArrayList<>());
+
+        noteSearchService.rebuildIndex();
+        for (int i = 0; i < 50 && noteSearchService.search("Other", "cricket", 0, 10).getTotalHits() > 0; i++) {
+            Thread.sleep(100);
+            noteSearchService.refresh();
+        }
+
+        Assert.assertEquals(0, noteSearchService.search("Other", "cricket", 0, 10).getTotalHits());
+        Assert.assertEquals(1, noteSearchService.search("Jhon123", "ipl", 0, 10).getTotalHits());
+        Assert.assertEquals(0, noteSearchService.search("Jhon123", "milk", 0, 10).getTotalHits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidQueryIsRejected() {
+        noteSearchService.search("Jhon123", "title:(unbalanced", 0, 10);
+    }
+
+    private static Note newNote(int noteId, String title, String content) {
+        Note note = new Note();
+        note.setNoteId(noteId);
+        note.setNoteTitle(title);
+        note.setNoteContent(content);
+        return note;
+    }
+}
@@ -3,23 +3,44 @@ package com.stackroute.keepnote.test.service;
 import com.stackroute.keepnote.exception.NoteNotFoundExeption;
 import com.stackroute.keepnote.model.Category;
 import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteBatchResult;
+import com.stackroute.keepnote.model.NoteChanges;
+import com.stackroute.keepnote.model.NoteFilter;
+import com.stackroute.keepnote.model.NotePage;
+import com.stackroute.keepnote.model.NotePatch;
+import com.stackroute.keepnote.model.NoteStats;
+import com.stackroute.keepnote.model.NoteSummary;
 import com.stackroute.keepnote.model.NoteUser;
 import com.stackroute.keepnote.model.Reminder;
+import com.stackroute.keepnote.repository.NoteArchiveRepository;
 import com.stackroute.keepnote.repository.NoteRepository;
+import com.stackroute.keepnote.repository.NoteStatsRepository;
+import com.stackroute.keepnote.service.NoteCache;
+import com.stackroute.keepnote.service.NoteCursor;
+import com.stackroute.keepnote.service.NoteIdAllocator;
+import com.stackroute.keepnote.service.NoteReferences;
+import com.stackroute.keepnote.service.NoteSearchService;
 import com.stackroute.keepnote.service.NoteServiceImpl;
+import com.stackroute.keepnote.service.NoteWriteBehind;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.util.CloseableIterator;
 
 import java.util.*;
 
@@ -36,6 +57,20 @@ public class NoteServiceImplTest {
     private Reminder reminder;
     @Mock
     private NoteRepository noteRepository;
+    @Mock
+    private NoteIdAllocator noteIdAllocator;
+    @Mock
+    private NoteSearchService noteSearchService;
+    @Mock
+    private NoteWriteBehind noteWriteBehind;
+    @Mock
+    private NoteStatsRepository noteStatsRepository;
+    @Mock
+    private NoteArchiveRepository noteArchiveRepository;
+    @Spy
+    private NoteCache noteCache = new NoteCache(1024 * 1024, 60000);
+    @Spy
+    private NoteReferences noteReferences = new NoteReferences(false, null, 100, 60000);
     @InjectMocks
     private NoteServiceImpl noteServiceImpl;
     private List<Note> noteList = null;
@@ -96,15 +131,101 @@ public class NoteServiceImplTest {
 
     @Test
     public void createNoteSuccess() {
-        when(noteRepository.insert((NoteUser) any())).thenReturn(noteUser);
+        when(noteRepository.insertNote("Jhon123", note)).thenReturn(true);
+        boolean status = noteServiceImpl.createNote(note);
+        Assert.assertEquals(true, status);
+        verify(noteRepository, times(1)).insertNote("Jhon123", note);
+        verify(noteSearchService, times(1)).indexNote("Jhon123", note);
+    }
+
+    @Test
+    public void createNoteAllocatesNoteId() {
+        note.setNoteId(0);
+        when(noteIdAllocator.nextNoteId("Jhon123")).thenReturn(42);
+        when(noteRepository.insertNote("Jhon123", note)).thenReturn(true);
+        boolean status = noteServiceImpl.createNote(note);
+        Assert.assertEquals(true, status);
+        Assert.assertEquals(42, note.getNoteId());
+    }
+
+    @Test
+    public void createNotesPushesChunkOnce() {
+        Note withoutId = new Note();
+        List<Note> batch = Arrays.asList(note, withoutId);
+        when(noteIdAllocator.nextNoteIds("Jhon123", 1)).thenReturn(42);
+        when(noteRepository.insertNotes("Jhon123", batch)).thenReturn(true);
+        List<NoteBatchResult> results = noteServiceImpl.createNotes("Jhon123", batch.iterator());
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(NoteBatchResult.CREATED, results.get(1).getStatus());
+        Assert.assertEquals(42, results.get(1).getNoteId());
+        verify(noteRepository, times(0)).insertNote(any(), any());
+        // client supplied noteIds cost no round trip to the counter
+        verify(noteIdAllocator, times(0)).skipTaken(any());
+    }
+
+    @Test
+    public void createNoteRetriesTakenAllocatedNoteId() {
+        note.setNoteId(0);
+        when(noteIdAllocator.nextNoteId("Jhon123")).thenReturn(42, 43);
+        when(noteRepository.insertNote("Jhon123", note)).thenReturn(false, true);
         boolean status = noteServiceImpl.createNote(note);
         Assert.assertEquals(true, status);
-        verify(noteRepository, times(1)).insert((NoteUser) any());
+        Assert.assertEquals(43, note.getNoteId());
+        verify(noteIdAllocator, times(1)).skipTaken("Jhon123");
+    }
+
+    @Test
+    public void createNoteConflictsWithArchivedNoteId() {
+        when(noteArchiveRepository.findArchivedNoteIds("Jhon123", Collections.singletonList(1)))
+                .thenReturn(Collections.singletonList(1));
+        Assert.assertFalse(noteServiceImpl.createNote(note));
+        verify(noteRepository, never()).insertNote(any(), any());
+    }
+
+    @Test
+    public void createNoteSkipsArchivedAllocatedNoteId() {
+        note.setNoteId(0);
+        when(noteIdAllocator.nextNoteId("Jhon123")).thenReturn(42, 43);
+        when(noteArchiveRepository.findArchivedNoteIds("Jhon123", Collections.singletonList(42)))
+                .thenReturn(Collections.singletonList(42));
+        when(noteRepository.insertNote("Jhon123", note)).thenReturn(true);
+        Assert.assertTrue(noteServiceImpl.createNote(note));
+        Assert.assertEquals(43, note.getNoteId());
+        verify(noteIdAllocator, times(1)).skipTaken("Jhon123");
+        verify(noteRepository, times(1)).insertNote("Jhon123", note);
+    }
+
+    @Test
+    public void createNotesConflictsWithArchivedNoteIds() {
+        Note allocated = new Note();
+        when(noteIdAllocator.nextNoteIds("Jhon123", 1)).thenReturn(1);
+        when(noteIdAllocator.nextNoteId("Jhon123")).thenReturn(2);
+        when(noteArchiveRepository.findArchivedNoteIds(any(), any())).thenReturn(Arrays.asList(1, 5));
+        when(noteRepository.insertNotes(any(), any())).thenReturn(true);
+        note.setNoteId(5);
+        List<NoteBatchResult> results = noteServiceImpl.createNotes("Jhon123", Arrays.asList(note, allocated).iterator());
+        Assert.assertEquals(NoteBatchResult.CONFLICT, results.get(0).getStatus());
+        Assert.assertEquals(NoteBatchResult.CREATED, results.get(1).getStatus());
+        // the allocated id 1 was taken by the archive as well
+        Assert.assertEquals(2, allocated.getNoteId());
+        verify(noteIdAllocator, times(1)).skipTaken("Jhon123");
+    }
+
+    @Test
+    public void createNotesReportsConflicts() {
+        Note duplicate = new Note();
+        duplicate.setNoteId(note.getNoteId());
+        when(noteRepository.insertNotes(any(), any())).thenReturn(false);
+        when(noteRepository.insertNote("Jhon123", note)).thenReturn(false);
+        List<NoteBatchResult> results = noteServiceImpl.createNotes("Jhon123", Arrays.asList(note, duplicate).iterator());
+        Assert.assertEquals(NoteBatchResult.CONFLICT, results.get(0).getStatus());
+        Assert.assertEquals(NoteBatchResult.CONFLICT, results.get(1).getStatus());
+        verify(noteSearchService, times(0)).indexNote(any(), any());
     }
 
     @Test
     public void createNoteFailure() {
-        when(noteRepository.insert((NoteUser) any())).thenReturn(null);
+        when(noteRepository.insertNote("Jhon123", note)).thenReturn(false);
         boolean status = noteServiceImpl.createNote(note);
         Assert.assertEquals(false, status);
     }
@@ -112,28 +233,38 @@ public class NoteServiceImplTest {
 
     @Test
     public void deleteNoteSuccess() {
-        when(noteRepository.findById(noteUser.getUserId())).thenReturn(options);
-        when(noteRepository.save(noteUser)).thenReturn(noteUser);
+        when(noteRepository.deleteNote("Jhon123", note.getNoteId(), null)).thenReturn(true);
         boolean flag = noteServiceImpl.deleteNote("Jhon123", note.getNoteId());
         Assert.assertEquals(true, flag);
+        verify(noteRepository, times(0)).findById("Jhon123");
     }
 
-    @Test(expected = NullPointerException.class)
+    @Test
     public void deleteNoteFailure() {
-        when(noteRepository.findById(noteUser.getUserId())).thenReturn(null);
-        when(noteRepository.save(noteUser)).thenReturn(noteUser);
+        when(noteRepository.deleteNote("Jhon123", note.getNoteId(), null)).thenReturn(false);
         boolean flag = noteServiceImpl.deleteNote("Jhon123", note.getNoteId());
-        Assert.assertEquals(true, flag);
+        Assert.assertEquals(false, flag);
+        verify(noteSearchService, times(0)).removeNote("Jhon123", note.getNoteId());
     }
 
 
+    @Test
+    public void deleteNotesRemovesDeletedFromIndex() {
+        List<Integer> noteIds = Arrays.asList(1, 2, 3);
+        when(noteRepository.deleteNotes("Jhon123", noteIds)).thenReturn(Arrays.asList(1, 3));
+        List<Integer> removed = noteServiceImpl.deleteNotes("Jhon123", noteIds);
+        Assert.assertEquals(Arrays.asList(1, 3), removed);
+        verify(noteSearchService, times(1)).removeNote("Jhon123", 3);
+        verify(noteSearchService, times(0)).removeNote("Jhon123", 2);
+    }
+
     @Test
     public void deleteAllNoteSuccess() throws NoteNotFoundExeption {
 
-        when(noteRepository.findById("Jhon123")).thenReturn(options);
-        when(noteRepository.save(noteUser)).thenReturn(noteUser);
+        when(noteRepository.deleteAllNotes("Jhon123")).thenReturn(true);
         boolean flag = noteServiceImpl.deleteAllNotes("Jhon123");
         Assert.assertEquals(true, flag);
+        verify(noteRepository, times(0)).deleteAll();
 
     }
 
@@ -150,11 +281,11 @@ public class NoteServiceImplTest {
     @Test
     public void updateNoteSuccess() throws NoteNotFoundExeption {
 
-        when(noteRepository.findById("Jhon123")).thenReturn(options);
+        when(noteRepository.updateNote("Jhon123", note, null)).thenReturn(true);
         note.setNoteContent("Match cancelled");
-        noteList.add(note);
         Note fetchedNote = noteServiceImpl.updateNote(note, note.getNoteId(), note.getNoteCreatedBy());
         Assert.assertEquals(note, fetchedNote);
+        verify(noteRepository, times(0)).findById("Jhon123");
 
 
     }
@@ -162,33 +293,284 @@ public class NoteServiceImplTest {
     @Test(expected = NoteNotFoundExeption.class)
     public void updateNoteFailure() throws NoteNotFoundExeption {
 
-        when(noteRepository.findById("Jhon123")).thenThrow(NoSuchElementException.class);
+        when(noteRepository.updateNote("Jhon123", note, null)).thenReturn(false);
         note.setNoteContent("Match cancelled");
-        noteList.add(note);
         Note fetchedNote = noteServiceImpl.updateNote(note, note.getNoteId(), note.getNoteCreatedBy());
         Assert.assertEquals(note, fetchedNote);
 
 
     }
 
+    @Test(expected = OptimisticLockingFailureException.class)
+    public void updateNoteStaleVersion() throws NoteNotFoundExeption {
+
+        when(noteRepository.updateNote("Jhon123", note, 3L))
+                .thenThrow(new OptimisticLockingFailureException("Note 1 of Jhon123 was changed concurrently"));
+        try {
+            noteServiceImpl.updateNote(note, note.getNoteId(), "Jhon123", 3L);
+        } finally {
+            verify(noteSearchService, times(0)).indexNote("Jhon123", note);
+        }
+    }
+
+    @Test
+    public void patchNoteReindexesOnlyChangedText() throws NoteNotFoundExeption {
+
+        NotePatch status = new NotePatch();
+        status.set("noteStatus", "Done");
+        when(noteRepository.patchNote("Jhon123", 1, status, null)).thenReturn(note);
+        Assert.assertEquals(note, noteServiceImpl.patchNote("Jhon123", 1, status, null));
+        verify(noteSearchService, times(0)).indexNote("Jhon123", note);
+
+        NotePatch title = new NotePatch();
+        title.set("noteTitle", "IPL final");
+        Note patched = new Note();
+        patched.setNoteId(1);
+        patched.setChangeSeq(5L);
+        when(noteRepository.patchNote("Jhon123", 1, title, 4L)).thenReturn(patched);
+        when(noteRepository.findNote("Jhon123", 1)).thenReturn(note);
+        Assert.assertEquals(patched, noteServiceImpl.patchNote("Jhon123", 1, title, 4L));
+        // the patch returns a few fields only, the whole note is read to index it
+        verify(noteSearchService, times(1)).indexNote("Jhon123", note);
+    }
+
+    @Test(expected = NoteNotFoundExeption.class)
+    public void patchNoteNotFound() throws NoteNotFoundExeption {
+
+        NotePatch title = new NotePatch();
+        title.set("noteTitle", "IPL final");
+        when(noteRepository.patchNote("Jhon123", 1, title, null)).thenReturn(null);
+        noteServiceImpl.patchNote("Jhon123", 1, title, null);
+    }
+
     @Test
     public void getNoteByNoteIdSuccess() throws NoteNotFoundExeption {
-        when(noteRepository.findById("Jhon123")).thenReturn(options);
+        when(noteRepository.findNote("Jhon123", note.getNoteId())).thenReturn(note);
         Note fetechedNote = noteServiceImpl.getNoteByNoteId("Jhon123", note.getNoteId());
         Assert.assertEquals(note, fetechedNote);
     }
 
     @Test(expected = NoteNotFoundExeption.class)
     public void getNoteByNoteIdFailure() throws NoteNotFoundExeption {
-        when(noteRepository.findById("Jhon123")).thenThrow(NoSuchElementException.class);
+        when(noteRepository.findNote("Jhon123", note.getNoteId())).thenReturn(null);
         Note fetechedNote = noteServiceImpl.getNoteByNoteId("Jhon123", note.getNoteId());
         Assert.assertEquals(note, fetechedNote);
     }
 
     @Test
     public void getAllNoteByUserId() {
-        when(noteRepository.findById("Jhon123")).thenReturn(options);
+        when(noteRepository.findAllNotes("Jhon123")).thenReturn(noteList);
         List<Note> notes = noteServiceImpl.getAllNoteByUserId("Jhon123");
         Assert.assertEquals(noteList, notes);
     }
+
+    @Test
+    public void getAllNoteByUserIdIsCachedUntilWrite() throws NoteNotFoundExeption {
+        when(noteRepository.findAllNotes("Jhon123")).thenReturn(noteList);
+        when(noteRepository.updateNote("Jhon123", note, null)).thenReturn(true);
+        noteServiceImpl.getAllNoteByUserId("Jhon123");
+        noteServiceImpl.getAllNoteByUserId("Jhon123");
+        Assert.assertEquals(note, noteServiceImpl.getNoteByNoteId("Jhon123", note.getNoteId()));
+        verify(noteRepository, times(1)).findAllNotes("Jhon123");
+        verify(noteRepository, times(0)).findNote("Jhon123", note.getNoteId());
+
+        noteServiceImpl.updateNote(note, note.getNoteId(), "Jhon123");
+        noteServiceImpl.getAllNoteByUserId("Jhon123");
+        verify(noteRepository, times(2)).findAllNotes("Jhon123");
+        Assert.assertEquals(1, noteCache.getStats().getHitCount());
+    }
+
+    @Test
+    public void getNoteSummariesUsesProjectionUnlessCached() {
+        List<NoteSummary> projected = Arrays.asList(NoteSummary.of(note));
+        when(noteRepository.findNoteSummaries("Jhon123")).thenReturn(projected);
+        when(noteRepository.findAllNotes("Jhon123")).thenReturn(noteList);
+        Assert.assertEquals(projected, noteServiceImpl.getNoteSummaries("Jhon123"));
+        verify(noteRepository, times(0)).findAllNotes("Jhon123");
+
+        noteServiceImpl.getAllNoteByUserId("Jhon123");
+        List<NoteSummary> summaries = noteServiceImpl.getNoteSummaries("Jhon123");
+        Assert.assertEquals(note.getNoteTitle(), summaries.get(0).getNoteTitle());
+        verify(noteRepository, times(1)).findNoteSummaries("Jhon123");
+    }
+
+
+    @Test
+    public void getNotesByFilterQueriesRepository() {
+        NoteFilter filter = new NoteFilter("Active", "Cricket-Category", null, null);
+        when(noteRepository.findNotes("Jhon123", filter)).thenReturn(noteList);
+        Assert.assertEquals(noteList, noteServiceImpl.getNotesByFilter("Jhon123", filter));
+
+        // an empty filter is all notes, read through the cache
+        when(noteRepository.findAllNotes("Jhon123")).thenReturn(noteList);
+        Assert.assertEquals(noteList, noteServiceImpl.getNotesByFilter("Jhon123", new NoteFilter(null, null, null, null)));
+        verify(noteRepository, times(1)).findNotes(any(), any());
+    }
+
+    @Test
+    public void getVersionedNotesReadsVersionFirst() {
+        when(noteRepository.findVersion("Jhon123")).thenReturn(5L);
+        when(noteRepository.findAllNotes("Jhon123")).thenReturn(noteList);
+        NoteUser versioned = noteServiceImpl.getVersionedNotes("Jhon123");
+        Assert.assertEquals(Long.valueOf(5L), versioned.getVersion());
+        Assert.assertEquals(noteList, versioned.getNotes());
+        InOrder inOrder = Mockito.inOrder(noteRepository);
+        inOrder.verify(noteRepository).findVersion("Jhon123");
+        inOrder.verify(noteRepository).findAllNotes("Jhon123");
+    }
+
+    @Test
+    public void getChangesSinceReturnsDelta() {
+        when(noteRepository.findChangesSince("Jhon123", 5))
+                .thenReturn(new NoteChanges(5, 9, false, noteList, Arrays.asList(4)));
+        NoteChanges changes = noteServiceImpl.getChangesSince("Jhon123", 5);
+        Assert.assertFalse(changes.isFullResync());
+        Assert.assertEquals(9, changes.getNextSince());
+        Assert.assertEquals(noteList, changes.getChanged());
+        Assert.assertEquals(Arrays.asList(4), changes.getDeletedNoteIds());
+        verify(noteRepository, times(0)).findAllNotes("Jhon123");
+    }
+
+    @Test
+    public void getNotePageWithNextCursor() {
+        Note second = new Note();
+        second.setNoteId(2);
+        noteList.add(second);
+        when(noteRepository.findNotesAfter("Jhon123", null, 2)).thenReturn(noteList);
+        NotePage page = noteServiceImpl.getNotePage("Jhon123", null, 1);
+        Assert.assertEquals(1, page.getNotes().size());
+        Assert.assertEquals(NoteCursor.encode(1), page.getNextCursor());
+    }
+
+    @Test
+    public void getNotePageLastPage() {
+        when(noteRepository.findNotesAfter("Jhon123", 1, 31)).thenReturn(new ArrayList<>());
+        NotePage page = noteServiceImpl.getNotePage("Jhon123", NoteCursor.encode(1), 30);
+        Assert.assertTrue(page.getNotes().isEmpty());
+        Assert.assertNull(page.getNextCursor());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getNotePageInvalidCursor() {
+        noteServiceImpl.getNotePage("Jhon123", "not-a-cursor", 30);
+    }
+
+    @Test
+    public void getNotePageWithArchiveMergesByNoteId() {
+        Note third = new Note();
+        third.setNoteId(3);
+        Note archived = new Note();
+        archived.setNoteId(2);
+        Note stale = new Note();
+        stale.setNoteId(3);
+        when(noteRepository.findNotesAfter("Jhon123", null, 3)).thenReturn(Arrays.asList(note, third));
+        when(noteArchiveRepository.findNotesAfter("Jhon123", null, 3)).thenReturn(Arrays.asList(archived, stale));
+
+        NotePage page = noteServiceImpl.getNotePageWithArchive("Jhon123", null, 2);
+        Assert.assertEquals(2, page.getNotes().size());
+        Assert.assertEquals(archived, page.getNotes().get(1));
+        Assert.assertEquals(NoteCursor.encode(2), page.getNextCursor());
+
+        when(noteRepository.findNotesAfter("Jhon123", 2, 3)).thenReturn(Collections.singletonList(third));
+        when(noteArchiveRepository.findNotesAfter("Jhon123", 2, 3)).thenReturn(Collections.singletonList(stale));
+        page = noteServiceImpl.getNotePageWithArchive("Jhon123", page.getNextCursor(), 2);
+        Assert.assertEquals(Collections.singletonList(third), page.getNotes());
+        Assert.assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void deleteNoteFallsBackToArchive() {
+        when(noteRepository.deleteNote("Jhon123", 1, null)).thenReturn(false);
+        when(noteArchiveRepository.deleteNote("Jhon123", 1)).thenReturn(true);
+        Assert.assertTrue(noteServiceImpl.deleteNote("Jhon123", 1));
+        verify(noteSearchService, times(0)).removeNote("Jhon123", 1);
+    }
+
+    @Test
+    public void deleteNoteReachesArchivedCopyOfReusedNoteId() {
+        when(noteRepository.deleteNote("Jhon123", 1, null)).thenReturn(true);
+        when(noteArchiveRepository.deleteNote("Jhon123", 1)).thenReturn(true);
+        Assert.assertTrue(noteServiceImpl.deleteNote("Jhon123", 1));
+        verify(noteArchiveRepository, times(1)).deleteNote("Jhon123", 1);
+        verify(noteSearchService, times(1)).removeNote("Jhon123", 1);
+    }
+
+    @Test
+    public void getNoteStatsCountsOnFirstRead() {
+        NoteStats counted = new NoteStats("Jhon123");
+        counted.add("Active", "5b04f7411764e3765c35f8f6", 1);
+        when(noteStatsRepository.findStats("Jhon123")).thenReturn(null);
+        when(noteRepository.countNotes("Jhon123")).thenReturn(counted);
+
+        NoteStats stats = noteServiceImpl.getNoteStats("Jhon123");
+        Assert.assertEquals(1, stats.getTotal());
+        // a read stores nothing, the counters are started by the writes
+        verify(noteStatsRepository, times(0)).replace(any());
+
+        when(noteStatsRepository.findStats("Jhon123")).thenReturn(counted);
+        noteServiceImpl.getNoteStats("Jhon123");
+        verify(noteRepository, times(1)).countNotes("Jhon123");
+    }
+
+    @Test
+    public void exportNotesStreamsAndClosesCursor() {
+        Note second = new Note();
+        second.setNoteId(2);
+        boolean[] closed = {false};
+        when(noteRepository.findPageEnd("Jhon123", null, 2)).thenReturn(2);
+        when(noteRepository.streamNotes("Jhon123", null, 2)).thenReturn(cursor(Arrays.asList(note, second), closed));
+
+        String until = noteServiceImpl.getExportEnd("Jhon123", null, 2, false);
+        Assert.assertEquals(NoteCursor.encode(2), until);
+
+        List<Note> exported = new ArrayList<>();
+        Assert.assertEquals(2, noteServiceImpl.exportNotes("Jhon123", null, until, false, exported::add));
+        Assert.assertEquals(Arrays.asList(note, second), exported);
+        Assert.assertTrue(closed[0]);
+        verify(noteArchiveRepository, never()).streamNotes(any(), any(), any());
+    }
+
+    @Test
+    public void exportNotesMergesArchivedNotes() {
+        Note archived = new Note();
+        archived.setNoteId(2);
+        Note third = new Note();
+        third.setNoteId(3);
+        Note staleThird = new Note();
+        staleThird.setNoteId(3);
+        boolean[] closed = {false, false};
+        when(noteRepository.findNoteIdsAfter("Jhon123", null, 3)).thenReturn(Arrays.asList(1, 3));
+        when(noteArchiveRepository.findNoteIdsAfter("Jhon123", null, 3)).thenReturn(Arrays.asList(2, 3));
+        when(noteRepository.findNoteIdsAfter("Jhon123", null, 4)).thenReturn(Arrays.asList(1, 3));
+        when(noteArchiveRepository.findNoteIdsAfter("Jhon123", null, 4)).thenReturn(Arrays.asList(2, 3));
+        when(noteRepository.streamNotes("Jhon123", null, null)).thenReturn(cursor(Arrays.asList(note, third), closed));
+        when(noteArchiveRepository.streamNotes("Jhon123", null, null))
+                .thenReturn(cursor(Arrays.asList(archived, staleThird), new boolean[1]));
+
+        // noteId 3 is in both and counts once
+        Assert.assertEquals(NoteCursor.encode(2), noteServiceImpl.getExportEnd("Jhon123", null, 2, true));
+        Assert.assertNull(noteServiceImpl.getExportEnd("Jhon123", null, 3, true));
+
+        List<Note> exported = new ArrayList<>();
+        Assert.assertEquals(3, noteServiceImpl.exportNotes("Jhon123", null, null, true, exported::add));
+        Assert.assertEquals(Arrays.asList(note, archived, third), exported);
+        Assert.assertTrue(closed[0]);
+    }
+
+    private static CloseableIterator<Note> cursor(List<Note> notes, boolean[] closed) {
+        Iterator<Note> iterator = notes.iterator();
+        return new CloseableIterator<Note>() {
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            public Note next() {
+                return iterator.next();
+            }
+
+            public void close() {
+                closed[0] = true;
+            }
+        };
+    }
 }
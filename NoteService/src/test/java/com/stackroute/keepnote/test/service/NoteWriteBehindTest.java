@@ -0,0 +1,178 @@
+package com.stackroute.keepnote.test.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stackroute.keepnote.exception.NoteWriteQueueFullException;
+import com.stackroute.keepnote.model.Note;
+import com.stackroute.keepnote.model.NoteDurability;
+import com.stackroute.keepnote.repository.NoteRepository;
+import com.stackroute.keepnote.service.NoteCache;
+import com.stackroute.keepnote.service.NoteSearchService;
+import com.stackroute.keepnote.service.NoteWriteBehind;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NoteWriteBehindTest {
+
+    @Mock
+    private NoteRepository noteRepository;
+    @Mock
+    private NoteSearchService noteSearchService;
+
+    private NoteWriteBehind noteWriteBehind;
+
+    @Before
+    public void setUp() throws Exception {
+
+        MockitoAnnotations.initMocks(this);
+
+        // flushed by the tests themselves, the schedule never fires
+        noteWriteBehind = new NoteWriteBehind(noteRepository, noteSearchService, new NoteCache(1024 * 1024, 60000),
+                new ObjectMapper(), true, "queued", 2, 10, 60000, 100, 1000, 2, "");
+        noteWriteBehind.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        noteWriteBehind.close();
+    }
+
+    @Test
+    public void writesOfOneUserAreCoalescedIntoOneBatch() {
+
+        when(noteRepository.insertNotes(eq("Jhon123"), anyList())).thenReturn(true);
+        when(noteRepository.updateNotes(eq("Jhon123"), anyList())).thenReturn(Collections.singletonList(2));
+
+        Assert.assertTrue(noteWriteBehind.create("Jhon123", newNote(1, "draft"), NoteDurability.QUEUED));
+        Assert.assertTrue(noteWriteBehind.update("Jhon123", newNote(1, "final"), NoteDurability.QUEUED));
+        Assert.assertTrue(noteWriteBehind.update("Jhon123", newNote(2, "edited"), NoteDurability.QUEUED));
+        Assert.assertFalse(noteWriteBehind.create("Jhon123", newNote(1, "again"), NoteDurability.QUEUED));
+
+        noteWriteBehind.flush();
+
+        ArgumentCaptor<List<Note>> created = captor();
+        verify(noteRepository, times(1)).insertNotes(eq("Jhon123"), created.capture());
+        Assert.assertEquals(1, created.getValue().size());
+        Assert.assertEquals("final", created.getValue().get(0).getNoteContent());
+
+        ArgumentCaptor<List<Note>> updated = captor();
+        verify(noteRepository, times(1)).updateNotes(eq("Jhon123"), updated.capture());
+        Assert.assertEquals(2, updated.getValue().get(0).getNoteId());
+        verify(noteSearchService, times(2)).indexNote(eq("Jhon123"), any());
+    }
+
+    @Test
+    public void fullQueueRejectsNewNotes() {
+
+        when(noteRepository.insertNotes(eq("Jhon123"), anyList())).thenReturn(true);
+
+        noteWriteBehind.create("Jhon123", newNote(1, "one"), NoteDurability.QUEUED);
+        noteWriteBehind.create("Jhon123", newNote(2, "two"), NoteDurability.QUEUED);
+
+        // a note which is queued already takes no room
+        Assert.assertTrue(noteWriteBehind.update("Jhon123", newNote(2, "two again"), NoteDurability.QUEUED));
+
+        try
+        {
+            noteWriteBehind.create("Jhon123", newNote(3, "three"), NoteDurability.QUEUED);
+            Assert.fail("Expected NoteWriteQueueFullException");
+        }
+        catch (NoteWriteQueueFullException exception)
+        {
+            // expected
+        }
+
+        noteWriteBehind.flush();
+
+        Assert.assertTrue(noteWriteBehind.create("Jhon123", newNote(3, "three"), NoteDurability.QUEUED));
+    }
+
+    @Test
+    public void acknowledgedWriteWaitsForItsBatch() throws Exception {
+
+        when(noteRepository.updateNotes(eq("Jhon123"), anyList())).thenAnswer(invocation -> {
+            List<Note> notes = invocation.getArgument(1);
+            notes.forEach(note -> note.setChangeSeq(7L));
+            return Arrays.asList(1);
+        });
+
+        AtomicBoolean answered = new AtomicBoolean();
+        Thread flusher = new Thread(() -> {
+            while (!answered.get())
+            {
+                noteWriteBehind.flush();
+                LockSupport.parkNanos(5000000);
+            }
+        });
+        flusher.start();
+
+        Note note = newNote(1, "saved");
+        try
+        {
+            Assert.assertTrue(noteWriteBehind.update("Jhon123", note, NoteDurability.ACKNOWLEDGED));
+        }
+        finally
+        {
+            answered.set(true);
+            flusher.join();
+        }
+        Assert.assertEquals(Long.valueOf(7L), note.getChangeSeq());
+    }
+
+    @Test
+    public void failingWriteIsDroppedAfterMaxAttempts() {
+
+        when(noteRepository.updateNotes(eq("Jhon123"), anyList())).thenThrow(new RuntimeException("mongo down"));
+
+        noteWriteBehind.update("Jhon123", newNote(1, "one"), NoteDurability.QUEUED);
+        noteWriteBehind.update("Jhon123", newNote(2, "two"), NoteDurability.QUEUED);
+
+        noteWriteBehind.flush();
+        noteWriteBehind.flush();
+        noteWriteBehind.flush();
+        verify(noteRepository, times(2)).updateNotes(eq("Jhon123"), anyList());
+
+        // the dropped writes left the queue
+        Assert.assertTrue(noteWriteBehind.create("Jhon123", newNote(3, "three"), NoteDurability.QUEUED));
+        Assert.assertTrue(noteWriteBehind.create("Jhon123", newNote(4, "four"), NoteDurability.QUEUED));
+    }
+
+    @Test
+    public void durabilityDefaultsToConfiguredLevel() {
+
+        Assert.assertEquals(NoteDurability.QUEUED, noteWriteBehind.resolve(null));
+        // there is no journal, a journaled write waits for Mongo instead
+        Assert.assertEquals(NoteDurability.ACKNOWLEDGED, noteWriteBehind.resolve(NoteDurability.JOURNALED));
+    }
+
+    private static Note newNote(int noteId, String content) {
+        Note note = new Note();
+        note.setNoteId(noteId);
+        note.setNoteTitle("note " + noteId);
+        note.setNoteContent(content);
+        note.setNoteCreatedBy("Jhon123");
+        return note;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<List<Note>> captor() {
+        return ArgumentCaptor.forClass((Class) List.class);
+    }
+}
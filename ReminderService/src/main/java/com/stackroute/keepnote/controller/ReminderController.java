@@ -13,6 +13,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
@@ -217,4 +218,18 @@ public class ReminderController
 			return new ResponseEntity<Reminder>(reminder, HttpStatus.NOT_FOUND);
 		}
 	}
+
+	/*
+	 * Define a handler method which will get us the reminders with the given ids in
+	 * one call. Ids which are not found are left out of the list.
+	 *
+	 * This handler method should return 200(OK) with the reminders found.
+	 *
+	 * This handler method should map to the URL "/api/v1/reminder?ids={id},{id}" using HTTP GET method
+	 */
+	@RequestMapping(value = "/api/v1/reminder", method = RequestMethod.GET, params = "ids")
+	public ResponseEntity<List<Reminder>> getRemindersByIds(@RequestParam("ids") final List<String> ids)
+	{
+		return new ResponseEntity<List<Reminder>>(reminderService.getRemindersByIds(ids), HttpStatus.OK);
+	}
 }
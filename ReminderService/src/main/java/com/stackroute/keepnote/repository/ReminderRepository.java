@@ -1,6 +1,10 @@
 package com.stackroute.keepnote.repository;
 
+import java.util.List;
+import java.util.Optional;
+
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
 import com.stackroute.keepnote.model.Reminder;
 
@@ -11,4 +15,16 @@ import com.stackroute.keepnote.model.Reminder;
 
 public interface ReminderRepository extends MongoRepository<Reminder, String> {
 
+	/*
+	 * The finders below leave out reminders deleted but not yet relayed by
+	 * ReminderOutbox.
+	 */
+	@Query("{ '_id': ?0, 'outbox.deleted': { $ne: true } }")
+	Optional<Reminder> findExistingById(String reminderId);
+
+	@Query("{ 'outbox.deleted': { $ne: true } }")
+	List<Reminder> findAllExisting();
+
+	@Query("{ '_id': { $in: ?0 }, 'outbox.deleted': { $ne: true } }")
+	List<Reminder> findAllExistingById(List<String> reminderIds);
 }
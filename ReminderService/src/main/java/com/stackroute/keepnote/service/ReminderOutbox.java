@@ -0,0 +1,186 @@
+package com.stackroute.keepnote.service;
+
+import com.stackroute.keepnote.model.Reminder;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+
+/*
+ * Outbox of reminder changes for NoteService, whose outbox worker copies them into the
+ * notes holding the reminder. An update or delete records the change in the reminder
+ * document itself, with the same update: outbox.seq is incremented and outbox.pending
+ * set, a deleted reminder is only marked outbox.deleted. So a crash after the write
+ * delays the change but never loses it.
+ *
+ * The pending change is then relayed into the "noteOutbox" collection shared with
+ * NoteService, as one entry per reminder in the layout of NoteService's
+ * NoteOutboxEntry. The entry only ever moves to a higher seq, so a late relay never
+ * overwrites a newer change. Reminders still pending are relayed again every
+ * keepnote.reminder.outbox.relay-interval-ms, a deleted reminder is removed once its
+ * delete is relayed.
+ */
+@Component
+public class ReminderOutbox {
+
+	static final String COLLECTION = "noteOutbox";
+
+	protected final Logger LOG = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private MongoOperations mongoOperations;
+
+	public ReminderOutbox(MongoOperations mongoOperations) {
+		this.mongoOperations = mongoOperations;
+	}
+
+	/*
+	 * Updates the name, description and type of the reminder and records the change.
+	 * Returns the updated reminder, null if it does not exist.
+	 */
+	public Reminder update(final Reminder reminder)
+	{
+		Update update = pending(new Update()
+				.set("reminderName", reminder.getReminderName())
+				.set("reminderDescription", reminder.getReminderDescription())
+				.set("reminderType", reminder.getReminderType()));
+
+		Reminder updated = mongoOperations.findAndModify(existing(reminder.getReminderId()), update,
+				FindAndModifyOptions.options().returnNew(true), Reminder.class);
+
+		if (updated != null)
+		{
+			relay(reminder.getReminderId());
+		}
+		return updated;
+	}
+
+	/*
+	 * Marks the reminder deleted and records the change. Returns false if it does not
+	 * exist.
+	 */
+	public boolean delete(final String reminderId)
+	{
+		Update update = pending(new Update().set("outbox.deleted", true));
+
+		if (mongoOperations.updateFirst(existing(reminderId), update, Reminder.class).getModifiedCount() == 0)
+		{
+			return false;
+		}
+		relay(reminderId);
+		return true;
+	}
+
+	/*
+	 * Relays the changes left pending by a failed relay or a crash, returns the number
+	 * relayed.
+	 */
+	@Scheduled(fixedDelayString = "${keepnote.reminder.outbox.relay-interval-ms:5000}")
+	public int relayPending()
+	{
+		Query query = Query.query(Criteria.where("outbox.pending").is(true));
+		query.fields().include("_id");
+
+		int relayed = 0;
+		for (Document reminder : mongoOperations.find(query, Document.class, mongoOperations.getCollectionName(Reminder.class)))
+		{
+			if (relay(reminder.get("_id").toString()))
+			{
+				relayed++;
+			}
+		}
+		return relayed;
+	}
+
+	/*
+	 * Copies the pending change of the reminder into its outbox entry and clears it
+	 * from the reminder, unless the reminder changed again meanwhile. Returns false if
+	 * nothing was pending or the relay failed, which is left to relayPending.
+	 */
+	boolean relay(final String reminderId)
+	{
+		String collectionName = mongoOperations.getCollectionName(Reminder.class);
+
+		try
+		{
+			Document reminder = mongoOperations.findById(reminderId, Document.class, collectionName);
+			Document outbox = reminder != null ? reminder.get("outbox", Document.class) : null;
+
+			if (outbox == null || !Boolean.TRUE.equals(outbox.get("pending")))
+			{
+				return false;
+			}
+
+			long seq = ((Number) outbox.get("seq")).longValue();
+			boolean deleted = Boolean.TRUE.equals(outbox.get("deleted"));
+
+			Update entry = new Update()
+					.set("type", deleted ? "REMINDER_DELETED" : "REMINDER_UPDATED")
+					.set("entityId", reminderId)
+					.set("seq", seq)
+					.set("createdDate", new Date())
+					.set("attempts", 0)
+					.unset("appliedDate").unset("failedDate").unset("nextAttemptDate").unset("lastError");
+
+			if (deleted)
+			{
+				entry.unset("reminder");
+			}
+			else
+			{
+				entry.set("reminder", new Document("reminderId", reminderId)
+						.append("reminderName", reminder.get("reminderName"))
+						.append("reminderDescription", reminder.get("reminderDescription"))
+						.append("reminderType", reminder.get("reminderType"))
+						.append("reminderCreatedBy", reminder.get("reminderCreatedBy"))
+						.append("reminderCreationDate", reminder.get("reminderCreationDate")));
+			}
+
+			try
+			{
+				mongoOperations.upsert(Query.query(Criteria.where("_id").is("REMINDER:" + reminderId).and("seq").lt(seq)),
+						entry, COLLECTION);
+			}
+			catch (DuplicateKeyException exception)
+			{
+				// the entry holds this or a later change already
+			}
+
+			Query relayed = Query.query(Criteria.where("_id").is(reminderId).and("outbox.seq").is(seq));
+			if (deleted)
+			{
+				mongoOperations.remove(relayed, collectionName);
+			}
+			else
+			{
+				mongoOperations.updateFirst(relayed, new Update().unset("outbox.pending"), collectionName);
+			}
+			return true;
+		}
+		catch (RuntimeException exception)
+		{
+			LOG.warn("Change of reminder " + reminderId + " not relayed, left to the next run: " + exception.getMessage());
+			return false;
+		}
+	}
+
+	private static Query existing(final String reminderId)
+	{
+		return Query.query(Criteria.where("_id").is(reminderId).and("outbox.deleted").ne(true));
+	}
+
+	private static Update pending(final Update update)
+	{
+		return update.inc("outbox.seq", 1).set("outbox.pending", true);
+	}
+}
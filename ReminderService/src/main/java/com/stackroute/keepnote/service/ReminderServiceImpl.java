@@ -9,8 +9,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.NoSuchElementException;
 import java.util.Optional;
 
 /*
@@ -34,6 +34,13 @@ public class ReminderServiceImpl implements ReminderService
 	@Autowired
 	private ReminderRepository reminderRepository;
 
+	/*
+	 * Writes updates and deletes together with the change recorded for NoteService,
+	 * which updates the copies of the reminder embedded in notes.
+	 */
+	@Autowired
+	private ReminderOutbox reminderOutbox;
+
 	/*
      * This method should be used to save a new reminder.Call the corresponding
      * method of Respository interface.
@@ -56,16 +63,10 @@ public class ReminderServiceImpl implements ReminderService
      */
 	public boolean deleteReminder(final String reminderId) throws ReminderNotFoundException {
 
-		boolean reminderDeleted = true;
-		Reminder reminder = new Reminder();
-		reminder.setReminderId(reminderId);
+		boolean reminderDeleted = reminderOutbox.delete(reminderId);
 
-		try {
-			reminderRepository.delete(reminder);
-		}
-		catch (NoSuchElementException e)
+		if (!reminderDeleted)
 		{
-			reminderDeleted = false;
 			LOG.info("Requested reminder not deleted " + reminderId);
 		}
 
@@ -78,13 +79,15 @@ public class ReminderServiceImpl implements ReminderService
      */
 	public Reminder updateReminder(final Reminder reminder, final String reminderId) throws ReminderNotFoundException {
 
-		Optional<Reminder> options = reminderRepository.findById(reminderId);
-
-		reminderRepository.insert(options.get());
+		reminder.setReminderId(reminderId);
 
-		Optional<Reminder> reminderOptional = reminderRepository.findById(reminderId);
+		Reminder updated = reminderOutbox.update(reminder);
 
-		return reminderOptional.get();
+		if (updated == null)
+		{
+			throw new ReminderNotFoundException("Reminder Not found " + reminderId);
+		}
+		return updated;
 
 	}
 
@@ -94,7 +97,7 @@ public class ReminderServiceImpl implements ReminderService
      */
 	public Reminder getReminderById(final String reminderId) throws ReminderNotFoundException {
 
-		Optional<Reminder> reminders = reminderRepository.findById(reminderId);
+		Optional<Reminder> reminders = reminderRepository.findExistingById(reminderId);
 
 		return reminders.get();
 	}
@@ -106,7 +109,21 @@ public class ReminderServiceImpl implements ReminderService
 
 	public List<Reminder> getAllReminders() {
 
-		return reminderRepository.findAll();
+		return reminderRepository.findAllExisting();
+	}
+
+	/*
+	 * This method should be used to get the reminders with the given ids with a
+	 * single query, for NoteService resolving the reminders referenced by notes. Ids
+	 * which do not exist are left out.
+	 */
+	public List<Reminder> getRemindersByIds(final List<String> reminderIds) {
+
+		List<Reminder> reminders = new ArrayList<>();
+
+		reminders.addAll(reminderRepository.findAllExistingById(reminderIds));
+
+		return reminders;
 	}
 
 }
@@ -11,12 +11,14 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.stackroute.keepnote.exception.ReminderNotCreatedException;
 import com.stackroute.keepnote.exception.ReminderNotFoundException;
 import com.stackroute.keepnote.model.Reminder;
 import com.stackroute.keepnote.repository.ReminderRepository;
+import com.stackroute.keepnote.service.ReminderOutbox;
 import com.stackroute.keepnote.service.ReminderServiceImpl;
 
 import junit.framework.Assert;
@@ -26,6 +28,9 @@ public class ReminderServiceImplTest {
     @Mock
     ReminderRepository reminderRepository;
 
+    @Mock
+    ReminderOutbox reminderOutbox;
+
     Reminder reminder;
 
     @InjectMocks
@@ -74,9 +79,10 @@ public class ReminderServiceImplTest {
     public void deleteReminderSuccess() throws ReminderNotFoundException
     {
 
-        when(reminderRepository.findById(reminder.getReminderId())).thenReturn(options);
+        when(reminderOutbox.delete(reminder.getReminderId())).thenReturn(true);
         boolean flag = reminderService.deleteReminder(reminder.getReminderId());
         Assert.assertEquals(true, flag);
+        verify(reminderOutbox).delete(reminder.getReminderId());
 
     }
 
@@ -84,17 +90,25 @@ public class ReminderServiceImplTest {
     public void updateReminder() throws ReminderNotFoundException
     {
 
-        when(reminderRepository.findById(reminder.getReminderId())).thenReturn(options);
+        when(reminderOutbox.update(reminder)).thenReturn(reminder);
         reminder.setReminderDescription("Send message at 6:00Pm");
         Reminder fetchedreminder = reminderService.updateReminder(reminder, reminder.getReminderId());
         Assert.assertEquals(reminder, fetchedreminder);
+        verify(reminderOutbox).update(reminder);
 
     }
 
+    @Test(expected = ReminderNotFoundException.class)
+    public void updateReminderNotFound() throws ReminderNotFoundException
+    {
+        when(reminderOutbox.update(reminder)).thenReturn(null);
+        reminderService.updateReminder(reminder, reminder.getReminderId());
+    }
+
     @Test
     public void getReminderByIdSuccess() throws ReminderNotFoundException
     {
-        when(reminderRepository.findById(reminder.getReminderId())).thenReturn(options);
+        when(reminderRepository.findExistingById(reminder.getReminderId())).thenReturn(options);
         Reminder fetchedReminder = reminderService.getReminderById(reminder.getReminderId());
         Assert.assertEquals(reminder,fetchedReminder );
 
@@ -104,7 +118,7 @@ public class ReminderServiceImplTest {
     @Test
     public void getAllReminders()
     {
-        when(reminderRepository.findAll()).thenReturn(reminderList);
+        when(reminderRepository.findAllExisting()).thenReturn(reminderList);
         List<Reminder> reminderListdata = reminderService.getAllReminders();
         Assert.assertEquals(reminderList, reminderListdata);
 